@@ -87,4 +87,15 @@ public class ApiGatewayApplication {
             .timeLimiterConfig(TimeLimiterConfig.custom().timeoutDuration(Duration.ofSeconds(10)).build())
             .build());
     }
+
+    /**
+     * The time limit of the streamed chat answers applies to the whole stream, not to its first event
+     */
+    @Bean
+    public Customizer<ReactiveResilience4JCircuitBreakerFactory> genaiStreamCustomizer() {
+        return factory -> factory.configure(builder -> builder
+            .circuitBreakerConfig(CircuitBreakerConfig.ofDefaults())
+            .timeLimiterConfig(TimeLimiterConfig.custom().timeoutDuration(Duration.ofMinutes(5)).build()),
+            "genaiStreamCircuitBreaker");
+    }
 }
@@ -39,10 +39,13 @@ public class VisitsServiceClient {
         this.webClientBuilder = webClientBuilder;
     }
 
+    /**
+     * Visits are fetched as summaries: their description is cut by the visits service and flagged as truncated.
+     */
     public Mono<Visits> getVisitsForPets(final List<Integer> petIds) {
         return webClientBuilder.build()
             .get()
-            .uri(hostname + "pets/visits?petId={petId}", joinIds(petIds))
+            .uri(hostname + "pets/visits?petId={petId}&summary=true", joinIds(petIds))
             .retrieve()
             .bodyToMono(Visits.class);
     }
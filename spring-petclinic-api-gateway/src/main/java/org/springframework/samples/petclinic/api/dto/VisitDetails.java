@@ -22,5 +22,6 @@ public record VisitDetails (
     Integer id,
     Integer petId,
     String date,
-    String description) {
+    String description,
+    Boolean truncated) {
 }
@@ -26,6 +26,20 @@ function toggleChatbox() {
     }
 }
 
+// Minimum delay between two Markdown renderings of a streamed answer
+const RENDER_INTERVAL_MS = 100;
+
+// Identifies this browser's conversation, so that the assistant remembers its previous messages
+function conversationId() {
+    let id = localStorage.getItem('chatConversationId');
+    if (!id) {
+        id = crypto.randomUUID ? crypto.randomUUID()
+            : Date.now().toString(36) + '-' + Math.random().toString(36).substring(2);
+        localStorage.setItem('chatConversationId', id);
+    }
+    return id;
+}
+
 function sendMessage() {
     const query = document.getElementById('chatbox-input').value;
 
@@ -38,26 +52,103 @@ function sendMessage() {
     // Display user message in the chatbox
     appendMessage(query, 'user');
 
-    // Send the message to the backend
-    fetch('/api/genai/chatclient', {
+    // Stream the answer from the backend into a single bot bubble
+    const answer = createStreamedMessage('bot');
+    fetch('/api/genai/chatclient/stream', {
         method: 'POST',
         headers: {
             'Content-Type': 'application/json',
+            'Accept': 'text/event-stream',
+            'X-Conversation-Id': conversationId(),
         },
         body: JSON.stringify(query),
     })
-        .then(response => response.text())
-        .then(responseText => {
-            // Display the response from the server in the chatbox
-            appendMessage(responseText, 'bot');
+        .then(response => {
+            if (!response.ok || !response.body) {
+                throw new Error('Unexpected response status ' + response.status);
+            }
+            return readEvents(response.body, (event, data) => {
+                if (event === 'error') {
+                    throw new Error(data);
+                }
+                answer.append(data);
+            });
         })
+        .then(() => answer.done())
         .catch(error => {
             console.error('Error:', error);
             // Display the fallback message in the chatbox
-            appendMessage('Chat is currently unavailable', 'bot');
+            answer.fail('Chat is currently unavailable');
         });
 }
 
+// Bot bubble whose Markdown is re-parsed at most every RENDER_INTERVAL_MS while its text grows
+function createStreamedMessage(type) {
+    const chatMessages = document.getElementById('chatbox-messages');
+    const messageElement = document.createElement('div');
+    messageElement.classList.add('chat-bubble', type);
+    chatMessages.appendChild(messageElement);
+
+    let text = '';
+    let lastRender = 0;
+    let pendingRender = null;
+
+    function render() {
+        pendingRender = null;
+        lastRender = Date.now();
+        messageElement.innerHTML = marked.parse(text);
+        chatMessages.scrollTop = chatMessages.scrollHeight;
+    }
+
+    return {
+        append(part) {
+            text += part;
+            if (pendingRender === null) {
+                pendingRender = setTimeout(render, Math.max(0, lastRender + RENDER_INTERVAL_MS - Date.now()));
+            }
+        },
+        done() {
+            clearTimeout(pendingRender);
+            render();
+        },
+        fail(message) {
+            clearTimeout(pendingRender);
+            text = text ? text + '\n\n' + message : message;
+            render();
+        },
+    };
+}
+
+// Reads a text/event-stream body, calling onEvent(eventName, data) for every event
+async function readEvents(body, onEvent) {
+    const reader = body.getReader();
+    const decoder = new TextDecoder();
+    let buffer = '';
+    for (;;) {
+        const {value, done} = await reader.read();
+        buffer += decoder.decode(value || new Uint8Array(), {stream: !done});
+        const events = buffer.replace(/\r\n?/g, '\n').split('\n\n');
+        buffer = done ? '' : events.pop();
+        for (const block of events) {
+            let event = 'message';
+            const data = [];
+            for (const line of block.split('\n')) {
+                if (line.startsWith('data:')) {
+                    data.push(line.substring(5));
+                } else if (line.startsWith('event:')) {
+                    event = line.substring(6).trim();
+                }
+            }
+            if (data.length > 0) {
+                onEvent(event, data.join('\n'));
+            }
+        }
+        if (done) {
+            return;
+        }
+    }
+}
+
 function handleKeyPress(event) {
     if (event.key === "Enter") {
         event.preventDefault(); // Prevents adding a newline
@@ -7,4 +7,12 @@ angular.module('ownerDetails')
         $http.get('api/gateway/owners/' + $stateParams.ownerId).then(function (resp) {
             self.owner = resp.data;
         });
+
+        // Visits come as summaries; the full description is only loaded on demand
+        self.showFullDescription = function (visit) {
+            $http.get('api/visit/visits/' + visit.id).then(function (resp) {
+                visit.description = resp.data.description;
+                visit.truncated = false;
+            });
+        };
     }]);
@@ -1,15 +1,37 @@
 package org.springframework.samples.petclinic.api;
 
+import java.util.Map;
+import java.util.stream.Collectors;
+
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.route.RouteLocator;
 import org.springframework.test.context.ActiveProfiles;
 
+import static org.assertj.core.api.Assertions.assertThat;
+
 @ActiveProfiles("test")
 @SpringBootTest
 class ApiGatewayApplicationTests {
 
+	@Autowired
+	RouteLocator routeLocator;
+
 	@Test
 	void contextLoads() {
 	}
 
+	@Test
+	void shouldNotRetryNorTimeLimitTheStreamedRequests() {
+		Map<String, String> filters = routeLocator.getRoutes()
+			.collect(Collectors.toMap(Route::getId, route -> route.getFilters().toString()))
+			.block();
+
+		assertThat(filters.get("genai-service-stream")).doesNotContain("Retry", "'defaultCircuitBreaker'")
+			.contains("'genaiStreamCircuitBreaker'");
+		assertThat(filters.get("genai-service")).contains("Retry", "'defaultCircuitBreaker'");
+	}
+
 }
@@ -36,12 +36,13 @@ class VisitsServiceClientIntegrationTest {
     }
 
     @Test
-    void getVisitsForPets_withAvailableVisitsService() {
+    void getVisitsForPets_withAvailableVisitsService() throws InterruptedException {
         prepareResponse();
 
         Mono<Visits> visits = visitsServiceClient.getVisitsForPets(Collections.singletonList(1));
 
         assertVisitDescriptionEquals(visits.block(), PET_ID,"test visit");
+        assertEquals("/pets/visits?petId=1&summary=true", server.takeRequest().getPath());
     }
 
 
@@ -18,6 +18,7 @@ package org.springframework.samples.petclinic.customers.model;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.Digits;
 import jakarta.validation.constraints.NotBlank;
+import org.hibernate.annotations.BatchSize;
 import org.springframework.beans.support.MutableSortDefinition;
 import org.springframework.beans.support.PropertyComparator;
 import org.springframework.core.style.ToStringCreator;
@@ -63,7 +64,9 @@ public class Owner {
     @Digits(fraction = 0, integer = 12)
     private String telephone;
 
+    // Loads the pets of a page of owners together
     @OneToMany(cascade = CascadeType.ALL, fetch = FetchType.EAGER, mappedBy = "owner")
+    @BatchSize(size = 100)
     private Set<Pet> pets;
 
     protected Set<Pet> getPetsInternal() {
@@ -15,7 +15,11 @@
  */
 package org.springframework.samples.petclinic.customers.model;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 /**
  * Repository class for <code>Owner</code> domain objects All method names are compliant with Spring Data naming
@@ -27,4 +31,18 @@ import org.springframework.data.jpa.repository.JpaRepository;
  * @author Michael Isvy
  * @author Maciej Szarlinski
  */
-public interface OwnerRepository extends JpaRepository<Owner, Integer> { }
+public interface OwnerRepository extends JpaRepository<Owner, Integer> {
+
+    /**
+     * Owners matching all the given <code>LIKE</code> patterns, escaped with a backslash: their full name and their
+     * city lower-cased, and their telephone.
+     */
+    @Query("""
+        SELECT owner FROM Owner owner
+        WHERE LOWER(CONCAT(owner.firstName, ' ', owner.lastName)) LIKE :name ESCAPE '\\'
+          AND LOWER(owner.city) LIKE :city ESCAPE '\\'
+          AND owner.telephone LIKE :telephone ESCAPE '\\'
+        """)
+    Page<Owner> search(@Param("name") String name, @Param("city") String city, @Param("telephone") String telephone,
+                       Pageable pageable);
+}
@@ -17,16 +17,21 @@ package org.springframework.samples.petclinic.customers.web;
 
 import io.micrometer.core.annotation.Timed;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpStatus;
 import org.springframework.samples.petclinic.customers.web.mapper.OwnerEntityMapper;
 import org.springframework.samples.petclinic.customers.model.Owner;
 import org.springframework.samples.petclinic.customers.model.OwnerRepository;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 
 /**
@@ -77,6 +82,36 @@ class OwnerResource {
         return ownerRepository.findAll();
     }
 
+    /**
+     * Search Owners by part of their name, city or telephone, one page at a time in name order
+     */
+    @GetMapping(value = "/search")
+    public OwnerSearchResult searchOwners(
+        @RequestParam(name = "name", required = false) String name,
+        @RequestParam(name = "city", required = false) String city,
+        @RequestParam(name = "telephone", required = false) String telephone,
+        @RequestParam(name = "page", defaultValue = "0") @Min(0) int page,
+        @RequestParam(name = "size", defaultValue = "20") @Min(1) @Max(100) int size) {
+
+        String telephoneDigits = telephone == null ? null : telephone.replaceAll("\\D", "");
+        if (telephone != null && !telephone.isBlank() && telephoneDigits.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "telephone must contain digits");
+        }
+        PageRequest pageRequest = PageRequest.of(page, size, Sort.by("lastName", "firstName", "id"));
+        return new OwnerSearchResult(ownerRepository.search(
+            containing(name == null ? null : name.toLowerCase(Locale.ROOT)),
+            containing(city == null ? null : city.toLowerCase(Locale.ROOT)),
+            containing(telephoneDigits),
+            pageRequest));
+    }
+
+    private static String containing(String text) {
+        if (text == null || text.isBlank()) {
+            return "%";
+        }
+        return '%' + text.trim().replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + '%';
+    }
+
     /**
      * Update Owner
      */
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.customers.web;
+
+import java.util.Date;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import org.springframework.data.domain.Page;
+import org.springframework.samples.petclinic.customers.model.Owner;
+import org.springframework.samples.petclinic.customers.model.Pet;
+
+/**
+ * Page of owners found by a search, with the total number of owners matching it.
+ */
+record OwnerSearchResult(List<OwnerSummary> owners, long total) {
+
+    OwnerSearchResult(Page<Owner> page) {
+        this(page.map(OwnerSummary::new).getContent(), page.getTotalElements());
+    }
+
+    record OwnerSummary(int id, String firstName, String lastName, String address, String city, String telephone,
+                        List<PetSummary> pets) {
+
+        OwnerSummary(Owner owner) {
+            this(owner.getId(), owner.getFirstName(), owner.getLastName(), owner.getAddress(), owner.getCity(),
+                owner.getTelephone(), owner.getPets().stream().map(PetSummary::new).toList());
+        }
+    }
+
+    record PetSummary(int id, String name, @JsonFormat(pattern = "yyyy-MM-dd") Date birthDate, String type) {
+
+        PetSummary(Pet pet) {
+            this(pet.getId(), pet.getName(), pet.getBirthDate(), pet.getType() == null ? null : pet.getType().getName());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.springframework.samples.petclinic.customers.web;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class OwnerResourceTest {
+
+    @Autowired
+    MockMvc mvc;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Test
+    void shouldSearchOwnersOnePageAtATime() throws Exception {
+        mvc.perform(get("/owners/search").param("city", "MADISON").param("size", "2").param("page", "1")
+                .accept(MediaType.APPLICATION_JSON))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.total").value(4))
+            .andExpect(jsonPath("$.owners[*].lastName", contains("McTavish", "Schroeder")));
+
+        mvc.perform(get("/owners/search").param("name", "davis"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.total").value(2))
+            .andExpect(jsonPath("$.owners[*].firstName", contains("Betty", "Harold")));
+    }
+
+    @Test
+    void shouldMatchFullNamesAndTelephoneDigits() throws Exception {
+        mvc.perform(get("/owners/search").param("name", "George Franklin").param("telephone", "608-555-1023"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.total").value(1))
+            .andExpect(jsonPath("$.owners[0].id").value(1))
+            .andExpect(jsonPath("$.owners[0].pets[0].name").value("Leo"))
+            .andExpect(jsonPath("$.owners[0].pets[0].type").value("cat"));
+
+        mvc.perform(get("/owners/search").param("name", "%"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.total").value(0));
+    }
+
+    @Test
+    void shouldLoadThePetsOfAPageOfOwnersTogether() throws Exception {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        mvc.perform(get("/owners/search").param("size", "100"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.total").value(10))
+            .andExpect(jsonPath("$.owners[*].pets[*].type", hasSize(13)))
+            .andExpect(jsonPath("$.owners[*].pets[*].type", everyItem(notNullValue())));
+
+        // The page of owners, then their pets with their types
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldRejectPagesTooLarge() throws Exception {
+        mvc.perform(get("/owners/search").param("size", "1000"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldRejectTelephonesWithoutDigits() throws Exception {
+        mvc.perform(get("/owners/search").param("telephone", "call me"))
+            .andExpect(status().isBadRequest());
+
+        mvc.perform(get("/owners/search").param("telephone", " "))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.total").value(10));
+    }
+}
@@ -1,11 +1,28 @@
 package org.springframework.samples.petclinic.genai;
 
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.timelimiter.TimeLimiterConfig;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
 import org.springframework.ai.embedding.EmbeddingModel;
-import org.springframework.ai.vectorstore.SimpleVectorStore;
-import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.model.tool.DefaultToolCallingManager;
+import org.springframework.ai.tool.execution.ToolExecutionExceptionProcessor;
+import org.springframework.ai.tool.resolution.ToolCallbackResolver;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.http.client.ClientHttpRequestFactoryBuilder;
+import org.springframework.boot.http.client.HttpClientSettings;
+import org.springframework.boot.restclient.autoconfigure.RestClientBuilderConfigurer;
+import org.springframework.boot.webclient.WebClientCustomizer;
+import org.springframework.cloud.circuitbreaker.resilience4j.Resilience4JCircuitBreakerFactory;
+import org.springframework.cloud.client.circuitbreaker.Customizer;
+import org.springframework.samples.petclinic.genai.vectorstore.HnswVectorStore;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Scope;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClient;
 import org.springframework.web.reactive.function.client.WebClient;
 
 /**
@@ -17,13 +34,103 @@ import org.springframework.web.reactive.function.client.WebClient;
 public class AIBeanConfiguration {
 
 	@Bean
-	VectorStore vectorStore(EmbeddingModel embeddingModel) {
-		return SimpleVectorStore.builder(embeddingModel).build();
+	HnswVectorStore vectorStore(EmbeddingModel embeddingModel, QueryEmbeddingCache queryEmbeddingCache,
+			GenAIProperties properties) {
+		GenAIProperties.VectorStore vectorStore = properties.vectorStore();
+		return HnswVectorStore.builder(queryEmbeddingCache.cachedQueries(embeddingModel))
+			.m(vectorStore.m())
+			.efConstruction(vectorStore.efConstruction())
+			.efSearch(vectorStore.efSearch())
+			.snapshotEncoding(vectorStore.snapshotEncoding())
+			.quantization(vectorStore.quantization())
+			.build();
 	}
 
+    /**
+     * Replaces the tool calling manager of the chat models, to run the read-only tools in parallel and reuse their
+     * results within the conversation turn.
+     */
+    @Bean
+    ParallelToolCallingManager toolCallingManager(ObjectProvider<ObservationRegistry> observationRegistry,
+                                                  ToolCallbackResolver toolCallbackResolver,
+                                                  ToolExecutionExceptionProcessor toolExecutionExceptionProcessor,
+                                                  GenAIProperties properties, MeterRegistry meterRegistry) {
+        DefaultToolCallingManager delegate = DefaultToolCallingManager.builder()
+            .observationRegistry(observationRegistry.getIfUnique(() -> ObservationRegistry.NOOP))
+            .toolCallbackResolver(toolCallbackResolver)
+            .toolExecutionExceptionProcessor(toolExecutionExceptionProcessor)
+            .build();
+        return new ParallelToolCallingManager(delegate, ParallelToolCallingManager.readOnlyTools(PetclinicTools.class),
+            properties, meterRegistry);
+    }
+
     @Bean
     @LoadBalanced
     public WebClient.Builder loadBalancedWebClientBuilder() {
         return WebClient.builder();
     }
+
+    /**
+     * Pooled client of the other petclinic services, with timeouts and the <code>http.client.requests</code> metrics.
+     */
+    @Bean
+    @LoadBalanced
+    public RestClient.Builder loadBalancedRestClientBuilder(RestClientBuilderConfigurer configurer,
+                                                            GenAIProperties properties) {
+        GenAIProperties.ServiceClient serviceClient = properties.serviceClient();
+        return configurer.configure(RestClient.builder())
+            .requestFactory(ClientHttpRequestFactoryBuilder.httpComponents()
+                .withConnectionManagerCustomizer(pool -> pool
+                    .setMaxConnTotal(serviceClient.maxConnections())
+                    .setMaxConnPerRoute(serviceClient.maxConnections()))
+                .build(HttpClientSettings.defaults()
+                    .withTimeouts(serviceClient.connectTimeout(), serviceClient.readTimeout())));
+    }
+
+    /**
+     * Builders injected without the {@link LoadBalanced} qualifier, such as the ones of the AI model clients, which
+     * call hosts unknown to the service registry.
+     */
+    @Bean
+    @Primary
+    @Scope("prototype")
+    public RestClient.Builder restClientBuilder(RestClientBuilderConfigurer configurer) {
+        return configurer.configure(RestClient.builder());
+    }
+
+    @Bean
+    @Primary
+    @Scope("prototype")
+    public WebClient.Builder webClientBuilder(ObjectProvider<WebClientCustomizer> customizers) {
+        WebClient.Builder builder = WebClient.builder();
+        customizers.orderedStream().forEach(customizer -> customizer.customize(builder));
+        return builder;
+    }
+
+    /**
+     * Calls to customers-service fail on the HTTP timeouts rather than on the time limiter, and client errors do not
+     * open the circuit, whether or not wrapped by the time limiter. The time limiter of the writes is disabled in
+     * <code>application.yml</code>.
+     */
+    @Bean
+    public Customizer<Resilience4JCircuitBreakerFactory> customersServiceCircuitBreaker(GenAIProperties properties) {
+        GenAIProperties.ServiceClient serviceClient = properties.serviceClient();
+        return factory -> factory.configure(builder -> builder
+                .circuitBreakerConfig(CircuitBreakerConfig.custom()
+                    .ignoreException(AIBeanConfiguration::isClientError)
+                    .build())
+                .timeLimiterConfig(TimeLimiterConfig.custom()
+                    .timeoutDuration(serviceClient.connectTimeout().plus(serviceClient.readTimeout()).multipliedBy(2))
+                    .build()),
+            AIDataProvider.CUSTOMERS_SERVICE, AIDataProvider.CUSTOMERS_SERVICE_WRITES);
+    }
+
+    private static boolean isClientError(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HttpClientErrorException) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -1,93 +1,152 @@
 package org.springframework.samples.petclinic.genai;
 
-import java.net.URI;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
-import org.jetbrains.annotations.NotNull;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.ai.vectorstore.VectorStore;
-import org.springframework.cloud.client.discovery.DiscoveryClient;
-import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.cloud.client.circuitbreaker.CircuitBreaker;
+import org.springframework.cloud.client.circuitbreaker.CircuitBreakerFactory;
+import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.samples.petclinic.genai.dto.OwnerDetails;
+import org.springframework.samples.petclinic.genai.dto.OwnerSearchResult;
 import org.springframework.samples.petclinic.genai.dto.PetDetails;
 import org.springframework.samples.petclinic.genai.dto.PetRequest;
+import org.springframework.samples.petclinic.genai.dto.Specialty;
 import org.springframework.samples.petclinic.genai.dto.Vet;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestClient;
 import tools.jackson.core.JacksonException;
+import tools.jackson.databind.MapperFeature;
 import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.SerializationFeature;
+import tools.jackson.databind.json.JsonMapper;
 
 /**
  * Functions that are invoked by the LLM will use this bean to query the system of record
  * for information such as listing owners and vets, or adding pets to an owner.
+ * <p>
+ * customers-service is called through the load-balanced client, behind the <code>customers-service</code> circuit
+ * breaker for the searches and the <code>customers-service-writes</code> one, without time limit, for the additions.
  *
  * @author Oded Shopen
  */
 @Service
 public class AIDataProvider {
 
-	private final VectorStore vectorStore;
+    static final String CUSTOMERS_SERVICE = "customers-service";
+
+    /**
+     * Circuit breaker of the calls changing data. They are not time limited: a call given up while still running may
+     * complete anyway, and be repeated by the LLM told it failed.
+     */
+    static final String CUSTOMERS_SERVICE_WRITES = CUSTOMERS_SERVICE + "-writes";
+
+    /**
+     * Writes the same JSON for equal requests, so that their embeddings are cached under the same text: properties
+     * and map entries sorted, null properties left out.
+     */
+    private static final ObjectMapper CANONICAL_JSON = JsonMapper.builder()
+        .enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+        .disable(MapperFeature.SORT_CREATOR_PROPERTIES_FIRST)
+        .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+        .changeDefaultPropertyInclusion(inclusion -> inclusion.withValueInclusion(JsonInclude.Include.NON_NULL))
+        .build();
+
+	private final HybridVetSearch vetSearch;
+
+    private final int vetSearchTopK;
 
     private final RestClient restClient;
 
-    private final DiscoveryClient discoveryClient;
+    private final CircuitBreaker circuitBreaker;
 
-	public AIDataProvider(VectorStore vectorStore, DiscoveryClient discoveryClient) {
-        this.restClient = RestClient.builder().build();
-        this.vectorStore = vectorStore;
-        this.discoveryClient = discoveryClient;
+    private final CircuitBreaker writesCircuitBreaker;
+
+	AIDataProvider(HybridVetSearch vetSearch, @LoadBalanced RestClient.Builder restClientBuilder,
+                   CircuitBreakerFactory<?, ?> circuitBreakerFactory, GenAIProperties properties) {
+        this.restClient = restClientBuilder.baseUrl("http://" + CUSTOMERS_SERVICE).build();
+        this.vetSearch = vetSearch;
+        this.vetSearchTopK = properties.vetSearch().topK();
+        this.circuitBreaker = circuitBreakerFactory.create(CUSTOMERS_SERVICE);
+        this.writesCircuitBreaker = circuitBreakerFactory.create(CUSTOMERS_SERVICE_WRITES);
     }
 
-	public List<OwnerDetails> getAllOwners() {
-        return restClient
+	public OwnerSearchResult searchOwners(String name, String city, String telephone, int page, int size) {
+        // Missing filters are sent empty, which customers-service ignores
+        return customersService(circuitBreaker, () -> restClient
             .get()
-            .uri(getCustomerServiceUri() + "/owners")
+            .uri("/owners/search?name={name}&city={city}&telephone={telephone}&page={page}&size={size}",
+                name, city, telephone, page, size)
             .retrieve()
-            .body(new ParameterizedTypeReference<>() {
-            });
+            .body(OwnerSearchResult.class));
 	}
 
     public List<String> getVets(Vet vetRequest) throws JacksonException {
-		ObjectMapper objectMapper = new ObjectMapper();
-		String vetAsJson = objectMapper.writeValueAsString(vetRequest);
+		String vetAsJson = CANONICAL_JSON.writeValueAsString(canonical(vetRequest));
 
-        int topK = 20;
+        int topK = vetSearchTopK;
         if (vetRequest == null) {
             // Provide a limit of 50 results when zero parameters are sent
-            topK = 50;
+            topK = Math.max(topK, 50);
         }
-        SearchRequest sr = SearchRequest.builder()
-            .query(vetAsJson)
-            .topK(topK)
-            .build();
-
 
-		List<Document> topMatches = this.vectorStore.similaritySearch(sr);
+		List<Document> topMatches = this.vetSearch.search(vetRequest, vetAsJson, topK);
 		return topMatches.stream().map(Document::getFormattedContent).toList();
 	}
 
 	public PetDetails addPetToOwner(int ownerId, PetRequest petRequest) {
-        return restClient
+        return customersService(writesCircuitBreaker, () -> restClient
             .post()
-            .uri(getCustomerServiceUri()  + "/owners/" + ownerId + "/pets")
+            .uri("/owners/{ownerId}/pets", ownerId)
             .body(petRequest)
             .retrieve()
-            .body(PetDetails.class);
+            .body(PetDetails.class));
 	}
 
 	public OwnerDetails addOwnerToPetclinic(OwnerRequest ownerRequest) {
-       return restClient
+        return customersService(writesCircuitBreaker, () -> restClient
             .post()
-            .uri(getCustomerServiceUri() + "/owners")
+            .uri("/owners")
             .body(ownerRequest)
             .retrieve()
-            .body(OwnerDetails.class);
+            .body(OwnerDetails.class));
 	}
 
-    @NotNull
-    private URI getCustomerServiceUri() {
-        return discoveryClient.getInstances("customers-service").get(0).getUri();
+    /**
+     * @return the request with its specialties in a stable order
+     */
+    private static Vet canonical(Vet vetRequest) {
+        if (vetRequest == null || vetRequest.specialties() == null) {
+            return vetRequest;
+        }
+        Set<Specialty> specialties = vetRequest.specialties().stream()
+            .sorted(Comparator.comparing(Specialty::id, Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparing(Specialty::name, Comparator.nullsFirst(Comparator.naturalOrder())))
+            .collect(Collectors.toCollection(LinkedHashSet::new));
+        return new Vet(vetRequest.id(), vetRequest.firstName(), vetRequest.lastName(), specialties);
+    }
+
+    /**
+     * An open circuit or a call exceeding the time limit is reported as the service being unavailable, other failures
+     * are rethrown as is.
+     */
+    private static <T> T customersService(CircuitBreaker circuitBreaker, Supplier<T> call) {
+        return circuitBreaker.run(call, failure -> {
+            // The time limiter runs the call on another thread
+            Throwable cause = failure instanceof ExecutionException ? failure.getCause() : failure;
+            if (cause instanceof RuntimeException exception && !(cause instanceof CallNotPermittedException)) {
+                throw exception;
+            }
+            throw new IllegalStateException(CUSTOMERS_SERVICE + " is currently unavailable", cause);
+        });
     }
 
 }
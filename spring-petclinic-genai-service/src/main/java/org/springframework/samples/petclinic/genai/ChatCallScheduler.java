@@ -0,0 +1,359 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.metadata.RateLimit;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Advisor bounding the chat model calls in flight to {@link GenAIProperties.ChatScheduler#maxConcurrency()}, the
+ * other calls waiting in a queue of {@link GenAIProperties.ChatScheduler#queueCapacity()}.
+ * <p>
+ * Interactive calls are served before batch ones, which cannot use the slots reserved for interactive calls. A call
+ * waiting longer than the maximum wait of its priority, or finding the queue full, fails with a
+ * {@link ChatCallRejectedException}. When the rate limit returned by the model is exhausted, no call is started until
+ * it resets.
+ * <p>
+ * The calls in flight and queued are measured by the <code>petclinic.chat.scheduler.active</code> and
+ * <code>petclinic.chat.scheduler.queue</code> gauges, the wait by the <code>petclinic.chat.scheduler.wait</code>
+ * timer and the rejections by the <code>petclinic.chat.scheduler.rejected</code> counter, all tagged with their
+ * <code>priority</code>.
+ */
+@Component
+class ChatCallScheduler implements CallAdvisor, StreamAdvisor {
+
+    /**
+     * Advisor parameter holding the {@link Priority} of the call, interactive by default.
+     */
+    static final String PRIORITY = "petclinic_chat_priority";
+
+    private static final Logger logger = LoggerFactory.getLogger(ChatCallScheduler.class);
+
+    enum Priority {
+        INTERACTIVE, BATCH
+    }
+
+    private final GenAIProperties.ChatScheduler settings;
+
+    private final PriorityQueue<Waiter> queue = new PriorityQueue<>(
+        Comparator.comparing(Waiter::priority).thenComparingLong(Waiter::sequence));
+
+    private final Map<Priority, Integer> active = new EnumMap<>(Priority.class);
+
+    private final Map<Priority, Timer> waits = new EnumMap<>(Priority.class);
+
+    private final Map<Priority, Counter> rejections = new EnumMap<>(Priority.class);
+
+    private long sequence;
+
+    /**
+     * {@link System#nanoTime()} until which no call is started, 0 when the rate limit is not exhausted.
+     */
+    private long pausedUntil;
+
+    private boolean wakeUpScheduled;
+
+    ChatCallScheduler(GenAIProperties properties, MeterRegistry registry) {
+        this.settings = properties.chatScheduler();
+        for (Priority priority : Priority.values()) {
+            String tag = priority.name().toLowerCase(Locale.ROOT);
+            active.put(priority, 0);
+            Gauge.builder("petclinic.chat.scheduler.active", this, scheduler -> scheduler.active(priority))
+                .description("Chat model calls in flight")
+                .tag("priority", tag)
+                .register(registry);
+            Gauge.builder("petclinic.chat.scheduler.queue", this, scheduler -> scheduler.queued(priority))
+                .description("Chat model calls waiting for a slot")
+                .tag("priority", tag)
+                .register(registry);
+            waits.put(priority, Timer.builder("petclinic.chat.scheduler.wait")
+                .description("Time chat model calls waited for a slot")
+                .tag("priority", tag)
+                .register(registry));
+            rejections.put(priority, Counter.builder("petclinic.chat.scheduler.rejected")
+                .description("Chat model calls refused because the queue was full or their wait too long")
+                .tag("priority", tag)
+                .register(registry));
+        }
+    }
+
+    @Override
+    public String getName() {
+        return ChatCallScheduler.class.getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return 0;
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest request, CallAdvisorChain chain) {
+        Priority priority = priority(request);
+        CompletableFuture<Permit> acquired = acquire(priority);
+        Permit permit;
+        try {
+            permit = acquired.get();
+        } catch (InterruptedException e) {
+            if (!acquired.cancel(false) && !acquired.isCompletedExceptionally()) {
+                acquired.join().release();
+            }
+            Thread.currentThread().interrupt();
+            throw new ChatCallRejectedException("Interrupted while waiting for the chat model");
+        } catch (ExecutionException e) {
+            throw rejection(e.getCause());
+        }
+        try {
+            ChatClientResponse response = chain.nextCall(request);
+            observe(response.chatResponse());
+            return response;
+        } finally {
+            permit.release();
+        }
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest request, StreamAdvisorChain chain) {
+        Priority priority = priority(request);
+        // Cancelling the stream while queued cancels the future, which leaves the queue
+        return Mono.fromFuture(() -> acquire(priority))
+            .onErrorMap(ChatCallScheduler::rejection)
+            .flatMapMany(permit -> chain.nextStream(request)
+                .doOnNext(response -> observe(response.chatResponse()))
+                .doFinally(signal -> permit.release()));
+    }
+
+    /**
+     * @return a future completed with the permit to call the model, or failed when the call is rejected
+     */
+    CompletableFuture<Permit> acquire(Priority priority) {
+        Waiter waiter;
+        synchronized (queue) {
+            if (queue.size() >= settings.queueCapacity()) {
+                rejections.get(priority).increment();
+                return CompletableFuture.failedFuture(new ChatCallRejectedException("The chat model queue is full"));
+            }
+            waiter = new Waiter(priority, sequence++, System.nanoTime(), new CompletableFuture<>());
+            queue.add(waiter);
+        }
+        Duration maxWait = priority == Priority.INTERACTIVE ? settings.interactiveMaxWait() : settings.batchMaxWait();
+        CompletableFuture.delayedExecutor(maxWait.toNanos(), TimeUnit.NANOSECONDS).execute(() -> expire(waiter));
+        waiter.permit().whenComplete((permit, failure) -> {
+            if (failure instanceof CancellationException) {
+                synchronized (queue) {
+                    queue.remove(waiter);
+                }
+            }
+        });
+        dispatch();
+        return waiter.permit();
+    }
+
+    private void expire(Waiter waiter) {
+        synchronized (queue) {
+            if (!queue.remove(waiter)) {
+                // Started or cancelled
+                return;
+            }
+        }
+        rejections.get(waiter.priority()).increment();
+        waiter.permit().completeExceptionally(new TimeoutException());
+    }
+
+    /**
+     * Starts the queued calls the free slots allow, unless the rate limit is exhausted.
+     */
+    private void dispatch() {
+        List<Waiter> granted = new ArrayList<>();
+        synchronized (queue) {
+            long now = System.nanoTime();
+            if (pausedUntil != 0 && now - pausedUntil < 0) {
+                scheduleWakeUp(pausedUntil - now);
+                return;
+            }
+            pausedUntil = 0;
+            while (!queue.isEmpty() && activeTotal() < limit(queue.peek().priority())) {
+                Waiter waiter = queue.poll();
+                active.merge(waiter.priority(), 1, Integer::sum);
+                granted.add(waiter);
+            }
+        }
+        for (Waiter waiter : granted) {
+            Permit permit = new Permit(waiter.priority());
+            if (waiter.permit().complete(permit)) {
+                waits.get(waiter.priority()).record(System.nanoTime() - waiter.queuedAt(), TimeUnit.NANOSECONDS);
+            } else {
+                // Cancelled meanwhile
+                permit.release();
+            }
+        }
+    }
+
+    private void scheduleWakeUp(long nanos) {
+        if (!wakeUpScheduled) {
+            wakeUpScheduled = true;
+            CompletableFuture.delayedExecutor(nanos, TimeUnit.NANOSECONDS).execute(() -> {
+                synchronized (queue) {
+                    wakeUpScheduled = false;
+                }
+                dispatch();
+            });
+        }
+    }
+
+    /**
+     * Pauses the calls until the reset of the request or token rate limit the model reports as exhausted.
+     */
+    void observe(ChatResponse response) {
+        RateLimit rateLimit = response == null || response.getMetadata() == null ? null
+            : response.getMetadata().getRateLimit();
+        if (rateLimit == null) {
+            return;
+        }
+        Duration pause = Duration.ZERO;
+        if (exhausted(rateLimit.getRequestsLimit(), rateLimit.getRequestsRemaining())
+            && rateLimit.getRequestsReset() != null) {
+            pause = rateLimit.getRequestsReset();
+        }
+        if (exhausted(rateLimit.getTokensLimit(), rateLimit.getTokensRemaining())
+            && rateLimit.getTokensReset() != null && rateLimit.getTokensReset().compareTo(pause) > 0) {
+            pause = rateLimit.getTokensReset();
+        }
+        if (pause.compareTo(Duration.ZERO) > 0) {
+            logger.info("Chat model rate limit exhausted, pausing the calls for {}", pause);
+            synchronized (queue) {
+                long until = System.nanoTime() + pause.toNanos();
+                if (pausedUntil == 0 || until - pausedUntil > 0) {
+                    pausedUntil = until;
+                }
+            }
+        }
+    }
+
+    private static boolean exhausted(Long limit, Long remaining) {
+        // Models not reporting rate limits report a limit of 0
+        return limit != null && limit > 0 && remaining != null && remaining <= 0;
+    }
+
+    private int limit(Priority priority) {
+        return priority == Priority.INTERACTIVE ? settings.maxConcurrency()
+            : Math.max(1, settings.maxConcurrency() - settings.reservedForInteractive());
+    }
+
+    private int activeTotal() {
+        int total = 0;
+        for (int count : active.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    private int active(Priority priority) {
+        synchronized (queue) {
+            return active.get(priority);
+        }
+    }
+
+    private int queued(Priority priority) {
+        synchronized (queue) {
+            return (int) queue.stream().filter(waiter -> waiter.priority() == priority).count();
+        }
+    }
+
+    private static Priority priority(ChatClientRequest request) {
+        return request.context().get(PRIORITY) instanceof Priority priority ? priority : Priority.INTERACTIVE;
+    }
+
+    private static RuntimeException rejection(Throwable failure) {
+        if (failure instanceof TimeoutException) {
+            return new ChatCallRejectedException("Timed out waiting for the chat model");
+        }
+        if (failure instanceof CancellationException) {
+            return new ChatCallRejectedException("Cancelled while waiting for the chat model");
+        }
+        return failure instanceof RuntimeException exception ? exception : new ChatCallRejectedException(
+            failure.getMessage());
+    }
+
+    /**
+     * Slot of a call in flight, to release once the call completes.
+     */
+    final class Permit {
+
+        private final Priority priority;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Priority priority) {
+            this.priority = priority;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                synchronized (queue) {
+                    active.merge(priority, -1, Integer::sum);
+                }
+                dispatch();
+            }
+        }
+    }
+
+    /**
+     * @param queuedAt {@link System#nanoTime()} at which the call was queued
+     */
+    private record Waiter(Priority priority, long sequence, long queuedAt, CompletableFuture<Permit> permit) {
+    }
+
+    /**
+     * The chat model call was not started because too many calls are waiting or it waited too long.
+     */
+    static class ChatCallRejectedException extends RuntimeException {
+
+        ChatCallRejectedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.stereotype.Component;
+
+/**
+ * Chat memory keeping a bounded window of messages per conversation.
+ * <p>
+ * A conversation keeps its last {@link GenAIProperties.ChatMemory#maxMessages()} messages, fewer when they exceed
+ * {@link GenAIProperties.ChatMemory#maxTokens()}, the window always starting with a user message. The latest user
+ * message is always kept: when its turn alone exceeds the window, it is shortened and followed by as much of its
+ * answer as fits, so that a follow-up query is still answered within the conversation. Conversations idle
+ * for {@link GenAIProperties.ChatMemory#idleTimeout()} are forgotten, as are the least used ones once all of them
+ * exceed {@link GenAIProperties.ChatMemory#totalTokens()}. Tokens are estimated from the length of the messages.
+ * <p>
+ * Hits, misses and evictions are exported as the <code>cache.*</code> meters of the <code>chatMemory</code> cache.
+ */
+@Component
+class ConversationChatMemory implements ChatMemory {
+
+    private static final int CHARS_PER_TOKEN = 4;
+
+    private final GenAIProperties.ChatMemory settings;
+
+    private final Cache<String, Conversation> conversations;
+
+    ConversationChatMemory(GenAIProperties properties, MeterRegistry registry) {
+        this.settings = properties.chatMemory();
+        this.conversations = Caffeine.newBuilder()
+            .expireAfterAccess(settings.idleTimeout())
+            .maximumWeight(settings.totalTokens())
+            .weigher((String id, Conversation conversation) -> conversation.tokens())
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(registry, conversations, "chatMemory");
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        conversations.asMap().compute(conversationId, (id, conversation) -> {
+            List<Message> window = new ArrayList<>(conversation == null ? List.of() : conversation.messages());
+            window.addAll(messages);
+            return window(window);
+        });
+    }
+
+    @Override
+    public List<Message> get(String conversationId) {
+        Conversation conversation = conversations.getIfPresent(conversationId);
+        return conversation == null ? List.of() : conversation.messages();
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        conversations.invalidate(conversationId);
+    }
+
+    private Conversation window(List<Message> messages) {
+        int latestQuestion = messages.size() - 1;
+        while (latestQuestion >= 0 && messages.get(latestQuestion).getMessageType() != MessageType.USER) {
+            latestQuestion--;
+        }
+        if (latestQuestion < 0) {
+            return new Conversation(List.of(), 0);
+        }
+        int tokens = 0;
+        for (Message message : messages) {
+            tokens += tokens(message);
+        }
+        int first = 0;
+        while (first < latestQuestion && (messages.size() - first > settings.maxMessages()
+            || tokens > settings.maxTokens() || messages.get(first).getMessageType() != MessageType.USER)) {
+            tokens -= tokens(messages.get(first));
+            first++;
+        }
+        if (messages.size() - first > settings.maxMessages() || tokens > settings.maxTokens()) {
+            return truncated(messages.subList(first, messages.size()));
+        }
+        return new Conversation(List.copyOf(messages.subList(first, messages.size())), tokens);
+    }
+
+    /**
+     * @param turn user message followed by the messages answering it, exceeding the window
+     */
+    private Conversation truncated(List<Message> turn) {
+        List<Message> kept = new ArrayList<>();
+        int tokens = 0;
+        for (Message message : turn) {
+            int left = settings.maxTokens() - tokens;
+            if (!kept.isEmpty() && (kept.size() >= settings.maxMessages() || left <= 1)) {
+                break;
+            }
+            Message fitting = tokens(message) <= left ? message : truncate(message, left);
+            if (fitting == null) {
+                break;
+            }
+            kept.add(fitting);
+            tokens += tokens(fitting);
+        }
+        return new Conversation(List.copyOf(kept), tokens);
+    }
+
+    /**
+     * @return the message shortened to the given number of tokens, null for the messages that cannot be shortened
+     */
+    private static Message truncate(Message message, int tokens) {
+        String text = message.getText().substring(0, Math.max(0, tokens - 1) * CHARS_PER_TOKEN);
+        if (message instanceof UserMessage question) {
+            return question.mutate().text(text).build();
+        }
+        if (message instanceof AssistantMessage answer && !answer.hasToolCalls()) {
+            return AssistantMessage.builder()
+                .content(text)
+                .properties(answer.getMetadata())
+                .media(answer.getMedia())
+                .build();
+        }
+        return null;
+    }
+
+    private static int tokens(Message message) {
+        String text = message.getText();
+        return text == null ? 1 : 1 + text.length() / CHARS_PER_TOKEN;
+    }
+
+    /**
+     * @param tokens estimated number of tokens of the messages
+     */
+    private record Conversation(List<Message> messages, int tokens) {
+    }
+}
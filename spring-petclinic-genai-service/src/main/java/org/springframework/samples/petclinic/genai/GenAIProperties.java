@@ -0,0 +1,195 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.springframework.samples.petclinic.genai.vectorstore.VectorEncoding;
+import org.springframework.samples.petclinic.genai.vectorstore.VectorQuantization;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Typesafe custom configuration.
+ */
+@ConfigurationProperties(prefix = "genai")
+public record GenAIProperties(
+    @DefaultValue VectorStore vectorStore,
+    @DefaultValue QueryEmbeddingCache queryEmbeddingCache,
+    @DefaultValue ChatCache chatCache,
+    @DefaultValue ChatMemory chatMemory,
+    @DefaultValue ServiceClient serviceClient,
+    @DefaultValue ChatScheduler chatScheduler,
+    @DefaultValue Stub stub,
+    @DefaultValue VetSearch vetSearch,
+    @DefaultValue ToolCalls toolCalls
+) {
+    /**
+     * HNSW index holding the vet embeddings.
+     *
+     * @param m                number of neighbors linked per document and graph level
+     * @param efConstruction   size of the candidate list searched when adding a document
+     * @param efSearch         size of the candidate list searched for a query
+     * @param indexFile        file the index is saved to and loaded from on startup, none to rebuild it on every start
+     * @param snapshotEncoding encoding of the embeddings in the saved index, <code>float16</code> halving its size
+     * @param quantization     compression of the embeddings searched in memory, <code>int8</code> or
+     *                         <code>binary</code>, the best candidates being re-ranked in full precision
+     * @param syncInterval     time between two synchronizations of the index with vets-service
+     * @param syncBatchSize    number of vets embedded per call of the embedding model when synchronizing
+     */
+    public record VectorStore(
+        @DefaultValue("16") int m,
+        @DefaultValue("200") int efConstruction,
+        @DefaultValue("64") int efSearch,
+        Path indexFile,
+        @DefaultValue("float32") VectorEncoding snapshotEncoding,
+        @DefaultValue("none") VectorQuantization quantization,
+        @DefaultValue("1m") Duration syncInterval,
+        @DefaultValue("100") int syncBatchSize
+    ) {
+    }
+
+    /**
+     * Embeddings of the vector store queries.
+     *
+     * @param maximumSize number of query embeddings kept
+     * @param file        file the embeddings are saved to on shutdown and loaded from on startup, none to keep them
+     *                    in memory only
+     */
+    public record QueryEmbeddingCache(
+        @DefaultValue("10000") int maximumSize,
+        Path file
+    ) {
+    }
+
+    /**
+     * Semantic cache of the chat answers.
+     *
+     * @param enabled     whether answers are reused
+     * @param threshold   cosine similarity from which the answer to a previous query is reused
+     * @param ttl         time during which an answer is reused
+     * @param maximumSize number of answers kept, the least recently used being evicted
+     */
+    public record ChatCache(
+        @DefaultValue("true") boolean enabled,
+        @DefaultValue("0.95") float threshold,
+        @DefaultValue("10m") Duration ttl,
+        @DefaultValue("1000") int maximumSize
+    ) {
+    }
+
+    /**
+     * Memory of the chat conversations.
+     *
+     * @param maxMessages maximum number of messages remembered per conversation
+     * @param maxTokens   maximum estimated number of tokens remembered per conversation
+     * @param idleTimeout time after which an inactive conversation is forgotten
+     * @param totalTokens maximum estimated number of tokens remembered across all conversations, the least used ones
+     *                    being forgotten first
+     */
+    public record ChatMemory(
+        @DefaultValue("10") int maxMessages,
+        @DefaultValue("2000") int maxTokens,
+        @DefaultValue("30m") Duration idleTimeout,
+        @DefaultValue("1000000") long totalTokens
+    ) {
+    }
+
+    /**
+     * Load-balanced HTTP client calling the other petclinic services.
+     *
+     * @param connectTimeout time allowed to open a connection
+     * @param readTimeout    time allowed between two reads of a response
+     * @param maxConnections number of pooled connections, per service instance and in total
+     */
+    public record ServiceClient(
+        @DefaultValue("1s") Duration connectTimeout,
+        @DefaultValue("5s") Duration readTimeout,
+        @DefaultValue("50") int maxConnections
+    ) {
+    }
+
+    /**
+     * Scheduling of the chat model calls.
+     *
+     * @param maxConcurrency         number of calls in flight
+     * @param reservedForInteractive number of the calls in flight that batch calls cannot use
+     * @param queueCapacity          number of calls waiting, beyond which calls are rejected
+     * @param interactiveMaxWait     time an interactive call waits before being rejected
+     * @param batchMaxWait           time a batch call waits before being rejected
+     */
+    public record ChatScheduler(
+        @DefaultValue("4") int maxConcurrency,
+        @DefaultValue("1") int reservedForInteractive,
+        @DefaultValue("100") int queueCapacity,
+        @DefaultValue("15s") Duration interactiveMaxWait,
+        @DefaultValue("2m") Duration batchMaxWait
+    ) {
+    }
+
+    /**
+     * Local models replacing the LLM provider with the <code>stub</code> profile.
+     *
+     * @param firstTokenLatency time before the chat model produces the first token of an answer
+     * @param tokenLatency      time the chat model takes to produce each next token
+     * @param answerTokens      number of tokens of the chat model answers
+     * @param dimensions        dimensions of the embeddings, those of the bundled vector store by default
+     */
+    public record Stub(
+        @DefaultValue("300ms") Duration firstTokenLatency,
+        @DefaultValue("20ms") Duration tokenLatency,
+        @DefaultValue("50") int answerTokens,
+        @DefaultValue("1536") int dimensions
+    ) {
+    }
+
+    /**
+     * Vet searches of the <code>listVets</code> tool, combining a BM25 lexical index with the vector store by
+     * reciprocal rank fusion.
+     *
+     * @param topK          number of vets returned, and of candidates taken from each search
+     * @param lexicalWeight weight of the lexical ranks in the fused score
+     * @param vectorWeight  weight of the vector ranks in the fused score
+     * @param rankConstant  constant added to the ranks, the higher the flatter the fused scores
+     * @param exactMatch    whether the vets containing every searched name are returned without searching the
+     *                      vector store, so without calling the embedding model
+     */
+    public record VetSearch(
+        @DefaultValue("20") int topK,
+        @DefaultValue("1.0") float lexicalWeight,
+        @DefaultValue("1.0") float vectorWeight,
+        @DefaultValue("60") int rankConstant,
+        @DefaultValue("true") boolean exactMatch
+    ) {
+    }
+
+    /**
+     * Execution of the tools called by the LLM, the read-only ones requested in the same answer running in parallel
+     * and their results being reused within the conversation turn.
+     *
+     * @param parallelism  number of tool calls running in parallel at most, the calling thread running the next
+     *                     ones when all are busy
+     * @param memoizeTtl   time the results of the read-only tools are reused within a conversation turn
+     * @param maximumTurns number of conversation turns whose results are kept at most
+     */
+    public record ToolCalls(
+        @DefaultValue("16") int parallelism,
+        @DefaultValue("30s") Duration memoizeTtl,
+        @DefaultValue("1000") int maximumTurns
+    ) {
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.samples.petclinic.genai.dto.Specialty;
+import org.springframework.samples.petclinic.genai.dto.Vet;
+import org.springframework.samples.petclinic.genai.vectorstore.Bm25Index;
+import org.springframework.samples.petclinic.genai.vectorstore.HnswVectorStore;
+import org.springframework.stereotype.Component;
+
+/**
+ * Searches the vet documents both lexically, by the names of the requested vet and specialties, and by similarity of
+ * their embeddings, the two rankings being combined by reciprocal rank fusion.
+ * <p>
+ * The BM25 index covers the names found in the documents of the vector store, the field names and ids present in
+ * every document being left out, and is rebuilt on the first search after they changed.
+ * When some vets contain every searched name, they are returned alone, without embedding the query, names found in no
+ * vet such as titles being ignored.
+ */
+@Component
+class HybridVetSearch {
+
+    /**
+     * Name fields of the documents, formatted by {@link VectorStoreController#text(Vet)}
+     */
+    private static final Pattern NAME_FIELD = Pattern.compile("\\b(?:firstName|lastName|name)=([^,{}\\[\\]]*)");
+
+    private final HnswVectorStore vectorStore;
+
+    private final GenAIProperties.VetSearch properties;
+
+    private final Counter exactSearches;
+
+    private final Counter hybridSearches;
+
+    private final Counter vectorSearches;
+
+    private volatile LexicalIndex lexicalIndex = new LexicalIndex(-1, Bm25Index.of(List.of()));
+
+    HybridVetSearch(HnswVectorStore vectorStore, GenAIProperties properties, MeterRegistry registry) {
+        this.vectorStore = vectorStore;
+        this.properties = properties.vetSearch();
+        this.exactSearches = counter(registry, "exact", "Vet searches answered by the lexical matches of every name");
+        this.hybridSearches = counter(registry, "hybrid", "Vet searches fusing the lexical and vector rankings");
+        this.vectorSearches = counter(registry, "vector", "Vet searches without any name, by vector only");
+    }
+
+    /**
+     * @param request     the vet requested, <code>null</code> for any vet
+     * @param vectorQuery text embedded to search the vector store
+     * @param topK        maximum number of vets returned
+     */
+    List<Document> search(Vet request, String vectorQuery, int topK) {
+        List<String> terms = terms(request);
+        if (terms.isEmpty()) {
+            vectorSearches.increment();
+            return vectorSearch(vectorQuery, topK);
+        }
+        List<Bm25Index.Match> lexical = lexicalIndex().search(terms, topK);
+        if (properties.exactMatch() && !lexical.isEmpty() && lexical.get(0).exact()) {
+            exactSearches.increment();
+            return lexical.stream()
+                .takeWhile(Bm25Index.Match::exact)
+                .map(Bm25Index.Match::document)
+                .toList();
+        }
+        hybridSearches.increment();
+        List<Document> vector = vectorSearch(vectorQuery, topK);
+
+        Map<String, Double> scores = new LinkedHashMap<>();
+        Map<String, Document> documents = new LinkedHashMap<>();
+        for (int rank = 0; rank < vector.size(); rank++) {
+            Document document = vector.get(rank);
+            documents.put(document.getId(), document);
+            scores.merge(document.getId(), properties.vectorWeight() / (properties.rankConstant() + rank + 1.0),
+                Double::sum);
+        }
+        for (int rank = 0; rank < lexical.size(); rank++) {
+            Document document = lexical.get(rank).document();
+            documents.putIfAbsent(document.getId(), document);
+            scores.merge(document.getId(), properties.lexicalWeight() / (properties.rankConstant() + rank + 1.0),
+                Double::sum);
+        }
+        return scores.entrySet().stream()
+            .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+            .limit(topK)
+            .map(score -> documents.get(score.getKey()))
+            .toList();
+    }
+
+    private List<Document> vectorSearch(String query, int topK) {
+        return vectorStore.similaritySearch(SearchRequest.builder()
+            .query(query)
+            .topK(topK)
+            .build());
+    }
+
+    /**
+     * @return the lexical index of the current documents of the vector store
+     */
+    private Bm25Index lexicalIndex() {
+        LexicalIndex current = lexicalIndex;
+        long version = vectorStore.version();
+        if (current.version() != version) {
+            List<Document> documents = new ArrayList<>();
+            vectorStore.forEach(documents::add);
+            current = new LexicalIndex(version, Bm25Index.of(documents, HybridVetSearch::names));
+            lexicalIndex = current;
+        }
+        return current.index();
+    }
+
+    /**
+     * @return the names of the vet and of its specialties found in the text of the document
+     */
+    static String names(Document document) {
+        StringBuilder names = new StringBuilder();
+        Matcher field = NAME_FIELD.matcher(document.getText() == null ? "" : document.getText());
+        while (field.find()) {
+            names.append(names.isEmpty() ? "" : " ").append(field.group(1));
+        }
+        return names.toString();
+    }
+
+    /**
+     * @return the tokens of the names of the vet and of its specialties
+     */
+    private static List<String> terms(Vet request) {
+        List<String> terms = new ArrayList<>();
+        if (request != null) {
+            terms.addAll(Bm25Index.tokenize(request.firstName()));
+            terms.addAll(Bm25Index.tokenize(request.lastName()));
+            if (request.specialties() != null) {
+                for (Specialty specialty : request.specialties()) {
+                    terms.addAll(Bm25Index.tokenize(specialty.name()));
+                }
+            }
+        }
+        return terms;
+    }
+
+    private static Counter counter(MeterRegistry registry, String path, String description) {
+        return Counter.builder("petclinic.vets.search")
+            .description(description)
+            .tag("path", path)
+            .register(registry);
+    }
+
+    /**
+     * @param version version of the vector store the index was built from
+     */
+    private record LexicalIndex(long version, Bm25Index index) {
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.context.ContextExecutorService;
+import io.micrometer.context.ContextSnapshotFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.AssistantMessage.ToolCall;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.DefaultToolCallingManager;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * Tool calling manager running in parallel the calls of the {@link ReadOnlyTool read-only tools} requested together
+ * by the LLM, such as <code>listVets</code> and <code>searchOwners</code>, which block on the other petclinic services.
+ * The calls are still answered in the requested order, by the {@link DefaultToolCallingManager} it delegates to.
+ * <p>
+ * The read-only calls requested before any other are started at once, on at most
+ * {@link GenAIProperties.ToolCalls#parallelism()} threads, the thread of the chat model running them when all are
+ * busy. The other calls run in order, a tool writing data being called once the calls requested before it completed.
+ * <p>
+ * The results of the read-only tools are reused during {@link GenAIProperties.ToolCalls#memoizeTtl()} within the
+ * conversation turn identified by the {@link #TURN_ID} entry of the tool context, until a tool writing data is called.
+ * A failed call is not reused.
+ * <p>
+ * The executions are measured by the <code>petclinic.chat.tool</code> timer, tagged with the <code>tool</code> and
+ * the <code>outcome</code>, and the reused results counted by the <code>petclinic.chat.tool.memoized</code> counter.
+ * The executions of a turn are listed by {@link #timings(String)}.
+ */
+class ParallelToolCallingManager implements ToolCallingManager, AutoCloseable {
+
+    /**
+     * Tool context entry identifying the conversation turn, within which the read-only tool results are reused.
+     */
+    static final String TURN_ID = "petclinic_turn_id";
+
+    private final ToolCallingManager delegate;
+
+    private final Set<String> readOnlyTools;
+
+    private final ExecutorService executor;
+
+    private final Cache<String, Turn> turns;
+
+    private final MeterRegistry registry;
+
+    ParallelToolCallingManager(ToolCallingManager delegate, Set<String> readOnlyTools, GenAIProperties properties,
+                               MeterRegistry registry) {
+        GenAIProperties.ToolCalls settings = properties.toolCalls();
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("tool-call-");
+        threadFactory.setDaemon(true);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(settings.parallelism(), settings.parallelism(),
+            1, TimeUnit.MINUTES, new SynchronousQueue<>(), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        this.delegate = delegate;
+        this.readOnlyTools = Set.copyOf(readOnlyTools);
+        // The tools keep the tracing context of the chat call on the threads of the pool
+        this.executor = ContextExecutorService.wrap(pool, ContextSnapshotFactory.builder().build());
+        this.turns = Caffeine.newBuilder()
+            .expireAfterWrite(settings.memoizeTtl())
+            .maximumSize(settings.maximumTurns())
+            .build();
+        this.registry = registry;
+    }
+
+    /**
+     * @return the names of the {@link Tool} methods of the class annotated with {@link ReadOnlyTool}
+     */
+    static Set<String> readOnlyTools(Class<?> toolsClass) {
+        Set<String> names = new HashSet<>();
+        ReflectionUtils.doWithMethods(toolsClass, method -> {
+                String name = method.getAnnotation(Tool.class).name();
+                names.add(StringUtils.hasText(name) ? name : method.getName());
+            },
+            method -> method.isAnnotationPresent(Tool.class) && method.isAnnotationPresent(ReadOnlyTool.class));
+        return names;
+    }
+
+    @Override
+    public List<ToolDefinition> resolveToolDefinitions(ToolCallingChatOptions chatOptions) {
+        return delegate.resolveToolDefinitions(chatOptions);
+    }
+
+    @Override
+    public ToolExecutionResult executeToolCalls(Prompt prompt, ChatResponse chatResponse) {
+        AssistantMessage assistantMessage = chatResponse.getResults().stream()
+            .map(Generation::getOutput)
+            .filter(AssistantMessage::hasToolCalls)
+            .findFirst()
+            .orElse(null);
+        if (assistantMessage == null || !(prompt.getOptions() instanceof ToolCallingChatOptions options)) {
+            return delegate.executeToolCalls(prompt, chatResponse);
+        }
+        Turn turn = turn(options.getToolContext());
+        Map<String, ToolCallback> callbacks = new HashMap<>();
+        options.getToolCallbacks().forEach(callback -> callbacks.put(callback.getToolDefinition().name(), callback));
+
+        // Starts the read-only calls requested before any other, which the delegate then answers in order
+        ToolContext toolContext = toolContext(prompt, options, assistantMessage);
+        Map<Key, CompletableFuture<String>> started = new ConcurrentHashMap<>();
+        for (ToolCall toolCall : assistantMessage.getToolCalls()) {
+            ToolCallback callback = callbacks.get(toolCall.name());
+            if (callback == null || !readOnlyTools.contains(toolCall.name())) {
+                break;
+            }
+            Key key = new Key(toolCall.name(), arguments(toolCall.arguments()));
+            if (!started.containsKey(key)) {
+                started.put(key, result(turn, callback, key, toolContext, executor));
+            }
+        }
+
+        ToolCallingChatOptions answeredOptions = (ToolCallingChatOptions) options.copy();
+        answeredOptions.setToolCallbacks(options.getToolCallbacks().stream()
+            .map(callback -> (ToolCallback) new TurnToolCallback(callback, turn, started))
+            .toList());
+        return delegate.executeToolCalls(new Prompt(prompt.getInstructions(), answeredOptions), chatResponse);
+    }
+
+    /**
+     * @return the tool executions and reused results of the turn, in the order they completed, if not expired
+     */
+    List<ToolTiming> timings(String turnId) {
+        Turn turn = turns.getIfPresent(turnId);
+        return turn == null ? List.of() : List.copyOf(turn.timings);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private Turn turn(Map<String, Object> toolContext) {
+        Object turnId = toolContext.get(TURN_ID);
+        // Without identifier, the results are only reused within the answer
+        return turnId == null ? new Turn() : turns.get(turnId.toString(), id -> new Turn());
+    }
+
+    /**
+     * @return the result of the read-only tool call reused from the turn, or else of its execution by the executor
+     */
+    private CompletableFuture<String> result(Turn turn, ToolCallback callback, Key key, ToolContext toolContext,
+                                             Executor executor) {
+        CompletableFuture<String> execution = new CompletableFuture<>();
+        CompletableFuture<String> memoized = turn.results.putIfAbsent(key, execution);
+        if (memoized != null) {
+            Counter.builder("petclinic.chat.tool.memoized")
+                .description("Results of read-only tools reused within a conversation turn")
+                .tag("tool", key.tool())
+                .register(registry)
+                .increment();
+            turn.timings.add(new ToolTiming(key.tool(), Duration.ZERO, true));
+            return memoized;
+        }
+        execution.whenComplete((result, failure) -> {
+            if (failure != null) {
+                turn.results.remove(key, execution);
+            }
+        });
+        executor.execute(() -> {
+            try {
+                execution.complete(execute(turn, callback, key.arguments(), toolContext));
+            } catch (Throwable failure) {
+                execution.completeExceptionally(failure);
+            }
+        });
+        return execution;
+    }
+
+    private String execute(Turn turn, ToolCallback callback, String arguments, ToolContext toolContext) {
+        String tool = callback.getToolDefinition().name();
+        String outcome = "error";
+        long start = System.nanoTime();
+        try {
+            String result = callback.call(arguments, toolContext);
+            outcome = "success";
+            return result;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            Timer.builder("petclinic.chat.tool")
+                .description("Executions of the tools called by the LLM")
+                .tag("tool", tool)
+                .tag("outcome", outcome)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+            turn.timings.add(new ToolTiming(tool, Duration.ofNanos(nanos), false));
+        }
+    }
+
+    /**
+     * @return the context the delegate passes to the tools, with the tool call history when not empty
+     */
+    private static ToolContext toolContext(Prompt prompt, ToolCallingChatOptions options,
+                                           AssistantMessage assistantMessage) {
+        if (options.getToolContext().isEmpty()) {
+            return new ToolContext(Map.of());
+        }
+        Map<String, Object> context = new HashMap<>(options.getToolContext());
+        List<Message> history = new ArrayList<>(prompt.getInstructions());
+        history.add(assistantMessage);
+        context.put(ToolContext.TOOL_CALL_HISTORY, history);
+        return new ToolContext(context);
+    }
+
+    private static String arguments(String arguments) {
+        return StringUtils.hasText(arguments) ? arguments : "{}";
+    }
+
+    private static String join(CompletableFuture<String> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException failure) {
+                throw failure;
+            }
+            if (e.getCause() instanceof Error failure) {
+                throw failure;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Execution of a tool, or reuse of its result when <code>memoized</code>.
+     */
+    record ToolTiming(String tool, Duration duration, boolean memoized) {
+
+        @Override
+        public String toString() {
+            return memoized ? tool + " memoized"
+                : String.format(Locale.ROOT, "%s %.1f ms", tool, duration.toNanos() / 1e6);
+        }
+    }
+
+    private record Key(String tool, String arguments) {
+    }
+
+    private static final class Turn {
+
+        private final Map<Key, CompletableFuture<String>> results = new ConcurrentHashMap<>();
+
+        private final Queue<ToolTiming> timings = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Tool answering the calls started in parallel with their results, the read-only calls with the results of the
+     * turn and running the other ones, which invalidate these results.
+     */
+    private final class TurnToolCallback implements ToolCallback {
+
+        private final ToolCallback callback;
+
+        private final Turn turn;
+
+        private final Map<Key, CompletableFuture<String>> started;
+
+        private TurnToolCallback(ToolCallback callback, Turn turn, Map<Key, CompletableFuture<String>> started) {
+            this.callback = callback;
+            this.turn = turn;
+            this.started = started;
+        }
+
+        @Override
+        public ToolDefinition getToolDefinition() {
+            return callback.getToolDefinition();
+        }
+
+        @Override
+        public ToolMetadata getToolMetadata() {
+            return callback.getToolMetadata();
+        }
+
+        @Override
+        public String call(String toolInput) {
+            return call(toolInput, null);
+        }
+
+        @Override
+        public String call(String toolInput, ToolContext toolContext) {
+            Key key = new Key(getToolDefinition().name(), arguments(toolInput));
+            CompletableFuture<String> result = started.get(key);
+            if (result != null) {
+                return join(result);
+            }
+            if (readOnlyTools.contains(key.tool())) {
+                return join(result(turn, callback, key, toolContext, Runnable::run));
+            }
+            try {
+                return execute(turn, callback, key.arguments(), toolContext);
+            } finally {
+                started.clear();
+                turn.results.clear();
+            }
+        }
+    }
+}
@@ -1,15 +1,34 @@
 package org.springframework.samples.petclinic.genai;
 
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
-import org.springframework.ai.chat.client.advisor.SimpleLoggerAdvisor;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
 import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.samples.petclinic.genai.ChatCallScheduler.ChatCallRejectedException;
+import org.springframework.samples.petclinic.genai.ChatCallScheduler.Priority;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 /**
  * This REST controller is being invoked by the in order to interact with the LLM
@@ -22,14 +41,41 @@ public class PetclinicChatClient {
 
     private static final Logger LOG = LoggerFactory.getLogger(PetclinicChatClient.class);
 
+    /**
+     * Header identifying the conversation whose memory the query is answered with. Queries without it are answered
+     * without memory, and nothing of them is remembered.
+     */
+    static final String CONVERSATION_ID_HEADER = "X-Conversation-Id";
+
+    /**
+     * Header holding the priority of the query, <code>interactive</code> (the default) or <code>batch</code>.
+     */
+    static final String PRIORITY_HEADER = "X-Chat-Priority";
+
+    private static final Pattern CONVERSATION_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
 	// ChatModel is the primary interfaces for interacting with an LLM
 	// it is a request/response interface that implements the ModelModel
 	// interface. Make suer to visit the source code of the ChatModel and
 	// checkout the interfaces in the core Spring AI package.
 	private final ChatClient chatClient;
 
-	public PetclinicChatClient(ChatClient.Builder builder, ChatMemory chatMemory,
-                               PetclinicTools petclinicTools) {
+	private final ChatMemory chatMemory;
+
+	private final Advisor chatMemoryAdvisor;
+
+	private final SemanticResponseCache responseCache;
+
+	public PetclinicChatClient(ChatClient.Builder builder, ChatMemory chatMemory, PetclinicTools petclinicTools,
+                               SemanticResponseCache responseCache, ChatCallScheduler chatCallScheduler,
+                               ParallelToolCallingManager toolCallingManager) {
+        this.chatMemory = chatMemory;
+        // Chat memory helps us keep context when using the chatbot, within a bounded window per conversation.
+        // Only added to the queries of a conversation, so that the others leave nothing behind.
+        this.chatMemoryAdvisor = MessageChatMemoryAdvisor.builder(chatMemory)
+            .order(10)
+            .build();
+        this.responseCache = responseCache;
         // @formatter:off
 		this.chatClient = builder
 				.defaultSystem("""
@@ -44,29 +90,157 @@ public class PetclinicChatClient {
                           For owners, pets or visits - provide the correct data.
                           """)
 				.defaultAdvisors(
-						// Chat memory helps us keep context when using the chatbot for up to 10 previous messages.
-                        MessageChatMemoryAdvisor.builder(chatMemory)
-                            .order(10)
-                            .build(),
-						new SimpleLoggerAdvisor()
+						// Bounds the calls in flight, which wait in a queue by priority
+						chatCallScheduler,
+						// Logs the requests and responses, with the tools called to answer and their time
+						new ToolTimingLoggerAdvisor(toolCallingManager)
 						)
                 .defaultTools(petclinicTools)
 				.build();
   }
 
   @PostMapping("/chatclient")
-  public String exchange(@RequestBody String query) {
+  public Mono<String> exchange(@RequestBody String query,
+                               @RequestHeader(name = CONVERSATION_ID_HEADER, required = false) String conversationId,
+                               @RequestHeader(name = PRIORITY_HEADER, required = false) String priorityName) {
+	  String conversation = conversation(conversationId);
+	  Priority priority = priority(priorityName);
+	  // The blocking model call, which may wait for a free slot, must not hold an event loop thread
+	  return Mono.fromCallable(() -> answer(query, conversation, priority))
+          .subscribeOn(Schedulers.boundedElastic())
+          .onErrorResume(exception -> {
+              LOG.error("Error processing chat message", exception);
+              return Mono.just(unavailable(exception));
+          });
+  }
+
+  private String answer(String query, String conversation, Priority priority) {
+	  //All chatbot messages go through this endpoint
+	  //and are passed to the LLM, unless a similar query opening a conversation was answered recently
+	  if (hasHistory(conversation)) {
+		  return callModel(query, conversation, priority);
+	  }
+	  AtomicBoolean modelCalled = new AtomicBoolean();
+	  String answer = responseCache.answer(query, () -> {
+		  modelCalled.set(true);
+		  return callModel(query, conversation, priority);
+	  });
+	  if (!modelCalled.get()) {
+		  remember(conversation, query, answer);
+	  }
+	  return answer;
+  }
+
+  /**
+   * Same as {@link #exchange(String, String, String)}, the answer being sent as server-sent events as the LLM produces it,
+   * each <code>data</code> field holding the next part of the answer verbatim. An <code>error</code> event ends the
+   * stream when the LLM fails.
+   */
+  @PostMapping(path = "/chatclient/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public Flux<ServerSentEvent<String>> stream(@RequestBody String query,
+                                              @RequestHeader(name = CONVERSATION_ID_HEADER, required = false) String conversationId,
+                                              @RequestHeader(name = PRIORITY_HEADER, required = false) String priorityName) {
+	  String conversation = conversation(conversationId);
+	  Priority priority = priority(priorityName);
+	  return Flux.defer(() -> {
+			  if (hasHistory(conversation)) {
+				  return streamModel(query, conversation, priority);
+			  }
+			  AtomicBoolean modelCalled = new AtomicBoolean();
+			  StringBuilder answer = new StringBuilder();
+			  return responseCache.answerStream(query, () -> {
+					  modelCalled.set(true);
+					  return streamModel(query, conversation, priority);
+				  })
+				  .doOnNext(answer::append)
+				  .doOnComplete(() -> {
+					  if (!modelCalled.get()) {
+						  remember(conversation, query, answer.toString());
+					  }
+				  });
+		  })
+          .map(part -> ServerSentEvent.builder(part).build())
+          .onErrorResume(exception -> {
+              LOG.error("Error streaming chat message", exception);
+              return Flux.just(ServerSentEvent.builder(unavailable(exception))
+                  .event("error")
+                  .build());
+          });
+  }
+
+  private String callModel(String query, String conversation, Priority priority) {
+	  // Identifies the turn within which the read-only tool results are reused
+	  String turn = UUID.randomUUID().toString();
+	  return this.chatClient
+          .prompt()
+          .user(query)
+          .toolContext(Map.of(ParallelToolCallingManager.TURN_ID, turn))
+          .advisors(advisor -> advise(advisor, conversation, priority, turn))
+          .call()
+          .content();
+  }
+
+  private Flux<String> streamModel(String query, String conversation, Priority priority) {
+	  // Identifies the turn within which the read-only tool results are reused
+	  String turn = UUID.randomUUID().toString();
+	  return this.chatClient
+          .prompt()
+          .user(query)
+          .toolContext(Map.of(ParallelToolCallingManager.TURN_ID, turn))
+          .advisors(advisor -> advise(advisor, conversation, priority, turn))
+          .stream()
+          .content();
+  }
+
+  private void advise(ChatClient.AdvisorSpec advisor, String conversation, Priority priority, String turn) {
+	  advisor.param(ChatCallScheduler.PRIORITY, priority)
+          .param(ParallelToolCallingManager.TURN_ID, turn);
+	  if (conversation != null) {
+		  advisor.advisors(chatMemoryAdvisor)
+              .param(ChatMemory.CONVERSATION_ID, conversation);
+	  }
+  }
+
+  private boolean hasHistory(String conversation) {
+	  return conversation != null && !chatMemory.get(conversation).isEmpty();
+  }
+
+  /**
+   * Adds an answer reused from the cache to the conversation, as the memory advisor would have done.
+   */
+  private void remember(String conversation, String query, String answer) {
+	  if (conversation != null) {
+		  chatMemory.add(conversation, List.of(new UserMessage(query), new AssistantMessage(answer)));
+	  }
+  }
+
+  private static String unavailable(Throwable exception) {
+	  return exception instanceof ChatCallRejectedException
+          ? "Chat is busy. Please try again in a moment."
+          : "Chat is currently unavailable. Please try again later.";
+  }
+
+  private static Priority priority(String priorityName) {
+	  if (priorityName == null || priorityName.isEmpty()) {
+		  return Priority.INTERACTIVE;
+	  }
 	  try {
-		  //All chatbot messages go through this endpoint
-		  //and are passed to the LLM
-		  return this.chatClient
-              .prompt()
-              .user(query)
-              .call()
-              .content();
-	  } catch (Exception exception) {
-          LOG.error("Error processing chat message", exception);
- 	      return "Chat is currently unavailable. Please try again later.";
+		  return Priority.valueOf(priorityName.toUpperCase(Locale.ROOT));
+	  } catch (IllegalArgumentException e) {
+		  throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid chat priority");
+	  }
+  }
+
+  /**
+   * @return the conversation identified by the header, null when none is
+   */
+  private static String conversation(String conversationId) {
+	  if (conversationId == null || conversationId.isEmpty()) {
+		  return null;
+	  }
+	  if (!CONVERSATION_ID.matcher(conversationId).matches()) {
+		  throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid conversation id");
 	  }
+	  return conversationId;
   }
 }
@@ -7,6 +7,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
 import org.springframework.samples.petclinic.genai.dto.OwnerDetails;
+import org.springframework.samples.petclinic.genai.dto.OwnerSearchResult;
 import org.springframework.samples.petclinic.genai.dto.PetDetails;
 import org.springframework.samples.petclinic.genai.dto.PetRequest;
 import org.springframework.samples.petclinic.genai.dto.Vet;
@@ -18,8 +19,8 @@ import jakarta.validation.constraints.NotBlank;
 /**
  * This class defines the @Bean functions that the LLM provider will invoke when it
  * requires more Information on a given topic. The currently available functions enable
- * the LLM to get the list of owners and their pets, get information about the
- * veterinarians, and add a pet to an owner.
+ * the LLM to search the owners and their pets, get information about the
+ * veterinarians, and add a pet to an owner. The tools only reading data are annotated with {@link ReadOnlyTool}.
  *
  * @author Oded Shopen
  * @author Antoine Rey
@@ -31,14 +32,32 @@ class PetclinicTools {
 
     private final AIDataProvider petclinicAiProvider;
 
-    PetclinicTools(AIDataProvider petclinicAiProvider) {
+    private final SemanticResponseCache responseCache;
+
+    PetclinicTools(AIDataProvider petclinicAiProvider, SemanticResponseCache responseCache) {
         this.petclinicAiProvider = petclinicAiProvider;
+        this.responseCache = responseCache;
     }
 
-    @Tool(description = "List the owners that the pet clinic has")
-	public List<OwnerDetails> listOwners() {
-        LOG.info("listOwners()");
-		return petclinicAiProvider.getAllOwners();
+    /**
+     * Owners returned per page, few enough for the model context
+     */
+    private static final int OWNERS_PAGE_SIZE = 20;
+
+    @ReadOnlyTool
+    @Tool(description = """
+			Search the owners of the pet clinic, with their pets, by part of their name, city or telephone.
+			All the filters are optional and combined. The owners are returned by pages of 20 in name order,
+			along with the total number of owners matching; ask for the next page only if needed.
+			""")
+	public OwnerSearchResult searchOwners(
+        @ToolParam(required = false, description = "Part of the owner's first name, last name or both") String name,
+        @ToolParam(required = false, description = "Part of the owner's city") String city,
+        @ToolParam(required = false, description = "Digits of the owner's telephone") String telephone,
+        @ToolParam(required = false, description = "Page number, starting at 0") Integer page) {
+        LOG.info("searchOwners() name={} city={} telephone={} page={}", name, city, telephone, page);
+		return petclinicAiProvider.searchOwners(name, city, telephone, page == null ? 0 : Math.max(page, 0),
+            OWNERS_PAGE_SIZE);
 	}
 
     @Tool(description = """
@@ -47,9 +66,14 @@ class PetclinicTools {
 			""")
 	public OwnerDetails addOwnerToPetclinic(OwnerRequest ownerRequest) {
         LOG.info("addOwnerToPetclinic() ownerRequest={}", ownerRequest);
-		return petclinicAiProvider.addOwnerToPetclinic(ownerRequest);
+        try {
+            return petclinicAiProvider.addOwnerToPetclinic(ownerRequest);
+        } finally {
+            responseCache.invalidate();
+        }
 	}
 
+    @ReadOnlyTool
     @Tool(description = "List the veterinarians that the pet clinic has")
 	public List<String> listVets(@ToolParam(required = false) Vet vetRequest) {
         LOG.info("listVets() vetRequest={}", vetRequest);
@@ -68,7 +92,11 @@ class PetclinicTools {
 			""")
 	public PetDetails addPetToOwner(@ToolParam(description = "Pet's owner identifier") int ownerId, PetRequest petRequest) {
         LOG.info("addPetToOwner() ownerId={} petRequest={}", ownerId, petRequest);
-		return petclinicAiProvider.addPetToOwner(ownerId, petRequest);
+        try {
+            return petclinicAiProvider.addPetToOwner(ownerId, petRequest);
+        } finally {
+            responseCache.invalidate();
+        }
 	}
 
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded cache of the embeddings of the queries searched in the vector store, so that repeated tool calls do not
+ * embed the same text again through the remote embedding model.
+ * <p>
+ * Hits and misses are exported as the <code>cache.*</code> meters of the <code>queryEmbeddings</code> cache. When
+ * {@link GenAIProperties.QueryEmbeddingCache#file()} is set, the cache is loaded from it on startup and written back
+ * on shutdown; the file must be deleted when the embedding model changes.
+ */
+@Component
+class QueryEmbeddingCache implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryEmbeddingCache.class);
+
+    private static final int MAGIC = 0x51454331;
+
+    private final Cache<String, float[]> cache;
+
+    private final Path file;
+
+    QueryEmbeddingCache(GenAIProperties properties, MeterRegistry registry) {
+        GenAIProperties.QueryEmbeddingCache settings = properties.queryEmbeddingCache();
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(settings.maximumSize())
+            .recordStats()
+            .build();
+        this.file = settings.file();
+        CaffeineCacheMetrics.monitor(registry, cache, "queryEmbeddings");
+        if (file != null && Files.exists(file)) {
+            try {
+                read();
+                logger.info("Loaded {} query embeddings from {}", cache.estimatedSize(), file);
+            } catch (IOException e) {
+                logger.warn("Could not load the query embeddings from {}", file, e);
+            }
+        }
+    }
+
+    /**
+     * @return the model, with the embeddings of single texts cached
+     */
+    EmbeddingModel cachedQueries(EmbeddingModel embeddingModel) {
+        return new CachingEmbeddingModel(embeddingModel);
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        if (file != null) {
+            write();
+            logger.info("Saved {} query embeddings to {}", cache.estimatedSize(), file);
+        }
+    }
+
+    private void read() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a query embedding cache");
+            }
+            for (int count = in.readInt(); count > 0; count--) {
+                byte[] text = new byte[in.readInt()];
+                in.readFully(text);
+                float[] embedding = new float[in.readInt()];
+                for (int i = 0; i < embedding.length; i++) {
+                    embedding[i] = in.readFloat();
+                }
+                cache.put(new String(text, StandardCharsets.UTF_8), embedding);
+            }
+        }
+    }
+
+    private void write() throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        Map<String, float[]> entries = Map.copyOf(cache.asMap());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, float[]> entry : entries.entrySet()) {
+                byte[] text = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(text.length);
+                out.write(text);
+                out.writeInt(entry.getValue().length);
+                for (float value : entry.getValue()) {
+                    out.writeFloat(value);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Caches {@link EmbeddingModel#embed(String)}, used for queries; documents are embedded in batches by
+     * {@link #call(EmbeddingRequest)}, which is not cached.
+     */
+    private final class CachingEmbeddingModel implements EmbeddingModel {
+
+        private final EmbeddingModel delegate;
+
+        CachingEmbeddingModel(EmbeddingModel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public float[] embed(String text) {
+            return cache.get(text, delegate::embed);
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            return delegate.call(request);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return delegate.embed(document);
+        }
+
+        @Override
+        public int dimensions() {
+            return delegate.dimensions();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Answers of the chat client, looked up by the similarity of the embedding of the query to the embeddings of the
+ * queries answered before.
+ * <p>
+ * An answer is reused when the cosine similarity of the queries reaches {@link GenAIProperties.ChatCache#threshold()}
+ * and it is younger than {@link GenAIProperties.ChatCache#ttl()}; the least recently used answers are evicted beyond
+ * {@link GenAIProperties.ChatCache#maximumSize()}. Every call to a tool modifying the clinic clears the cache, and the
+ * answer of a query during which such a call happened is not cached.
+ * <p>
+ * Lookups are counted by the <code>petclinic.chat.cache</code> counter, tagged with their <code>result</code>, and the
+ * time the model took to compute the answers reused is recorded by the <code>petclinic.chat.cache.saved</code> timer.
+ */
+@Component
+class SemanticResponseCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(SemanticResponseCache.class);
+
+    private final EmbeddingModel embeddingModel;
+
+    private final GenAIProperties.ChatCache settings;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong modifications = new AtomicLong();
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Timer saved;
+
+    SemanticResponseCache(EmbeddingModel embeddingModel, QueryEmbeddingCache queryEmbeddingCache,
+                          GenAIProperties properties, MeterRegistry registry) {
+        this.embeddingModel = queryEmbeddingCache.cachedQueries(embeddingModel);
+        this.settings = properties.chatCache();
+        this.hits = Counter.builder("petclinic.chat.cache")
+            .description("Chat queries answered from the semantic cache")
+            .tag("result", "hit")
+            .register(registry);
+        this.misses = Counter.builder("petclinic.chat.cache")
+            .description("Chat queries answered by the model")
+            .tag("result", "miss")
+            .register(registry);
+        this.saved = Timer.builder("petclinic.chat.cache.saved")
+            .description("Model latency saved by answers reused from the semantic cache")
+            .register(registry);
+    }
+
+    /**
+     * @param model computes the answer when no similar query was answered
+     */
+    String answer(String query, Supplier<String> model) {
+        float[] embedding = settings.enabled() ? embed(query) : null;
+        if (embedding == null) {
+            return model.get();
+        }
+        Entry cached = hit(embedding);
+        if (cached != null) {
+            return cached.answer();
+        }
+        long modification = modifications.get();
+        long start = System.nanoTime();
+        String answer = model.get();
+        if (answer != null) {
+            store(query, embedding, answer, System.nanoTime() - start, modification);
+        }
+        return answer;
+    }
+
+    /**
+     * Streaming variant of {@link #answer(String, Supplier)}: a reused answer is emitted at once, otherwise the parts
+     * of the answer are emitted as the model produces them, and the answer is cached once complete.
+     *
+     * @param model streams the answer when no similar query was answered
+     */
+    Flux<String> answerStream(String query, Supplier<Flux<String>> model) {
+        if (!settings.enabled()) {
+            return model.get();
+        }
+        // Embedding calls the remote model synchronously
+        return Mono.fromCallable(() -> Optional.ofNullable(embed(query)))
+            .subscribeOn(Schedulers.boundedElastic())
+            .flatMapMany(embedding -> {
+                if (embedding.isEmpty()) {
+                    return model.get();
+                }
+                Entry cached = hit(embedding.get());
+                if (cached != null) {
+                    return Flux.just(cached.answer());
+                }
+                long modification = modifications.get();
+                long start = System.nanoTime();
+                StringBuilder answer = new StringBuilder();
+                return model.get()
+                    .doOnNext(answer::append)
+                    .doOnComplete(() -> store(query, embedding.get(), answer.toString(), System.nanoTime() - start,
+                        modification));
+            });
+    }
+
+    /**
+     * Clears the cache, to be called by the tools modifying the data the answers are made of.
+     */
+    void invalidate() {
+        synchronized (entries) {
+            modifications.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return the unit-length embedding of the query, <code>null</code> if it could not be computed
+     */
+    private float[] embed(String query) {
+        try {
+            return unit(embeddingModel.embed(query));
+        } catch (RuntimeException e) {
+            logger.warn("Could not embed the chat query, bypassing the cache", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the answer to reuse, <code>null</code> on a miss
+     */
+    private Entry hit(float[] embedding) {
+        Entry cached = lookup(embedding);
+        if (cached != null) {
+            hits.increment();
+            saved.record(cached.nanos(), TimeUnit.NANOSECONDS);
+        } else {
+            misses.increment();
+        }
+        return cached;
+    }
+
+    private Entry lookup(float[] embedding) {
+        long now = System.nanoTime();
+        synchronized (entries) {
+            String bestQuery = null;
+            float bestScore = settings.threshold();
+            for (Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<String, Entry> candidate = iterator.next();
+                if (candidate.getValue().expires() - now < 0) {
+                    iterator.remove();
+                    continue;
+                }
+                float score = dot(embedding, candidate.getValue().embedding());
+                if (score >= bestScore) {
+                    bestQuery = candidate.getKey();
+                    bestScore = score;
+                }
+            }
+            // Marks the entry as used
+            return bestQuery == null ? null : entries.get(bestQuery);
+        }
+    }
+
+    private void store(String query, float[] embedding, String answer, long nanos, long modification) {
+        Entry entry = new Entry(embedding, answer, nanos, System.nanoTime() + settings.ttl().toNanos());
+        synchronized (entries) {
+            if (modifications.get() != modification) {
+                // A tool modified the clinic while answering, maybe on behalf of this very query
+                return;
+            }
+            entries.put(query, entry);
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (entries.size() > settings.maximumSize()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    private static float[] unit(float[] vector) {
+        double norm = Math.sqrt(dot(vector, vector));
+        float[] unit = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            unit[i] = norm == 0 ? 0 : (float) (vector[i] / norm);
+        }
+        return unit;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return -1;
+        }
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @param nanos   time the model took to answer
+     * @param expires {@link System#nanoTime()} after which the answer is not reused
+     */
+    private record Entry(float[] embedding, String answer, long nanos, long expires) {
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.SimpleLoggerAdvisor;
+
+/**
+ * {@link SimpleLoggerAdvisor} also logging, after each response, the tools executed to answer it with their time,
+ * as recorded by the {@link ParallelToolCallingManager} for the turn held by the
+ * {@link ParallelToolCallingManager#TURN_ID} advisor parameter.
+ */
+class ToolTimingLoggerAdvisor extends SimpleLoggerAdvisor {
+
+    // Same logger as the requests and responses, enabled with them
+    private static final Logger logger = LoggerFactory.getLogger(SimpleLoggerAdvisor.class);
+
+    private final ParallelToolCallingManager toolCallingManager;
+
+    ToolTimingLoggerAdvisor(ParallelToolCallingManager toolCallingManager) {
+        this.toolCallingManager = toolCallingManager;
+    }
+
+    @Override
+    protected void logResponse(ChatClientResponse chatClientResponse) {
+        super.logResponse(chatClientResponse);
+        if (logger.isDebugEnabled()
+            && chatClientResponse.context().get(ParallelToolCallingManager.TURN_ID) instanceof String turnId) {
+            List<ParallelToolCallingManager.ToolTiming> timings = toolCallingManager.timings(turnId);
+            if (!timings.isEmpty()) {
+                logger.debug("tools: {}", timings);
+            }
+        }
+    }
+}
@@ -1,35 +1,52 @@
 package org.springframework.samples.petclinic.genai;
 
-import org.springframework.ai.vectorstore.SimpleVectorStore;
-import org.springframework.ai.vectorstore.VectorStore;
-import tools.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.document.DocumentReader;
-import org.springframework.ai.reader.JsonReader;
 import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.context.event.EventListener;
-import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.samples.petclinic.genai.dto.Specialty;
 import org.springframework.samples.petclinic.genai.dto.Vet;
+import org.springframework.samples.petclinic.genai.vectorstore.HnswVectorStore;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.reactive.function.client.WebClient;
-import tools.jackson.core.JacksonException;
+import reactor.core.publisher.Mono;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.attribute.FileAttribute;
-import java.nio.file.attribute.PosixFilePermission;
-import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Loads the veterinarians data into a vector store for the purpose of RAG functionality.
+ * Loads the veterinarians data into a vector store for the purpose of RAG functionality, and keeps it in sync with
+ * vets-service.
+ * <p>
+ * Every <code>genai.vector-store.sync-interval</code>, the vets are fetched again unless their ETag did not change.
+ * Each vet is rendered as the text of its document, and only the vets whose text is not in the store yet are
+ * embedded, by batches. Documents whose text matches no vet any more are deleted. Documents are matched by a hash of
+ * their text, so the pre-embedded vets and an index saved by a previous start are reused as long as the vets did not
+ * change.
  *
  * @author Oded Shopen
  */
@@ -38,75 +55,172 @@ public class VectorStoreController {
 
 	private final Logger logger = LoggerFactory.getLogger(VectorStoreController.class);
 
-	private final VectorStore vectorStore;
+	private final HnswVectorStore vectorStore;
     private final WebClient webClient;
+    private final Path indexFile;
+    private final Duration syncInterval;
+    private final int syncBatchSize;
 
-    public VectorStoreController(VectorStore vectorStore, WebClient.Builder webClientBuilder) {
+    private final Counter embeddingCalls;
+    private final Counter embeddedDocuments;
+    private final Counter deletedDocuments;
+
+    /**
+     * ETag of the vets the store was last synchronized with
+     */
+    private volatile String syncedEtag;
+
+    private volatile long syncedAt = System.currentTimeMillis();
+
+    public VectorStoreController(HnswVectorStore vectorStore, @LoadBalanced WebClient.Builder webClientBuilder,
+                                 GenAIProperties properties, MeterRegistry registry) {
 		this.webClient = webClientBuilder.build();
 		this.vectorStore = vectorStore;
+		this.indexFile = properties.vectorStore().indexFile();
+		this.syncInterval = properties.vectorStore().syncInterval();
+		this.syncBatchSize = Math.max(1, properties.vectorStore().syncBatchSize());
+        TimeGauge.builder("petclinic.vectorstore.sync.lag", this, TimeUnit.MILLISECONDS,
+                controller -> System.currentTimeMillis() - controller.syncedAt)
+            .description("Time since the vector store was last found in sync with vets-service")
+            .register(registry);
+        this.embeddingCalls = Counter.builder("petclinic.vectorstore.sync.embedding.calls")
+            .description("Calls of the embedding model made to synchronize the vector store")
+            .register(registry);
+        this.embeddedDocuments = Counter.builder("petclinic.vectorstore.sync.documents")
+            .description("Vet documents embedded to synchronize the vector store")
+            .tag("operation", "embedded")
+            .register(registry);
+        this.deletedDocuments = Counter.builder("petclinic.vectorstore.sync.documents")
+            .description("Vet documents deleted to synchronize the vector store")
+            .tag("operation", "deleted")
+            .register(registry);
 	}
 
 	@EventListener
 	public void loadVetDataToVectorStoreOnStartup(ApplicationStartedEvent event) throws IOException {
-		Resource resource = new ClassPathResource("vectorstore.json");
-
-		// Check if file exists
-		if (resource.exists()) {
-			// In order to save on AI credits, use a pre-embedded database that was saved
-			// to
-			// disk based on the current data in the h2 data.sql file
-			File file = resource.getFile();
-			((SimpleVectorStore) this.vectorStore).load(file);
-			logger.info("vector store loaded from existing vectorstore.json file in the classpath");
-			return;
+		// An index saved by a previous start is loaded as is, without rebuilding the graph
+		if (indexFile != null && Files.exists(indexFile)) {
+			this.vectorStore.load(indexFile);
+		} else {
+			// A snapshot converted from vectorstore.json, which is mapped rather than parsed
+			Resource snapshot = new ClassPathResource("vectorstore.snapshot");
+			Resource resource = snapshot.exists() ? snapshot : new ClassPathResource("vectorstore.json");
+			if (resource.exists()) {
+				// In order to save on AI credits, use a pre-embedded database that was saved
+				// to disk based on the current data in the h2 data.sql file
+				this.vectorStore.load(resource);
+				logger.info("vector store loaded from existing {} file in the classpath", resource.getFilename());
+			}
 		}
-
-		// If vectorstore.json is deleted, the data will be loaded on startup every time.
+		// Only the vets added or changed since are embedded, all of them when nothing was loaded.
 		// Warning - this can be costly in terms of credits used with the AI provider.
-		// Fetches all Vet entites and creates a document per vet
-        String vetsHostname = "http://vets-service/";
-        List<Vet> vets = webClient
-	            .get()
-	            .uri(vetsHostname + "vets")
-	            .retrieve()
-	            .bodyToMono(new ParameterizedTypeReference<List<Vet>>() {})
-	            .block();
-
-
-		Resource vetsAsJson = convertListToJsonResource(vets);
-		DocumentReader reader = new JsonReader(vetsAsJson);
-
-		List<Document> documents = reader.get();
-		// add the documents to the vector store
-		this.vectorStore.add(documents);
-
-		if (vectorStore instanceof SimpleVectorStore store) {
-            // java:S5443 Sonar rule: Using publicly writable directories is security-sensitive
-            FileAttribute<Set<PosixFilePermission>> attr = PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------"));
-            File file = Files.createTempFile("vectorstore", ".json", attr).toFile();
-			store.save(file);
-			logger.info("vector store contents written to {}", file.getAbsolutePath());
-		}
-
-		logger.info("vector store loaded with {} documents", documents.size());
-	}
-
-	public Resource convertListToJsonResource(List<Vet> vets) {
-		ObjectMapper objectMapper = new ObjectMapper();
-		try {
-			// Convert List<Vet> to JSON string
-			String json = objectMapper.writeValueAsString(vets);
-
-			// Convert JSON string to byte array
-			byte[] jsonBytes = json.getBytes();
-
-			// Create a ByteArrayResource from the byte array
-			return new ByteArrayResource(jsonBytes);
-		}
-		catch (JacksonException e) {
-            logger.error("Error processing JSON in the convertListToJsonResource function", e);
-			return null;
-		}
+		synchronizeWithVetsService();
 	}
 
+    /**
+     * Embeds the vets added or changed in vets-service and deletes the documents of the removed ones, saving the index
+     * file when the store changed. Failures are logged, the next synchronization trying again.
+     */
+    @Scheduled(fixedDelayString = "${genai.vector-store.sync-interval:1m}",
+        initialDelayString = "${genai.vector-store.sync-interval:1m}")
+    public synchronized void synchronizeWithVetsService() {
+        try {
+            ResponseEntity<List<Vet>> vets = fetchVets(syncedEtag);
+            if (vets != null) {
+                if (synchronize(vets.getBody()) && indexFile != null) {
+                    vectorStore.save(indexFile);
+                }
+                syncedEtag = vets.getHeaders().getETag();
+            }
+            syncedAt = System.currentTimeMillis();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not synchronize the vector store with vets-service: {}", e.toString());
+        }
+    }
+
+    /**
+     * @return the vets, or <code>null</code> when they still have the given ETag
+     */
+    private ResponseEntity<List<Vet>> fetchVets(String etag) {
+        return webClient
+            .get()
+            .uri("http://vets-service/vets")
+            .headers(headers -> {
+                if (etag != null) {
+                    headers.setIfNoneMatch(etag);
+                }
+            })
+            .exchangeToMono(response -> {
+                if (response.statusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED)) {
+                    return response.releaseBody().then(Mono.empty());
+                }
+                if (response.statusCode().isError()) {
+                    return response.createError();
+                }
+                return response.toEntityList(Vet.class);
+            })
+            .block(syncInterval);
+    }
+
+    /**
+     * @return whether documents were added or deleted
+     */
+    private boolean synchronize(List<Vet> vets) {
+        Map<String, String> stored = new HashMap<>();
+        vectorStore.forEach(document -> stored.put(hash(document.getText()), document.getId()));
+
+        List<Document> changed = new ArrayList<>();
+        for (Vet vet : vets) {
+            String text = text(vet);
+            if (stored.remove(hash(text)) == null) {
+                changed.add(Document.builder().id(documentId(vet)).text(text).build());
+            }
+        }
+        // Changed vets keep their document id, their document being replaced rather than deleted
+        Set<String> removed = new HashSet<>(stored.values());
+        changed.forEach(document -> removed.remove(document.getId()));
+
+        for (int from = 0; from < changed.size(); from += syncBatchSize) {
+            vectorStore.add(changed.subList(from, Math.min(changed.size(), from + syncBatchSize)));
+            embeddingCalls.increment();
+        }
+        embeddedDocuments.increment(changed.size());
+        if (!removed.isEmpty()) {
+            vectorStore.delete(List.copyOf(removed));
+            deletedDocuments.increment(removed.size());
+        }
+        if (!changed.isEmpty() || !removed.isEmpty()) {
+            logger.info("vector store synchronized with {} vets: {} documents embedded, {} deleted", vets.size(),
+                changed.size(), removed.size());
+        }
+        return !changed.isEmpty() || !removed.isEmpty();
+    }
+
+    /**
+     * @return the text the vet is embedded with, formatted as the documents of <code>vectorstore.json</code>
+     */
+    static String text(Vet vet) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("id", vet.id());
+        fields.put("firstName", vet.firstName());
+        fields.put("lastName", vet.lastName());
+        fields.put("specialties", vet.specialties() == null ? List.of() : vet.specialties().stream()
+            .sorted(Comparator.comparing(Specialty::name, Comparator.nullsLast(Comparator.naturalOrder())))
+            .map(specialty -> {
+                Map<String, Object> specialtyFields = new LinkedHashMap<>();
+                specialtyFields.put("id", specialty.id());
+                specialtyFields.put("name", specialty.name());
+                return specialtyFields;
+            })
+            .toList());
+        return fields.toString();
+    }
+
+    private static String documentId(Vet vet) {
+        return UUID.nameUUIDFromBytes(("vet-" + vet.id()).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private static String hash(String text) {
+        return DigestUtils.md5DigestAsHex(text.getBytes(StandardCharsets.UTF_8));
+    }
 }
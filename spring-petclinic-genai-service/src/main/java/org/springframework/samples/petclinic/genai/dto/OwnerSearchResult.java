@@ -0,0 +1,48 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.dto;
+
+import java.util.List;
+
+/**
+ * Page of owners found by a search, trimmed to what the model needs.
+ *
+ * @param total number of owners matching the search, across all pages
+ */
+public record OwnerSearchResult(
+    List<OwnerSummary> owners,
+    long total
+) {
+
+    public record OwnerSummary(
+        int id,
+        String firstName,
+        String lastName,
+        String address,
+        String city,
+        String telephone,
+        List<PetSummary> pets
+    ) {
+    }
+
+    public record PetSummary(
+        int id,
+        String name,
+        String birthDate,
+        String type
+    ) {
+    }
+}
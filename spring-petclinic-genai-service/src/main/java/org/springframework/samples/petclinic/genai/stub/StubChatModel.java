@@ -0,0 +1,175 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.stub;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.AssistantMessage.ToolCall;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.samples.petclinic.genai.GenAIProperties;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Scripted chat model answering locally, with the latency of a remote LLM.
+ * <p>
+ * A user message naming some of the tools of the prompt, such as <code>listVets</code>, is answered with a call of
+ * each of them without arguments, which are executed as the LLM providers' models do, the model being called again
+ * with their results. Any other message is answered with {@link GenAIProperties.Stub#answerTokens()} tokens, the
+ * first one after {@link GenAIProperties.Stub#firstTokenLatency()} and each next one after
+ * {@link GenAIProperties.Stub#tokenLatency()}, streamed one by one or returned at once.
+ */
+class StubChatModel implements ChatModel {
+
+    private static final String[] WORDS = ("The Spring Petclinic veterinarians take care of the pets of the owners"
+        + " registered in the clinic, and record every visit.").split(" ");
+
+    private final ToolCallingManager toolCallingManager;
+
+    private final Duration firstTokenLatency;
+
+    private final Duration tokenLatency;
+
+    private final int answerTokens;
+
+    StubChatModel(ToolCallingManager toolCallingManager, GenAIProperties properties) {
+        this.toolCallingManager = toolCallingManager;
+        this.firstTokenLatency = properties.stub().firstTokenLatency();
+        this.tokenLatency = properties.stub().tokenLatency();
+        this.answerTokens = Math.max(1, properties.stub().answerTokens());
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        List<ToolCall> toolCalls = toolCalls(prompt);
+        if (toolCalls.isEmpty()) {
+            List<String> tokens = tokens(prompt);
+            sleep(firstTokenLatency.plus(tokenLatency.multipliedBy(tokens.size() - 1)));
+            return response(String.join("", tokens));
+        }
+        sleep(firstTokenLatency);
+        ChatResponse response = response(toolCalls);
+        if (!ToolCallingChatOptions.isInternalToolExecutionEnabled(prompt.getOptions())) {
+            return response;
+        }
+        ToolExecutionResult result = toolCallingManager.executeToolCalls(prompt, response);
+        return result.returnDirect()
+            ? new ChatResponse(ToolExecutionResult.buildGenerations(result))
+            : call(new Prompt(result.conversationHistory(), prompt.getOptions()));
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        List<ToolCall> toolCalls = toolCalls(prompt);
+        if (toolCalls.isEmpty()) {
+            List<String> tokens = tokens(prompt);
+            return Flux.range(0, tokens.size())
+                .concatMap(i -> Mono.just(response(tokens.get(i)))
+                    .delayElement(i == 0 ? firstTokenLatency : tokenLatency));
+        }
+        ChatResponse response = response(toolCalls);
+        Mono<ChatResponse> called = Mono.just(response).delayElement(firstTokenLatency);
+        if (!ToolCallingChatOptions.isInternalToolExecutionEnabled(prompt.getOptions())) {
+            return called.flux();
+        }
+        // Tools are blocking, like the calls of the other petclinic services
+        return called.publishOn(Schedulers.boundedElastic())
+            .map(toolResponse -> toolCallingManager.executeToolCalls(prompt, toolResponse))
+            .flatMapMany(result -> result.returnDirect()
+                ? Flux.just(new ChatResponse(ToolExecutionResult.buildGenerations(result)))
+                : stream(new Prompt(result.conversationHistory(), prompt.getOptions())));
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return ToolCallingChatOptions.builder().build();
+    }
+
+    /**
+     * @return the calls of the tools named in the last message of the prompt, if a user message
+     */
+    private static List<ToolCall> toolCalls(Prompt prompt) {
+        List<Message> messages = prompt.getInstructions();
+        Message last = messages.isEmpty() ? null : messages.get(messages.size() - 1);
+        if (last == null || last.getMessageType() != MessageType.USER
+            || !(prompt.getOptions() instanceof ToolCallingChatOptions options)) {
+            return List.of();
+        }
+        String text = last.getText().toLowerCase(Locale.ROOT);
+        List<ToolCall> toolCalls = new ArrayList<>();
+        for (ToolCallback tool : options.getToolCallbacks()) {
+            String name = tool.getToolDefinition().name();
+            if (text.contains(name.toLowerCase(Locale.ROOT))) {
+                toolCalls.add(new ToolCall("call-" + toolCalls.size(), "function", name, "{}"));
+            }
+        }
+        return toolCalls;
+    }
+
+    /**
+     * @return the tokens of the answer, each word followed by a space, opening with the size of the tool results
+     * when answering them
+     */
+    private List<String> tokens(Prompt prompt) {
+        List<String> tokens = new ArrayList<>(answerTokens);
+        List<Message> messages = prompt.getInstructions();
+        if (!messages.isEmpty() && messages.get(messages.size() - 1) instanceof ToolResponseMessage toolResponses) {
+            for (ToolResponseMessage.ToolResponse toolResponse : toolResponses.getResponses()) {
+                tokens.add(toolResponse.name() + " ");
+                tokens.add("returned ");
+                tokens.add(toolResponse.responseData().length() + " ");
+                tokens.add("characters. ");
+            }
+        }
+        for (int i = 0; tokens.size() < answerTokens; i++) {
+            tokens.add(WORDS[i % WORDS.length] + " ");
+        }
+        return tokens.subList(0, answerTokens);
+    }
+
+    private static ChatResponse response(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    private static ChatResponse response(List<ToolCall> toolCalls) {
+        return new ChatResponse(List.of(new Generation(AssistantMessage.builder().toolCalls(toolCalls).build())));
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while generating the answer", e);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.stub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+/**
+ * Deterministic embeddings computed locally: the character trigrams of the lower-cased text are hashed into the
+ * dimensions of the vector, each with a sign drawn from the same hash, and the vector is normalized. Texts sharing
+ * words are close to each other, without any model behind.
+ */
+class StubEmbeddingModel implements EmbeddingModel {
+
+    private static final int NGRAM = 3;
+
+    private final int dimensions;
+
+    StubEmbeddingModel(int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<Embedding> results = new ArrayList<>();
+        for (String text : request.getInstructions()) {
+            results.add(new Embedding(embed(text), results.size()));
+        }
+        return new EmbeddingResponse(results);
+    }
+
+    @Override
+    public float[] embed(String text) {
+        float[] vector = new float[dimensions];
+        String padded = " " + text.toLowerCase(Locale.ROOT) + " ";
+        for (int i = 0; i + NGRAM <= padded.length(); i++) {
+            int hash = mix(padded.substring(i, i + NGRAM).hashCode());
+            vector[Math.floorMod(hash, dimensions)] += (hash & 0x8000_0000) == 0 ? 1 : -1;
+        }
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm > 0) {
+            float scale = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] *= scale;
+            }
+        }
+        return vector;
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getFormattedContent(MetadataMode.EMBED));
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Spreads the bits of a string hash code, whose low bits vary little between similar trigrams.
+     */
+    private static int mix(int hash) {
+        hash *= 0x9E37_79B9;
+        return hash ^ (hash >>> 16);
+    }
+}
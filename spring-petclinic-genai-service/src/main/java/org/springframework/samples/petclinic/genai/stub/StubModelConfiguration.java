@@ -0,0 +1,87 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.stub;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.samples.petclinic.genai.GenAIProperties;
+import org.springframework.samples.petclinic.genai.vectorstore.HnswVectorStore;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+/**
+ * Local models replacing the LLM provider with the <code>stub</code> profile, to run the chatbot and load test it
+ * fully offline.
+ */
+@Configuration
+@Profile("stub")
+class StubModelConfiguration {
+
+    private static final TypeReference<Map<String, Object>> METADATA = new TypeReference<>() {
+    };
+
+    private final ObjectProvider<HnswVectorStore> vectorStore;
+
+    // The vector store is built with the embedding model of this configuration
+    StubModelConfiguration(ObjectProvider<HnswVectorStore> vectorStore) {
+        this.vectorStore = vectorStore;
+    }
+
+    @Bean
+    ChatModel stubChatModel(ToolCallingManager toolCallingManager, GenAIProperties properties) {
+        return new StubChatModel(toolCallingManager, properties);
+    }
+
+    @Bean
+    EmbeddingModel stubEmbeddingModel(GenAIProperties properties) {
+        return new StubEmbeddingModel(properties.stub().dimensions());
+    }
+
+    /**
+     * Embeds the bundled vets again with the stub model once their embeddings computed by the LLM provider are
+     * loaded, the stub queries being otherwise compared with vectors of another model.
+     */
+    @EventListener
+    void embedBundledVets(ApplicationReadyEvent event) throws IOException {
+        List<Document> documents = new ArrayList<>();
+        try (InputStream json = new ClassPathResource("vectorstore.json").getInputStream()) {
+            for (JsonNode document : JsonMapper.shared().readTree(json).values()) {
+                documents.add(Document.builder()
+                    .id(document.get("id").asString())
+                    .text(document.get("text").asString())
+                    .metadata(JsonMapper.shared().treeToValue(document.get("metadata"), METADATA))
+                    .build());
+            }
+        }
+        vectorStore.getObject().add(documents);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import org.springframework.ai.document.Document;
+
+/**
+ * Immutable BM25 inverted index over the texts of documents, or the parts of them worth searching, for lexical
+ * searches next to the vector ones.
+ * <p>
+ * Texts are split into lower-cased runs of letters and digits. Matches are ranked by the number of distinct query
+ * terms they contain, then by their BM25 score, so that the documents containing every term come first. Query terms
+ * found in no document are ignored.
+ */
+public final class Bm25Index {
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final double K1 = 1.2;
+
+    private static final double B = 0.75;
+
+    private final List<Document> documents;
+
+    private final int[] lengths;
+
+    private final double averageLength;
+
+    /**
+     * Positions of the documents containing each term, with the term frequency in each of them
+     */
+    private final Map<String, List<Posting>> postings = new HashMap<>();
+
+    private Bm25Index(Collection<Document> documents, Function<Document, String> text) {
+        this.documents = List.copyOf(documents);
+        this.lengths = new int[this.documents.size()];
+        long totalLength = 0;
+        for (int position = 0; position < this.documents.size(); position++) {
+            List<String> tokens = tokenize(text.apply(this.documents.get(position)));
+            lengths[position] = tokens.size();
+            totalLength += tokens.size();
+            Map<String, Integer> frequencies = new HashMap<>();
+            tokens.forEach(token -> frequencies.merge(token, 1, Integer::sum));
+            for (Map.Entry<String, Integer> frequency : frequencies.entrySet()) {
+                postings.computeIfAbsent(frequency.getKey(), term -> new ArrayList<>())
+                    .add(new Posting(position, frequency.getValue()));
+            }
+        }
+        this.averageLength = this.documents.isEmpty() ? 0 : (double) totalLength / this.documents.size();
+    }
+
+    public static Bm25Index of(Collection<Document> documents) {
+        return of(documents, Document::getText);
+    }
+
+    /**
+     * @param text the text of a document indexed
+     */
+    public static Bm25Index of(Collection<Document> documents, Function<Document, String> text) {
+        return new Bm25Index(documents, text);
+    }
+
+    /**
+     * @return the lower-cased runs of letters and digits of the text
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text != null) {
+            for (String token : SEPARATORS.split(text.toLowerCase(Locale.ROOT))) {
+                if (!token.isEmpty()) {
+                    tokens.add(token);
+                }
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @param terms query terms, tokenized as the documents, duplicates being ignored
+     * @param topK  maximum number of matches returned
+     * @return the documents containing at least one of the terms, best first
+     */
+    public List<Match> search(Collection<String> terms, int topK) {
+        // Terms in no document, such as titles or typos, are ignored
+        Set<String> known = new LinkedHashSet<>(terms);
+        known.retainAll(postings.keySet());
+        double[] scores = new double[documents.size()];
+        int[] matchedTerms = new int[documents.size()];
+        for (String term : known) {
+            List<Posting> termPostings = postings.get(term);
+            double idf = Math.log(1 + (documents.size() - termPostings.size() + 0.5) / (termPostings.size() + 0.5));
+            for (Posting posting : termPostings) {
+                double frequency = posting.frequency();
+                double norm = K1 * (1 - B + B * lengths[posting.position()] / averageLength);
+                scores[posting.position()] += idf * frequency * (K1 + 1) / (frequency + norm);
+                matchedTerms[posting.position()]++;
+            }
+        }
+        List<Match> matches = new ArrayList<>();
+        for (int position = 0; position < documents.size(); position++) {
+            if (matchedTerms[position] > 0) {
+                matches.add(new Match(documents.get(position), scores[position], matchedTerms[position],
+                    matchedTerms[position] == known.size()));
+            }
+        }
+        matches.sort(Comparator.comparingInt(Match::matchedTerms).thenComparingDouble(Match::score).reversed());
+        return matches.size() > topK ? matches.subList(0, topK) : matches;
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    /**
+     * @param matchedTerms number of distinct query terms in the document
+     * @param exact        whether the document contains every query term found in some document
+     */
+    public record Match(Document document, double score, int matchedTerms, boolean exact) {
+    }
+
+    private record Posting(int position, int frequency) {
+    }
+}
@@ -0,0 +1,757 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Hierarchical navigable small world graph (Malkov and Yashunin) over unit-length vectors, scored by their dot
+ * product, i.e. their cosine similarity.
+ * <p>
+ * Nodes are never unlinked: removed items are tombstoned, still traversed, but never returned. Inserts may run
+ * concurrently with each other and with searches. Neighbor lists are immutable arrays, replaced under the lock of
+ * their node, and a node only becomes reachable once such an array refers to it, so searches take no lock.
+ * <p>
+ * An index opened on a {@link Snapshot} starts with the nodes of the snapshot, each one read from it the first time a
+ * search or an insert reaches it, so opening it does not depend on its size.
+ * <p>
+ * With a {@link VectorQuantization}, the graph is walked with the compressed vectors, and the candidates found are
+ * re-ranked with the full-precision vectors. Nodes of a snapshot then only keep their compressed vector in memory,
+ * re-ranking reading the full-precision ones from the snapshot.
+ *
+ * @param <T> the item stored with every vector
+ */
+final class HnswIndex<T> {
+
+    private static final int CHUNK_BITS = 16;
+
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private static final int MAX_LEVEL = 16;
+
+    private static final int[] NO_NEIGHBORS = new int[0];
+
+    private final int m;
+
+    private final int maxM0;
+
+    private final int efConstruction;
+
+    private final double levelMultiplier;
+
+    private final VectorQuantization quantization;
+
+    private final AtomicReferenceArray<AtomicReferenceArray<Node<T>>> chunks =
+        new AtomicReferenceArray<>(1 << (31 - CHUNK_BITS));
+
+    private final Snapshot<T> base;
+
+    private final int baseSize;
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicInteger removed = new AtomicInteger();
+
+    private final ReadWriteLock structureLock = new ReentrantReadWriteLock();
+
+    private final Object entryPointLock = new Object();
+
+    private final ThreadLocal<Visited> visited = ThreadLocal.withInitial(Visited::new);
+
+    private volatile Node<T> entryPoint;
+
+    private volatile int dimensions;
+
+    /**
+     * @param m              number of neighbors linked per node and level, twice as many on the bottom level
+     * @param efConstruction size of the candidate list searched when inserting
+     */
+    HnswIndex(int m, int efConstruction) {
+        this(m, efConstruction, VectorQuantization.NONE);
+    }
+
+    HnswIndex(int m, int efConstruction, VectorQuantization quantization) {
+        this(m, efConstruction, quantization, null);
+    }
+
+    /**
+     * Index holding the nodes of a snapshot, to which new nodes may be added.
+     */
+    HnswIndex(Snapshot<T> snapshot) {
+        this(snapshot, VectorQuantization.NONE);
+    }
+
+    HnswIndex(Snapshot<T> snapshot, VectorQuantization quantization) {
+        this(snapshot.m(), snapshot.efConstruction(), quantization, snapshot);
+        this.dimensions = snapshot.dimensions();
+        this.size.set(snapshot.size());
+        this.removed.set(snapshot.removedCount());
+        this.entryPoint = snapshot.entryPoint() < 0 ? null : node(snapshot.entryPoint());
+    }
+
+    private HnswIndex(int m, int efConstruction, VectorQuantization quantization, Snapshot<T> base) {
+        if (m < 2 || efConstruction < 1) {
+            throw new IllegalArgumentException("m must be at least 2 and efConstruction at least 1");
+        }
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1 / Math.log(m);
+        this.quantization = quantization;
+        this.base = base;
+        this.baseSize = base == null ? 0 : base.size();
+    }
+
+    int m() {
+        return m;
+    }
+
+    int efConstruction() {
+        return efConstruction;
+    }
+
+    int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @return the number of items that were added and not removed
+     */
+    int size() {
+        return size.get() - removed.get();
+    }
+
+    /**
+     * @param vector unit-length vector, not copied
+     * @return the node id of the item
+     */
+    int add(float[] vector, T item) {
+        structureLock.readLock().lock();
+        try {
+            checkDimensions(vector.length);
+            int id = size.getAndIncrement();
+            Node<T> node = new Node<>(id, vector, quantization.encode(vector), item, randomLevel(), null);
+            chunk(id).set(id & CHUNK_MASK, node);
+            link(node);
+            return id;
+        } finally {
+            structureLock.readLock().unlock();
+        }
+    }
+
+    void remove(int id) {
+        Node<T> node = node(id);
+        if (node != null && !node.removed) {
+            node.removed = true;
+            removed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Visits the items that were not removed, in insertion order, without reading the vectors of the snapshot.
+     */
+    void forEach(ObjIntConsumer<T> action) {
+        int count = size.get();
+        for (int id = 0; id < count; id++) {
+            Node<T> node = loadedNode(id);
+            if (node != null ? !node.removed : id < baseSize && !base.removed(id)) {
+                action.accept(node != null ? node.item() : base.item(id), id);
+            }
+        }
+    }
+
+    /**
+     * Reads every node, blocking inserts meanwhile. Nodes of the snapshot not used yet are read from it.
+     */
+    Contents<T> contents() {
+        structureLock.writeLock().lock();
+        try {
+            int count = size.get();
+            List<NodeState<T>> nodes = new ArrayList<>(count);
+            for (int id = 0; id < count; id++) {
+                Node<T> node = loadedNode(id);
+                nodes.add(node != null ? node.state() : baseState(id));
+            }
+            Node<T> entry = entryPoint;
+            return new Contents<>(m, efConstruction, dimensions, entry == null ? -1 : entry.id, nodes);
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Approximate nearest neighbors.
+     *
+     * @param ef     size of the candidate list, the larger the better the recall and the slower the search
+     * @param filter the items that may be returned, <code>null</code> for all of them
+     * @return at most <code>k</code> matches, best first
+     */
+    List<Match<T>> search(float[] query, int k, int ef, Predicate<T> filter) {
+        Node<T> entry = entryPoint;
+        if (entry == null || k <= 0) {
+            return List.of();
+        }
+        Query encoded = new Query(query, quantization.encode(query));
+        int current = entry.id;
+        for (int level = entry.level(); level > 0; level--) {
+            current = greedySearch(encoded, current, level);
+        }
+        ScoredQueue found = searchLayer(encoded, current, Math.max(ef, k), 0, filter == null ? item -> true : filter);
+        if (quantization != VectorQuantization.NONE) {
+            found = rerank(query, found, k);
+        }
+        while (found.size() > k) {
+            found.pop();
+        }
+        return matches(found);
+    }
+
+    /**
+     * Exact nearest neighbors, scanning every item with its full-precision vector.
+     */
+    List<Match<T>> exactSearch(float[] query, int k, Predicate<T> filter) {
+        ScoredQueue found = new ScoredQueue(false, k + 1);
+        int count = size.get();
+        for (int id = 0; id < count && k > 0; id++) {
+            Node<T> node = node(id);
+            if (node != null && accepts(node, filter)) {
+                float score = dot(query, node.fullVector());
+                if (found.size() < k || score > found.topScore()) {
+                    found.push(id, score);
+                    if (found.size() > k) {
+                        found.pop();
+                    }
+                }
+            }
+        }
+        return matches(found);
+    }
+
+    /**
+     * @return the <code>k</code> best candidates by full-precision score, worst on top
+     */
+    private ScoredQueue rerank(float[] query, ScoredQueue candidates, int k) {
+        ScoredQueue found = new ScoredQueue(false, k + 1);
+        while (candidates.size() > 0) {
+            int id = candidates.pop();
+            float score = dot(query, node(id).fullVector());
+            if (found.size() < k || score > found.topScore()) {
+                found.push(id, score);
+                if (found.size() > k) {
+                    found.pop();
+                }
+            }
+        }
+        return found;
+    }
+
+    private void link(Node<T> node) {
+        Node<T> entry = entryPoint;
+        if (entry == null) {
+            synchronized (entryPointLock) {
+                if (entryPoint == null) {
+                    entryPoint = node;
+                    return;
+                }
+                entry = entryPoint;
+            }
+        }
+        Query vector = new Query(node.vector, node.code);
+        int current = entry.id;
+        for (int level = entry.level(); level > node.level(); level--) {
+            current = greedySearch(vector, current, level);
+        }
+        for (int level = Math.min(node.level(), entry.level()); level >= 0; level--) {
+            ScoredQueue found = searchLayer(vector, current, efConstruction, level, null);
+            int[] candidates = new int[found.size()];
+            float[] scores = new float[found.size()];
+            for (int i = candidates.length - 1; i >= 0; i--) {
+                scores[i] = found.topScore();
+                candidates[i] = found.pop();
+            }
+            current = candidates[0];
+            int[] selected = selectNeighbors(candidates, scores, m);
+            connect(node, selected, level);
+            for (int neighbor : selected) {
+                connect(node(neighbor), new int[]{node.id}, level);
+            }
+        }
+        if (node.level() > entry.level()) {
+            synchronized (entryPointLock) {
+                if (node.level() > entryPoint.level()) {
+                    entryPoint = node;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds neighbors to a node, keeping the most diverse ones when it has too many.
+     */
+    private void connect(Node<T> node, int[] added, int level) {
+        int max = level == 0 ? maxM0 : m;
+        synchronized (node) {
+            int[] current = node.neighbors.get(level);
+            int[] merged = Arrays.copyOf(current, current.length + added.length);
+            int count = current.length;
+            for (int id : added) {
+                if (id != node.id && Arrays.stream(current).noneMatch(existing -> existing == id)) {
+                    merged[count++] = id;
+                }
+            }
+            if (count <= max) {
+                node.neighbors.set(level, count == merged.length ? merged : Arrays.copyOf(merged, count));
+                return;
+            }
+            ScoredQueue scored = new ScoredQueue(true, count);
+            for (int i = 0; i < count; i++) {
+                scored.push(merged[i], score(node, node(merged[i])));
+            }
+            int[] candidates = new int[count];
+            float[] scores = new float[count];
+            for (int i = 0; i < count; i++) {
+                scores[i] = scored.topScore();
+                candidates[i] = scored.pop();
+            }
+            node.neighbors.set(level, selectNeighbors(candidates, scores, max));
+        }
+    }
+
+    /**
+     * Neighbor selection heuristic: a candidate is kept when it is closer to the node than to any candidate kept
+     * before it, and the remaining slots are filled with the closest candidates that were pruned.
+     *
+     * @param candidates candidates, best first
+     * @param scores     their similarity to the node
+     */
+    private int[] selectNeighbors(int[] candidates, float[] scores, int max) {
+        if (candidates.length <= max) {
+            return candidates;
+        }
+        int[] selected = new int[max];
+        int count = 0;
+        int[] pruned = new int[candidates.length];
+        int prunedCount = 0;
+        for (int i = 0; i < candidates.length && count < max; i++) {
+            Node<T> candidate = node(candidates[i]);
+            boolean diverse = true;
+            for (int j = 0; j < count && diverse; j++) {
+                diverse = score(candidate, node(selected[j])) <= scores[i];
+            }
+            if (diverse) {
+                selected[count++] = candidates[i];
+            } else {
+                pruned[prunedCount++] = candidates[i];
+            }
+        }
+        for (int i = 0; i < prunedCount && count < max; i++) {
+            selected[count++] = pruned[i];
+        }
+        return selected;
+    }
+
+    private int greedySearch(Query query, int start, int level) {
+        int best = start;
+        float bestScore = score(query, node(start));
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int neighbor : node(best).neighbors.get(level)) {
+                float score = score(query, node(neighbor));
+                if (score > bestScore) {
+                    best = neighbor;
+                    bestScore = score;
+                    improved = true;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @param filter the items that may be found, <code>null</code> to also find removed ones while inserting
+     * @return the <code>ef</code> best accepted nodes found, worst on top
+     */
+    private ScoredQueue searchLayer(Query query, int entry, int ef, int level, Predicate<T> filter) {
+        Visited seen = visited.get();
+        seen.clear();
+        ScoredQueue candidates = new ScoredQueue(true, ef * 2);
+        ScoredQueue found = new ScoredQueue(false, ef + 1);
+        Node<T> entryNode = node(entry);
+        float entryScore = score(query, entryNode);
+        seen.add(entry);
+        candidates.push(entry, entryScore);
+        if (filter == null || accepts(entryNode, filter)) {
+            found.push(entry, entryScore);
+        }
+        while (candidates.size() > 0) {
+            float score = candidates.topScore();
+            if (found.size() >= ef && score < found.topScore()) {
+                break;
+            }
+            for (int neighbor : node(candidates.pop()).neighbors.get(level)) {
+                if (!seen.add(neighbor)) {
+                    continue;
+                }
+                Node<T> node = node(neighbor);
+                float neighborScore = score(query, node);
+                if (found.size() < ef || neighborScore > found.topScore()) {
+                    candidates.push(neighbor, neighborScore);
+                    if (filter == null || accepts(node, filter)) {
+                        found.push(neighbor, neighborScore);
+                        if (found.size() > ef) {
+                            found.pop();
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private float score(Query query, Node<T> node) {
+        return node.code == null
+            ? dot(query.vector(), node.vector) : quantization.score(query.vector(), query.code(), node.code);
+    }
+
+    private float score(Node<T> a, Node<T> b) {
+        return a.code == null ? dot(a.vector, b.vector) : quantization.score(a.code, b.code);
+    }
+
+    private List<Match<T>> matches(ScoredQueue found) {
+        Match<T>[] matches = newMatches(found.size());
+        for (int i = matches.length - 1; i >= 0; i--) {
+            float score = found.topScore();
+            matches[i] = new Match<>(node(found.pop()).item(), score);
+        }
+        return new ArrayList<>(Arrays.asList(matches));
+    }
+
+    private static <T> boolean accepts(Node<T> node, Predicate<T> filter) {
+        return !node.removed && (filter == null || filter.test(node.item()));
+    }
+
+    private int randomLevel() {
+        double random = ThreadLocalRandom.current().nextDouble();
+        return Math.min(MAX_LEVEL, (int) (-Math.log(1 - random) * levelMultiplier));
+    }
+
+    private void checkDimensions(int length) {
+        if (dimensions == 0) {
+            synchronized (entryPointLock) {
+                if (dimensions == 0) {
+                    dimensions = length;
+                }
+            }
+        }
+        if (length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions but got " + length);
+        }
+    }
+
+    private Node<T> node(int id) {
+        Node<T> node = loadedNode(id);
+        return node != null || id >= baseSize ? node : loadFromBase(id);
+    }
+
+    private Node<T> loadedNode(int id) {
+        AtomicReferenceArray<Node<T>> chunk = chunks.get(id >>> CHUNK_BITS);
+        return chunk == null ? null : chunk.get(id & CHUNK_MASK);
+    }
+
+    private Node<T> loadFromBase(int id) {
+        int level = base.level(id);
+        float[] vector = base.vector(id);
+        byte[] code = quantization.encode(vector);
+        Node<T> node = new Node<>(id, code == null ? vector : null, code, null, level, base);
+        for (int l = 0; l <= level; l++) {
+            node.neighbors.set(l, base.neighbors(id, l));
+        }
+        node.removed = base.removed(id);
+        AtomicReferenceArray<Node<T>> chunk = chunk(id);
+        return chunk.compareAndSet(id & CHUNK_MASK, null, node) ? node : chunk.get(id & CHUNK_MASK);
+    }
+
+    private NodeState<T> baseState(int id) {
+        int[][] neighbors = new int[base.level(id) + 1][];
+        for (int level = 0; level < neighbors.length; level++) {
+            neighbors[level] = base.neighbors(id, level);
+        }
+        return new NodeState<>(base.vector(id), base.item(id), base.removed(id), neighbors);
+    }
+
+    private AtomicReferenceArray<Node<T>> chunk(int id) {
+        int index = id >>> CHUNK_BITS;
+        AtomicReferenceArray<Node<T>> chunk = chunks.get(index);
+        if (chunk == null) {
+            chunks.compareAndSet(index, null, new AtomicReferenceArray<>(1 << CHUNK_BITS));
+            chunk = chunks.get(index);
+        }
+        return chunk;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Match<T>[] newMatches(int size) {
+        return (Match<T>[]) new Match[size];
+    }
+
+    static float dot(float[] a, float[] b) {
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int i = 0;
+        for (int bound = a.length & ~3; i < bound; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < a.length; i++) {
+            s0 += a[i] * b[i];
+        }
+        return s0 + s1 + s2 + s3;
+    }
+
+    /**
+     * @param score cosine similarity of the item to the query
+     */
+    record Match<T>(T item, float score) {
+    }
+
+    /**
+     * A vector searched for, and its compressed form if the index is quantized.
+     */
+    private record Query(float[] vector, byte[] code) {
+    }
+
+    /**
+     * Read-only nodes an index starts with.
+     */
+    interface Snapshot<T> {
+
+        int m();
+
+        int efConstruction();
+
+        int dimensions();
+
+        int size();
+
+        int removedCount();
+
+        /**
+         * @return the node id of the entry point, -1 if empty
+         */
+        int entryPoint();
+
+        int level(int id);
+
+        boolean removed(int id);
+
+        float[] vector(int id);
+
+        int[] neighbors(int id, int level);
+
+        T item(int id);
+    }
+
+    /**
+     * All the nodes of an index, by node id.
+     */
+    record Contents<T>(int m, int efConstruction, int dimensions, int entryPoint, List<NodeState<T>> nodes) {
+    }
+
+    /**
+     * @param neighbors the neighbor ids of the node, by level
+     */
+    record NodeState<T>(float[] vector, T item, boolean removed, int[][] neighbors) {
+    }
+
+    private static final class Node<T> {
+
+        final int id;
+
+        /**
+         * Full-precision vector, <code>null</code> for quantized nodes of the snapshot.
+         */
+        final float[] vector;
+
+        /**
+         * Compressed vector, <code>null</code> when the index is not quantized.
+         */
+        final byte[] code;
+
+        final AtomicReferenceArray<int[]> neighbors;
+
+        volatile boolean removed;
+
+        /**
+         * Snapshot the item is read from when first needed, <code>null</code> for nodes added to the index.
+         */
+        private final Snapshot<T> base;
+
+        private T item;
+
+        Node(int id, float[] vector, byte[] code, T item, int level, Snapshot<T> base) {
+            this.id = id;
+            this.vector = vector;
+            this.code = code;
+            this.item = item;
+            this.base = base;
+            this.neighbors = new AtomicReferenceArray<>(level + 1);
+            for (int l = 0; l <= level; l++) {
+                this.neighbors.set(l, NO_NEIGHBORS);
+            }
+        }
+
+        int level() {
+            return neighbors.length() - 1;
+        }
+
+        NodeState<T> state() {
+            int[][] levels = new int[level() + 1][];
+            for (int level = 0; level < levels.length; level++) {
+                levels[level] = neighbors.get(level);
+            }
+            return new NodeState<>(fullVector(), item(), removed, levels);
+        }
+
+        float[] fullVector() {
+            return vector != null ? vector : base.vector(id);
+        }
+
+        T item() {
+            T current = item;
+            if (current == null && base != null) {
+                current = base.item(id);
+                item = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Binary heap of node ids by score, best on top for a max-heap, worst on top otherwise.
+     */
+    private static final class ScoredQueue {
+
+        private final boolean max;
+
+        private int[] ids;
+
+        private float[] scores;
+
+        private int size;
+
+        ScoredQueue(boolean max, int capacity) {
+            this.max = max;
+            this.ids = new int[Math.max(capacity, 4)];
+            this.scores = new float[ids.length];
+        }
+
+        int size() {
+            return size;
+        }
+
+        float topScore() {
+            return scores[0];
+        }
+
+        void push(int id, float score) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(score, scores[parent])) {
+                    break;
+                }
+                ids[i] = ids[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            scores[i] = score;
+        }
+
+        int pop() {
+            int top = ids[0];
+            int lastId = ids[--size];
+            float lastScore = scores[size];
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && before(scores[child + 1], scores[child])) {
+                    child++;
+                }
+                if (!before(scores[child], lastScore)) {
+                    break;
+                }
+                ids[i] = ids[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            ids[i] = lastId;
+            scores[i] = lastScore;
+            return top;
+        }
+
+        private boolean before(float a, float b) {
+            return max ? a > b : a < b;
+        }
+    }
+
+    /**
+     * Reusable set of the nodes visited by a search, cleared by bumping a generation number.
+     */
+    private static final class Visited {
+
+        private int[] marks = new int[1024];
+
+        private int generation;
+
+        void clear() {
+            if (++generation == 0) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        boolean add(int id) {
+            if (id >= marks.length) {
+                marks = Arrays.copyOf(marks, Math.max(id + 1, marks.length * 2));
+            }
+            if (marks[id] == generation) {
+                return false;
+            }
+            marks[id] = generation;
+            return true;
+        }
+    }
+}
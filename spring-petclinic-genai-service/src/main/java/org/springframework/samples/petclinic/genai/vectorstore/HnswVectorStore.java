@@ -0,0 +1,448 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentMetadata;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.observation.conventions.VectorStoreSimilarityMetric;
+import org.springframework.ai.vectorstore.AbstractVectorStoreBuilder;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionConverter;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.ai.vectorstore.observation.AbstractObservationVectorStore;
+import org.springframework.ai.vectorstore.observation.VectorStoreObservationContext;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+/**
+ * In-process vector store answering similarity searches from an {@link HnswIndex}, instead of scanning every
+ * embedding like {@link org.springframework.ai.vectorstore.SimpleVectorStore}.
+ * <p>
+ * Searches with a filter expression walk the graph skipping the documents that do not match, and fall back to an exact
+ * scan when that finds fewer than <code>topK</code> documents. Documents are added concurrently.
+ * <p>
+ * The index is saved as a {@link VectorSnapshot}, which is loaded by mapping it in memory: documents and embeddings are
+ * only read when a search reaches them, so loading takes the same time whatever the number of documents. The JSON
+ * files written by <code>SimpleVectorStore</code> can be loaded too, and converted with
+ * {@link VectorSnapshotConverter}.
+ * <p>
+ * With a {@link VectorQuantization}, searches walk the graph with compressed embeddings and re-rank the candidates with
+ * the full-precision ones, which are only kept in memory for the documents added since the snapshot was loaded.
+ */
+public class HnswVectorStore extends AbstractObservationVectorStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(HnswVectorStore.class);
+
+    private static final TypeReference<Map<String, Object>> METADATA = new TypeReference<>() {
+    };
+
+    private static final VectorSnapshot.ItemCodec<StoredDocument> DOCUMENT_CODEC = new VectorSnapshot.ItemCodec<>() {
+
+        @Override
+        public byte[] encode(StoredDocument document) {
+            byte[][] fields = {
+                bytes(document.id()),
+                bytes(document.text()),
+                JsonMapper.shared().writeValueAsBytes(document.metadata())};
+            ByteBuffer buffer = ByteBuffer.allocate(12 + fields[0].length + fields[1].length + fields[2].length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            for (byte[] field : fields) {
+                buffer.putInt(field.length).put(field);
+            }
+            return buffer.array();
+        }
+
+        @Override
+        public StoredDocument decode(ByteBuffer bytes) {
+            return new StoredDocument(string(bytes), string(bytes),
+                JsonMapper.shared().readValue(string(bytes), METADATA));
+        }
+    };
+
+    private final FilterExpressionConverter filterExpressionConverter = new SimpleVectorStoreFilterExpressionConverter();
+
+    private final SpelExpressionParser expressionParser = new SpelExpressionParser();
+
+    private final int efSearch;
+
+    private final VectorEncoding snapshotEncoding;
+
+    private final VectorQuantization quantization;
+
+    private volatile Contents contents;
+
+    private final AtomicLong version = new AtomicLong();
+
+    protected HnswVectorStore(Builder builder) {
+        super(builder);
+        this.efSearch = builder.efSearch;
+        this.snapshotEncoding = builder.snapshotEncoding;
+        this.quantization = builder.quantization;
+        this.contents = new Contents(new HnswIndex<>(builder.m, builder.efConstruction, quantization),
+            new ConcurrentHashMap<>());
+    }
+
+    public static Builder builder(EmbeddingModel embeddingModel) {
+        return new Builder(embeddingModel);
+    }
+
+    /**
+     * @return the number of documents in the store
+     */
+    public int size() {
+        return contents.index().size();
+    }
+
+    HnswIndex<StoredDocument> index() {
+        return contents.index();
+    }
+
+    /**
+     * @return a number changing whenever documents are added, deleted or loaded
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Visits the documents of the store, without their embeddings, which are not read.
+     */
+    public void forEach(Consumer<Document> action) {
+        contents.index().forEach((document, node) -> action.accept(Document.builder()
+            .id(document.id())
+            .text(document.text())
+            .metadata(document.metadata())
+            .build()));
+    }
+
+    @Override
+    public void doAdd(List<Document> documents) {
+        List<float[]> embeddings = this.embeddingModel.embed(documents, EmbeddingOptions.builder().build(),
+            this.batchingStrategy);
+        IntStream.range(0, documents.size()).parallel().forEach(i -> add(documents.get(i), embeddings.get(i)));
+    }
+
+    /**
+     * Adds a document whose embedding is already known, replacing any document with the same id.
+     */
+    public void add(Document document, float[] embedding) {
+        Contents current = contents;
+        int node = current.index().add(normalize(embedding),
+            new StoredDocument(document.getId(), document.getText(), Map.copyOf(document.getMetadata())));
+        // The map may already hold the node, when it was just read from the index
+        Integer previous = current.nodes().put(document.getId(), node);
+        if (previous != null && previous != node) {
+            current.index().remove(previous);
+        }
+        version.incrementAndGet();
+    }
+
+    @Override
+    public void doDelete(List<String> idList) {
+        Contents current = contents;
+        for (String id : idList) {
+            Integer node = current.nodes().remove(id);
+            if (node != null) {
+                current.index().remove(node);
+            }
+        }
+        version.incrementAndGet();
+    }
+
+    @Override
+    protected void doDelete(Filter.Expression filterExpression) {
+        Contents current = contents;
+        Predicate<StoredDocument> filter = filter(filterExpression);
+        current.index().forEach((document, node) -> {
+            if (filter.test(document) && current.nodes().remove(document.id(), node)) {
+                current.index().remove(node);
+            }
+        });
+        version.incrementAndGet();
+    }
+
+    @Override
+    public List<Document> doSimilaritySearch(SearchRequest request) {
+        float[] query = normalize(this.embeddingModel.embed(request.getQuery()));
+        HnswIndex<StoredDocument> index = contents.index();
+        List<HnswIndex.Match<StoredDocument>> matches;
+        if (request.hasFilterExpression()) {
+            Predicate<StoredDocument> filter = filter(request.getFilterExpression());
+            matches = index.search(query, request.getTopK(), efSearch, filter);
+            if (matches.size() < request.getTopK()) {
+                matches = index.exactSearch(query, request.getTopK(), filter);
+            }
+        } else {
+            matches = index.search(query, request.getTopK(), efSearch, null);
+        }
+        return matches.stream()
+            .filter(match -> match.score() >= request.getSimilarityThreshold())
+            .map(HnswVectorStore::toDocument)
+            .toList();
+    }
+
+    @Override
+    public VectorStoreObservationContext.Builder createObservationContextBuilder(String operationName) {
+        return VectorStoreObservationContext.builder("hnsw", operationName)
+            .dimensions(contents.index().dimensions())
+            .collectionName("in-memory-hnsw")
+            .similarityMetric(VectorStoreSimilarityMetric.COSINE.value());
+    }
+
+    /**
+     * Writes a snapshot of the index to a file, atomically replacing it.
+     */
+    public void save(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            VectorSnapshot.write(contents.index().contents(), DOCUMENT_CODEC, snapshotEncoding, tmp);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads a file, see {@link #load(Resource)}.
+     */
+    public void load(Path file) throws IOException {
+        load(new FileSystemResource(file));
+    }
+
+    /**
+     * Replaces the contents of the store with a snapshot written by {@link #save(Path)}, which is memory-mapped when
+     * the resource is a file and the snapshot must then not be modified while in use. Otherwise adds the documents
+     * and embeddings of a JSON file written by
+     * {@link org.springframework.ai.vectorstore.SimpleVectorStore#save(java.io.File)}, without embedding them again.
+     */
+    public void load(Resource resource) throws IOException {
+        if (VectorSnapshot.isSnapshot(resource)) {
+            VectorSnapshot<StoredDocument> snapshot = VectorSnapshot.open(resource, DOCUMENT_CODEC);
+            contents = new Contents(new HnswIndex<>(snapshot, quantization), null);
+            version.incrementAndGet();
+            logger.info("Loaded {} {} embeddings from {}", snapshot.size() - snapshot.removedCount(),
+                snapshot.encoding(), resource.getDescription());
+            return;
+        }
+        loadJson(resource);
+    }
+
+    private void loadJson(Resource json) throws IOException {
+        JsonNode root;
+        try (InputStream in = json.getInputStream()) {
+            root = JsonMapper.shared().readTree(in);
+        }
+        JsonMapper mapper = JsonMapper.shared();
+        root.values().parallelStream().forEach(content -> {
+            float[] embedding = mapper.treeToValue(content.get("embedding"), float[].class);
+            Map<String, Object> metadata = content.has("metadata")
+                ? mapper.convertValue(content.get("metadata"), METADATA) : Map.of();
+            add(Document.builder()
+                .id(content.get("id").asString())
+                .text(content.get("text").asString())
+                .metadata(metadata)
+                .build(), embedding);
+        });
+    }
+
+    private Predicate<StoredDocument> filter(Filter.Expression filterExpression) {
+        Expression expression = expressionParser.parseExpression(
+            filterExpressionConverter.convertExpression(filterExpression));
+        return document -> {
+            StandardEvaluationContext context = new StandardEvaluationContext();
+            context.setVariable("metadata", document.metadata());
+            return Boolean.TRUE.equals(expression.getValue(context, Boolean.class));
+        };
+    }
+
+    private static Document toDocument(HnswIndex.Match<StoredDocument> match) {
+        Map<String, Object> metadata = new HashMap<>(match.item().metadata());
+        metadata.put(DocumentMetadata.DISTANCE.value(), 1.0 - match.score());
+        return Document.builder()
+            .id(match.item().id())
+            .text(match.item().text())
+            .metadata(metadata)
+            .score((double) match.score())
+            .build();
+    }
+
+    /**
+     * @return the vector scaled to unit length, itself if it already is
+     */
+    static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        norm = Math.sqrt(norm);
+        if (norm == 0 || Math.abs(norm - 1) < 1e-6) {
+            return vector;
+        }
+        float[] unit = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            unit[i] = (float) (vector[i] / norm);
+        }
+        return unit;
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    record StoredDocument(String id, String text, Map<String, Object> metadata) {
+    }
+
+    /**
+     * The index and the node of every document id, swapped together when loading.
+     */
+    private static final class Contents {
+
+        private final HnswIndex<StoredDocument> index;
+
+        private volatile Map<String, Integer> nodes;
+
+        /**
+         * @param nodes the node of every document id, <code>null</code> to read them from the index when needed
+         */
+        Contents(HnswIndex<StoredDocument> index, Map<String, Integer> nodes) {
+            this.index = index;
+            this.nodes = nodes;
+        }
+
+        HnswIndex<StoredDocument> index() {
+            return index;
+        }
+
+        /**
+         * @return the node of every document id, read from the index on first use
+         */
+        Map<String, Integer> nodes() {
+            Map<String, Integer> current = nodes;
+            if (current == null) {
+                synchronized (this) {
+                    current = nodes;
+                    if (current == null) {
+                        Map<String, Integer> built = new ConcurrentHashMap<>();
+                        index.forEach((document, node) -> built.put(document.id(), node));
+                        nodes = current = built;
+                    }
+                }
+            }
+            return current;
+        }
+    }
+
+    public static final class Builder extends AbstractVectorStoreBuilder<Builder> {
+
+        private int m = 16;
+
+        private int efConstruction = 200;
+
+        private int efSearch = 64;
+
+        private VectorEncoding snapshotEncoding = VectorEncoding.FLOAT32;
+
+        private VectorQuantization quantization = VectorQuantization.NONE;
+
+        private Builder(EmbeddingModel embeddingModel) {
+            super(embeddingModel);
+        }
+
+        /**
+         * @param m number of neighbors linked per document on every level of the graph, twice as many on the bottom
+         *          level
+         */
+        public Builder m(int m) {
+            this.m = m;
+            return this;
+        }
+
+        /**
+         * @param efConstruction size of the candidate list searched when adding a document
+         */
+        public Builder efConstruction(int efConstruction) {
+            this.efConstruction = efConstruction;
+            return this;
+        }
+
+        /**
+         * @param efSearch size of the candidate list searched for a query, raised to <code>topK</code> if lower
+         */
+        public Builder efSearch(int efSearch) {
+            this.efSearch = efSearch;
+            return this;
+        }
+
+        /**
+         * @param snapshotEncoding encoding of the embeddings in the snapshots written by {@link #save(Path)}
+         */
+        public Builder snapshotEncoding(VectorEncoding snapshotEncoding) {
+            this.snapshotEncoding = snapshotEncoding;
+            return this;
+        }
+
+        /**
+         * @param quantization compression of the embeddings the graph is searched with, the candidates found being
+         *                     re-ranked with the full-precision embeddings
+         */
+        public Builder quantization(VectorQuantization quantization) {
+            this.quantization = quantization;
+            return this;
+        }
+
+        @Override
+        public HnswVectorStore build() {
+            return new HnswVectorStore(this);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+/**
+ * Encoding of the embeddings in a {@link HnswVectorStore} snapshot.
+ */
+public enum VectorEncoding {
+
+    /**
+     * 4 bytes per dimension, the embeddings as computed.
+     */
+    FLOAT32,
+
+    /**
+     * 2 bytes per dimension, IEEE 754 half precision, with a relative error below 0.05% per dimension.
+     */
+    FLOAT16
+}
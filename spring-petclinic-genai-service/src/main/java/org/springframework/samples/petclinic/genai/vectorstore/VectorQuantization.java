@@ -0,0 +1,147 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Compressed form of the embeddings a {@link HnswVectorStore} walks its graph with. Searches score the candidates with
+ * the compressed embeddings, then re-rank the best ones with the full-precision embeddings.
+ */
+public enum VectorQuantization {
+
+    /**
+     * Full-precision embeddings, 4 bytes per dimension.
+     */
+    NONE {
+        @Override
+        byte[] encode(float[] vector) {
+            return null;
+        }
+
+        @Override
+        float score(float[] query, byte[] queryCode, byte[] code) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        float score(byte[] a, byte[] b) {
+            throw new UnsupportedOperationException();
+        }
+    },
+
+    /**
+     * One signed byte per dimension, scaled by the largest absolute value of the embedding, which is kept as a
+     * trailing float. Queries are quantized as well, so scores are computed with integers.
+     */
+    INT8 {
+        @Override
+        byte[] encode(float[] vector) {
+            float max = 0;
+            for (float value : vector) {
+                max = Math.max(max, Math.abs(value));
+            }
+            float scale = max == 0 ? 1 : max / 127;
+            byte[] code = new byte[vector.length + 4];
+            for (int i = 0; i < vector.length; i++) {
+                code[i] = (byte) Math.round(vector[i] / scale);
+            }
+            FLOAT.set(code, vector.length, scale);
+            return code;
+        }
+
+        @Override
+        float score(float[] query, byte[] queryCode, byte[] code) {
+            return score(queryCode, code);
+        }
+
+        @Override
+        float score(byte[] a, byte[] b) {
+            int dimensions = a.length - 4;
+            int s0 = 0;
+            int s1 = 0;
+            int s2 = 0;
+            int s3 = 0;
+            int i = 0;
+            for (int bound = dimensions & ~3; i < bound; i += 4) {
+                s0 += a[i] * b[i];
+                s1 += a[i + 1] * b[i + 1];
+                s2 += a[i + 2] * b[i + 2];
+                s3 += a[i + 3] * b[i + 3];
+            }
+            for (; i < dimensions; i++) {
+                s0 += a[i] * b[i];
+            }
+            return (s0 + s1 + s2 + s3) * (float) FLOAT.get(a, dimensions) * (float) FLOAT.get(b, dimensions);
+        }
+    },
+
+    /**
+     * One bit per dimension, its sign. Scores are derived from the number of differing bits, queries being quantized
+     * as well.
+     */
+    BINARY {
+        @Override
+        byte[] encode(float[] vector) {
+            byte[] code = new byte[((vector.length + 63) >>> 6) << 3];
+            for (int i = 0; i < vector.length; i++) {
+                if (vector[i] > 0) {
+                    code[i >>> 3] |= (byte) (1 << (i & 7));
+                }
+            }
+            return code;
+        }
+
+        @Override
+        float score(float[] query, byte[] queryCode, byte[] code) {
+            return score(queryCode, code);
+        }
+
+        @Override
+        float score(byte[] a, byte[] b) {
+            int differing = 0;
+            for (int i = 0; i < a.length; i += 8) {
+                differing += Long.bitCount((long) LONG.get(a, i) ^ (long) LONG.get(b, i));
+            }
+            return 1 - 2f * differing / (a.length << 3);
+        }
+    };
+
+    private static final VarHandle FLOAT = MethodHandles.byteArrayViewVarHandle(float[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * @param vector unit-length vector
+     * @return its compressed form, <code>null</code> when not compressed
+     */
+    abstract byte[] encode(float[] vector);
+
+    /**
+     * @param query     unit-length query
+     * @param queryCode the query, encoded
+     * @param code      an encoded vector
+     * @return approximate cosine similarity, or a score ordering vectors the same way
+     */
+    abstract float score(float[] query, byte[] queryCode, byte[] code);
+
+    /**
+     * @return approximate cosine similarity of two encoded vectors, or a score ordering vectors the same way
+     */
+    abstract float score(byte[] a, byte[] b);
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.core.io.Resource;
+
+/**
+ * Binary snapshot of an {@link HnswIndex}, read in place from a memory-mapped file.
+ * <p>
+ * All numbers are little-endian. The file starts with a header of {@value #HEADER_BYTES} bytes:
+ * <pre>
+ *  0 int  magic "PCVS"           24 int  m
+ *  4 int  format version         28 int  efConstruction
+ *  8 int  {@link VectorEncoding} 32 int  node id of the entry point, -1 if empty
+ * 12 int  dimensions             40 long offset of the graph index
+ * 16 int  number of nodes        48 long offset of the item index
+ * 20 int  number of removed nodes
+ * </pre>
+ * followed by the vectors of all the nodes as one matrix, one record per node holding its level, whether it was
+ * removed and its neighbor ids on every level, and the encoded items. Each index holds the offsets of the records,
+ * respectively items, of every node, and of the end of the last one.
+ * <p>
+ * Opening a snapshot only reads its header; vectors, neighbors and items are read when the index asks for them.
+ */
+final class VectorSnapshot<T> implements HnswIndex.Snapshot<T> {
+
+    static final int MAGIC = 0x53564350;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_BYTES = 64;
+
+    private static final int WINDOW_BITS = 30;
+
+    private static final long WINDOW_MASK = (1L << WINDOW_BITS) - 1;
+
+    private final ByteBuffer[] windows;
+
+    private final ItemCodec<T> codec;
+
+    private final VectorEncoding encoding;
+
+    private final int dimensions;
+
+    private final int size;
+
+    private final int removedCount;
+
+    private final int m;
+
+    private final int efConstruction;
+
+    private final int entryPoint;
+
+    private final long graphIndex;
+
+    private final long itemIndex;
+
+    private VectorSnapshot(ByteBuffer[] windows, ItemCodec<T> codec, String source) throws IOException {
+        this.windows = windows;
+        this.codec = codec;
+        long length = length(windows);
+        if (length < HEADER_BYTES || getInt(0) != MAGIC) {
+            throw new IOException("Not a vector store snapshot: " + source);
+        }
+        if (getInt(4) != VERSION) {
+            throw new IOException("Unsupported vector store snapshot version " + getInt(4) + ": " + source);
+        }
+        this.encoding = VectorEncoding.values()[getInt(8)];
+        this.dimensions = getInt(12);
+        this.size = getInt(16);
+        this.removedCount = getInt(20);
+        this.m = getInt(24);
+        this.efConstruction = getInt(28);
+        this.entryPoint = getInt(32);
+        this.graphIndex = getLong(40);
+        this.itemIndex = getLong(48);
+        if (itemIndex + 8L * (size + 1) > length) {
+            throw new IOException("Truncated vector store snapshot: " + source);
+        }
+    }
+
+    /**
+     * Maps a snapshot file; the file must not be modified while the snapshot is in use.
+     */
+    static <T> VectorSnapshot<T> open(Path file, ItemCodec<T> codec) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            ByteBuffer[] windows = new ByteBuffer[(int) ((length + WINDOW_MASK) >>> WINDOW_BITS)];
+            for (int i = 0; i < windows.length; i++) {
+                long start = (long) i << WINDOW_BITS;
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(length - start, 1L << WINDOW_BITS))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return new VectorSnapshot<>(windows, codec, file.toString());
+        }
+    }
+
+    /**
+     * Maps the snapshot when the resource is a file, otherwise reads it into memory.
+     */
+    static <T> VectorSnapshot<T> open(Resource resource, ItemCodec<T> codec) throws IOException {
+        if (resource.isFile()) {
+            return open(resource.getFile().toPath(), codec);
+        }
+        List<ByteBuffer> windows = new ArrayList<>();
+        try (InputStream in = resource.getInputStream()) {
+            byte[] bytes;
+            do {
+                bytes = in.readNBytes(1 << WINDOW_BITS);
+                windows.add(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN));
+            } while (bytes.length == 1 << WINDOW_BITS);
+        }
+        return new VectorSnapshot<>(windows.toArray(ByteBuffer[]::new), codec, resource.getDescription());
+    }
+
+    /**
+     * @return whether the resource starts like a snapshot
+     */
+    static boolean isSnapshot(Resource resource) throws IOException {
+        try (InputStream in = resource.getInputStream()) {
+            byte[] magic = in.readNBytes(4);
+            return magic.length == 4 && ByteBuffer.wrap(magic).order(ByteOrder.LITTLE_ENDIAN).getInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Writes the nodes of an index to a file, replacing its contents.
+     */
+    static <T> void write(HnswIndex.Contents<T> contents, ItemCodec<T> codec, VectorEncoding encoding, Path file)
+        throws IOException {
+
+        List<HnswIndex.NodeState<T>> nodes = contents.nodes();
+        int count = nodes.size();
+        long[] records = new long[count + 1];
+        long[] items = new long[count + 1];
+        int removed = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            Output out = new Output(channel, HEADER_BYTES);
+            for (HnswIndex.NodeState<T> node : nodes) {
+                for (float value : node.vector()) {
+                    if (encoding == VectorEncoding.FLOAT16) {
+                        out.putShort(toHalf(value));
+                    } else {
+                        out.putInt(Float.floatToRawIntBits(value));
+                    }
+                }
+            }
+            for (int id = 0; id < count; id++) {
+                HnswIndex.NodeState<T> node = nodes.get(id);
+                records[id] = out.position();
+                out.putInt(node.neighbors().length - 1);
+                out.putInt(node.removed() ? 1 : 0);
+                for (int[] neighbors : node.neighbors()) {
+                    out.putInt(neighbors.length);
+                    for (int neighbor : neighbors) {
+                        out.putInt(neighbor);
+                    }
+                }
+                if (node.removed()) {
+                    removed++;
+                }
+            }
+            records[count] = out.position();
+            for (int id = 0; id < count; id++) {
+                items[id] = out.position();
+                out.put(codec.encode(nodes.get(id).item()));
+            }
+            items[count] = out.position();
+            long graphIndex = out.position();
+            for (long offset : records) {
+                out.putLong(offset);
+            }
+            long itemIndex = out.position();
+            for (long offset : items) {
+                out.putLong(offset);
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(encoding.ordinal())
+                .putInt(contents.dimensions())
+                .putInt(count)
+                .putInt(removed)
+                .putInt(contents.m())
+                .putInt(contents.efConstruction())
+                .putInt(contents.entryPoint())
+                .putInt(0)
+                .putLong(graphIndex)
+                .putLong(itemIndex)
+                .flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(false);
+        }
+    }
+
+    VectorEncoding encoding() {
+        return encoding;
+    }
+
+    @Override
+    public int m() {
+        return m;
+    }
+
+    @Override
+    public int efConstruction() {
+        return efConstruction;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int removedCount() {
+        return removedCount;
+    }
+
+    @Override
+    public int entryPoint() {
+        return entryPoint;
+    }
+
+    @Override
+    public int level(int id) {
+        return getInt(record(id));
+    }
+
+    @Override
+    public boolean removed(int id) {
+        return getInt(record(id) + 4) != 0;
+    }
+
+    @Override
+    public float[] vector(int id) {
+        float[] vector = new float[dimensions];
+        if (encoding == VectorEncoding.FLOAT16) {
+            ShortBuffer values = slice(HEADER_BYTES + 2L * dimensions * id, 2 * dimensions).asShortBuffer();
+            for (int i = 0; i < dimensions; i++) {
+                vector[i] = fromHalf(values.get(i));
+            }
+        } else {
+            FloatBuffer values = slice(HEADER_BYTES + 4L * dimensions * id, 4 * dimensions).asFloatBuffer();
+            values.get(vector);
+        }
+        return vector;
+    }
+
+    @Override
+    public int[] neighbors(int id, int level) {
+        long position = record(id) + 8;
+        for (int l = 0; l < level; l++) {
+            position += 4 + 4L * getInt(position);
+        }
+        int[] neighbors = new int[getInt(position)];
+        slice(position + 4, 4 * neighbors.length).asIntBuffer().get(neighbors);
+        return neighbors;
+    }
+
+    @Override
+    public T item(int id) {
+        long start = getLong(itemIndex + 8L * id);
+        long end = getLong(itemIndex + 8L * (id + 1));
+        return codec.decode(slice(start, (int) (end - start)));
+    }
+
+    private long record(int id) {
+        return getLong(graphIndex + 8L * id);
+    }
+
+    private int getInt(long position) {
+        ByteBuffer window = windows[(int) (position >>> WINDOW_BITS)];
+        int offset = (int) (position & WINDOW_MASK);
+        return offset + 4 <= window.limit() ? window.getInt(offset) : slice(position, 4).getInt(0);
+    }
+
+    private long getLong(long position) {
+        ByteBuffer window = windows[(int) (position >>> WINDOW_BITS)];
+        int offset = (int) (position & WINDOW_MASK);
+        return offset + 8 <= window.limit() ? window.getLong(offset) : slice(position, 8).getLong(0);
+    }
+
+    /**
+     * @return the bytes at the given position, copied only when they span two windows
+     */
+    private ByteBuffer slice(long position, int length) {
+        ByteBuffer window = windows[(int) (position >>> WINDOW_BITS)];
+        int offset = (int) (position & WINDOW_MASK);
+        if (offset + length <= window.limit()) {
+            return window.slice(offset, length).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        ByteBuffer copy = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (copy.hasRemaining()) {
+            window = windows[(int) (position >>> WINDOW_BITS)];
+            offset = (int) (position & WINDOW_MASK);
+            int chunk = Math.min(copy.remaining(), window.limit() - offset);
+            copy.put(window.slice(offset, chunk));
+            position += chunk;
+        }
+        return copy.flip();
+    }
+
+    private static long length(ByteBuffer[] windows) {
+        long length = 0;
+        for (ByteBuffer window : windows) {
+            length += window.limit();
+        }
+        return length;
+    }
+
+    /**
+     * @return the nearest half-precision value, as its bits
+     */
+    static short toHalf(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int magnitude = bits & 0x7fffffff;
+        int rounded = magnitude + 0x1000;
+        if (magnitude >= 0x7f800000) {
+            // infinity or NaN
+            return (short) (sign | 0x7c00 | (magnitude > 0x7f800000 ? 0x200 : 0));
+        }
+        if (rounded >= 0x47800000) {
+            // too large, rounded to infinity
+            return (short) (sign | 0x7c00);
+        }
+        if (rounded >= 0x38800000) {
+            return (short) (sign | ((rounded - 0x38000000) >>> 13));
+        }
+        if (magnitude < 0x33000000) {
+            return (short) sign;
+        }
+        // subnormal
+        int exponent = magnitude >>> 23;
+        return (short) (sign | ((((magnitude & 0x7fffff) | 0x800000) + (0x800000 >>> (exponent - 102))) >>> (126 - exponent)));
+    }
+
+    static float fromHalf(short half) {
+        int sign = (half & 0x8000) << 16;
+        int exponent = half & 0x7c00;
+        int mantissa = half & 0x03ff;
+        if (exponent == 0x7c00) {
+            exponent = 0x3fc00;
+        } else if (exponent != 0) {
+            exponent += 0x1c000;
+        } else if (mantissa != 0) {
+            // subnormal, normalized
+            exponent = 0x1c400;
+            do {
+                mantissa <<= 1;
+                exponent -= 0x400;
+            } while ((mantissa & 0x400) == 0);
+            mantissa &= 0x3ff;
+        }
+        return Float.intBitsToFloat(sign | (exponent | mantissa) << 13);
+    }
+
+    /**
+     * Binary form of the items of a snapshot.
+     */
+    interface ItemCodec<T> {
+
+        byte[] encode(T item);
+
+        /**
+         * @param bytes little-endian buffer holding exactly the bytes of the item
+         */
+        T decode(ByteBuffer bytes);
+    }
+
+    /**
+     * Little-endian sequential writes to a channel, from a given position.
+     */
+    private static final class Output {
+
+        private final FileChannel channel;
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+        private long position;
+
+        Output(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        long position() {
+            return position + buffer.position();
+        }
+
+        void putShort(short value) throws IOException {
+            ensure(2).putShort(value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4).putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8).putLong(value);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            if (bytes.length > buffer.capacity()) {
+                flush();
+                write(ByteBuffer.wrap(bytes));
+            } else {
+                ensure(bytes.length).put(bytes);
+            }
+        }
+
+        void flush() throws IOException {
+            write(buffer.flip());
+            buffer.clear();
+        }
+
+        private ByteBuffer ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+            return buffer;
+        }
+
+        private void write(ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                position += channel.write(bytes, position);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Converts a JSON file written by {@link org.springframework.ai.vectorstore.SimpleVectorStore} to a
+ * {@link HnswVectorStore} snapshot, building its graph from the embeddings of the file:
+ * <pre>
+ * java -cp ... org.springframework.samples.petclinic.genai.vectorstore.VectorSnapshotConverter \
+ *     vectorstore.json vectorstore.snapshot [float32|float16]
+ * </pre>
+ */
+public final class VectorSnapshotConverter {
+
+    private VectorSnapshotConverter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: VectorSnapshotConverter <input.json> <output.snapshot> [float32|float16]");
+            System.exit(2);
+        }
+        VectorEncoding encoding = args.length == 3
+            ? VectorEncoding.valueOf(args[2].toUpperCase(Locale.ROOT)) : VectorEncoding.FLOAT32;
+        convert(Path.of(args[0]), Path.of(args[1]), encoding);
+    }
+
+    public static void convert(Path json, Path snapshot, VectorEncoding encoding) throws IOException {
+        HnswVectorStore store = HnswVectorStore.builder(new NoEmbeddingModel())
+            .snapshotEncoding(encoding)
+            .build();
+        store.load(new FileSystemResource(json));
+        store.save(snapshot);
+    }
+
+    /**
+     * The embeddings are all read from the JSON file.
+     */
+    private static final class NoEmbeddingModel implements EmbeddingModel {
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            throw new UnsupportedOperationException("Embeddings are read from the converted file");
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            throw new UnsupportedOperationException("Embeddings are read from the converted file");
+        }
+    }
+}
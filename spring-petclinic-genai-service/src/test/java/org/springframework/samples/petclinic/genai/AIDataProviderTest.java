@@ -0,0 +1,77 @@
+package org.springframework.samples.petclinic.genai;
+
+import java.io.IOException;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.cloud.circuitbreaker.resilience4j.Resilience4JCircuitBreakerFactory;
+import org.springframework.cloud.circuitbreaker.resilience4j.Resilience4JConfigurationProperties;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.test.web.client.ResponseCreator;
+import org.springframework.web.client.RestClient;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class AIDataProviderTest {
+
+    // Time limit of 200 milliseconds
+    private final GenAIProperties properties = TestGenAIProperties.of(
+        "genai.service-client.connect-timeout=50ms", "genai.service-client.read-timeout=50ms");
+
+    private final RestClient.Builder restClientBuilder = RestClient.builder();
+
+    private final MockRestServiceServer server = MockRestServiceServer.bindTo(restClientBuilder).build();
+
+    @Test
+    void shouldNotGiveUpWritesStillRunning() throws IOException {
+        AIDataProvider dataProvider = new AIDataProvider(mock(HybridVetSearch.class), restClientBuilder,
+            circuitBreakerFactory(), properties);
+        server.expect(requestTo("http://customers-service/owners"))
+            .andRespond(slowly(withSuccess("""
+                {"id":11,"firstName":"Jean","lastName":"Coleman","pets":[]}""", MediaType.APPLICATION_JSON)));
+        server.expect(requestTo("http://customers-service/owners/search?name=&city=&telephone=&page=0&size=5"))
+            .andRespond(slowly(withSuccess("{\"owners\":[],\"total\":0}", MediaType.APPLICATION_JSON)));
+
+        assertThat(dataProvider.addOwnerToPetclinic(
+                new OwnerRequest("Jean", "Coleman", "105 N. Lake St.", "Monona", "6085552654")).id())
+            .isEqualTo(11);
+        assertThatThrownBy(() -> dataProvider.searchOwners("", "", "", 0, 5))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessage("customers-service is currently unavailable");
+    }
+
+    /**
+     * @return the factory configured as by the application, with its <code>application.yml</code> properties
+     */
+    private Resilience4JCircuitBreakerFactory circuitBreakerFactory() throws IOException {
+        Resilience4JConfigurationProperties resilience4j = new Binder(ConfigurationPropertySources.from(
+            new YamlPropertySourceLoader().load("application", new ClassPathResource("application.yml"))))
+            .bindOrCreate("spring.cloud.circuitbreaker.resilience4j", Resilience4JConfigurationProperties.class);
+        Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory(
+            CircuitBreakerRegistry.ofDefaults(), TimeLimiterRegistry.ofDefaults(), null, resilience4j);
+        new AIBeanConfiguration().customersServiceCircuitBreaker(properties).customize(factory);
+        return factory;
+    }
+
+    private static ResponseCreator slowly(ResponseCreator response) {
+        return (ClientHttpRequest request) -> {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return response.createResponse(request);
+        };
+    }
+}
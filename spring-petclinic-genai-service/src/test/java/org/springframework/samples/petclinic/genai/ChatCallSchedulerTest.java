@@ -0,0 +1,118 @@
+package org.springframework.samples.petclinic.genai;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.RateLimit;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.samples.petclinic.genai.ChatCallScheduler.Permit;
+import org.springframework.samples.petclinic.genai.ChatCallScheduler.Priority;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChatCallSchedulerTest {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void shouldServeInteractiveCallsFirstAndKeepSlotsForThem() throws Exception {
+        ChatCallScheduler scheduler = scheduler(Duration.ofSeconds(10));
+
+        Permit first = scheduler.acquire(Priority.INTERACTIVE).get(1, TimeUnit.SECONDS);
+        Permit second = scheduler.acquire(Priority.INTERACTIVE).get(1, TimeUnit.SECONDS);
+        CompletableFuture<Permit> batch = scheduler.acquire(Priority.BATCH);
+        CompletableFuture<Permit> interactive = scheduler.acquire(Priority.INTERACTIVE);
+        assertThatThrownBy(() -> scheduler.acquire(Priority.INTERACTIVE).join())
+            .hasCauseInstanceOf(ChatCallScheduler.ChatCallRejectedException.class);
+        assertThat(registry.get("petclinic.chat.scheduler.queue").tag("priority", "batch").gauge().value()).isEqualTo(1);
+
+        first.release();
+        Permit third = interactive.get(1, TimeUnit.SECONDS);
+        assertThat(batch).isNotDone();
+
+        // Batch calls leave one slot to interactive calls
+        second.release();
+        assertThat(batch).isNotDone();
+        third.release();
+        batch.get(1, TimeUnit.SECONDS);
+        assertThat(registry.get("petclinic.chat.scheduler.active").tag("priority", "batch").gauge().value()).isEqualTo(1);
+        assertThat(registry.get("petclinic.chat.scheduler.wait").tag("priority", "batch").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRejectCallsWaitingTooLong() throws Exception {
+        ChatCallScheduler scheduler = scheduler(Duration.ofMillis(100));
+        scheduler.acquire(Priority.INTERACTIVE).get(1, TimeUnit.SECONDS);
+        scheduler.acquire(Priority.INTERACTIVE).get(1, TimeUnit.SECONDS);
+
+        assertThatThrownBy(() -> scheduler.acquire(Priority.INTERACTIVE).get(1, TimeUnit.SECONDS))
+            .isInstanceOf(ExecutionException.class)
+            .hasCauseInstanceOf(TimeoutException.class);
+        assertThat(registry.get("petclinic.chat.scheduler.rejected").tag("priority", "interactive").counter().count())
+            .isEqualTo(1);
+        assertThat(registry.get("petclinic.chat.scheduler.queue").tag("priority", "interactive").gauge().value())
+            .isZero();
+    }
+
+    @Test
+    void shouldPauseUntilTheExhaustedRateLimitResets() throws Exception {
+        ChatCallScheduler scheduler = scheduler(Duration.ofSeconds(10));
+        scheduler.observe(new ChatResponse(List.of(), ChatResponseMetadata.builder()
+            .rateLimit(new ExhaustedRateLimit(Duration.ofMillis(300)))
+            .build()));
+
+        long start = System.nanoTime();
+        scheduler.acquire(Priority.INTERACTIVE).get(5, TimeUnit.SECONDS);
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(250));
+    }
+
+    private ChatCallScheduler scheduler(Duration interactiveMaxWait) {
+        GenAIProperties properties = TestGenAIProperties.of("genai.chat-scheduler.max-concurrency=2",
+            "genai.chat-scheduler.reserved-for-interactive=1", "genai.chat-scheduler.queue-capacity=2",
+            "genai.chat-scheduler.interactive-max-wait=" + interactiveMaxWait,
+            "genai.chat-scheduler.batch-max-wait=10s");
+        return new ChatCallScheduler(properties, registry);
+    }
+
+    private record ExhaustedRateLimit(Duration reset) implements RateLimit {
+
+        @Override
+        public Long getRequestsLimit() {
+            return 500L;
+        }
+
+        @Override
+        public Long getRequestsRemaining() {
+            return 0L;
+        }
+
+        @Override
+        public Duration getRequestsReset() {
+            return reset;
+        }
+
+        @Override
+        public Long getTokensLimit() {
+            return 0L;
+        }
+
+        @Override
+        public Long getTokensRemaining() {
+            return 0L;
+        }
+
+        @Override
+        public Duration getTokensReset() {
+            return Duration.ZERO;
+        }
+    }
+}
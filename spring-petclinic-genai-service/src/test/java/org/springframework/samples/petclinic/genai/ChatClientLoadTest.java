@@ -0,0 +1,171 @@
+package org.springframework.samples.petclinic.genai;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.samples.petclinic.genai.vectorstore.HnswVectorStore;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Throughput of <code>/chatclient</code>, overhead of the tool calls and time of the vector store searches under
+ * concurrency, fully offline with the models of the <code>stub</code> profile. Half of the queries make the stub
+ * model call the <code>listVets</code> tool, which searches the bundled vector store. Run with, for 2000 queries sent
+ * by 32 clients to a service calling the model 32 times at most in parallel:
+ * <pre>
+ * mvn test -Dtest=ChatClientLoadTest -Dloadtest.requests=2000 -Dloadtest.concurrency=32 \
+ *     -Dgenai.chat-scheduler.max-concurrency=32 -Dgenai.stub.first-token-latency=300ms
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "loadtest.requests", matches = "\\d+")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    // The kept-alive connections of the clients would delay a graceful shutdown
+    properties = {"genai.chat-cache.enabled=false", "server.shutdown=immediate"})
+@ActiveProfiles("stub")
+class ChatClientLoadTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatClientLoadTest.class);
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    HnswVectorStore vectorStore;
+
+    @Autowired
+    MeterRegistry registry;
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    @Test
+    void measureChatThroughputToolOverheadAndVectorSearch() throws Exception {
+        int requests = Integer.getInteger("loadtest.requests");
+        int concurrency = Integer.getInteger("loadtest.concurrency", 16);
+        URI chat = URI.create("http://localhost:" + port + "/chatclient");
+
+        // Warms the JIT, the connections and the vector store up
+        run(concurrency, concurrency, i -> () -> exchange(chat, query(i)));
+        registry.find("spring.ai.tool").timers().forEach(registry::remove);
+        registry.find("petclinic.chat.tool").timers().forEach(registry::remove);
+
+        long start = System.nanoTime();
+        List<Long> nanos = run(requests, concurrency, i -> () -> exchange(chat, query(i)));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        List<Long> toolNanos = new ArrayList<>();
+        List<Long> answerNanos = new ArrayList<>();
+        for (int i = 0; i < nanos.size(); i++) {
+            (i % 2 == 0 ? toolNanos : answerNanos).add(nanos.get(i));
+        }
+        report("%d queries from %d clients in %.1f s: %.1f queries/s", requests, concurrency, seconds,
+            requests / seconds);
+        report("%-16s %8s %8s %8s %8s", "ms per query", "p50", "p95", "p99", "max");
+        reportPercentiles("all", nanos);
+        reportPercentiles("with listVets", toolNanos);
+        reportPercentiles("without tool", answerNanos);
+        for (Timer tool : registry.find("spring.ai.tool").timers()) {
+            report("tool %s: %d calls, %.3f ms mean, %.3f ms max",
+                tool.getId().getTag("spring.ai.tool.definition.name"), tool.count(), tool.mean(TimeUnit.MILLISECONDS),
+                tool.max(TimeUnit.MILLISECONDS));
+        }
+        // Time of the executions themselves, run in parallel before the calls above collect them
+        for (Timer tool : registry.find("petclinic.chat.tool").timers()) {
+            report("tool %s executions (%s): %d, %.3f ms mean, %.3f ms max", tool.getId().getTag("tool"),
+                tool.getId().getTag("outcome"), tool.count(), tool.mean(TimeUnit.MILLISECONDS),
+                tool.max(TimeUnit.MILLISECONDS));
+        }
+
+        start = System.nanoTime();
+        List<Long> searchNanos = run(requests, concurrency, i -> () -> {
+            long searchStart = System.nanoTime();
+            assertThat(vectorStore.similaritySearch(SearchRequest.builder()
+                .query("{\"specialties\":[{\"name\":\"radiology\"}],\"lastName\":\"Vet" + i + "\"}")
+                .topK(20)
+                .build())).isNotEmpty();
+            return System.nanoTime() - searchStart;
+        });
+        seconds = (System.nanoTime() - start) / 1e9;
+        report("%d vector searches from %d threads in %.2f s: %.0f searches/s", requests, concurrency, seconds,
+            requests / seconds);
+        report("%-16s %8s %8s %8s %8s", "ms per search", "p50", "p95", "p99", "max");
+        reportPercentiles("similarity", searchNanos);
+    }
+
+    /**
+     * @return the query number <code>i</code>, making the model call <code>listVets</code> when even
+     */
+    private static String query(int i) {
+        return i % 2 == 0
+            ? "Which vets are specialized in radiology? Use listVets, query " + i
+            : "How do I bring my pet to its next visit? Query " + i;
+    }
+
+    private long exchange(URI chat, String query) throws Exception {
+        long start = System.nanoTime();
+        HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder(chat)
+            .timeout(Duration.ofMinutes(1))
+            .header("Content-Type", "text/plain")
+            .POST(HttpRequest.BodyPublishers.ofString(query))
+            .build(), HttpResponse.BodyHandlers.ofString());
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.body()).doesNotContain("unavailable", "busy");
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return the nanoseconds taken by the tasks, in the order of their numbers
+     */
+    private static List<Long> run(int count, int concurrency, IntFunction<Callable<Long>> task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<Long>> futures = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                futures.add(executor.submit(task.apply(i)));
+            }
+            List<Long> nanos = new ArrayList<>(count);
+            for (Future<Long> future : futures) {
+                nanos.add(future.get());
+            }
+            return nanos;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void report(String format, Object... args) {
+        log.info(String.format(format, args));
+    }
+
+    private static void reportPercentiles(String label, List<Long> nanos) {
+        List<Long> sorted = new ArrayList<>(nanos);
+        Collections.sort(sorted);
+        report("%-16s %8.1f %8.1f %8.1f %8.1f", label, percentile(sorted, 50), percentile(sorted, 95),
+            percentile(sorted, 99), sorted.get(sorted.size() - 1) / 1e6);
+    }
+
+    private static double percentile(List<Long> sorted, int percentile) {
+        return sorted.get(Math.min(sorted.size() - 1, sorted.size() * percentile / 100)) / 1e6;
+    }
+}
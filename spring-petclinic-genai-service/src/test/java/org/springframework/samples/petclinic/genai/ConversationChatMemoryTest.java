@@ -0,0 +1,73 @@
+package org.springframework.samples.petclinic.genai;
+
+import java.util.List;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConversationChatMemoryTest {
+
+    @Test
+    void shouldKeepConversationsApart() {
+        ConversationChatMemory memory = memory(10);
+
+        memory.add("alice", List.of(new UserMessage("Who is Helen Leary?"), new AssistantMessage("A radiologist")));
+        memory.add("bob", new UserMessage("List the owners"));
+
+        assertThat(memory.get("alice")).extracting(Message::getText)
+            .containsExactly("Who is Helen Leary?", "A radiologist");
+        assertThat(memory.get("bob")).extracting(Message::getText).containsExactly("List the owners");
+        assertThat(memory.get("carol")).isEmpty();
+
+        memory.clear("alice");
+        assertThat(memory.get("alice")).isEmpty();
+    }
+
+    @Test
+    void shouldKeepTheLastTurnsWithinTheWindow() {
+        ConversationChatMemory memory = memory(4);
+
+        for (int turn = 1; turn <= 3; turn++) {
+            memory.add("alice", List.of(new UserMessage("question " + turn), new AssistantMessage("answer " + turn)));
+        }
+        assertThat(memory.get("alice")).extracting(Message::getText)
+            .containsExactly("question 2", "answer 2", "question 3", "answer 3");
+
+        // A long answer pushes out the previous turns, the window still starting with a question
+        memory.add("alice", List.of(new UserMessage("question 4"), new AssistantMessage("x".repeat(370))));
+        assertThat(memory.get("alice")).extracting(Message::getText)
+            .containsExactly("question 4", "x".repeat(370));
+    }
+
+    @Test
+    void shouldKeepTheLatestQuestionShortenedWhenItsTurnExceedsTheWindow() {
+        ConversationChatMemory memory = memory(10);
+        memory.add("alice", List.of(new UserMessage("question 1"), new AssistantMessage("answer 1")));
+
+        // The answer is shortened to the 97 tokens left by the question
+        memory.add("alice", List.of(new UserMessage("question 2"), new AssistantMessage("y".repeat(1000))));
+        assertThat(memory.get("alice")).extracting(Message::getText)
+            .containsExactly("question 2", "y".repeat(384));
+
+        // The question alone fills the window
+        memory.add("alice", List.of(new UserMessage("x".repeat(1000)), new AssistantMessage("answer 3")));
+        assertThat(memory.get("alice")).singleElement()
+            .isInstanceOf(UserMessage.class)
+            .extracting(Message::getText).isEqualTo("x".repeat(396));
+
+        ConversationChatMemory single = memory(1);
+        single.add("alice", List.of(new UserMessage("question 1"), new AssistantMessage("answer 1")));
+        assertThat(single.get("alice")).extracting(Message::getText).containsExactly("question 1");
+    }
+
+    private static ConversationChatMemory memory(int maxMessages) {
+        GenAIProperties properties = TestGenAIProperties.of("genai.chat-memory.max-messages=" + maxMessages,
+            "genai.chat-memory.max-tokens=100", "genai.chat-memory.total-tokens=10000");
+        return new ConversationChatMemory(properties, new SimpleMeterRegistry());
+    }
+}
@@ -0,0 +1,144 @@
+package org.springframework.samples.petclinic.genai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.samples.petclinic.genai.dto.Specialty;
+import org.springframework.samples.petclinic.genai.dto.Vet;
+import org.springframework.samples.petclinic.genai.vectorstore.HnswVectorStore;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HybridVetSearchTest {
+
+    private static final List<Vet> VETS = List.of(
+        new Vet(1, "James", "Carter", Set.of()),
+        new Vet(2, "Helen", "Leary", Set.of(new Specialty(1, "radiology"))),
+        new Vet(3, "Linda", "Douglas", Set.of(new Specialty(2, "surgery"), new Specialty(3, "dentistry"))),
+        new Vet(4, "Rafael", "Ortega", Set.of(new Specialty(2, "surgery"))),
+        new Vet(5, "Henry", "Stevens", Set.of(new Specialty(1, "radiology"))),
+        new Vet(6, "Sharon", "Jenkins", Set.of()));
+
+    private final AtomicInteger embeddingCalls = new AtomicInteger();
+
+    private final EmbeddingModel embeddingModel = new EmbeddingModel() {
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            embeddingCalls.incrementAndGet();
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                embeddings.add(new Embedding(vector(text), embeddings.size()));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vector(document.getText());
+        }
+    };
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void shouldAnswerExactMatchesWithoutEmbeddingTheQuery() {
+        HybridVetSearch search = search(1);
+
+        assertThat(texts(search.search(new Vet(null, null, "Dr. Leary", null), "Dr. Leary", 20)))
+            .containsExactly(VectorStoreController.text(VETS.get(1)));
+        assertThat(texts(search.search(new Vet(null, null, null, Set.of(new Specialty(null, "Surgery"))), "surgery", 20)))
+            .containsExactlyInAnyOrder(VectorStoreController.text(VETS.get(2)), VectorStoreController.text(VETS.get(3)));
+
+        assertThat(embeddingCalls).hasValue(0);
+        assertThat(registry.get("petclinic.vets.search").tag("path", "exact").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldFuseLexicalAndVectorRanksWithoutExactMatch() {
+        HybridVetSearch search = search(2);
+
+        // No vet has both specialties, the ones having either come first with a lexical weight twice the vector one
+        List<Document> vets = search.search(
+            new Vet(null, null, null, Set.of(new Specialty(null, "radiology"), new Specialty(null, "dentistry"))),
+            "radiology dentistry", 6);
+
+        assertThat(vets).hasSizeGreaterThanOrEqualTo(3).doesNotHaveDuplicates();
+        assertThat(texts(vets.subList(0, 3))).containsExactlyInAnyOrder(VectorStoreController.text(VETS.get(1)),
+            VectorStoreController.text(VETS.get(2)), VectorStoreController.text(VETS.get(4)));
+        assertThat(embeddingCalls).hasValue(1);
+        assertThat(registry.get("petclinic.vets.search").tag("path", "hybrid").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldSearchTheNamesOfTheDocumentsOnly() {
+        HybridVetSearch search = search(1);
+
+        assertThat(HybridVetSearch.names(new Document(VectorStoreController.text(VETS.get(2)))))
+            .isEqualTo("Linda Douglas dentistry surgery");
+
+        // The field names of the documents match no vet, so the search falls back to the vector store
+        assertThat(search.search(new Vet(null, "Name", "Id", Set.of(new Specialty(null, "specialties"))), "name", 20))
+            .isNotEmpty();
+        assertThat(embeddingCalls).hasValue(1);
+        assertThat(registry.get("petclinic.vets.search").tag("path", "exact").counter().count()).isZero();
+    }
+
+    @Test
+    void shouldIndexTheDocumentsAddedToTheVectorStore() {
+        HnswVectorStore vectorStore = vectorStore();
+        HybridVetSearch search = new HybridVetSearch(vectorStore, properties(1), registry);
+        assertThat(search.search(new Vet(null, "Sophie", null, null), "Sophie", 20)).isNotEmpty()
+            .noneMatch(document -> document.getText().contains("Sophie"));
+
+        Vet sophie = new Vet(7, "Sophie", "Martin", Set.of());
+        vectorStore.add(List.of(new Document(VectorStoreController.text(sophie))));
+
+        assertThat(texts(search.search(new Vet(null, "Sophie", null, null), "Sophie", 20)))
+            .containsExactly(VectorStoreController.text(sophie));
+    }
+
+    private HybridVetSearch search(float lexicalWeight) {
+        HnswVectorStore vectorStore = vectorStore();
+        embeddingCalls.set(0);
+        return new HybridVetSearch(vectorStore, properties(lexicalWeight), registry);
+    }
+
+    private HnswVectorStore vectorStore() {
+        HnswVectorStore vectorStore = HnswVectorStore.builder(embeddingModel).build();
+        for (Vet vet : VETS) {
+            String text = VectorStoreController.text(vet);
+            vectorStore.add(new Document("vet-" + vet.id(), text, Map.of()), vector(text));
+        }
+        return vectorStore;
+    }
+
+    private static GenAIProperties properties(float lexicalWeight) {
+        return TestGenAIProperties.of("genai.vet-search.lexical-weight=" + lexicalWeight);
+    }
+
+    private static List<String> texts(List<Document> documents) {
+        return documents.stream().map(Document::getText).toList();
+    }
+
+    private static float[] vector(String text) {
+        Random random = new Random(text.hashCode());
+        float[] vector = new float[8];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = random.nextFloat() - 0.5f;
+        }
+        return vector;
+    }
+}
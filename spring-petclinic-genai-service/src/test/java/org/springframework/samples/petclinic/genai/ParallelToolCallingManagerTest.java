@@ -0,0 +1,146 @@
+package org.springframework.samples.petclinic.genai;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.AssistantMessage.ToolCall;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.DefaultToolCallingManager;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.support.ToolCallbacks;
+import org.springframework.ai.tool.annotation.Tool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class ParallelToolCallingManagerTest {
+
+    private final Tools tools = new Tools();
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private final ParallelToolCallingManager manager = new ParallelToolCallingManager(
+        DefaultToolCallingManager.builder().build(), ParallelToolCallingManager.readOnlyTools(Tools.class),
+        TestGenAIProperties.of("genai.tool-calls.parallelism=4", "genai.tool-calls.memoize-ttl=1m",
+            "genai.tool-calls.maximum-turns=100"),
+        registry);
+
+    @AfterEach
+    void close() {
+        manager.close();
+    }
+
+    @Test
+    void shouldRunTheReadOnlyToolsRequestedTogetherInParallel() {
+        tools.awaitEachOther = true;
+
+        ToolExecutionResult result = manager.executeToolCalls(prompt("turn-1"),
+            toolCalls(call("listVets", "{}"), call("searchOwners", "{\"name\":\"Davis\"}")));
+
+        // Each tool waits for the other one, so fails when run in sequence
+        assertThat(responses(result)).containsExactly("\"vets\"", "\"owners named Davis\"");
+        assertThat(registry.get("petclinic.chat.tool").tag("tool", "listVets").tag("outcome", "success").timer()
+            .count()).isEqualTo(1);
+        assertThat(manager.timings("turn-1")).extracting(ParallelToolCallingManager.ToolTiming::tool)
+            .containsExactlyInAnyOrder("listVets", "searchOwners");
+    }
+
+    @Test
+    void shouldReuseTheReadOnlyResultsOfTheTurnUntilAWrite() {
+        manager.executeToolCalls(prompt("turn-1"), toolCalls(call("listVets", "{}")));
+        ToolExecutionResult result = manager.executeToolCalls(prompt("turn-1"),
+            toolCalls(call("listVets", "{}"), call("searchOwners", "{\"name\":\"Davis\"}")));
+
+        assertThat(responses(result)).containsExactly("\"vets\"", "\"owners named Davis\"");
+        assertThat(tools.listVetsCalls).hasValue(1);
+        assertThat(registry.get("petclinic.chat.tool.memoized").tag("tool", "listVets").counter().count())
+            .isEqualTo(1);
+
+        // Another turn does not reuse them
+        manager.executeToolCalls(prompt("turn-2"), toolCalls(call("listVets", "{}")));
+        assertThat(tools.listVetsCalls).hasValue(2);
+
+        // The calls after a write run again
+        result = manager.executeToolCalls(prompt("turn-1"),
+            toolCalls(call("addOwner", "{\"name\":\"Davis\"}"), call("listVets", "{}")));
+        assertThat(responses(result)).containsExactly("\"added Davis\"", "\"vets\"");
+        assertThat(tools.listVetsCalls).hasValue(3);
+        assertThat(manager.timings("turn-1"))
+            .extracting(ParallelToolCallingManager.ToolTiming::tool, ParallelToolCallingManager.ToolTiming::memoized)
+            .containsExactly(tuple("listVets", false), tuple("listVets", true), tuple("searchOwners", false),
+                tuple("addOwner", false), tuple("listVets", false));
+    }
+
+    private Prompt prompt(String turn) {
+        return new Prompt(List.of(new UserMessage("Which vets and owners?")), ToolCallingChatOptions.builder()
+            .toolCallbacks(ToolCallbacks.from(tools))
+            .toolContext(Map.of(ParallelToolCallingManager.TURN_ID, turn))
+            .build());
+    }
+
+    private static ToolCall call(String name, String arguments) {
+        return new ToolCall(name + "-call", "function", name, arguments);
+    }
+
+    private static ChatResponse toolCalls(ToolCall... toolCalls) {
+        return new ChatResponse(List.of(new Generation(AssistantMessage.builder()
+            .toolCalls(List.of(toolCalls))
+            .build())));
+    }
+
+    private static List<String> responses(ToolExecutionResult result) {
+        List<Message> history = result.conversationHistory();
+        return ((ToolResponseMessage) history.get(history.size() - 1)).getResponses().stream()
+            .map(ToolResponseMessage.ToolResponse::responseData)
+            .toList();
+    }
+
+    static class Tools {
+
+        private final CyclicBarrier barrier = new CyclicBarrier(2);
+
+        private final AtomicInteger listVetsCalls = new AtomicInteger();
+
+        private volatile boolean awaitEachOther;
+
+        @ReadOnlyTool
+        @Tool(description = "List the vets")
+        public String listVets() throws Exception {
+            listVetsCalls.incrementAndGet();
+            awaitOther();
+            return "vets";
+        }
+
+        @ReadOnlyTool
+        @Tool(description = "Search the owners")
+        public String searchOwners(String name) throws Exception {
+            awaitOther();
+            return "owners named " + name;
+        }
+
+        @Tool(description = "Add an owner")
+        public String addOwner(String name) {
+            return "added " + name;
+        }
+
+        private void awaitOther() throws Exception {
+            if (awaitEachOther) {
+                barrier.await(5, TimeUnit.SECONDS);
+            }
+        }
+    }
+}
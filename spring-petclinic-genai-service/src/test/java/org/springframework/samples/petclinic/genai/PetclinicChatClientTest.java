@@ -0,0 +1,168 @@
+package org.springframework.samples.petclinic.genai;
+
+import java.util.List;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.model.tool.DefaultToolCallingManager;
+import org.springframework.http.MediaType;
+import org.springframework.samples.petclinic.genai.ChatCallScheduler.ChatCallRejectedException;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import reactor.core.publisher.Flux;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class PetclinicChatClientTest {
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private final GenAIProperties properties = TestGenAIProperties.of("genai.chat-cache.enabled=false");
+
+    private final EmbeddingModel embeddingModel = new EmbeddingModel() {
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            return new EmbeddingResponse(List.of(new Embedding(new float[]{1, 0}, 0)));
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private final StreamingModel chatModel = new StreamingModel();
+
+    private final ConversationChatMemory chatMemory = new ConversationChatMemory(properties, registry);
+
+    private final ParallelToolCallingManager toolCallingManager = new ParallelToolCallingManager(
+        DefaultToolCallingManager.builder().build(), ParallelToolCallingManager.readOnlyTools(PetclinicTools.class),
+        properties, registry);
+
+    private final MockMvc mvc = MockMvcBuilders.standaloneSetup(chatClient()).build();
+
+    @AfterEach
+    void close() {
+        toolCallingManager.close();
+    }
+
+    @Test
+    void shouldStreamEachPartOfTheAnswerAsAnEvent() throws Exception {
+        chatModel.answer = Flux.just("Dr. Leary", " does radiology,\nDr. Ortega", " surgery.");
+
+        assertStream("Which vets do radiology?", """
+            data:Dr. Leary
+
+            data: does radiology,
+            data:Dr. Ortega
+
+            data: surgery.
+
+            """);
+    }
+
+    @Test
+    void shouldEndTheStreamWithAnErrorEventWhenTheModelFails() throws Exception {
+        chatModel.answer = Flux.concat(Flux.just("Dr. Leary"), Flux.error(new IllegalStateException("Model down")));
+
+        assertStream("Which vets do radiology?", """
+            data:Dr. Leary
+
+            event:error
+            data:Chat is currently unavailable. Please try again later.
+
+            """);
+
+        chatModel.answer = Flux.error(new ChatCallRejectedException("Too many chat calls waiting"));
+
+        assertStream("Which vets do surgery?", """
+            event:error
+            data:Chat is busy. Please try again in a moment.
+
+            """);
+    }
+
+    @Test
+    void shouldRememberOnlyTheQueriesOfAConversation() throws Exception {
+        chatModel.answer = Flux.just("Dr. Leary");
+
+        assertStream("Which vets do radiology?", "data:Dr. Leary\n\n");
+        MvcResult result = mvc.perform(post("/chatclient").contentType(MediaType.TEXT_PLAIN)
+                .content("Which vets do radiology?"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+        mvc.perform(asyncDispatch(result))
+            .andExpect(content().string("Dr. Leary"));
+        assertThat(registry.get("cache.size").tag("cache", "chatMemory").gauge().value()).isZero();
+
+        result = mvc.perform(post("/chatclient").contentType(MediaType.TEXT_PLAIN)
+                .header(PetclinicChatClient.CONVERSATION_ID_HEADER, "alice")
+                .content("Which vets do radiology?"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+        mvc.perform(asyncDispatch(result))
+            .andExpect(content().string("Dr. Leary"));
+        assertThat(chatMemory.get("alice")).extracting(Message::getText)
+            .containsExactly("Which vets do radiology?", "Dr. Leary");
+        assertThat(registry.get("cache.size").tag("cache", "chatMemory").gauge().value()).isEqualTo(1);
+    }
+
+    private void assertStream(String query, String events) throws Exception {
+        MvcResult result = mvc.perform(post("/chatclient/stream")
+                .contentType(MediaType.TEXT_PLAIN)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .content(query))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+        mvc.perform(asyncDispatch(result))
+            .andExpect(status().isOk())
+            .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM))
+            .andExpect(content().string(events));
+    }
+
+    private PetclinicChatClient chatClient() {
+        SemanticResponseCache responseCache = new SemanticResponseCache(embeddingModel,
+            new QueryEmbeddingCache(properties, registry), properties, registry);
+        return new PetclinicChatClient(ChatClient.builder(chatModel), chatMemory,
+            new PetclinicTools(mock(AIDataProvider.class), responseCache), responseCache,
+            new ChatCallScheduler(properties, registry), toolCallingManager);
+    }
+
+    private static class StreamingModel implements ChatModel {
+
+        private volatile Flux<String> answer = Flux.empty();
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            String text = String.join("", answer.collectList().block());
+            return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+        }
+
+        @Override
+        public Flux<ChatResponse> stream(Prompt prompt) {
+            return answer.map(part -> new ChatResponse(List.of(new Generation(new AssistantMessage(part)))));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.springframework.samples.petclinic.genai;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryEmbeddingCacheTest {
+
+    @TempDir
+    Path directory;
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final EmbeddingModel embeddingModel = new EmbeddingModel() {
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            calls.incrementAndGet();
+            return new EmbeddingResponse(List.of(new Embedding(new float[]{request.getInstructions().get(0).length()}, 0)));
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    @Test
+    void shouldEmbedEveryQueryOnceAcrossRestarts() throws Exception {
+        Path file = directory.resolve("query-embeddings.bin");
+        MeterRegistry registry = new SimpleMeterRegistry();
+        QueryEmbeddingCache cache = new QueryEmbeddingCache(properties(file), registry);
+        EmbeddingModel cached = cache.cachedQueries(embeddingModel);
+
+        assertThat(cached.embed("radiology")).containsExactly(9);
+        assertThat(cached.embed("radiology")).containsExactly(9);
+        assertThat(calls).hasValue(1);
+        assertThat(registry.get("cache.gets").tag("result", "hit").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("cache.gets").tag("result", "miss").functionCounter().count()).isEqualTo(1);
+
+        cache.destroy();
+        EmbeddingModel restarted = new QueryEmbeddingCache(properties(file), new SimpleMeterRegistry())
+            .cachedQueries(embeddingModel);
+
+        assertThat(restarted.embed("radiology")).containsExactly(9);
+        assertThat(calls).hasValue(1);
+    }
+
+    private static GenAIProperties properties(Path file) {
+        return TestGenAIProperties.of("genai.query-embedding-cache.maximum-size=100",
+            "genai.query-embedding-cache.file=" + file);
+    }
+}
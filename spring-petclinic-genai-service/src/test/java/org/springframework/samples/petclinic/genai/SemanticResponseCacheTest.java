@@ -0,0 +1,102 @@
+package org.springframework.samples.petclinic.genai;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import reactor.core.publisher.Flux;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SemanticResponseCacheTest {
+
+    private static final Map<String, float[]> EMBEDDINGS = Map.of(
+        "Which vets do radiology?", new float[]{1, 0, 0},
+        "which vets do radiology", new float[]{0.99f, 0.1f, 0},
+        "Which vets do surgery?", new float[]{0.6f, 0.8f, 0},
+        "List the owners", new float[]{0, 0, 1});
+
+    private final EmbeddingModel embeddingModel = new EmbeddingModel() {
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            return new EmbeddingResponse(List.of(new Embedding(EMBEDDINGS.get(request.getInstructions().get(0)), 0)));
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void shouldReuseAnswersOfSimilarQueries() {
+        SemanticResponseCache cache = cache(Duration.ofMinutes(10), 10);
+
+        assertThat(cache.answer("Which vets do radiology?", () -> "Helen Leary")).isEqualTo("Helen Leary");
+        assertThat(cache.answer("which vets do radiology", () -> "not asked")).isEqualTo("Helen Leary");
+        assertThat(cache.answer("Which vets do surgery?", () -> "Linda Douglas")).isEqualTo("Linda Douglas");
+
+        assertThat(registry.get("petclinic.chat.cache").tag("result", "hit").counter().count()).isEqualTo(1);
+        assertThat(registry.get("petclinic.chat.cache").tag("result", "miss").counter().count()).isEqualTo(2);
+        assertThat(registry.get("petclinic.chat.cache.saved").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldStreamAnswersAndReuseThemOnceComplete() {
+        SemanticResponseCache cache = cache(Duration.ofMinutes(10), 10);
+
+        assertThat(cache.answerStream("Which vets do radiology?", () -> Flux.just("Helen", " Leary")).collectList().block())
+            .containsExactly("Helen", " Leary");
+        assertThat(cache.answerStream("which vets do radiology", () -> Flux.just("not asked")).collectList().block())
+            .containsExactly("Helen Leary");
+        assertThat(cache.answer("Which vets do radiology?", () -> "not asked")).isEqualTo("Helen Leary");
+    }
+
+    @Test
+    void shouldNotKeepAnswersOutdatedByModifyingTools() {
+        SemanticResponseCache cache = cache(Duration.ofMinutes(10), 10);
+        cache.answer("List the owners", () -> "George Franklin");
+
+        assertThat(cache.answer("Which vets do radiology?", () -> {
+            cache.invalidate();
+            return "Added Helen Leary";
+        })).isEqualTo("Added Helen Leary");
+        assertThat(cache.answer("Which vets do radiology?", () -> "Helen Leary")).isEqualTo("Helen Leary");
+        assertThat(cache.answer("List the owners", () -> "George Franklin, Betty Davis"))
+            .isEqualTo("George Franklin, Betty Davis");
+    }
+
+    @Test
+    void shouldEvictExpiredAndLeastRecentlyUsedAnswers() {
+        SemanticResponseCache expiring = cache(Duration.ZERO, 10);
+        expiring.answer("List the owners", () -> "George Franklin");
+        assertThat(expiring.answer("List the owners", () -> "Betty Davis")).isEqualTo("Betty Davis");
+
+        SemanticResponseCache bounded = cache(Duration.ofMinutes(10), 2);
+        bounded.answer("List the owners", () -> "owners");
+        bounded.answer("Which vets do radiology?", () -> "radiology");
+        bounded.answer("List the owners", () -> "not asked");
+        bounded.answer("Which vets do surgery?", () -> "surgery");
+
+        assertThat(bounded.answer("List the owners", () -> "not asked")).isEqualTo("owners");
+        assertThat(bounded.answer("Which vets do radiology?", () -> "evicted")).isEqualTo("evicted");
+    }
+
+    private SemanticResponseCache cache(Duration ttl, int maximumSize) {
+        GenAIProperties properties = TestGenAIProperties.of("genai.query-embedding-cache.maximum-size=100",
+            "genai.chat-cache.ttl=" + ttl, "genai.chat-cache.maximum-size=" + maximumSize);
+        return new SemanticResponseCache(embeddingModel, new QueryEmbeddingCache(properties, registry), properties,
+            registry);
+    }
+}
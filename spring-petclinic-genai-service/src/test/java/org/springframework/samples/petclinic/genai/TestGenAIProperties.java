@@ -0,0 +1,29 @@
+package org.springframework.samples.petclinic.genai;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.MapConfigurationPropertySource;
+
+/**
+ * {@link GenAIProperties} bound the way the application binds them, so holding the default values of every property
+ * a test does not set.
+ */
+final class TestGenAIProperties {
+
+    private TestGenAIProperties() {
+    }
+
+    /**
+     * @param properties <code>name=value</code> pairs, such as <code>genai.chat-memory.max-messages=3</code>
+     */
+    static GenAIProperties of(String... properties) {
+        Map<String, String> source = new HashMap<>();
+        for (String property : properties) {
+            int separator = property.indexOf('=');
+            source.put(property.substring(0, separator), property.substring(separator + 1));
+        }
+        return new Binder(new MapConfigurationPropertySource(source)).bindOrCreate("genai", GenAIProperties.class);
+    }
+}
@@ -0,0 +1,142 @@
+package org.springframework.samples.petclinic.genai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.samples.petclinic.genai.dto.Specialty;
+import org.springframework.samples.petclinic.genai.dto.Vet;
+import org.springframework.samples.petclinic.genai.vectorstore.HnswVectorStore;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import tools.jackson.databind.json.JsonMapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VectorStoreControllerTest {
+
+    private static final Vet HELEN = new Vet(2, "Helen", "Leary", Set.of(new Specialty(1, "radiology")));
+
+    private static final Vet LINDA = new Vet(3, "Linda", "Douglas", Set.of(new Specialty(2, "surgery")));
+
+    private final AtomicInteger embeddingCalls = new AtomicInteger();
+
+    private final EmbeddingModel embeddingModel = new EmbeddingModel() {
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            embeddingCalls.incrementAndGet();
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                embeddings.add(new Embedding(vector(text), embeddings.size()));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vector(document.getText());
+        }
+    };
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private final HnswVectorStore vectorStore = HnswVectorStore.builder(embeddingModel).build();
+
+    private volatile List<Vet> vets = List.of(HELEN, LINDA);
+
+    private volatile String etag = "\"1\"";
+
+    private final AtomicInteger fetches = new AtomicInteger();
+
+    @Test
+    void shouldEmbedOnlyAddedOrChangedVetsAndDeleteRemovedOnes() {
+        // Helen is pre-embedded, Linda is new and James was removed
+        vectorStore.add(new Document("bundled-helen", VectorStoreController.text(HELEN), Map.of()),
+            vector(VectorStoreController.text(HELEN)));
+        Vet james = new Vet(1, "James", "Carter", Set.of());
+        vectorStore.add(new Document("bundled-james", VectorStoreController.text(james), Map.of()),
+            vector(VectorStoreController.text(james)));
+        VectorStoreController controller = controller();
+
+        controller.synchronizeWithVetsService();
+
+        assertThat(embeddingCalls).hasValue(1);
+        assertThat(texts()).containsExactlyInAnyOrder(VectorStoreController.text(HELEN),
+            VectorStoreController.text(LINDA));
+        assertThat(registry.get("petclinic.vectorstore.sync.documents").tag("operation", "embedded").counter().count())
+            .isEqualTo(1);
+        assertThat(registry.get("petclinic.vectorstore.sync.documents").tag("operation", "deleted").counter().count())
+            .isEqualTo(1);
+
+        // Nothing is embedded while the ETag does not change
+        controller.synchronizeWithVetsService();
+        assertThat(fetches).hasValue(2);
+        assertThat(embeddingCalls).hasValue(1);
+
+        Vet surgeon = new Vet(2, "Helen", "Leary", Set.of(new Specialty(1, "radiology"), new Specialty(2, "surgery")));
+        vets = List.of(surgeon, LINDA);
+        etag = "\"2\"";
+        controller.synchronizeWithVetsService();
+
+        assertThat(embeddingCalls).hasValue(2);
+        assertThat(texts()).containsExactlyInAnyOrder(VectorStoreController.text(surgeon),
+            VectorStoreController.text(LINDA));
+        assertThat(registry.get("petclinic.vectorstore.sync.embedding.calls").counter().count()).isEqualTo(2);
+        assertThat(registry.get("petclinic.vectorstore.sync.lag").timeGauge().value(TimeUnit.SECONDS)).isLessThan(60);
+    }
+
+    @Test
+    void shouldFormatVetsAsTheBundledDocuments() {
+        assertThat(VectorStoreController.text(HELEN))
+            .isEqualTo("{id=2, firstName=Helen, lastName=Leary, specialties=[{id=1, name=radiology}]}");
+    }
+
+    private VectorStoreController controller() {
+        WebClient.Builder webClient = WebClient.builder().exchangeFunction(request -> {
+            fetches.incrementAndGet();
+            if (request.headers().getIfNoneMatch().contains(etag)) {
+                return Mono.just(ClientResponse.create(HttpStatus.NOT_MODIFIED).build());
+            }
+            return Mono.just(ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .header(HttpHeaders.ETAG, etag)
+                .body(JsonMapper.shared().writeValueAsString(vets))
+                .build());
+        });
+        GenAIProperties properties = TestGenAIProperties.of("genai.vector-store.sync-interval=10s",
+            "genai.vector-store.sync-batch-size=1");
+        return new VectorStoreController(vectorStore, webClient, properties, registry);
+    }
+
+    private List<String> texts() {
+        List<String> texts = new ArrayList<>();
+        vectorStore.forEach(document -> texts.add(document.getText()));
+        return texts;
+    }
+
+    private static float[] vector(String text) {
+        Random random = new Random(text.hashCode());
+        float[] vector = new float[8];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = random.nextFloat() - 0.5f;
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,145 @@
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class HnswIndexTest {
+
+    private static final int DIMENSIONS = 64;
+
+    private static final VectorSnapshot.ItemCodec<Integer> INTEGER_CODEC = new VectorSnapshot.ItemCodec<>() {
+
+        @Override
+        public byte[] encode(Integer item) {
+            return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(item).array();
+        }
+
+        @Override
+        public Integer decode(ByteBuffer bytes) {
+            return bytes.getInt(0);
+        }
+    };
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldFindNearestNeighborsOfConcurrentlyInsertedVectors() throws Exception {
+        Random random = new Random(42);
+        float[][] vectors = new float[5_000][];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = randomUnitVector(random);
+        }
+        HnswIndex<Integer> index = new HnswIndex<>(16, 100);
+        IntStream.range(0, vectors.length).parallel().forEach(i -> index.add(vectors[i], i));
+
+        assertThat(recallAt10(index, random)).isGreaterThan(0.98);
+
+        Path file = directory.resolve("index.snapshot");
+        VectorSnapshot.write(index.contents(), INTEGER_CODEC, VectorEncoding.FLOAT32, file);
+        HnswIndex<Integer> loaded = new HnswIndex<>(VectorSnapshot.open(file, INTEGER_CODEC));
+        float[] query = randomUnitVector(random);
+        assertThat(loaded.search(query, 10, 64, null)).isEqualTo(index.search(query, 10, 64, null));
+        assertThat(loaded.size()).isEqualTo(vectors.length);
+    }
+
+    @Test
+    void shouldKeepUsingAndExtendingHalfPrecisionSnapshot() throws Exception {
+        Random random = new Random(3);
+        HnswIndex<Integer> index = new HnswIndex<>(8, 50);
+        for (int i = 0; i < 1_000; i++) {
+            index.add(randomUnitVector(random), i);
+        }
+        index.remove(0);
+        Path file = directory.resolve("half.snapshot");
+        VectorSnapshot.write(index.contents(), INTEGER_CODEC, VectorEncoding.FLOAT16, file);
+
+        HnswIndex<Integer> loaded = new HnswIndex<>(VectorSnapshot.open(file, INTEGER_CODEC));
+        float[] added = randomUnitVector(random);
+        loaded.add(added, 1_000);
+
+        assertThat(loaded.size()).isEqualTo(1_000);
+        assertThat(loaded.search(added, 1, 50, null).get(0).item()).isEqualTo(1_000);
+        float[] query = randomUnitVector(random);
+        assertThat(loaded.search(query, 5, 50, item -> item < 1_000)).extracting(HnswIndex.Match::item)
+            .isEqualTo(index.search(query, 5, 50, null).stream().map(HnswIndex.Match::item).toList())
+            .doesNotContain(0);
+        assertThat(VectorSnapshot.fromHalf(VectorSnapshot.toHalf(0.0123f))).isCloseTo(0.0123f, within(0.0123f / 1000));
+        assertThat(VectorSnapshot.fromHalf(VectorSnapshot.toHalf(-3e-6f))).isCloseTo(-3e-6f, within(1e-7f));
+    }
+
+    @Test
+    void shouldRerankQuantizedCandidatesWithFullPrecisionVectors() throws Exception {
+        Random random = new Random(11);
+        HnswIndex<Integer> index = new HnswIndex<>(16, 100);
+        for (int i = 0; i < 2_000; i++) {
+            index.add(randomUnitVector(random), i);
+        }
+        Path file = directory.resolve("quantized.snapshot");
+        VectorSnapshot.write(index.contents(), INTEGER_CODEC, VectorEncoding.FLOAT32, file);
+
+        for (VectorQuantization quantization : List.of(VectorQuantization.INT8, VectorQuantization.BINARY)) {
+            HnswIndex<Integer> quantized = new HnswIndex<>(VectorSnapshot.open(file, INTEGER_CODEC), quantization);
+            float[] query = randomUnitVector(random);
+            assertThat(quantized.search(query, 10, 400, null))
+                .extracting(HnswIndex.Match::score)
+                .isEqualTo(index.exactSearch(query, 10, null).stream().map(HnswIndex.Match::score).toList());
+        }
+        HnswIndex<Integer> int8 = new HnswIndex<>(VectorSnapshot.open(file, INTEGER_CODEC), VectorQuantization.INT8);
+        assertThat(recallAt10(int8, random)).isGreaterThan(0.95);
+    }
+
+    @Test
+    void shouldSkipRemovedAndFilteredItems() {
+        Random random = new Random(7);
+        HnswIndex<Integer> index = new HnswIndex<>(8, 50);
+        for (int i = 0; i < 1_000; i++) {
+            index.add(randomUnitVector(random), i);
+        }
+        float[] query = randomUnitVector(random);
+        int best = index.search(query, 1, 50, null).get(0).item();
+
+        index.remove(best);
+
+        assertThat(index.size()).isEqualTo(999);
+        assertThat(index.search(query, 10, 50, null)).extracting(HnswIndex.Match::item).doesNotContain(best);
+        assertThat(index.search(query, 10, 50, item -> item % 2 == 0))
+            .hasSize(10)
+            .allMatch(match -> match.item() % 2 == 0 && match.item() != best);
+        assertThat(index.exactSearch(query, 10, item -> item % 2 == 0)).extracting(HnswIndex.Match::score).isSortedAccordingTo(
+            (a, b) -> Float.compare(b, a));
+    }
+
+    private static double recallAt10(HnswIndex<Integer> index, Random random) {
+        int found = 0;
+        int queries = 100;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomUnitVector(random);
+            Set<Integer> exact = index.exactSearch(query, 10, null).stream()
+                .map(HnswIndex.Match::item).collect(Collectors.toSet());
+            List<HnswIndex.Match<Integer>> approximate = index.search(query, 10, 200, null);
+            found += (int) approximate.stream().filter(match -> exact.contains(match.item())).count();
+        }
+        return found / (queries * 10.0);
+    }
+
+    private static float[] randomUnitVector(Random random) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return HnswVectorStore.normalize(vector);
+    }
+}
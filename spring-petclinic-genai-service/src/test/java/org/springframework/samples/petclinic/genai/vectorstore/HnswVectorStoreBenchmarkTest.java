@@ -0,0 +1,225 @@
+package org.springframework.samples.petclinic.genai.vectorstore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.core.io.ClassPathResource;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Recall, latency and memory of the HNSW store against the brute-force {@link SimpleVectorStore}, for every
+ * {@link VectorQuantization} of its snapshot, on the embeddings of
+ * <code>vectorstore.json</code> scaled up to <code>benchmark.vectors</code> synthetic vectors. These are drawn around
+ * one cluster center per hundred vectors, every center mixing two of the bundled embeddings with Gaussian noise. Run
+ * with, for 1M vectors of 1536 dimensions (about 6 GB of floats):
+ * <pre>
+ * mvn test -Dtest=HnswVectorStoreBenchmarkTest -Dbenchmark.vectors=1000000 -DargLine=-Xmx10g
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "benchmark.vectors", matches = "\\d+")
+class HnswVectorStoreBenchmarkTest {
+
+    private static final Logger log = LoggerFactory.getLogger(HnswVectorStoreBenchmarkTest.class);
+
+    private static final int QUERIES = 100;
+
+    private static final int TOP_K = 10;
+
+    /**
+     * Recall expected of the searches exploring the most candidates.
+     */
+    private static final double MIN_RECALL = 0.9;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void compareRecallAndLatencyWithBruteForceStore() throws Exception {
+        int count = Integer.getInteger("benchmark.vectors");
+        List<float[]> bases = new ArrayList<>();
+        JsonNode json = JsonMapper.shared().readTree(new ClassPathResource("vectorstore.json").getInputStream());
+        json.values().forEach(content -> bases.add(JsonMapper.shared().treeToValue(content.get("embedding"), float[].class)));
+
+        Random random = new Random(1);
+        List<float[]> centers = new ArrayList<>();
+        for (int i = 0; i < Math.max(10, count / 100); i++) {
+            float[] a = bases.get(random.nextInt(bases.size()));
+            float[] b = bases.get(random.nextInt(bases.size()));
+            centers.add(mix(a, b, random.nextFloat(), random, 0.02f));
+        }
+        Map<String, float[]> embeddings = new ConcurrentHashMap<>();
+        List<Document> documents = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            embeddings.put("doc-" + i, synthetic(centers, random));
+            documents.add(Document.builder().id(Integer.toString(i)).text("doc-" + i).build());
+        }
+        for (int q = 0; q < QUERIES; q++) {
+            embeddings.put("query-" + q, synthetic(centers, random));
+        }
+        EmbeddingModel embeddingModel = new LookupEmbeddingModel(embeddings);
+
+        long heap = usedHeap();
+        SimpleVectorStore bruteForce = SimpleVectorStore.builder(embeddingModel).build();
+        long start = System.nanoTime();
+        bruteForce.add(documents);
+        long bruteForceBuild = System.nanoTime() - start;
+        long bruteForceHeap = usedHeap() - heap;
+
+        HnswVectorStore hnsw = HnswVectorStore.builder(embeddingModel)
+            .m(Integer.getInteger("benchmark.m", 16))
+            .efConstruction(Integer.getInteger("benchmark.efConstruction", 200))
+            .build();
+        start = System.nanoTime();
+        hnsw.add(documents);
+        long hnswBuild = System.nanoTime() - start;
+
+        List<Set<String>> exact = new ArrayList<>();
+        start = System.nanoTime();
+        for (int q = 0; q < QUERIES; q++) {
+            exact.add(bruteForce.similaritySearch(request(q)).stream().map(Document::getId).collect(Collectors.toSet()));
+        }
+        double bruteForceMillis = (System.nanoTime() - start) / 1e6 / QUERIES;
+        bruteForce = null;
+
+        report("%d vectors of %d dimensions", count, bases.get(0).length);
+        report("build: brute force %d ms, hnsw %d ms", bruteForceBuild / 1_000_000, hnswBuild / 1_000_000);
+        report("%-12s %10s %12s", "store", "recall@" + TOP_K, "ms/query");
+        report("%-12s %10.3f %12.3f", "brute force", 1.0, bruteForceMillis);
+        double recall = 0;
+        for (int ef : new int[]{16, 32, 64, 128, 256}) {
+            int found = 0;
+            start = System.nanoTime();
+            for (int q = 0; q < QUERIES; q++) {
+                float[] query = embeddings.get("query-" + q);
+                for (HnswIndex.Match<HnswVectorStore.StoredDocument> match : hnsw.index().search(query, TOP_K, ef, null)) {
+                    found += exact.get(q).contains(match.item().id()) ? 1 : 0;
+                }
+            }
+            double millis = (System.nanoTime() - start) / 1e6 / QUERIES;
+            recall = found / (double) (QUERIES * TOP_K);
+            report("%-12s %10.3f %12.3f", "hnsw ef=" + ef, recall, millis);
+        }
+        assertThat(recall).as("recall@%d of hnsw ef=256", TOP_K).isGreaterThanOrEqualTo(MIN_RECALL);
+
+        Path snapshot = directory.resolve("benchmark.snapshot");
+        hnsw.save(snapshot);
+        hnsw = null;
+        report("snapshot of %d MB, stores loaded from it with every node read", Files.size(snapshot) >> 20);
+        report("%-20s %10s %12s %10s %10s", "store", "recall@" + TOP_K, "ms/query", "queries/s", "heap MB");
+        report("%-20s %10.3f %12.3f %10.0f %10d", "brute force", 1.0, bruteForceMillis, 1000 / bruteForceMillis,
+            bruteForceHeap >> 20);
+        for (VectorQuantization quantization : VectorQuantization.values()) {
+            heap = usedHeap();
+            HnswVectorStore loaded = HnswVectorStore.builder(embeddingModel).quantization(quantization).build();
+            loaded.load(snapshot);
+            loaded.index().exactSearch(new float[bases.get(0).length], 1, document -> false);
+            long loadedHeap = usedHeap() - heap;
+            for (int ef : new int[]{32, 64, 128}) {
+                int found = 0;
+                start = System.nanoTime();
+                for (int q = 0; q < QUERIES; q++) {
+                    float[] query = embeddings.get("query-" + q);
+                    for (HnswIndex.Match<HnswVectorStore.StoredDocument> match : loaded.index().search(query, TOP_K, ef, null)) {
+                        found += exact.get(q).contains(match.item().id()) ? 1 : 0;
+                    }
+                }
+                double millis = (System.nanoTime() - start) / 1e6 / QUERIES;
+                recall = found / (double) (QUERIES * TOP_K);
+                report("%-20s %10.3f %12.3f %10.0f %10d", quantization.name().toLowerCase() + " ef=" + ef, recall,
+                    millis, 1000 / millis, loadedHeap >> 20);
+            }
+            // The candidates found with the compressed embeddings are re-ranked at full precision
+            assertThat(recall).as("recall@%d of %s ef=128", TOP_K, quantization).isGreaterThanOrEqualTo(MIN_RECALL);
+        }
+    }
+
+    private static void report(String format, Object... args) {
+        log.info(String.format(format, args));
+    }
+
+    /**
+     * @return the heap used once garbage collected, in bytes
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static SearchRequest request(int query) {
+        return SearchRequest.builder().query("query-" + query).topK(TOP_K).build();
+    }
+
+    private static float[] synthetic(List<float[]> centers, Random random) {
+        float[] center = centers.get(random.nextInt(centers.size()));
+        return mix(center, center, 1, random, 0.01f);
+    }
+
+    private static float[] mix(float[] a, float[] b, float weight, Random random, float noise) {
+        float[] vector = new float[a.length];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = weight * a[i] + (1 - weight) * b[i] + (float) random.nextGaussian() * noise;
+        }
+        return HnswVectorStore.normalize(vector);
+    }
+
+    /**
+     * Embeds the texts of the benchmark by looking their vectors up, documents being embedded with their formatted
+     * content.
+     */
+    private record LookupEmbeddingModel(Map<String, float[]> embeddings) implements EmbeddingModel {
+
+        private static final Pattern KEY = Pattern.compile("(doc|query)-\\d+");
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> results = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                results.add(new Embedding(lookup(text), results.size()));
+            }
+            return new EmbeddingResponse(results);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return lookup(document.getText());
+        }
+
+        @Override
+        public int dimensions() {
+            return embeddings.values().iterator().next().length;
+        }
+
+        private float[] lookup(String text) {
+            Matcher key = KEY.matcher(text);
+            return key.find() ? embeddings.get(key.group()) : null;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.vets.model;
+
+import jakarta.persistence.*;
+import jakarta.validation.constraints.Size;
+
+import java.time.LocalDate;
+
+/**
+ * Slot of a vet's day booked for a pet.
+ */
+@Entity
+@Table(name = "appointments")
+public class Appointment {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(name = "vet_id")
+    private int vetId;
+
+    @Column(name = "appointment_date")
+    private LocalDate date;
+
+    @Column(name = "slot")
+    private int slot;
+
+    @Column(name = "pet_id")
+    private Integer petId;
+
+    @Size(max = 255)
+    @Column(name = "description")
+    private String description;
+
+    public Integer getId() {
+        return this.id;
+    }
+
+    public int getVetId() {
+        return this.vetId;
+    }
+
+    public LocalDate getDate() {
+        return this.date;
+    }
+
+    public int getSlot() {
+        return this.slot;
+    }
+
+    public Integer getPetId() {
+        return this.petId;
+    }
+
+    public String getDescription() {
+        return this.description;
+    }
+
+    public void setVetId(int vetId) {
+        this.vetId = vetId;
+    }
+
+    public void setDate(LocalDate date) {
+        this.date = date;
+    }
+
+    public void setSlot(int slot) {
+        this.slot = slot;
+    }
+
+    public void setPetId(Integer petId) {
+        this.petId = petId;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+}
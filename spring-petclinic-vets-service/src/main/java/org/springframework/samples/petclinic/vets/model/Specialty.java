@@ -38,6 +38,10 @@ public class Specialty {
         return this.id;
     }
 
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
     public String getName() {
         return this.name;
     }
@@ -18,13 +18,15 @@ package org.springframework.samples.petclinic.vets.model;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.xml.bind.annotation.XmlElement;
+import org.hibernate.annotations.BatchSize;
 import org.springframework.beans.support.MutableSortDefinition;
 import org.springframework.beans.support.PropertyComparator;
 
 import java.util.*;
 
 /**
- * Simple JavaBean domain object representing a veterinarian.
+ * Simple JavaBean domain object representing a veterinarian. Specialties are loaded lazily, in batches; read-only
+ * listings go through {@link VetRepository#findAllDetails()} instead.
  *
  * @author Ken Krebs
  * @author Juergen Hoeller
@@ -49,7 +51,8 @@ public class Vet {
     @NotBlank
     private String lastName;
 
-    @ManyToMany(fetch = FetchType.EAGER)
+    @ManyToMany
+    @BatchSize(size = 100)
     @JoinTable(name = "vet_specialties", joinColumns = @JoinColumn(name = "vet_id"),
         inverseJoinColumns = @JoinColumn(name = "specialty_id"))
     private Set<Specialty> specialties;
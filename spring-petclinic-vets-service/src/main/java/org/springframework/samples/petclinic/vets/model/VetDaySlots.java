@@ -0,0 +1,83 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.vets.model;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDate;
+
+/**
+ * Working and booked slots of a vet for one day, as bitmaps: bit <i>n</i> stands for the <i>n</i>-th slot of the day.
+ */
+@Entity
+@Table(name = "vet_day_slots")
+public class VetDaySlots {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(name = "vet_id")
+    private int vetId;
+
+    @Column(name = "slot_date")
+    private LocalDate date;
+
+    @Column(name = "working_slots")
+    private long workingSlots;
+
+    @Column(name = "booked_slots")
+    private long bookedSlots;
+
+    @Version
+    private int version;
+
+    public Integer getId() {
+        return this.id;
+    }
+
+    public int getVetId() {
+        return this.vetId;
+    }
+
+    public LocalDate getDate() {
+        return this.date;
+    }
+
+    public long getWorkingSlots() {
+        return this.workingSlots;
+    }
+
+    public long getBookedSlots() {
+        return this.bookedSlots;
+    }
+
+    public void setVetId(int vetId) {
+        this.vetId = vetId;
+    }
+
+    public void setDate(LocalDate date) {
+        this.date = date;
+    }
+
+    public void setWorkingSlots(long workingSlots) {
+        this.workingSlots = workingSlots;
+    }
+
+    public void setBookedSlots(long bookedSlots) {
+        this.bookedSlots = bookedSlots;
+    }
+}
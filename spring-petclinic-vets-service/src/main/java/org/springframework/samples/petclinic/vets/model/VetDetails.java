@@ -0,0 +1,45 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.vets.model;
+
+import java.util.List;
+
+/**
+ * Immutable, read-only view of a {@link Vet} and its specialties, sorted by name.
+ *
+ * @param specialties the specialties of the vet, sorted by name
+ */
+public record VetDetails(
+    Integer id,
+    String firstName,
+    String lastName,
+    List<SpecialtyDetails> specialties
+) {
+
+    public VetDetails {
+        specialties = List.copyOf(specialties);
+    }
+
+    public int getNrOfSpecialties() {
+        return specialties.size();
+    }
+
+    public record SpecialtyDetails(
+        Integer id,
+        String name
+    ) {
+    }
+}
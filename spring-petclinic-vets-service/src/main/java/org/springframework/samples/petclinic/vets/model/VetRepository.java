@@ -15,7 +15,13 @@
  */
 package org.springframework.samples.petclinic.vets.model;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.samples.petclinic.vets.model.VetDetails.SpecialtyDetails;
 
 /**
  * Repository class for <code>Vet</code> domain objects All method names are compliant with Spring Data naming
@@ -28,4 +34,42 @@ import org.springframework.data.jpa.repository.JpaRepository;
  * @author Maciej Szarlinski
  */
 public interface VetRepository extends JpaRepository<Vet, Integer> {
+
+    /**
+     * Loads all vets with their specialties in a single query, without managed entities.
+     *
+     * @return the vets, ordered by id
+     */
+    default List<VetDetails> findAllDetails() {
+        Comparator<SpecialtyDetails> byName = Comparator.comparing(SpecialtyDetails::name,
+            Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER));
+        List<VetDetails> vets = new ArrayList<>();
+        List<VetSpecialtyRow> rows = findAllVetSpecialtyRows();
+        int from = 0;
+        while (from < rows.size()) {
+            VetSpecialtyRow vet = rows.get(from);
+            List<SpecialtyDetails> specialties = new ArrayList<>();
+            int to = from;
+            for (; to < rows.size() && rows.get(to).vetId().equals(vet.vetId()); to++) {
+                if (rows.get(to).specialtyId() != null) {
+                    specialties.add(new SpecialtyDetails(rows.get(to).specialtyId(), rows.get(to).specialtyName()));
+                }
+            }
+            specialties.sort(byName);
+            vets.add(new VetDetails(vet.vetId(), vet.firstName(), vet.lastName(), specialties));
+            from = to;
+        }
+        return vets;
+    }
+
+    @Query("SELECT new org.springframework.samples.petclinic.vets.model.VetRepository$VetSpecialtyRow("
+        + "v.id, v.firstName, v.lastName, s.id, s.name) FROM Vet v LEFT JOIN v.specialties s ORDER BY v.id")
+    List<VetSpecialtyRow> findAllVetSpecialtyRows();
+
+    /**
+     * One row per vet and specialty; the specialty is <code>null</code> for vets without any.
+     */
+    record VetSpecialtyRow(Integer vetId, String firstName, String lastName, Integer specialtyId,
+                           String specialtyName) {
+    }
 }
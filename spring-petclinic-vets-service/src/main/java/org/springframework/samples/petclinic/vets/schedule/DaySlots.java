@@ -0,0 +1,74 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.vets.schedule;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory slots of one vet for one day. Bookings are reserved with a compare-and-set on the booked bitmap, so two
+ * concurrent requests can never both get the same slot.
+ */
+final class DaySlots {
+
+    private volatile long working;
+
+    private final AtomicLong booked;
+
+    DaySlots(long working, long booked) {
+        this.working = working;
+        this.booked = new AtomicLong(booked);
+    }
+
+    long working() {
+        return working;
+    }
+
+    long booked() {
+        return booked.get();
+    }
+
+    /**
+     * @return the slots that are worked and not booked yet
+     */
+    long free() {
+        return working & ~booked.get();
+    }
+
+    /**
+     * @return whether the slot was free and is now booked by the caller
+     */
+    boolean tryReserve(int slot) {
+        long bit = 1L << slot;
+        long current;
+        do {
+            current = booked.get();
+            if ((working & bit) == 0 || (current & bit) != 0) {
+                return false;
+            }
+        } while (!booked.compareAndSet(current, current | bit));
+        return true;
+    }
+
+    void release(int slot) {
+        long bit = ~(1L << slot);
+        booked.getAndUpdate(current -> current & bit);
+    }
+
+    void reset(long working, long booked) {
+        this.working = working;
+        this.booked.set(booked);
+    }
+}
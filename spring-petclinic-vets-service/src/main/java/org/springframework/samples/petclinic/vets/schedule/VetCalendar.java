@@ -0,0 +1,306 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.vets.schedule;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.samples.petclinic.vets.model.Appointment;
+import org.springframework.samples.petclinic.vets.model.AppointmentRepository;
+import org.springframework.samples.petclinic.vets.model.VetDaySlots;
+import org.springframework.samples.petclinic.vets.model.VetDaySlotsRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Working schedules and appointments of the vets, as one bitmap of {@link #SLOTS_PER_DAY} slots per vet and day.
+ * <p>
+ * The bitmaps from today onward are kept in memory, so free slot searches never hit the database; they run in
+ * parallel across vets. A booking first reserves its slot in memory with a compare-and-set, then persists it: the
+ * <code>vet_day_slots</code> row is re-checked and updated under its optimistic lock version, which keeps the database
+ * the source of truth when several instances book for the same vet. A booking lost to another instance refreshes the
+ * day from the database. The past days are evicted from memory every night.
+ */
+@Component
+public class VetCalendar {
+
+    public static final int SLOT_MINUTES = 30;
+
+    public static final int SLOTS_PER_DAY = 24 * 60 / SLOT_MINUTES;
+
+    private static final int SLOT_SECONDS = SLOT_MINUTES * 60;
+
+    private static final Comparator<FreeSlot> BY_TIME = Comparator.comparing(FreeSlot::date)
+        .thenComparing(FreeSlot::start)
+        .thenComparingInt(FreeSlot::vetId);
+
+    private final VetDaySlotsRepository daySlotsRepository;
+
+    private final AppointmentRepository appointmentRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final Map<Integer, ConcurrentSkipListMap<LocalDate, DaySlots>> calendars = new ConcurrentHashMap<>();
+
+    private volatile boolean loaded;
+
+    VetCalendar(VetDaySlotsRepository daySlotsRepository, AppointmentRepository appointmentRepository,
+                PlatformTransactionManager transactionManager) {
+        this.daySlotsRepository = daySlotsRepository;
+        this.appointmentRepository = appointmentRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * @return whether the time is the start of a slot
+     */
+    public static boolean isSlotBoundary(LocalTime time) {
+        return time.toSecondOfDay() % SLOT_SECONDS == 0 && time.getNano() == 0;
+    }
+
+    /**
+     * Sets the working hours of a vet on the given days of week between two dates. Appointments already booked are
+     * kept.
+     *
+     * @param end end of the working hours, midnight standing for the end of the day
+     */
+    public void setWorkingHours(int vetId, LocalDate from, LocalDate to, Set<DayOfWeek> daysOfWeek,
+                                LocalTime start, LocalTime end) {
+        ensureLoaded();
+        long working = slots(start, end);
+        List<VetDaySlots> rows = transactionTemplate.execute(status -> {
+            List<VetDaySlots> saved = new ArrayList<>();
+            for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+                if (daysOfWeek.contains(date.getDayOfWeek())) {
+                    VetDaySlots row = daySlotsRepository.findByVetIdAndDate(vetId, date).orElseGet(VetDaySlots::new);
+                    row.setVetId(vetId);
+                    row.setDate(date);
+                    row.setWorkingSlots(working);
+                    saved.add(daySlotsRepository.save(row));
+                }
+            }
+            return saved;
+        });
+        rows.forEach(this::put);
+        calendar(vetId).headMap(LocalDate.now()).clear();
+    }
+
+    /**
+     * Earliest free slots of the given vets, in chronological order.
+     */
+    public List<FreeSlot> findFreeSlots(Collection<Integer> vetIds, LocalDate from, LocalDate to, int limit) {
+        ensureLoaded();
+        LocalDateTime now = LocalDateTime.now();
+        LocalDate today = now.toLocalDate();
+        LocalDate first = from.isBefore(today) ? today : from;
+        if (first.isAfter(to) || limit <= 0) {
+            return List.of();
+        }
+        int firstSlotToday = (now.toLocalTime().toSecondOfDay() + SLOT_SECONDS - 1) / SLOT_SECONDS;
+        return vetIds.parallelStream()
+            .distinct()
+            .flatMap(vetId -> findFreeSlots(vetId, first, to, today, firstSlotToday, limit).stream())
+            .sorted(BY_TIME)
+            .limit(limit)
+            .toList();
+    }
+
+    /**
+     * Earliest free slots of all the vets having working hours, in chronological order.
+     */
+    public List<FreeSlot> findFreeSlots(LocalDate from, LocalDate to, int limit) {
+        ensureLoaded();
+        return findFreeSlots(calendars.keySet(), from, to, limit);
+    }
+
+    /**
+     * @throws SlotUnavailableException if the slot starting at the given time is not worked, already booked or past
+     */
+    public Appointment book(int vetId, LocalDate date, LocalTime start, Integer petId, String description) {
+        ensureLoaded();
+        int slot = slot(start);
+        NavigableMap<LocalDate, DaySlots> days = calendars.get(vetId);
+        DaySlots day = days == null ? null : days.get(date);
+        if (LocalDateTime.of(date, start).isBefore(LocalDateTime.now()) || day == null || !day.tryReserve(slot)) {
+            throw unavailable(vetId, date, start);
+        }
+        long bit = 1L << slot;
+        try {
+            return transactionTemplate.execute(status -> {
+                VetDaySlots row = daySlotsRepository.findByVetIdAndDate(vetId, date)
+                    .orElseThrow(() -> unavailable(vetId, date, start));
+                if ((row.getWorkingSlots() & bit) == 0 || (row.getBookedSlots() & bit) != 0) {
+                    throw unavailable(vetId, date, start);
+                }
+                row.setBookedSlots(row.getBookedSlots() | bit);
+                Appointment appointment = new Appointment();
+                appointment.setVetId(vetId);
+                appointment.setDate(date);
+                appointment.setSlot(slot);
+                appointment.setPetId(petId);
+                appointment.setDescription(description);
+                return appointmentRepository.save(appointment);
+            });
+        } catch (SlotUnavailableException e) {
+            refresh(vetId, date);
+            throw e;
+        } catch (OptimisticLockingFailureException | DataIntegrityViolationException e) {
+            refresh(vetId, date);
+            throw unavailable(vetId, date, start);
+        } catch (RuntimeException e) {
+            day.release(slot);
+            throw e;
+        }
+    }
+
+    /**
+     * @return whether the appointment existed and was cancelled
+     */
+    public boolean cancel(int vetId, int appointmentId) {
+        ensureLoaded();
+        VetDaySlots row = transactionTemplate.execute(status ->
+            appointmentRepository.findByIdAndVetId(appointmentId, vetId)
+                .map(appointment -> {
+                    VetDaySlots slots = daySlotsRepository.findByVetIdAndDate(vetId, appointment.getDate())
+                        .orElseThrow();
+                    slots.setBookedSlots(slots.getBookedSlots() & ~(1L << appointment.getSlot()));
+                    appointmentRepository.delete(appointment);
+                    return daySlotsRepository.save(slots);
+                })
+                .orElse(null));
+        if (row == null) {
+            return false;
+        }
+        put(row);
+        return true;
+    }
+
+    public List<Appointment> findAppointments(int vetId, LocalDate from, LocalDate to) {
+        return appointmentRepository.findByVetIdAndDateBetweenOrderByDateAscSlotAsc(vetId, from, to);
+    }
+
+    /**
+     * Evicts the days before today from memory. Runs every <code>vets.calendar.eviction-cron</code> (just after
+     * midnight by default).
+     */
+    @Scheduled(cron = "${vets.calendar.eviction-cron:0 0 0 * * *}")
+    public void evictPastDays() {
+        evictDaysBefore(LocalDate.now());
+    }
+
+    /**
+     * @return the number of evicted days
+     */
+    int evictDaysBefore(LocalDate date) {
+        int evicted = 0;
+        for (ConcurrentSkipListMap<LocalDate, DaySlots> days : calendars.values()) {
+            NavigableMap<LocalDate, DaySlots> past = days.headMap(date);
+            evicted += past.size();
+            past.clear();
+        }
+        return evicted;
+    }
+
+    public static LocalTime startOf(int slot) {
+        return LocalTime.MIDNIGHT.plusMinutes((long) slot * SLOT_MINUTES);
+    }
+
+    private List<FreeSlot> findFreeSlots(int vetId, LocalDate from, LocalDate to, LocalDate today, int firstSlotToday,
+                                         int limit) {
+        NavigableMap<LocalDate, DaySlots> days = calendars.get(vetId);
+        if (days == null) {
+            return List.of();
+        }
+        List<FreeSlot> found = new ArrayList<>();
+        for (Map.Entry<LocalDate, DaySlots> day : days.subMap(from, true, to, true).entrySet()) {
+            long free = day.getValue().free();
+            if (day.getKey().equals(today)) {
+                free &= -1L << firstSlotToday;
+            }
+            while (free != 0) {
+                int slot = Long.numberOfTrailingZeros(free);
+                found.add(new FreeSlot(vetId, day.getKey(), startOf(slot), startOf(slot + 1)));
+                if (found.size() == limit) {
+                    return found;
+                }
+                free &= free - 1;
+            }
+        }
+        return found;
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    daySlotsRepository.findByDateGreaterThanEqual(LocalDate.now()).forEach(this::put);
+                    loaded = true;
+                }
+            }
+        }
+    }
+
+    private void refresh(int vetId, LocalDate date) {
+        daySlotsRepository.findByVetIdAndDate(vetId, date).ifPresent(this::put);
+    }
+
+    private void put(VetDaySlots row) {
+        DaySlots day = calendar(row.getVetId())
+            .putIfAbsent(row.getDate(), new DaySlots(row.getWorkingSlots(), row.getBookedSlots()));
+        if (day != null) {
+            day.reset(row.getWorkingSlots(), row.getBookedSlots());
+        }
+    }
+
+    private ConcurrentSkipListMap<LocalDate, DaySlots> calendar(int vetId) {
+        return calendars.computeIfAbsent(vetId, id -> new ConcurrentSkipListMap<>());
+    }
+
+    private static int slot(LocalTime time) {
+        if (!isSlotBoundary(time)) {
+            throw new IllegalArgumentException(time + " is not the start of a " + SLOT_MINUTES + " minutes slot");
+        }
+        return time.toSecondOfDay() / SLOT_SECONDS;
+    }
+
+    private static long slots(LocalTime start, LocalTime end) {
+        int first = slot(start);
+        int last = end.equals(LocalTime.MIDNIGHT) ? SLOTS_PER_DAY : slot(end);
+        if (first >= last) {
+            throw new IllegalArgumentException("Working hours must end after " + start);
+        }
+        return (1L << last) - (1L << first);
+    }
+
+    private static SlotUnavailableException unavailable(int vetId, LocalDate date, LocalTime start) {
+        return new SlotUnavailableException("Vet " + vetId + " is not available on " + date + " at " + start);
+    }
+}
@@ -15,16 +15,76 @@
  */
 package org.springframework.samples.petclinic.vets.system;
 
+import java.time.Duration;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cache.Cache;
 import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
 
 /**
  * Cache could be disable in unit test.
+ * <p>
+ * Caches are bounded by {@link VetsProperties.Cache#heapSize()} entries and expire after
+ * {@link VetsProperties.Cache#ttl()}, except the <code>vets</code> cache: it never expires, but is refreshed in the
+ * background once an entry is older than {@link VetsProperties.Cache#refreshOrDefault()}. Reads, even after an idle
+ * period, keep being served from the cache while the <code>vetsLoader</code> reloads it, instead of waiting for a
+ * load. Statistics are recorded and exported to Micrometer as <code>cache.*</code>
+ * meters. The <code>vets</code> cache is loaded once the application is ready, so that the first request does not pay
+ * for loading, serializing and indexing the vets.
+ *
  * @author Maciej Szarlinski
  */
 @Configuration
 @EnableCaching
 @Profile("production")
 class CacheConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheConfig.class);
+
+    static final String VETS = "vets";
+
+    @Bean
+    CaffeineCacheManager cacheManager(VetsProperties properties, CacheLoader<Object, ?> vetsLoader) {
+        VetsProperties.Cache cache = properties.cache();
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager();
+        cacheManager.setAllowNullValues(false);
+        cacheManager.setCaffeine(caffeine(cache)
+            .expireAfterWrite(Duration.ofSeconds(cache.ttl())));
+        cacheManager.registerCustomCache(VETS, caffeine(cache)
+            .refreshAfterWrite(Duration.ofSeconds(cache.refreshOrDefault()))
+            .build(vetsLoader::load));
+        return cacheManager;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void loadVets(ApplicationReadyEvent event) {
+        // The vets cache is a loading cache: a lookup loads the missing entry
+        Cache vets = event.getApplicationContext().getBean(CaffeineCacheManager.class).getCache(VETS);
+        try {
+            vets.get(SimpleKey.EMPTY);
+        } catch (RuntimeException e) {
+            log.warn("Could not load the vets on startup, they will be loaded by the first request", e);
+        }
+    }
+
+    @Bean
+    CacheStatsEndpoint cacheStatsEndpoint(CaffeineCacheManager cacheManager) {
+        return new CacheStatsEndpoint(cacheManager);
+    }
+
+    private static Caffeine<Object, Object> caffeine(VetsProperties.Cache cache) {
+        return Caffeine.newBuilder()
+            .maximumSize(cache.heapSize())
+            .recordStats();
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.vets.system;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+
+/**
+ * <code>/actuator/cachestats</code>: size and hit/miss/load/eviction statistics of the Caffeine caches, and eviction of
+ * a whole cache with <code>DELETE /actuator/cachestats/{name}</code>.
+ */
+@Endpoint(id = "cachestats")
+class CacheStatsEndpoint {
+
+    private final CaffeineCacheManager cacheManager;
+
+    CacheStatsEndpoint(CaffeineCacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    @ReadOperation
+    public Map<String, CacheStatsDescriptor> caches() {
+        Map<String, CacheStatsDescriptor> caches = new TreeMap<>();
+        cacheManager.getCacheNames().forEach(name -> caches.put(name, cache(name)));
+        return caches;
+    }
+
+    @ReadOperation
+    public CacheStatsDescriptor cache(@Selector String name) {
+        Cache<Object, Object> cache = nativeCache(name);
+        return cache == null ? null : CacheStatsDescriptor.of(cache);
+    }
+
+    @DeleteOperation
+    public boolean evict(@Selector String name) {
+        Cache<Object, Object> cache = nativeCache(name);
+        if (cache == null) {
+            return false;
+        }
+        cache.invalidateAll();
+        return true;
+    }
+
+    private Cache<Object, Object> nativeCache(String name) {
+        return cacheManager.getCacheNames().contains(name)
+            && cacheManager.getCache(name) instanceof CaffeineCache cache ? cache.getNativeCache() : null;
+    }
+
+    record CacheStatsDescriptor(
+        long estimatedSize,
+        long hitCount,
+        long missCount,
+        double hitRate,
+        long loadSuccessCount,
+        long loadFailureCount,
+        double averageLoadPenaltyMillis,
+        long evictionCount
+    ) {
+
+        static CacheStatsDescriptor of(Cache<Object, Object> cache) {
+            CacheStats stats = cache.stats();
+            return new CacheStatsDescriptor(cache.estimatedSize(), stats.hitCount(), stats.missCount(), stats.hitRate(),
+                stats.loadSuccessCount(), stats.loadFailureCount(), stats.averageLoadPenalty() / 1_000_000.0,
+                stats.evictionCount());
+        }
+    }
+}
@@ -16,6 +16,7 @@
 package org.springframework.samples.petclinic.vets.system;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
 
 /**
  * Typesafe custom configuration.
@@ -24,11 +25,22 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
  */
 @ConfigurationProperties(prefix = "vets")
 public record VetsProperties(
-    Cache cache
+    @DefaultValue Cache cache
 ) {
+    /**
+     * @param ttl      seconds after which a cached entry is discarded, except the vets which are refreshed instead
+     * @param heapSize maximum number of entries per cache
+     * @param refresh  seconds after which a cached entry is reloaded in the background on its next read, 0 to refresh
+     *                 after three quarters of the <code>ttl</code>
+     */
     public record Cache(
-        int ttl,
-        int heapSize
+        @DefaultValue("60") int ttl,
+        @DefaultValue("100") int heapSize,
+        @DefaultValue("0") int refresh
     ) {
+
+        public int refreshOrDefault() {
+            return refresh > 0 && refresh < ttl ? refresh : Math.max(1, ttl * 3 / 4);
+        }
     }
 }
@@ -16,13 +16,19 @@
 package org.springframework.samples.petclinic.vets.web;
 
 import java.util.List;
+import java.util.Locale;
 
-import org.springframework.cache.annotation.Cacheable;
-import org.springframework.samples.petclinic.vets.model.Vet;
-import org.springframework.samples.petclinic.vets.model.VetRepository;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.samples.petclinic.vets.web.VetsResponses.VetsResponse;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
 /**
  * @author Juergen Hoeller
@@ -35,15 +41,91 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 class VetResource {
 
-    private final VetRepository vetRepository;
+    private final VetsResponses vetsResponses;
 
-    VetResource(VetRepository vetRepository) {
-        this.vetRepository = vetRepository;
+    VetResource(VetsResponses vetsResponses) {
+        this.vetsResponses = vetsResponses;
     }
 
-    @GetMapping
-    @Cacheable("vets")
-    public List<Vet> showResourcesVetList() {
-        return vetRepository.findAll();
+    /**
+     * Serves the cached JSON bytes, gzip-encoded when the client accepts it with a non-zero quality. Requests carrying the current ETag in
+     * <code>If-None-Match</code> are answered with <code>304 Not Modified</code>.
+     */
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> showResourcesVetList(
+        @RequestHeader(name = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+
+        VetsResponse response = vetsResponses.current();
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_JSON)
+            .varyBy(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptsGzip(acceptEncoding)) {
+            return builder.eTag(response.gzipEtag())
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .body(response.gzipJson());
+        }
+        return builder.eTag(response.etag()).body(response.json());
+    }
+
+    /**
+     * @return whether the <code>Accept-Encoding</code> codings, with their optional <code>q</code> weights, accept
+     * gzip: by name, or by <code>*</code> when gzip is not listed
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            boolean accepted = quality(parts) > 0;
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                return accepted;
+            }
+            if (coding.equals("*")) {
+                wildcard = accepted;
+            }
+        }
+        return Boolean.TRUE.equals(wildcard);
+    }
+
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.length() > 2 && parameter.substring(0, 2).equalsIgnoreCase("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Vets having any (<code>match=any</code>, the default) or all (<code>match=all</code>) of the given specialties,
+     * given by name or id, answered from the specialty index of the cached vets. The JSON of each distinct query is
+     * cached along with the vets.
+     */
+    @GetMapping(params = "specialty", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> showVetsBySpecialty(
+        @RequestParam("specialty") List<String> specialties,
+        @RequestParam(name = "match", defaultValue = "any") String match) {
+
+        boolean all = switch (match) {
+            case "all" -> true;
+            case "any" -> false;
+            default -> throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "match must be 'any' or 'all'");
+        };
+        List<String> names = specialties.stream().filter(specialty -> !specialty.isBlank()).toList();
+        if (names.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At least one specialty is required");
+        }
+        VetsResponse response = vetsResponses.current();
+        return ResponseEntity.ok()
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(vetsResponses.filteredJson(response, response.index().query(names, all)));
     }
 }
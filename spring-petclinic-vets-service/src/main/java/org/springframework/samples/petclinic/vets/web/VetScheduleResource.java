@@ -0,0 +1,195 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.vets.web;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.samples.petclinic.vets.model.Appointment;
+import org.springframework.samples.petclinic.vets.model.VetDetails;
+import org.springframework.samples.petclinic.vets.model.VetRepository;
+import org.springframework.samples.petclinic.vets.schedule.FreeSlot;
+import org.springframework.samples.petclinic.vets.schedule.VetCalendar;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Working hours, free slots and appointments of the vets, backed by the {@link VetCalendar}.
+ */
+@RequestMapping("/vets")
+@RestController
+class VetScheduleResource {
+
+    private static final int MAX_DAYS = 366;
+
+    private static final int MAX_SLOTS = 500;
+
+    private final VetCalendar vetCalendar;
+
+    private final VetsResponses vetsResponses;
+
+    private final VetRepository vetRepository;
+
+    VetScheduleResource(VetCalendar vetCalendar, VetsResponses vetsResponses, VetRepository vetRepository) {
+        this.vetCalendar = vetCalendar;
+        this.vetsResponses = vetsResponses;
+        this.vetRepository = vetRepository;
+    }
+
+    /**
+     * Next free slots between two dates, of any vet or of the vets having the given specialty (name or id).
+     */
+    @GetMapping("slots")
+    public List<FreeSlot> findFreeSlots(
+        @RequestParam(name = "specialty", required = false) String specialty,
+        @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+        @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+        @RequestParam(name = "limit", defaultValue = "10") int limit) {
+
+        checkRange(from, to);
+        if (limit < 1 || limit > MAX_SLOTS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be between 1 and " + MAX_SLOTS);
+        }
+        if (specialty == null) {
+            return vetCalendar.findFreeSlots(from, to, limit);
+        }
+        List<Integer> vetIds = vetsResponses.current().index().find(List.of(specialty), false).stream()
+            .map(VetDetails::id)
+            .toList();
+        return vetCalendar.findFreeSlots(vetIds, from, to, limit);
+    }
+
+    @PutMapping("{vetId}/schedule")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void setWorkingHours(@PathVariable("vetId") int vetId, @RequestBody WorkingHours workingHours) {
+        checkVet(vetId);
+        checkRange(workingHours.from(), workingHours.to());
+        checkSlotBoundary(workingHours.start());
+        checkSlotBoundary(workingHours.end());
+        if (!workingHours.end().equals(LocalTime.MIDNIGHT) && !workingHours.end().isAfter(workingHours.start())) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Working hours must end after they start");
+        }
+        Set<DayOfWeek> days = workingHours.daysOfWeek() == null || workingHours.daysOfWeek().isEmpty()
+            ? EnumSet.allOf(DayOfWeek.class)
+            : EnumSet.copyOf(workingHours.daysOfWeek());
+        vetCalendar.setWorkingHours(vetId, workingHours.from(), workingHours.to(), days,
+            workingHours.start(), workingHours.end());
+    }
+
+    @PostMapping("{vetId}/appointments")
+    @ResponseStatus(HttpStatus.CREATED)
+    public BookedAppointment book(@PathVariable("vetId") int vetId, @RequestBody AppointmentRequest request) {
+        checkVet(vetId);
+        if (request.date() == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "date is required");
+        }
+        checkSlotBoundary(request.start());
+        if (request.description() != null && request.description().length() > 255) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "description is longer than 255 characters");
+        }
+        return BookedAppointment.of(
+            vetCalendar.book(vetId, request.date(), request.start(), request.petId(), request.description()));
+    }
+
+    @GetMapping("{vetId}/appointments")
+    public List<BookedAppointment> findAppointments(
+        @PathVariable("vetId") int vetId,
+        @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+        @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+
+        checkRange(from, to);
+        return vetCalendar.findAppointments(vetId, from, to).stream().map(BookedAppointment::of).toList();
+    }
+
+    @DeleteMapping("{vetId}/appointments/{appointmentId}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void cancel(@PathVariable("vetId") int vetId, @PathVariable("appointmentId") int appointmentId) {
+        if (!vetCalendar.cancel(vetId, appointmentId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND,
+                "Appointment " + appointmentId + " of vet " + vetId + " not found");
+        }
+    }
+
+    private void checkVet(int vetId) {
+        if (!vetRepository.existsById(vetId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Vet " + vetId + " not found");
+        }
+    }
+
+    private static void checkRange(LocalDate from, LocalDate to) {
+        if (from == null || to == null || to.isBefore(from) || ChronoUnit.DAYS.between(from, to) >= MAX_DAYS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "from and to must be ordered and at most " + MAX_DAYS + " days apart");
+        }
+    }
+
+    private static void checkSlotBoundary(LocalTime time) {
+        if (time == null || !VetCalendar.isSlotBoundary(time)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Times must be multiples of " + VetCalendar.SLOT_MINUTES + " minutes");
+        }
+    }
+
+    record WorkingHours(
+        LocalDate from,
+        LocalDate to,
+        Set<DayOfWeek> daysOfWeek,
+        LocalTime start,
+        LocalTime end
+    ) {
+    }
+
+    record AppointmentRequest(
+        LocalDate date,
+        LocalTime start,
+        Integer petId,
+        String description
+    ) {
+    }
+
+    record BookedAppointment(
+        int id,
+        int vetId,
+        LocalDate date,
+        LocalTime start,
+        LocalTime end,
+        Integer petId,
+        String description
+    ) {
+
+        static BookedAppointment of(Appointment appointment) {
+            return new BookedAppointment(appointment.getId(), appointment.getVetId(), appointment.getDate(),
+                VetCalendar.startOf(appointment.getSlot()), VetCalendar.startOf(appointment.getSlot() + 1),
+                appointment.getPetId(), appointment.getDescription());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.vets.web;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.springframework.samples.petclinic.vets.model.VetDetails;
+import org.springframework.samples.petclinic.vets.model.VetDetails.SpecialtyDetails;
+
+/**
+ * Immutable index of vets by specialty: every specialty id maps to the bitset of the ordinals of the vets having it.
+ */
+final class VetSpecialtyIndex {
+
+    private final List<VetDetails> vets;
+
+    private final Map<Integer, BitSet> vetsBySpecialtyId = new HashMap<>();
+
+    private final Map<String, Integer> specialtyIdsByName = new HashMap<>();
+
+    VetSpecialtyIndex(List<VetDetails> vets) {
+        this.vets = List.copyOf(vets);
+        for (int ordinal = 0; ordinal < this.vets.size(); ordinal++) {
+            for (SpecialtyDetails specialty : this.vets.get(ordinal).specialties()) {
+                vetsBySpecialtyId.computeIfAbsent(specialty.id(), id -> new BitSet(this.vets.size())).set(ordinal);
+                if (specialty.name() != null) {
+                    specialtyIdsByName.putIfAbsent(specialty.name().toLowerCase(Locale.ROOT), specialty.id());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param specialties specialty names (case-insensitive) or ids
+     * @param all         whether vets must have all the specialties, rather than any of them
+     * @return the matching vets, in repository order
+     */
+    List<VetDetails> find(Collection<String> specialties, boolean all) {
+        return find(query(specialties, all));
+    }
+
+    /**
+     * Resolves the specialties of a query, so that the queries matching the same vets are equal: unknown specialties are
+     * left out of <code>any</code> queries, and make <code>all</code> queries match nothing.
+     */
+    Query query(Collection<String> specialties, boolean all) {
+        SortedSet<Integer> ids = new TreeSet<>();
+        boolean unknown = false;
+        for (String specialty : specialties) {
+            Integer id = resolve(specialty);
+            if (id == null || !vetsBySpecialtyId.containsKey(id)) {
+                unknown = true;
+            } else {
+                ids.add(id);
+            }
+        }
+        if (all && unknown) {
+            return Query.NONE;
+        }
+        return new Query(List.copyOf(ids), all);
+    }
+
+    List<VetDetails> find(Query query) {
+        BitSet matches = new BitSet(vets.size());
+        if (query.all() && !query.specialtyIds().isEmpty()) {
+            matches.set(0, vets.size());
+        }
+        for (Integer specialtyId : query.specialtyIds()) {
+            BitSet withSpecialty = vetsBySpecialtyId.get(specialtyId);
+            if (query.all()) {
+                matches.and(withSpecialty);
+            } else {
+                matches.or(withSpecialty);
+            }
+        }
+        List<VetDetails> found = new ArrayList<>(matches.cardinality());
+        matches.stream().forEach(ordinal -> found.add(vets.get(ordinal)));
+        return found;
+    }
+
+    private Integer resolve(String specialty) {
+        String name = specialty.trim().toLowerCase(Locale.ROOT);
+        Integer id = specialtyIdsByName.get(name);
+        if (id == null && !name.isEmpty() && name.chars().allMatch(Character::isDigit)) {
+            try {
+                return Integer.valueOf(name);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @param specialtyIds known specialty ids, sorted
+     * @param all          whether vets must have all the specialties, rather than any of them
+     */
+    record Query(List<Integer> specialtyIds, boolean all) {
+
+        static final Query NONE = new Query(List.of(), false);
+    }
+}
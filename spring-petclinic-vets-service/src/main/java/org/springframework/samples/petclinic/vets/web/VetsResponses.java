@@ -0,0 +1,109 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.vets.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.samples.petclinic.vets.model.VetDetails;
+import org.springframework.samples.petclinic.vets.model.VetRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import tools.jackson.databind.ObjectMapper;
+
+/**
+ * Serialized <code>/vets</code> response, cached in the <code>vets</code> cache.
+ * <p>
+ * {@link #current()} is what requests go through; {@link #load(Object)} is also the loader used to refresh the cache
+ * in the background. A reload whose JSON is identical to the previous one keeps the previous response, so its ETag,
+ * gzip encoding, specialty index and filtered responses are not recomputed.
+ */
+@Component
+class VetsResponses implements CacheLoader<Object, VetsResponses.VetsResponse> {
+
+    private static final int MAX_FILTERED_RESPONSES = 256;
+
+    private final VetRepository vetRepository;
+
+    private final ObjectMapper objectMapper;
+
+    private volatile VetsResponse last;
+
+    VetsResponses(VetRepository vetRepository, ObjectMapper objectMapper) {
+        this.vetRepository = vetRepository;
+        this.objectMapper = objectMapper;
+    }
+
+    @Cacheable("vets")
+    public VetsResponse current() {
+        return load(SimpleKey.EMPTY);
+    }
+
+    @Override
+    public VetsResponse load(Object key) {
+        List<VetDetails> vets = vetRepository.findAllDetails();
+        byte[] json = objectMapper.writeValueAsBytes(vets);
+        String etag = '"' + DigestUtils.md5DigestAsHex(json) + '"';
+        VetsResponse previous = last;
+        if (previous != null && previous.etag().equals(etag)) {
+            return previous;
+        }
+        VetsResponse response = new VetsResponse(json, gzip(json), etag, new VetSpecialtyIndex(vets),
+            Caffeine.newBuilder().maximumSize(MAX_FILTERED_RESPONSES).build());
+        last = response;
+        return response;
+    }
+
+    /**
+     * JSON of the vets matching the query, serialized once per distinct query of the response.
+     */
+    byte[] filteredJson(VetsResponse response, VetSpecialtyIndex.Query query) {
+        return response.filteredJson().get(query, key -> objectMapper.writeValueAsBytes(response.index().find(key)));
+    }
+
+    private static byte[] gzip(byte[] json) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param json     UTF-8 JSON array of vets
+     * @param gzipJson the same JSON, gzip-encoded
+     * @param etag     strong entity tag of the JSON representation
+     * @param index    the same vets, indexed by specialty
+     * @param filteredJson JSON arrays of the vets matching the most recent specialty queries
+     */
+    record VetsResponse(byte[] json, byte[] gzipJson, String etag, VetSpecialtyIndex index,
+                        Cache<VetSpecialtyIndex.Query, byte[]> filteredJson) {
+
+        String gzipEtag() {
+            return etag.substring(0, etag.length() - 1) + "-gzip\"";
+        }
+    }
+}
@@ -1,3 +1,5 @@
+DROP TABLE appointments IF EXISTS;
+DROP TABLE vet_day_slots IF EXISTS;
 DROP TABLE vet_specialties IF EXISTS;
 DROP TABLE vets IF EXISTS;
 DROP TABLE specialties IF EXISTS;
@@ -21,3 +23,26 @@ CREATE TABLE vet_specialties (
 );
 ALTER TABLE vet_specialties ADD CONSTRAINT fk_vet_specialties_vets FOREIGN KEY (vet_id) REFERENCES vets (id);
 ALTER TABLE vet_specialties ADD CONSTRAINT fk_vet_specialties_specialties FOREIGN KEY (specialty_id) REFERENCES specialties (id);
+
+CREATE TABLE vet_day_slots (
+  id            INTEGER IDENTITY PRIMARY KEY,
+  vet_id        INTEGER NOT NULL,
+  slot_date     DATE NOT NULL,
+  working_slots BIGINT NOT NULL,
+  booked_slots  BIGINT NOT NULL,
+  version       INTEGER NOT NULL
+);
+ALTER TABLE vet_day_slots ADD CONSTRAINT fk_vet_day_slots_vets FOREIGN KEY (vet_id) REFERENCES vets (id);
+ALTER TABLE vet_day_slots ADD CONSTRAINT uk_vet_day_slots UNIQUE (vet_id, slot_date);
+CREATE INDEX vet_day_slots_slot_date ON vet_day_slots (slot_date);
+
+CREATE TABLE appointments (
+  id               INTEGER IDENTITY PRIMARY KEY,
+  vet_id           INTEGER NOT NULL,
+  appointment_date DATE NOT NULL,
+  slot             INTEGER NOT NULL,
+  pet_id           INTEGER,
+  description      VARCHAR(255)
+);
+ALTER TABLE appointments ADD CONSTRAINT fk_appointments_vets FOREIGN KEY (vet_id) REFERENCES vets (id);
+ALTER TABLE appointments ADD CONSTRAINT uk_appointments_slot UNIQUE (vet_id, appointment_date, slot);
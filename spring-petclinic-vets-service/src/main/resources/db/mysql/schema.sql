@@ -22,3 +22,26 @@ CREATE TABLE IF NOT EXISTS vet_specialties (
   FOREIGN KEY (specialty_id) REFERENCES specialties(id),
   UNIQUE (vet_id,specialty_id)
 ) engine=InnoDB;
+
+CREATE TABLE IF NOT EXISTS vet_day_slots (
+  id INT(4) UNSIGNED NOT NULL AUTO_INCREMENT PRIMARY KEY,
+  vet_id INT(4) UNSIGNED NOT NULL,
+  slot_date DATE NOT NULL,
+  working_slots BIGINT NOT NULL,
+  booked_slots BIGINT NOT NULL,
+  version INT(4) NOT NULL,
+  FOREIGN KEY (vet_id) REFERENCES vets(id),
+  UNIQUE (vet_id,slot_date),
+  INDEX(slot_date)
+) engine=InnoDB;
+
+CREATE TABLE IF NOT EXISTS appointments (
+  id INT(4) UNSIGNED NOT NULL AUTO_INCREMENT PRIMARY KEY,
+  vet_id INT(4) UNSIGNED NOT NULL,
+  appointment_date DATE NOT NULL,
+  slot INT(4) UNSIGNED NOT NULL,
+  pet_id INT(4) UNSIGNED,
+  description VARCHAR(255),
+  FOREIGN KEY (vet_id) REFERENCES vets(id),
+  UNIQUE (vet_id,appointment_date,slot)
+) engine=InnoDB;
@@ -0,0 +1,59 @@
+package org.springframework.samples.petclinic.vets.model;
+
+import java.util.List;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Transactional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@ActiveProfiles("test")
+@Transactional
+class VetRepositoryTest {
+
+    @Autowired
+    VetRepository vetRepository;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    @Test
+    void shouldLoadOneThousandVetsWithTheirSpecialtiesInOneStatement() {
+        long existing = vetRepository.count();
+        List<Specialty> specialties = List.of(entityManager.find(Specialty.class, 1),
+            entityManager.find(Specialty.class, 2), entityManager.find(Specialty.class, 3));
+        for (int n = 0; n < 1_000; n++) {
+            Vet vet = new Vet();
+            vet.setFirstName("First" + n);
+            vet.setLastName("Last" + n);
+            for (int s = 0; s < n % 4; s++) {
+                vet.addSpecialty(specialties.get(s));
+            }
+            entityManager.persist(vet);
+        }
+        entityManager.flush();
+        entityManager.clear();
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        List<VetDetails> vets = vetRepository.findAllDetails();
+
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+        assertThat(vets).hasSize((int) existing + 1_000);
+        assertThat(vets).extracting(VetDetails::id).isSorted().doesNotHaveDuplicates();
+        assertThat(vets.get(vets.size() - 1).specialties())
+            .extracting(VetDetails.SpecialtyDetails::name)
+            .containsExactly("dentistry", "radiology", "surgery");
+    }
+}
@@ -0,0 +1,50 @@
+package org.springframework.samples.petclinic.vets.schedule;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DaySlotsTest {
+
+    @Test
+    void shouldReserveEveryWorkingSlotExactlyOnceUnderContention() throws InterruptedException {
+        // Working 08:00-18:00, with the 12:00 slot already booked
+        long working = (1L << 36) - (1L << 16);
+        DaySlots day = new DaySlots(working, 1L << 24);
+        AtomicIntegerArray reservations = new AtomicIntegerArray(VetCalendar.SLOTS_PER_DAY);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        for (int thread = 0; thread < 16; thread++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int slot = 0; slot < VetCalendar.SLOTS_PER_DAY; slot++) {
+                    if (day.tryReserve(slot)) {
+                        reservations.incrementAndGet(slot);
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        for (int slot = 0; slot < VetCalendar.SLOTS_PER_DAY; slot++) {
+            boolean free = slot >= 16 && slot < 36 && slot != 24;
+            assertThat(reservations.get(slot)).as("reservations of slot %d", slot).isEqualTo(free ? 1 : 0);
+        }
+        assertThat(day.free()).isZero();
+
+        day.release(20);
+        assertThat(day.free()).isEqualTo(1L << 20);
+    }
+}
@@ -0,0 +1,175 @@
+package org.springframework.samples.petclinic.vets.schedule;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.samples.petclinic.vets.model.Appointment;
+import org.springframework.samples.petclinic.vets.model.AppointmentRepository;
+import org.springframework.samples.petclinic.vets.model.VetDaySlotsRepository;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class VetCalendarTest {
+
+    private static final LocalTime NINE = LocalTime.of(9, 0);
+
+    private final LocalDate tomorrow = LocalDate.now().plusDays(1);
+
+    @Autowired
+    VetDaySlotsRepository daySlotsRepository;
+
+    @Autowired
+    AppointmentRepository appointmentRepository;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    private VetCalendar calendar;
+
+    @BeforeEach
+    void setUp() {
+        calendar = newCalendar();
+    }
+
+    @AfterEach
+    void tearDown() {
+        appointmentRepository.deleteAll();
+        daySlotsRepository.deleteAll();
+    }
+
+    @Test
+    void shouldBookEachSlotOnlyOnceUnderContention() throws Exception {
+        setWorkingHours(calendar, 1, tomorrow, tomorrow, 8, 12);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> bookings = new ArrayList<>();
+        for (int thread = 0; thread < 8; thread++) {
+            bookings.add(executor.submit(() -> {
+                start.await();
+                try {
+                    calendar.book(1, tomorrow, NINE, 7, "checkup");
+                    return true;
+                } catch (SlotUnavailableException e) {
+                    return false;
+                }
+            }));
+        }
+        start.countDown();
+        int booked = 0;
+        for (Future<Boolean> booking : bookings) {
+            booked += booking.get() ? 1 : 0;
+        }
+        executor.shutdown();
+
+        assertThat(booked).isEqualTo(1);
+        assertThat(calendar.findAppointments(1, tomorrow, tomorrow)).extracting(Appointment::getSlot)
+            .containsExactly(18);
+        assertThat(daySlotsRepository.findByVetIdAndDate(1, tomorrow).orElseThrow().getBookedSlots())
+            .isEqualTo(1L << 18);
+    }
+
+    @Test
+    void shouldRefuseSlotsNotWorkedOrPast() {
+        setWorkingHours(calendar, 1, LocalDate.now(), tomorrow, 8, 12);
+
+        assertThatThrownBy(() -> calendar.book(1, tomorrow, LocalTime.of(7, 30), 7, "checkup"))
+            .isInstanceOf(SlotUnavailableException.class);
+        assertThatThrownBy(() -> calendar.book(2, tomorrow, NINE, 7, "checkup"))
+            .isInstanceOf(SlotUnavailableException.class);
+        assertThatThrownBy(() -> calendar.book(1, LocalDate.now().minusDays(1), NINE, 7, "checkup"))
+            .isInstanceOf(SlotUnavailableException.class);
+        assertThat(appointmentRepository.count()).isZero();
+    }
+
+    @Test
+    void shouldRefuseSlotBookedByAnotherInstanceAndRefreshTheDay() {
+        setWorkingHours(calendar, 1, tomorrow, tomorrow, 8, 12);
+        VetCalendar other = newCalendar();
+        assertThat(other.findFreeSlots(List.of(1), tomorrow, tomorrow, 1)).hasSize(1);
+
+        calendar.book(1, tomorrow, NINE, 7, "checkup");
+
+        // The other instance still believes the slot is free until the database tells otherwise
+        assertThatThrownBy(() -> other.book(1, tomorrow, NINE, 8, "vaccination"))
+            .isInstanceOf(SlotUnavailableException.class);
+        assertThat(other.findFreeSlots(List.of(1), tomorrow, tomorrow, 10)).extracting(FreeSlot::start)
+            .doesNotContain(NINE);
+        assertThat(calendar.findAppointments(1, tomorrow, tomorrow)).extracting(Appointment::getPetId)
+            .containsExactly(7);
+    }
+
+    @Test
+    void shouldFreeTheSlotOfCancelledAppointments() {
+        setWorkingHours(calendar, 1, tomorrow, tomorrow, 8, 12);
+        Appointment appointment = calendar.book(1, tomorrow, NINE, 7, "checkup");
+
+        assertThat(calendar.cancel(2, appointment.getId())).isFalse();
+        assertThat(calendar.cancel(1, appointment.getId())).isTrue();
+        assertThat(calendar.cancel(1, appointment.getId())).isFalse();
+
+        assertThat(calendar.book(1, tomorrow, NINE, 8, "vaccination").getPetId()).isEqualTo(8);
+    }
+
+    @Test
+    void shouldFindTheEarliestFreeSlotsInChronologicalOrder() {
+        LocalDate dayAfter = tomorrow.plusDays(1);
+        setWorkingHours(calendar, 1, tomorrow, tomorrow, 10, 12);
+        setWorkingHours(calendar, 2, tomorrow, dayAfter, 9, 11);
+        calendar.book(2, tomorrow, NINE, 7, "checkup");
+
+        assertThat(calendar.findFreeSlots(tomorrow, dayAfter, 3))
+            .containsExactly(
+                new FreeSlot(2, tomorrow, LocalTime.of(9, 30), LocalTime.of(10, 0)),
+                new FreeSlot(1, tomorrow, LocalTime.of(10, 0), LocalTime.of(10, 30)),
+                new FreeSlot(2, tomorrow, LocalTime.of(10, 0), LocalTime.of(10, 30)));
+        assertThat(calendar.findFreeSlots(List.of(1, 3), tomorrow, dayAfter, 10))
+            .extracting(FreeSlot::vetId, FreeSlot::start)
+            .containsExactly(tuple(1, LocalTime.of(10, 0)), tuple(1, LocalTime.of(10, 30)),
+                tuple(1, LocalTime.of(11, 0)), tuple(1, LocalTime.of(11, 30)));
+        assertThat(calendar.findFreeSlots(dayAfter, dayAfter.plusDays(7), 10)).hasSize(4)
+            .allMatch(slot -> slot.vetId() == 2 && slot.date().equals(dayAfter));
+        assertThat(calendar.findFreeSlots(LocalDate.now().minusDays(7), LocalDate.now().minusDays(1), 10)).isEmpty();
+    }
+
+    @Test
+    void shouldEvictThePastDays() {
+        LocalDate dayAfter = tomorrow.plusDays(1);
+        setWorkingHours(calendar, 1, tomorrow, dayAfter, 8, 12);
+        setWorkingHours(calendar, 2, dayAfter, dayAfter, 8, 12);
+
+        assertThat(calendar.evictDaysBefore(dayAfter)).isEqualTo(1);
+        assertThat(calendar.evictDaysBefore(dayAfter)).isZero();
+
+        assertThat(calendar.findFreeSlots(tomorrow, tomorrow, 10)).isEmpty();
+        assertThat(calendar.findFreeSlots(dayAfter, dayAfter, 100)).hasSize(16);
+    }
+
+    private VetCalendar newCalendar() {
+        return new VetCalendar(daySlotsRepository, appointmentRepository, transactionManager);
+    }
+
+    private static void setWorkingHours(VetCalendar calendar, int vetId, LocalDate from, LocalDate to, int start,
+                                        int end) {
+        calendar.setWorkingHours(vetId, from, to, EnumSet.allOf(DayOfWeek.class), LocalTime.of(start, 0),
+            LocalTime.of(end, 0));
+    }
+}
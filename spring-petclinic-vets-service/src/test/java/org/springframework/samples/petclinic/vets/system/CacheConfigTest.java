@@ -0,0 +1,40 @@
+package org.springframework.samples.petclinic.vets.system;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.cache.interceptor.SimpleKey;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class CacheConfigTest {
+
+    @Test
+    void shouldServeTheVetsFromTheCacheWhileReloadingThemAfterAnIdlePeriod() throws InterruptedException {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch reload = new CountDownLatch(1);
+        // Refreshed after 1 second
+        Cache vets = new CacheConfig().cacheManager(new VetsProperties(new VetsProperties.Cache(1, 10, 0)), key -> {
+            if (loads.incrementAndGet() > 1) {
+                reload.await(10, TimeUnit.SECONDS);
+            }
+            return "vets " + loads.get();
+        }).getCache(CacheConfig.VETS);
+        assertThat(vets.get(SimpleKey.EMPTY).get()).isEqualTo("vets 1");
+
+        // Idle for longer than the refresh interval and the ttl
+        Thread.sleep(2_000);
+
+        Object stale = assertTimeoutPreemptively(Duration.ofMillis(500), () -> vets.get(SimpleKey.EMPTY).get());
+        assertThat(stale).isEqualTo("vets 1");
+        reload.countDown();
+        await().atMost(Duration.ofSeconds(5)).until(() -> "vets 2".equals(vets.get(SimpleKey.EMPTY).get()));
+        assertThat(loads).hasValue(2);
+    }
+}
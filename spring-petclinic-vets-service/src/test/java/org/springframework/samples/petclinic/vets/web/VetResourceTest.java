@@ -18,17 +18,25 @@ package org.springframework.samples.petclinic.vets.web;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
-import org.springframework.samples.petclinic.vets.model.Vet;
+import org.springframework.samples.petclinic.vets.model.VetDetails;
+import org.springframework.samples.petclinic.vets.model.VetDetails.SpecialtyDetails;
 import org.springframework.samples.petclinic.vets.model.VetRepository;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.BDDMockito.given;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -36,6 +44,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
  * @author Maciej Szarlinski
  */
 @WebMvcTest(VetResource.class)
+@Import(VetsResponses.class)
 @ActiveProfiles("test")
 class VetResourceTest {
 
@@ -48,13 +57,75 @@ class VetResourceTest {
     @Test
     void shouldGetAListOfVets() throws Exception {
 
-        Vet vet = new Vet();
-        vet.setId(1);
+        VetDetails vet = new VetDetails(1, "James", "Carter", List.of());
 
-        given(vetRepository.findAll()).willReturn(List.of(vet));
+        given(vetRepository.findAllDetails()).willReturn(List.of(vet));
 
         mvc.perform(get("/vets").accept(MediaType.APPLICATION_JSON))
             .andExpect(status().isOk())
             .andExpect(jsonPath("$[0].id").value(1));
     }
+
+    @Test
+    void shouldFilterVetsBySpecialty() throws Exception {
+        VetDetails radiologist = new VetDetails(1, "Helen", "Leary", List.of(new SpecialtyDetails(1, "radiology")));
+        VetDetails vet = new VetDetails(2, "James", "Carter", List.of());
+        given(vetRepository.findAllDetails()).willReturn(List.of(radiologist, vet));
+
+        mvc.perform(get("/vets").param("specialty", "radiology,surgery").param("match", "any"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(1))
+            .andExpect(jsonPath("$[0].id").value(1));
+        mvc.perform(get("/vets").param("specialty", "radiology,surgery").param("match", "all"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(0));
+    }
+
+    @Test
+    void shouldRejectEmptySpecialtyFilter() throws Exception {
+        mvc.perform(get("/vets").param("specialty", "").param("match", "all"))
+            .andExpect(status().isBadRequest());
+        mvc.perform(get("/vets").param("specialty", " , "))
+            .andExpect(status().isBadRequest());
+        mvc.perform(get("/vets").param("specialty", "radiology").param("match", "some"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldServeGzipVariantAndHonorETag() throws Exception {
+        VetDetails vet = new VetDetails(1, "James", "Carter", List.of());
+        given(vetRepository.findAllDetails()).willReturn(List.of(vet));
+
+        byte[] gzipped = mvc.perform(get("/vets").header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+            .andExpect(status().isOk())
+            .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+            .andReturn().getResponse().getContentAsByteArray();
+        try (GZIPInputStream json = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            assertThat(new String(json.readAllBytes(), StandardCharsets.UTF_8)).contains("\"id\":1");
+        }
+
+        String etag = mvc.perform(get("/vets"))
+            .andExpect(status().isOk())
+            .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mvc.perform(get("/vets").header(HttpHeaders.IF_NONE_MATCH, etag))
+            .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void shouldNotServeGzipToClientsRefusingIt() throws Exception {
+        given(vetRepository.findAllDetails()).willReturn(List.of(new VetDetails(1, "James", "Carter", List.of())));
+
+        mvc.perform(get("/vets").header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0, deflate"))
+            .andExpect(status().isOk())
+            .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+            .andExpect(jsonPath("$[0].id").value(1));
+
+        assertThat(VetResource.acceptsGzip("gzip;q=0")).isFalse();
+        assertThat(VetResource.acceptsGzip("GZIP ; Q=0.000")).isFalse();
+        assertThat(VetResource.acceptsGzip("*, gzip;q=0")).isFalse();
+        assertThat(VetResource.acceptsGzip("identity")).isFalse();
+        assertThat(VetResource.acceptsGzip("x-gzip")).isTrue();
+        assertThat(VetResource.acceptsGzip("br;q=1.0, gzip;q=0.8")).isTrue();
+        assertThat(VetResource.acceptsGzip("deflate, *;q=0.5")).isTrue();
+    }
 }
@@ -0,0 +1,130 @@
+package org.springframework.samples.petclinic.vets.web;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
+import org.springframework.samples.petclinic.vets.model.Appointment;
+import org.springframework.samples.petclinic.vets.model.VetDetails;
+import org.springframework.samples.petclinic.vets.model.VetDetails.SpecialtyDetails;
+import org.springframework.samples.petclinic.vets.model.VetRepository;
+import org.springframework.samples.petclinic.vets.schedule.FreeSlot;
+import org.springframework.samples.petclinic.vets.schedule.SlotUnavailableException;
+import org.springframework.samples.petclinic.vets.schedule.VetCalendar;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(VetScheduleResource.class)
+@Import(VetsResponses.class)
+@ActiveProfiles("test")
+class VetScheduleResourceTest {
+
+    private static final LocalDate DATE = LocalDate.of(2030, 1, 7);
+
+    @Autowired
+    MockMvc mvc;
+
+    @MockitoBean
+    VetCalendar vetCalendar;
+
+    @MockitoBean
+    VetRepository vetRepository;
+
+    @Test
+    void shouldBookAppointments() throws Exception {
+        given(vetRepository.existsById(1)).willReturn(true);
+        Appointment appointment = new Appointment();
+        ReflectionTestUtils.setField(appointment, "id", 5);
+        appointment.setVetId(1);
+        appointment.setDate(DATE);
+        appointment.setSlot(18);
+        appointment.setPetId(7);
+        appointment.setDescription("checkup");
+        given(vetCalendar.book(1, DATE, LocalTime.of(9, 0), 7, "checkup")).willReturn(appointment);
+
+        mvc.perform(post("/vets/1/appointments").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"date\":\"2030-01-07\",\"start\":\"09:00\",\"petId\":7,\"description\":\"checkup\"}"))
+            .andExpect(status().isCreated())
+            .andExpect(jsonPath("$.id").value(5))
+            .andExpect(jsonPath("$.start").value("09:00:00"))
+            .andExpect(jsonPath("$.end").value("09:30:00"));
+    }
+
+    @Test
+    void shouldRefuseAppointmentsOfUnknownVets() throws Exception {
+        mvc.perform(post("/vets/99/appointments").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"date\":\"2030-01-07\",\"start\":\"09:00\",\"petId\":7}"))
+            .andExpect(status().isNotFound());
+
+        verify(vetCalendar, never()).book(anyInt(), any(), any(), any(), any());
+    }
+
+    @Test
+    void shouldReportBookingConflicts() throws Exception {
+        given(vetRepository.existsById(1)).willReturn(true);
+        given(vetCalendar.book(1, DATE, LocalTime.of(9, 0), 7, null))
+            .willThrow(new SlotUnavailableException("Vet 1 is not available on 2030-01-07 at 09:00"));
+
+        mvc.perform(post("/vets/1/appointments").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"date\":\"2030-01-07\",\"start\":\"09:00\",\"petId\":7}"))
+            .andExpect(status().isConflict());
+        mvc.perform(post("/vets/1/appointments").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"date\":\"2030-01-07\",\"start\":\"09:15\",\"petId\":7}"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldValidateWorkingHours() throws Exception {
+        given(vetRepository.existsById(1)).willReturn(true);
+
+        mvc.perform(put("/vets/99/schedule").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"from\":\"2030-01-07\",\"to\":\"2030-01-11\",\"start\":\"08:00\",\"end\":\"12:00\"}"))
+            .andExpect(status().isNotFound());
+        mvc.perform(put("/vets/1/schedule").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"from\":\"2030-01-07\",\"to\":\"2030-01-11\",\"start\":\"12:00\",\"end\":\"08:00\"}"))
+            .andExpect(status().isBadRequest());
+        mvc.perform(put("/vets/1/schedule").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"from\":\"2030-01-07\",\"to\":\"2031-01-11\",\"start\":\"08:00\",\"end\":\"12:00\"}"))
+            .andExpect(status().isBadRequest());
+        mvc.perform(put("/vets/1/schedule").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"from\":\"2030-01-07\",\"to\":\"2030-01-11\",\"start\":\"08:00\",\"end\":\"00:00\"}"))
+            .andExpect(status().isNoContent());
+    }
+
+    @Test
+    void shouldFindFreeSlotsOfTheVetsHavingTheSpecialty() throws Exception {
+        given(vetRepository.findAllDetails()).willReturn(List.of(
+            new VetDetails(1, "Helen", "Leary", List.of(new SpecialtyDetails(1, "radiology"))),
+            new VetDetails(2, "James", "Carter", List.of())));
+        given(vetCalendar.findFreeSlots(List.of(1), DATE, DATE, 10))
+            .willReturn(List.of(new FreeSlot(1, DATE, LocalTime.of(9, 0), LocalTime.of(9, 30))));
+
+        mvc.perform(get("/vets/slots").param("specialty", "radiology")
+                .param("from", "2030-01-07").param("to", "2030-01-07"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.length()").value(1))
+            .andExpect(jsonPath("$[0].vetId").value(1));
+        mvc.perform(get("/vets/slots").param("from", "2030-01-07").param("to", "2030-01-07").param("limit", "0"))
+            .andExpect(status().isBadRequest());
+        mvc.perform(get("/vets/slots").param("from", "2030-01-08").param("to", "2030-01-07"))
+            .andExpect(status().isBadRequest());
+    }
+}
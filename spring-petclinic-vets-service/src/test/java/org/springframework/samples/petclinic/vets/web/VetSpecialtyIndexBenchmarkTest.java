@@ -0,0 +1,90 @@
+package org.springframework.samples.petclinic.vets.web;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.samples.petclinic.vets.model.VetDetails;
+import org.springframework.samples.petclinic.vets.model.VetDetails.SpecialtyDetails;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Build time of the {@link VetSpecialtyIndex} and latency of two-specialty queries, against a linear scan of the vets,
+ * for <code>benchmark.vets</code> synthetic vets having 3 of 20 specialties each. Run with:
+ * <pre>
+ * mvn test -Dtest=VetSpecialtyIndexBenchmarkTest -Dbenchmark.vets=100000
+ * </pre>
+ */
+@EnabledIfSystemProperty(named = "benchmark.vets", matches = "\\d+")
+class VetSpecialtyIndexBenchmarkTest {
+
+    private static final Logger log = LoggerFactory.getLogger(VetSpecialtyIndexBenchmarkTest.class);
+
+    private static final int SPECIALTIES = 20;
+
+    private static final int QUERIES = 1000;
+
+    private static final int WARMUP_ROUNDS = 5;
+
+    @Test
+    void compareIndexWithLinearScan() {
+        int count = Integer.getInteger("benchmark.vets");
+        Random random = new Random(1);
+        List<VetDetails> vets = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            List<SpecialtyDetails> specialties = new ArrayList<>();
+            random.ints(1, SPECIALTIES + 1).distinct().limit(3)
+                .forEach(specialtyId -> specialties.add(new SpecialtyDetails(specialtyId, "specialty-" + specialtyId)));
+            vets.add(new VetDetails(id, "First" + id, "Last" + id, specialties));
+        }
+        List<List<String>> queries = new ArrayList<>(QUERIES);
+        for (int q = 0; q < QUERIES; q++) {
+            queries.add(List.of("specialty-" + (1 + random.nextInt(SPECIALTIES)),
+                "specialty-" + (1 + random.nextInt(SPECIALTIES))));
+        }
+
+        long buildNanos = 0;
+        VetSpecialtyIndex index = null;
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            long start = System.nanoTime();
+            index = new VetSpecialtyIndex(vets);
+            buildNanos = System.nanoTime() - start;
+        }
+
+        long found = 0;
+        double indexMillis = 0;
+        double scanMillis = 0;
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (List<String> query : queries) {
+                found += index.find(query, false).size();
+            }
+            indexMillis = (System.nanoTime() - start) / 1e6 / QUERIES;
+            start = System.nanoTime();
+            for (List<String> query : queries) {
+                found -= scan(vets, query).size();
+            }
+            scanMillis = (System.nanoTime() - start) / 1e6 / QUERIES;
+        }
+
+        assertThat(found).as("vets found by the index but not by the linear scan").isZero();
+        log.info("{} vets with 3 of {} specialties, index build: {} ms", count, SPECIALTIES, buildNanos / 1_000_000);
+        log.info("match=any ms/query, index: {}, linear scan: {}", String.format("%.3f", indexMillis),
+            String.format("%.3f", scanMillis));
+    }
+
+    private static List<VetDetails> scan(List<VetDetails> vets, List<String> specialties) {
+        List<VetDetails> found = new ArrayList<>();
+        for (VetDetails vet : vets) {
+            if (vet.specialties().stream().anyMatch(specialty -> specialties.contains(specialty.name()))) {
+                found.add(vet);
+            }
+        }
+        return found;
+    }
+}
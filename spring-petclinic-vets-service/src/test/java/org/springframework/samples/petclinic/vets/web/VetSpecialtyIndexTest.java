@@ -0,0 +1,57 @@
+package org.springframework.samples.petclinic.vets.web;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.samples.petclinic.vets.model.VetDetails;
+import org.springframework.samples.petclinic.vets.model.VetDetails.SpecialtyDetails;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VetSpecialtyIndexTest {
+
+    private static final String[] NAMES = {"radiology", "surgery", "dentistry", "cardiology", "dermatology"};
+
+    @Test
+    void shouldMatchAnyOrAllSpecialtiesAmongOneHundredThousandVets() {
+        List<VetDetails> vets = new ArrayList<>();
+        for (int id = 1; id <= 100_000; id++) {
+            // Vet n has the specialties whose id divides n
+            List<SpecialtyDetails> specialties = new ArrayList<>();
+            for (int specialtyId = 1; specialtyId <= NAMES.length; specialtyId++) {
+                if (id % specialtyId == 0) {
+                    specialties.add(new SpecialtyDetails(specialtyId, NAMES[specialtyId - 1]));
+                }
+            }
+            vets.add(new VetDetails(id, "First" + id, "Last" + id, specialties));
+        }
+
+        VetSpecialtyIndex index = new VetSpecialtyIndex(vets);
+
+        assertThat(index.find(List.of("Surgery", "dentistry"), true))
+            .hasSize(100_000 / 6)
+            .allMatch(vet -> vet.id() % 6 == 0);
+        assertThat(index.find(List.of("4", "dentistry"), false))
+            .hasSize(100_000 / 4 + 100_000 / 3 - 100_000 / 12)
+            .extracting(VetDetails::id).isSorted();
+        assertThat(index.find(List.of("surgery", "unknown"), false)).hasSize(100_000 / 2);
+        assertThat(index.find(List.of("surgery", "unknown"), true)).isEmpty();
+    }
+
+    @Test
+    void shouldResolveEquivalentQueriesToTheSameQuery() {
+        VetSpecialtyIndex index = new VetSpecialtyIndex(List.of(
+            new VetDetails(1, "Helen", "Leary", List.of(new SpecialtyDetails(1, "radiology"))),
+            new VetDetails(2, "Linda", "Douglas", List.of(new SpecialtyDetails(2, "surgery"),
+                new SpecialtyDetails(3, "dentistry")))));
+
+        assertThat(index.query(List.of("Surgery", "radiology", "unknown"), false))
+            .isEqualTo(index.query(List.of("1", " RADIOLOGY", "2"), false))
+            .isEqualTo(new VetSpecialtyIndex.Query(List.of(1, 2), false));
+        assertThat(index.query(List.of("surgery", "unknown"), true)).isEqualTo(VetSpecialtyIndex.Query.NONE);
+        assertThat(index.find(VetSpecialtyIndex.Query.NONE)).isEmpty();
+        assertThat(index.find(index.query(List.of("dentistry", "surgery"), true)))
+            .extracting(VetDetails::id).containsExactly(2);
+    }
+}
@@ -0,0 +1,38 @@
+package org.springframework.samples.petclinic.vets.web;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.samples.petclinic.vets.model.VetDetails;
+import org.springframework.samples.petclinic.vets.model.VetDetails.SpecialtyDetails;
+import org.springframework.samples.petclinic.vets.model.VetRepository;
+import tools.jackson.databind.json.JsonMapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+class VetsResponsesTest {
+
+    private final VetRepository vetRepository = mock(VetRepository.class);
+
+    private final VetsResponses vetsResponses = new VetsResponses(vetRepository, JsonMapper.shared());
+
+    @Test
+    void shouldReuseUnchangedResponseAndItsFilteredJson() {
+        given(vetRepository.findAllDetails()).willReturn(List.of(
+            new VetDetails(1, "Helen", "Leary", List.of(new SpecialtyDetails(1, "radiology"))),
+            new VetDetails(2, "James", "Carter", List.of())));
+
+        VetsResponses.VetsResponse response = vetsResponses.current();
+        byte[] filtered = vetsResponses.filteredJson(response,
+            response.index().query(List.of("radiology", "unknown"), false));
+
+        VetsResponses.VetsResponse reloaded = vetsResponses.load(new Object());
+        assertThat(reloaded).isSameAs(response);
+        assertThat(vetsResponses.filteredJson(reloaded, reloaded.index().query(List.of("1"), false)))
+            .isSameAs(filtered);
+        assertThat(new String(filtered, StandardCharsets.UTF_8)).contains("\"id\":1").doesNotContain("\"id\":2");
+    }
+}
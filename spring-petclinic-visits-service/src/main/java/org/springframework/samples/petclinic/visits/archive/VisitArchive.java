@@ -0,0 +1,277 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.archive;
+
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+import org.springframework.samples.petclinic.visits.model.Visit;
+import org.springframework.stereotype.Component;
+
+/**
+ * Read access to the visits moved out of the <code>visits</code> table by {@link VisitArchiver}, stored as one
+ * {@link VisitSegment} per month in the <code>visit_archive_segments</code> table, so that every instance reads the
+ * same archive.
+ * <p>
+ * The segments are decoded once and kept in memory. Each read first compares the row count and the sum of the
+ * revisions of the table with the ones of the loaded segments, and reloads the months that changed.
+ */
+@Component
+public class VisitArchive {
+
+    private static final Logger log = LoggerFactory.getLogger(VisitArchive.class);
+
+    private static final String SELECT_FINGERPRINT =
+        "SELECT COUNT(*), COALESCE(SUM(revision), 0) FROM visit_archive_segments";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final Period maxAge;
+
+    private final NavigableMap<YearMonth, VisitSegment> segments = new ConcurrentSkipListMap<>();
+
+    private final Map<YearMonth, Integer> revisions = new HashMap<>();
+
+    private volatile Fingerprint fingerprint = new Fingerprint(0, 0);
+
+    public VisitArchive(JdbcTemplate jdbcTemplate, VisitsProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.maxAge = properties.archive().maxAge();
+    }
+
+    /**
+     * Day from which visits are never archived: {@link VisitArchiver} only moves the months older than the maximum
+     * age, and the segments already loaded may hold newer months if that age was reduced since. Reads of newer visits
+     * can skip the archive without checking for changes.
+     */
+    public LocalDate cutoff() {
+        LocalDate cutoff = YearMonth.from(LocalDate.now().minus(maxAge)).atDay(1);
+        if (!segments.isEmpty()) {
+            LocalDate loaded = segments.lastKey().plusMonths(1).atDay(1);
+            return loaded.isAfter(cutoff) ? loaded : cutoff;
+        }
+        return cutoff;
+    }
+
+    /**
+     * @return the archived visits of the pet, oldest first
+     */
+    public List<Visit> findByPetId(int petId) {
+        refresh();
+        List<Visit> visits = new ArrayList<>();
+        segments.values().forEach(segment -> visits.addAll(segment.findByPetId(petId)));
+        return visits;
+    }
+
+    /**
+     * Newest-first page of the archived visits of the pet, dated within the given days (unbounded when null). Only the
+     * months of the range are decoded, from the newest one, until the page is full.
+     */
+    public List<Visit> findPageByPetId(int petId, LocalDate from, LocalDate to, Predicate<Visit> filter, int limit) {
+        refresh();
+        NavigableMap<YearMonth, VisitSegment> months = segments;
+        if (from != null) {
+            months = months.tailMap(YearMonth.from(from), true);
+        }
+        if (to != null) {
+            months = months.headMap(YearMonth.from(to), true);
+        }
+        List<Visit> visits = new ArrayList<>(limit);
+        for (VisitSegment segment : months.descendingMap().values()) {
+            List<Visit> monthVisits = segment.findByPetId(petId);
+            for (int i = monthVisits.size() - 1; i >= 0 && visits.size() < limit; i--) {
+                Visit visit = monthVisits.get(i);
+                long day = VisitSegment.epochDay(visit);
+                if ((from == null || day >= from.toEpochDay()) && (to == null || day <= to.toEpochDay())
+                    && filter.test(visit)) {
+                    visits.add(visit);
+                }
+            }
+            if (visits.size() == limit) {
+                break;
+            }
+        }
+        return visits;
+    }
+
+    /**
+     * @return the archived visits of the given pets, oldest first, keyed by pet id in request order; pets without
+     * archived visits are left out
+     */
+    public Map<Integer, List<Visit>> findByPetIds(Collection<Integer> petIds) {
+        Map<Integer, List<Visit>> visits = new LinkedHashMap<>();
+        refresh();
+        if (segments.isEmpty()) {
+            return visits;
+        }
+        for (Integer petId : petIds) {
+            if (!visits.containsKey(petId)) {
+                List<Visit> petVisits = findByPetId(petId);
+                if (!petVisits.isEmpty()) {
+                    visits.put(petId, petVisits);
+                }
+            }
+        }
+        return visits;
+    }
+
+    public Optional<Visit> findById(int id) {
+        refresh();
+        return segments.values().stream()
+            .map(segment -> segment.findById(id))
+            .flatMap(Optional::stream)
+            .findFirst();
+    }
+
+    /**
+     * Decodes the archived visits dated within the given days, month by month.
+     */
+    public void forEachVisitBetween(LocalDate from, LocalDate to, Consumer<Visit> action) {
+        refresh();
+        for (VisitSegment segment : segments.subMap(YearMonth.from(from), true, YearMonth.from(to), true).values()) {
+            for (Visit visit : segment.findAll()) {
+                long day = VisitSegment.epochDay(visit);
+                if (day >= from.toEpochDay() && day <= to.toEpochDay()) {
+                    action.accept(visit);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes the archived visits of the pets matching the given predicate.
+     */
+    public void forEachVisitOf(IntPredicate petFilter, Consumer<Visit> action) {
+        refresh();
+        segments.values().forEach(segment -> segment.forEachPet(petFilter, action));
+    }
+
+    public Optional<LocalDate> firstDay() {
+        refresh();
+        return segments.isEmpty() ? Optional.empty() : Optional.of(segments.firstKey().atDay(1));
+    }
+
+    public Optional<LocalDate> lastDay() {
+        refresh();
+        return segments.isEmpty() ? Optional.empty() : Optional.of(segments.lastKey().atEndOfMonth());
+    }
+
+    public Optional<Integer> minPetId() {
+        refresh();
+        return segments.values().stream().filter(segment -> segment.size() > 0)
+            .map(VisitSegment::minPetId).min(Integer::compare);
+    }
+
+    public Optional<Integer> maxPetId() {
+        refresh();
+        return segments.values().stream().filter(segment -> segment.size() > 0)
+            .map(VisitSegment::maxPetId).max(Integer::compare);
+    }
+
+    /**
+     * Reads the segment of the month straight from the table, to be replaced by {@link #store}.
+     */
+    StoredMonth load(YearMonth month) {
+        return jdbcTemplate.query("SELECT revision, segment FROM visit_archive_segments WHERE archive_month = ?",
+                (rs, rowNum) -> new StoredMonth(rs.getInt(1), VisitSegment.of(rs.getBytes(2)).findAll()),
+                month.toString())
+            .stream()
+            .findFirst()
+            .orElseGet(() -> new StoredMonth(0, List.of()));
+    }
+
+    /**
+     * Replaces the segment of the month with the given visits, provided it is still at the revision it was
+     * {@link #load loaded} at.
+     *
+     * @throws OptimisticLockingFailureException when the month was archived concurrently
+     */
+    void store(YearMonth month, int revision, Collection<Visit> visits) {
+        byte[] segment = VisitSegment.encode(month, visits);
+        int updated;
+        try {
+            updated = revision == 0
+                ? jdbcTemplate.update(
+                    "INSERT INTO visit_archive_segments (archive_month, revision, segment) VALUES (?, 1, ?)",
+                    month.toString(), segment)
+                : jdbcTemplate.update(
+                    "UPDATE visit_archive_segments SET revision = ?, segment = ? "
+                        + "WHERE archive_month = ? AND revision = ?",
+                    revision + 1, segment, month.toString(), revision);
+        } catch (DuplicateKeyException e) {
+            updated = 0;
+        }
+        if (updated == 0) {
+            throw new OptimisticLockingFailureException("The visits of " + month + " were archived concurrently");
+        }
+    }
+
+    private void refresh() {
+        Fingerprint current = jdbcTemplate.queryForObject(SELECT_FINGERPRINT,
+            (rs, rowNum) -> new Fingerprint(rs.getInt(1), rs.getLong(2)));
+        if (!current.equals(fingerprint)) {
+            reload();
+        }
+    }
+
+    private synchronized void reload() {
+        Map<YearMonth, Integer> stored = new HashMap<>();
+        jdbcTemplate.query("SELECT archive_month, revision FROM visit_archive_segments",
+            (RowCallbackHandler) rs -> stored.put(YearMonth.parse(rs.getString(1)), rs.getInt(2)));
+        segments.keySet().retainAll(stored.keySet());
+        revisions.keySet().retainAll(stored.keySet());
+        stored.forEach((month, revision) -> {
+            if (!revision.equals(revisions.get(month))) {
+                jdbcTemplate.query("SELECT revision, segment FROM visit_archive_segments WHERE archive_month = ?",
+                    (RowCallbackHandler) rs -> {
+                        segments.put(month, VisitSegment.of(rs.getBytes(2)));
+                        revisions.put(month, rs.getInt(1));
+                    },
+                    month.toString());
+            }
+        });
+        // Computed from what was loaded: a month updated in the meantime is reloaded by the next read
+        fingerprint = new Fingerprint(revisions.size(),
+            revisions.values().stream().mapToLong(Integer::longValue).sum());
+        log.debug("Loaded {} visit archive segments", segments.size());
+    }
+
+    record StoredMonth(int revision, List<Visit> visits) {
+    }
+
+    private record Fingerprint(int count, long revisions) {
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.archive;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.YearMonth;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+import org.springframework.samples.petclinic.visits.model.Visit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Moves the visits of every month older than {@link VisitsProperties.Archive#maxAge()} from the <code>visits</code>
+ * table into the {@link VisitArchive}.
+ * <p>
+ * The visits of a month are merged with the ones already archived for that month, stored as its segment and deleted
+ * from the <code>visits</code> table in a single transaction. When several instances archive the same month
+ * concurrently, only the first one to commit succeeds; the others leave that month to their next run.
+ */
+@Component
+@ConditionalOnProperty(prefix = "visits.archive", name = "enabled", havingValue = "true")
+public class VisitArchiver {
+
+    private static final Logger log = LoggerFactory.getLogger(VisitArchiver.class);
+
+    private final VisitArchive visitArchive;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final Period maxAge;
+
+    public VisitArchiver(VisitArchive visitArchive, JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                         VisitsProperties properties) {
+        this.visitArchive = visitArchive;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.maxAge = properties.archive().maxAge();
+    }
+
+    /**
+     * Archives every complete month older than the maximum age. Runs every <code>visits.archive.cron</code> (every night
+     * by default).
+     *
+     * @return the number of archived visits
+     */
+    @Scheduled(cron = "${visits.archive.cron:0 30 3 * * *}")
+    public int archive() {
+        YearMonth cutoff = YearMonth.from(LocalDate.now().minus(maxAge));
+        List<YearMonth> months = jdbcTemplate.query(
+            "SELECT DISTINCT EXTRACT(YEAR FROM visit_date), EXTRACT(MONTH FROM visit_date) FROM visits WHERE visit_date < ?",
+            (rs, rowNum) -> YearMonth.of(rs.getInt(1), rs.getInt(2)),
+            Date.valueOf(cutoff.atDay(1)));
+        int archived = months.stream().sorted().mapToInt(this::archive).sum();
+        if (archived > 0) {
+            log.info("Archived {} visits older than {}", archived, cutoff);
+        }
+        return archived;
+    }
+
+    private int archive(YearMonth month) {
+        try {
+            int archived = transactionTemplate.execute(status -> {
+                List<Visit> visits = jdbcTemplate.query(
+                    "SELECT id, pet_id, visit_date, description FROM visits WHERE visit_date >= ? AND visit_date < ?",
+                    (rs, rowNum) -> Visit.VisitBuilder.aVisit()
+                        .id(rs.getInt(1))
+                        .petId(rs.getInt(2))
+                        .date(rs.getDate(3))
+                        .description(rs.getString(4))
+                        .build(),
+                    Date.valueOf(month.atDay(1)), Date.valueOf(month.plusMonths(1).atDay(1)));
+                if (visits.isEmpty()) {
+                    return 0;
+                }
+
+                VisitArchive.StoredMonth stored = visitArchive.load(month);
+                Map<Integer, Visit> segment = new LinkedHashMap<>();
+                stored.visits().forEach(visit -> segment.put(visit.getId(), visit));
+                visits.forEach(visit -> segment.put(visit.getId(), visit));
+                visitArchive.store(month, stored.revision(), segment.values());
+
+                jdbcTemplate.batchUpdate("DELETE FROM visits WHERE id = ?", visits, 500,
+                    (ps, visit) -> ps.setInt(1, visit.getId()));
+                return visits.size();
+            });
+            log.debug("Archived {} visits of {}", archived, month);
+            return archived;
+        } catch (OptimisticLockingFailureException e) {
+            log.warn("The visits of {} were archived concurrently, leaving them to the next run", month);
+            return 0;
+        }
+    }
+}
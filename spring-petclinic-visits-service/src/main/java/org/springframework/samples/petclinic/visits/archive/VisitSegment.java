@@ -0,0 +1,346 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.springframework.samples.petclinic.visits.model.Visit;
+
+/**
+ * Immutable, encoded form of the archived visits of one month.
+ * <p>
+ * Layout: a header (magic, year, month, row count, id range, pet count), a pet-id index of delta-encoded
+ * <code>(pet id, block offset)</code> varint pairs, then one block per pet. A block stores the pet's visits sorted by
+ * date as three columns: delta-encoded ids, delta-encoded epoch days (starting from the first day of the month) and
+ * the deflated descriptions. The pet index is decoded on open; an id index is built from the id columns, which are
+ * not compressed, on the first lookup by id. Only the blocks of the requested pets are decompressed.
+ */
+final class VisitSegment {
+
+    private static final int MAGIC = 0x56534731;
+
+    private static final Comparator<Visit> DATE_ORDER = Comparator
+        .comparingLong(VisitSegment::epochDay)
+        .thenComparing(Visit::getId);
+
+    private final YearMonth month;
+
+    private final ByteBuffer buffer;
+
+    private final int size;
+
+    private final int minId;
+
+    private final int maxId;
+
+    private final int[] petIds;
+
+    private final int[] blockOffsets;
+
+    private volatile long[] idIndex;
+
+    private VisitSegment(ByteBuffer buffer) {
+        ByteBuffer header = buffer.duplicate();
+        if (header.getInt() != MAGIC) {
+            throw new IllegalStateException("Not a visit segment");
+        }
+        this.month = YearMonth.of(header.getInt(), header.getInt());
+        this.size = header.getInt();
+        this.minId = header.getInt();
+        this.maxId = header.getInt();
+        this.petIds = new int[header.getInt()];
+        this.blockOffsets = new int[petIds.length];
+        int petId = 0;
+        int offset = 0;
+        for (int i = 0; i < petIds.length; i++) {
+            petId += readSignedVarint(header);
+            offset += readVarint(header);
+            petIds[i] = petId;
+            blockOffsets[i] = offset;
+        }
+        int dataStart = header.position();
+        for (int i = 0; i < blockOffsets.length; i++) {
+            blockOffsets[i] += dataStart;
+        }
+        this.buffer = buffer;
+    }
+
+    static VisitSegment of(byte[] encoded) {
+        return new VisitSegment(ByteBuffer.wrap(encoded).asReadOnlyBuffer());
+    }
+
+    static byte[] encode(YearMonth month, Collection<Visit> visits) {
+        Map<Integer, List<Visit>> byPet = visits.stream()
+            .sorted(DATE_ORDER)
+            .collect(Collectors.groupingBy(Visit::getPetId, TreeMap::new, Collectors.toList()));
+
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            int previousPetId = 0;
+            int previousOffset = 0;
+            for (Map.Entry<Integer, List<Visit>> pet : byPet.entrySet()) {
+                writeSignedVarint(index, pet.getKey() - previousPetId);
+                writeVarint(index, data.size() - previousOffset);
+                previousPetId = pet.getKey();
+                previousOffset = data.size();
+                writeBlock(data, month, pet.getValue(), deflater);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(4 * 7)
+            .putInt(MAGIC)
+            .putInt(month.getYear())
+            .putInt(month.getMonthValue())
+            .putInt(visits.size())
+            .putInt(visits.stream().mapToInt(Visit::getId).min().orElse(0))
+            .putInt(visits.stream().mapToInt(Visit::getId).max().orElse(0))
+            .putInt(byPet.size())
+            .flip();
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(header.remaining() + index.size() + data.size());
+        encoded.write(header.array(), 0, header.remaining());
+        encoded.writeBytes(index.toByteArray());
+        encoded.writeBytes(data.toByteArray());
+        return encoded.toByteArray();
+    }
+
+    private static void writeBlock(ByteArrayOutputStream out, YearMonth month, List<Visit> visits, Deflater deflater) {
+        writeVarint(out, visits.size());
+        int previousId = 0;
+        for (Visit visit : visits) {
+            writeSignedVarint(out, visit.getId() - previousId);
+            previousId = visit.getId();
+        }
+        long previousDay = month.atDay(1).toEpochDay();
+        for (Visit visit : visits) {
+            long day = epochDay(visit);
+            writeSignedVarint(out, Math.toIntExact(day - previousDay));
+            previousDay = day;
+        }
+
+        ByteArrayOutputStream descriptions = new ByteArrayOutputStream();
+        for (Visit visit : visits) {
+            if (visit.getDescription() == null) {
+                writeVarint(descriptions, 0);
+            } else {
+                byte[] bytes = visit.getDescription().getBytes(StandardCharsets.UTF_8);
+                writeVarint(descriptions, bytes.length + 1);
+                descriptions.writeBytes(bytes);
+            }
+        }
+        byte[] raw = descriptions.toByteArray();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        while (!deflater.finished()) {
+            compressed.write(chunk, 0, deflater.deflate(chunk));
+        }
+        writeVarint(out, raw.length);
+        writeVarint(out, compressed.size());
+        out.writeBytes(compressed.toByteArray());
+    }
+
+    YearMonth month() {
+        return month;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int minPetId() {
+        return petIds.length == 0 ? Integer.MAX_VALUE : petIds[0];
+    }
+
+    int maxPetId() {
+        return petIds.length == 0 ? Integer.MIN_VALUE : petIds[petIds.length - 1];
+    }
+
+    List<Visit> findByPetId(int petId) {
+        int index = Arrays.binarySearch(petIds, petId);
+        return index < 0 ? List.of() : readBlock(index);
+    }
+
+    List<Visit> findAll() {
+        List<Visit> visits = new ArrayList<>(size);
+        forEachPet(petId -> true, visits::add);
+        return visits;
+    }
+
+    /**
+     * Decodes the visits of the pets matching the given predicate, pet by pet.
+     */
+    void forEachPet(IntPredicate petFilter, Consumer<Visit> action) {
+        for (int i = 0; i < petIds.length; i++) {
+            if (petFilter.test(petIds[i])) {
+                readBlock(i).forEach(action);
+            }
+        }
+    }
+
+    boolean mayContainId(int id) {
+        return size > 0 && id >= minId && id <= maxId;
+    }
+
+    Optional<Visit> findById(int id) {
+        if (!mayContainId(id)) {
+            return Optional.empty();
+        }
+        long[] index = idIndex();
+        int position = Arrays.binarySearch(index, (long) id << 32);
+        if (position < 0) {
+            position = -position - 1;
+        }
+        if (position == index.length || (int) (index[position] >>> 32) != id) {
+            return Optional.empty();
+        }
+        return readBlock((int) index[position]).stream()
+            .filter(visit -> visit.getId() == id)
+            .findFirst();
+    }
+
+    /**
+     * Sorted <code>(id, block index)</code> pairs packed in longs, read from the id column of every block.
+     */
+    private long[] idIndex() {
+        long[] index = idIndex;
+        if (index == null) {
+            index = new long[size];
+            int position = 0;
+            for (int i = 0; i < blockOffsets.length; i++) {
+                for (int id : readIds(buffer.duplicate().position(blockOffsets[i]))) {
+                    index[position++] = (long) id << 32 | i;
+                }
+            }
+            Arrays.sort(index);
+            idIndex = index;
+        }
+        return index;
+    }
+
+    private static int[] readIds(ByteBuffer block) {
+        int[] ids = new int[readVarint(block)];
+        int id = 0;
+        for (int row = 0; row < ids.length; row++) {
+            id += readSignedVarint(block);
+            ids[row] = id;
+        }
+        return ids;
+    }
+
+    private List<Visit> readBlock(int index) {
+        ByteBuffer block = buffer.duplicate().position(blockOffsets[index]);
+        int[] ids = readIds(block);
+        int rows = ids.length;
+        long[] days = new long[rows];
+        long day = month.atDay(1).toEpochDay();
+        for (int row = 0; row < rows; row++) {
+            day += readSignedVarint(block);
+            days[row] = day;
+        }
+
+        byte[] raw = new byte[readVarint(block)];
+        int compressedLength = readVarint(block);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(block.slice(block.position(), compressedLength));
+            int inflated = 0;
+            while (inflated < raw.length && !inflater.finished()) {
+                inflated += inflater.inflate(raw, inflated, raw.length - inflated);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupted visit segment " + month, e);
+        } finally {
+            inflater.end();
+        }
+
+        ByteBuffer descriptions = ByteBuffer.wrap(raw);
+        List<Visit> visits = new ArrayList<>(rows);
+        for (int row = 0; row < rows; row++) {
+            int length = readVarint(descriptions) - 1;
+            String description = null;
+            if (length >= 0) {
+                description = new String(raw, descriptions.position(), length, StandardCharsets.UTF_8);
+                descriptions.position(descriptions.position() + length);
+            }
+            visits.add(Visit.VisitBuilder.aVisit()
+                .id(ids[row])
+                .petId(petIds[index])
+                .date(Date.from(LocalDate.ofEpochDay(days[row]).atStartOfDay(ZoneId.systemDefault()).toInstant()))
+                .description(description)
+                .build());
+        }
+        return visits;
+    }
+
+    static long epochDay(Visit visit) {
+        // java.sql.Date does not support toInstant()
+        return new java.sql.Date(visit.getDate().getTime()).toLocalDate().toEpochDay();
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeSignedVarint(ByteArrayOutputStream out, int value) {
+        writeVarint(out, (value << 1) ^ (value >> 31));
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static int readSignedVarint(ByteBuffer in) {
+        int value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.config;
+
+import java.nio.file.Path;
+import java.time.Period;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Typesafe custom configuration.
+ */
+@ConfigurationProperties(prefix = "visits")
+public record VisitsProperties(
+    @DefaultValue Query query,
+    @DefaultValue Ingestion ingestion,
+    @DefaultValue Stats stats,
+    @DefaultValue Archive archive
+) {
+    /**
+     * Tuning of the multi-pet visits lookup.
+     *
+     * @param minBucketSize smallest padded IN-list size
+     * @param maxChunkSize  largest IN-list sent in a single statement
+     * @param parallelism   number of chunks queried concurrently, 1 to query them sequentially
+     */
+    public record Query(
+        @DefaultValue("8") int minBucketSize,
+        @DefaultValue("512") int maxChunkSize,
+        @DefaultValue("1") int parallelism
+    ) {
+    }
+
+    /**
+     * Asynchronous visit ingestion, used by <code>POST</code> requests sending <code>Prefer: respond-async</code>.
+     *
+     * @param enabled   whether visits may be accepted asynchronously
+     * @param capacity  maximum number of accepted but not yet committed visits
+     * @param batchSize maximum number of visits inserted in a single transaction
+     * @param journal   append-only file holding accepted visits until they are committed
+     * @param journalCompactionSize size beyond which the journal is rewritten with its uncommitted visits only
+     */
+    public record Ingestion(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("10000") int capacity,
+        @DefaultValue("500") int batchSize,
+        @DefaultValue("visits-ingestion.journal") Path journal,
+        @DefaultValue("64MB") DataSize journalCompactionSize
+    ) {
+    }
+
+    /**
+     * Maintenance of the visit statistics rollups.
+     *
+     * @param reconcileDays       number of most recent days recomputed from raw visits on every reconciliation
+     * @param rebuildChunkDays    number of days recomputed per chunk by a full rebuild
+     * @param rebuildChunkPets    number of pet ids recomputed per chunk by a full rebuild
+     * @param rebuildParallelism  number of chunks recomputed concurrently by a full rebuild
+     * @param maxRangeDays        longest range of days answered by a single daily statistics request
+     */
+    public record Stats(
+        @DefaultValue("7") int reconcileDays,
+        @DefaultValue("31") int rebuildChunkDays,
+        @DefaultValue("1000") int rebuildChunkPets,
+        @DefaultValue("4") int rebuildParallelism,
+        @DefaultValue("366") int maxRangeDays
+    ) {
+    }
+
+    /**
+     * Archival of old visits into compressed monthly segments, stored in the <code>visit_archive_segments</code> table
+     * and read even when archival is disabled.
+     *
+     * @param enabled whether old visits are periodically moved out of the <code>visits</code> table
+     * @param maxAge  age after which the visits of a whole month are archived
+     */
+    public record Archive(
+        @DefaultValue("false") boolean enabled,
+        @DefaultValue("P2Y") Period maxAge
+    ) {
+    }
+}
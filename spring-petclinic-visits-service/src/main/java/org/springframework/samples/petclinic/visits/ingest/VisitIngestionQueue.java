@@ -0,0 +1,350 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.ingest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+import org.springframework.samples.petclinic.visits.ingest.VisitJournal.PendingVisit;
+import org.springframework.samples.petclinic.visits.model.Visit;
+import org.springframework.samples.petclinic.visits.stats.VisitRollups;
+import org.springframework.samples.petclinic.visits.stats.VisitRollups.RecordedVisit;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Write-behind ingestion of visits.
+ * <p>
+ * Accepted visits are journaled, then queued in memory. A single writer thread drains the queue and inserts whatever
+ * accumulated while the previous batch was being committed as one JDBC batch, in one transaction (group commit).
+ * When {@link VisitsProperties.Ingestion#capacity()} visits are already waiting, new visits are refused.
+ * <p>
+ * A batch failing for a transient reason, such as a lost connection, is retried as a whole. A batch failing for a
+ * non-transient reason, such as a violated constraint, is inserted again one visit at a time, and the visits still
+ * failing are moved to the <code>visits_dead_letter</code> table, so that they do not block the visits queued behind
+ * them.
+ * <p>
+ * The {@link #status(String) status} of the visits accepted by this instance is kept for the last
+ * {@link VisitsProperties.Ingestion#capacity()} tickets; failed visits are also found in the dead-letter table.
+ */
+@Component
+@ConditionalOnProperty(prefix = "visits.ingestion", name = "enabled", havingValue = "true")
+public class VisitIngestionQueue implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(VisitIngestionQueue.class);
+
+    private static final String INSERT_VISIT = "INSERT INTO visits (pet_id, visit_date, description) VALUES (?, ?, ?)";
+
+    private static final String INSERT_DEAD_LETTER = """
+        INSERT INTO visits_dead_letter (ticket, pet_id, visit_date, description, error) VALUES (?, ?, ?, ?, ?)""";
+
+    private static final String SELECT_DEAD_LETTER = "SELECT COUNT(*) FROM visits_dead_letter WHERE ticket = ?";
+
+    private static final int MAX_ERROR_LENGTH = 1024;
+
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    public enum Status {
+        PENDING, COMMITTED, FAILED
+    }
+
+    private final BlockingQueue<PendingVisit> queue = new LinkedBlockingQueue<>();
+
+    private final Map<String, Status> statuses;
+
+    private final VisitJournal journal;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final VisitRollups visitRollups;
+
+    private final int capacity;
+
+    private final int batchSize;
+
+    private final Timer commitTimer;
+
+    private final Counter rejectedCounter;
+
+    private final Counter failedCounter;
+
+    private volatile boolean running;
+
+    private Thread writer;
+
+    public VisitIngestionQueue(VisitsProperties properties, JdbcTemplate jdbcTemplate,
+                               TransactionTemplate transactionTemplate, VisitRollups visitRollups,
+                               MeterRegistry registry) {
+        VisitsProperties.Ingestion ingestion = properties.ingestion();
+        this.capacity = ingestion.capacity();
+        this.batchSize = Math.max(1, ingestion.batchSize());
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.visitRollups = visitRollups;
+        this.statuses = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Status> eldest) {
+                return size() > Math.max(capacity, 1) && eldest.getValue() != Status.PENDING;
+            }
+        };
+        this.journal = VisitJournal.open(ingestion.journal(), ingestion.journalCompactionSize().toBytes());
+        this.queue.addAll(journal.recovered());
+        journal.recovered().forEach(visit -> statuses.put(visit.ticket(), Status.PENDING));
+        if (!queue.isEmpty()) {
+            log.info("Recovered {} uncommitted visits from {}", queue.size(), ingestion.journal());
+        }
+        Gauge.builder("petclinic.visit.ingestion.queue", queue, BlockingQueue::size)
+            .description("Visits accepted but not yet committed")
+            .register(registry);
+        this.commitTimer = Timer.builder("petclinic.visit.ingestion.commit")
+            .description("Latency of group commits")
+            .register(registry);
+        this.rejectedCounter = Counter.builder("petclinic.visit.ingestion.rejected")
+            .description("Visits refused because the ingestion queue was full")
+            .register(registry);
+        this.failedCounter = Counter.builder("petclinic.visit.ingestion.failed")
+            .description("Visits that could not be inserted, moved to the dead-letter table")
+            .register(registry);
+    }
+
+    /**
+     * Accepts the visit for asynchronous insertion, once it is forced to the journal along with the visits accepted
+     * concurrently.
+     *
+     * @return the ticket identifying the accepted visit, or empty when the queue is full
+     */
+    public Optional<String> offer(Visit visit) {
+        String ticket = UUID.randomUUID().toString();
+        PendingVisit pending;
+        // Only the append is serialized, keeping the queue in sequence order
+        synchronized (queue) {
+            if (queue.size() >= capacity) {
+                rejectedCounter.increment();
+                return Optional.empty();
+            }
+            pending = journal.append(ticket, visit.getPetId(), visit.getDate(), visit.getDescription());
+            setStatus(ticket, Status.PENDING);
+            queue.add(pending);
+        }
+        journal.force(pending.sequence());
+        return Optional.of(ticket);
+    }
+
+    /**
+     * @return the status of the visit accepted with the given ticket, empty when unknown to this instance
+     */
+    public Optional<Status> status(String ticket) {
+        Status status;
+        synchronized (statuses) {
+            status = statuses.get(ticket);
+        }
+        if (status == null && jdbcTemplate.queryForObject(SELECT_DEAD_LETTER, Integer.class, ticket) > 0) {
+            status = Status.FAILED;
+        }
+        return Optional.ofNullable(status);
+    }
+
+    private void drain() {
+        List<PendingVisit> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingVisit first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                if (!commitWithRetry(batch)) {
+                    return;
+                }
+                batch.clear();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private boolean commitWithRetry(List<PendingVisit> batch) throws InterruptedException {
+        List<PendingVisit> remaining = new ArrayList<>(batch);
+        boolean oneByOne = false;
+        while (!remaining.isEmpty()) {
+            try {
+                if (oneByOne) {
+                    commitOneByOne(remaining);
+                } else {
+                    commitTimer.record(() -> insert(remaining));
+                    markCommitted(remaining, Status.COMMITTED);
+                    remaining.clear();
+                }
+            } catch (NonTransientDataAccessException e) {
+                log.warn("Could not commit {} visits, committing them one at a time", remaining.size(), e);
+                oneByOne = true;
+            } catch (RuntimeException e) {
+                if (!running) {
+                    // This batch and the following ones stay in the journal and are replayed on next startup
+                    log.error("Could not commit {} visits before shutdown", remaining.size() + queue.size(), e);
+                    return false;
+                }
+                log.warn("Could not commit {} visits, retrying", remaining.size(), e);
+                Thread.sleep(RETRY_DELAY_MILLIS);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Inserts the visits one at a time, moving the ones failing for a non-transient reason to the dead-letter table.
+     * Each visit is removed from the list once inserted or moved, so that a transient failure only retries the others.
+     */
+    private void commitOneByOne(List<PendingVisit> visits) {
+        for (Iterator<PendingVisit> iterator = visits.iterator(); iterator.hasNext(); ) {
+            PendingVisit visit = iterator.next();
+            Status status = Status.COMMITTED;
+            try {
+                insert(List.of(visit));
+            } catch (NonTransientDataAccessException e) {
+                log.error("Could not insert visit {} of pet {}, moving it to the dead-letter table",
+                    visit.ticket(), visit.petId(), e);
+                failedCounter.increment();
+                status = Status.FAILED;
+                try {
+                    deadLetter(visit, e);
+                } catch (RuntimeException deadLetterFailure) {
+                    // Dropped rather than blocking the queue: the log keeps the whole visit
+                    log.error("Could not move visit {} to the dead-letter table, dropping it: {}", visit.ticket(),
+                        visit, deadLetterFailure);
+                }
+            }
+            markCommitted(List.of(visit), status);
+            iterator.remove();
+        }
+    }
+
+    private void markCommitted(List<PendingVisit> visits, Status status) {
+        synchronized (statuses) {
+            visits.forEach(visit -> statuses.put(visit.ticket(), status));
+        }
+        try {
+            journal.markCommitted(visits.get(visits.size() - 1).sequence());
+        } catch (UncheckedIOException e) {
+            log.error("Could not journal the commit of {} visits, they may be inserted again after a restart",
+                visits.size(), e);
+        }
+    }
+
+    private void insert(List<PendingVisit> batch) {
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.batchUpdate(INSERT_VISIT, batch, batch.size(), (ps, visit) -> {
+                ps.setInt(1, visit.petId());
+                setDate(ps, 2, visit);
+                ps.setString(3, visit.description());
+            });
+            visitRollups.recordVisits(batch.stream()
+                .map(visit -> new RecordedVisit(visit.date(), visit.petId()))
+                .toList());
+        });
+        log.debug("Committed {} visits", batch.size());
+    }
+
+    private void deadLetter(PendingVisit visit, NonTransientDataAccessException failure) {
+        String error = String.valueOf(failure.getMostSpecificCause().getMessage());
+        jdbcTemplate.update(INSERT_DEAD_LETTER, ps -> {
+            ps.setString(1, visit.ticket());
+            ps.setInt(2, visit.petId());
+            setDate(ps, 3, visit);
+            ps.setString(4, visit.description());
+            ps.setString(5, error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error);
+        });
+    }
+
+    private static void setDate(PreparedStatement ps, int index, PendingVisit visit) throws SQLException {
+        if (visit.date() == null) {
+            ps.setNull(index, Types.DATE);
+        } else {
+            ps.setTimestamp(index, new Timestamp(visit.date().getTime()));
+        }
+    }
+
+    private void setStatus(String ticket, Status status) {
+        synchronized (statuses) {
+            statuses.put(ticket, status);
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        writer = new CustomizableThreadFactory("visit-ingestion-").newThread(this::drain);
+        writer.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            if (writer != null) {
+                writer.join();
+            }
+            journal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.warn("Could not close visit journal", e);
+        }
+    }
+
+    /**
+     * Stopped after the web server, so that visits accepted during a graceful shutdown are still committed.
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
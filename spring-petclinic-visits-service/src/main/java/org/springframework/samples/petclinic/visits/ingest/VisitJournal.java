@@ -0,0 +1,357 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.ingest;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Append-only file keeping accepted visits until they are committed to the database.
+ * <p>
+ * Accepted visits are appended without being forced to disk; {@link #force(long)} then waits until they are. The
+ * concurrent callers share the forces: while one is running, the visits appended by the others are forced together by
+ * the next one (group commit). Once a batch is committed, a commit record holding the highest committed sequence is
+ * appended and forced. When nothing is left uncommitted the file is truncated, and when it grows beyond the
+ * compaction threshold its uncommitted records are copied to a new file replacing it, so that it stays bounded under
+ * steady load.
+ * <p>
+ * On startup, {@link #open(Path, long)} streams the file and replays the visits that were appended after the last
+ * commit record. A visit committed to the database right before a crash may therefore be inserted twice.
+ */
+class VisitJournal implements Closeable {
+
+    private static final byte VISIT = 1;
+
+    private static final byte COMMIT = 2;
+
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private final Path path;
+
+    private final long compactionThreshold;
+
+    private final List<PendingVisit> recovered;
+
+    /**
+     * Sequence and file position of the appended visits not committed yet, in sequence order.
+     */
+    private final Deque<long[]> uncommitted = new ArrayDeque<>();
+
+    private final ReentrantLock forceLock = new ReentrantLock();
+
+    private final Condition forceDone = forceLock.newCondition();
+
+    private volatile FileChannel channel;
+
+    private volatile long lastAppended;
+
+    private long lastCommitted;
+
+    // Guarded by forceLock
+    private long lastForced;
+
+    private boolean forcing;
+
+    private VisitJournal(Path path, FileChannel channel, long compactionThreshold) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.compactionThreshold = compactionThreshold;
+        this.recovered = replay();
+        this.lastForced = lastAppended;
+    }
+
+    static VisitJournal open(Path path, long compactionThreshold) {
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            return new VisitJournal(path, openChannel(path), compactionThreshold);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open visit journal " + path, e);
+        }
+    }
+
+    /**
+     * Visits found in the journal that were never committed, in acceptance order.
+     */
+    List<PendingVisit> recovered() {
+        return recovered;
+    }
+
+    /**
+     * Appends the visit, which is not durable before {@link #force(long) forced}.
+     */
+    synchronized PendingVisit append(String ticket, int petId, Date date, String description) {
+        PendingVisit visit = new PendingVisit(lastAppended + 1, ticket, petId, date, description);
+        byte[] ticketBytes = ticket.getBytes(StandardCharsets.UTF_8);
+        byte[] descriptionBytes = description == null ? null : description.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 4 + ticketBytes.length + 4 + 8 + 4
+            + (descriptionBytes == null ? 0 : descriptionBytes.length));
+        buffer.put(VISIT)
+            .putLong(visit.sequence())
+            .putInt(ticketBytes.length).put(ticketBytes)
+            .putInt(petId)
+            .putLong(date == null ? NO_DATE : date.getTime())
+            .putInt(descriptionBytes == null ? -1 : descriptionBytes.length);
+        if (descriptionBytes != null) {
+            buffer.put(descriptionBytes);
+        }
+        try {
+            long position = channel.position();
+            write(buffer.flip());
+            uncommitted.addLast(new long[]{visit.sequence(), position});
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write to visit journal", e);
+        }
+        lastAppended = visit.sequence();
+        return visit;
+    }
+
+    /**
+     * Waits until the visit of the given sequence, and all the ones appended before it, are on disk. A single force
+     * covers all the visits appended when it starts.
+     */
+    void force(long sequence) {
+        forceLock.lock();
+        try {
+            while (lastForced < sequence) {
+                if (forcing) {
+                    forceDone.awaitUninterruptibly();
+                    continue;
+                }
+                forcing = true;
+                long target = lastAppended;
+                FileChannel forced = channel;
+                forceLock.unlock();
+                IOException failure = null;
+                try {
+                    forced.force(false);
+                } catch (IOException e) {
+                    failure = e;
+                } finally {
+                    forceLock.lock();
+                    forcing = false;
+                    if (failure == null) {
+                        lastForced = Math.max(lastForced, target);
+                    }
+                    forceDone.signalAll();
+                }
+                if (failure != null) {
+                    throw new UncheckedIOException("Cannot force visit journal", failure);
+                }
+            }
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    synchronized void markCommitted(long sequence) {
+        lastCommitted = Math.max(lastCommitted, sequence);
+        while (!uncommitted.isEmpty() && uncommitted.peekFirst()[0] <= lastCommitted) {
+            uncommitted.removeFirst();
+        }
+        try {
+            if (uncommitted.isEmpty()) {
+                replaceChannel(() -> {
+                    channel.truncate(0);
+                    channel.position(0);
+                    channel.force(false);
+                    return channel;
+                });
+            } else if (channel.size() > compactionThreshold) {
+                replaceChannel(this::compact);
+            } else {
+                write(ByteBuffer.allocate(1 + 8).put(COMMIT).putLong(lastCommitted).flip());
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write to visit journal", e);
+        }
+    }
+
+    /**
+     * Copies the uncommitted visits, after a commit record, to a new file replacing the journal.
+     */
+    private FileChannel compact() throws IOException {
+        Path compacted = path.resolveSibling(path.getFileName() + ".compacted");
+        long from = uncommitted.peekFirst()[1];
+        try (FileChannel target = FileChannel.open(compacted, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer commit = ByteBuffer.allocate(1 + 8).put(COMMIT).putLong(lastCommitted).flip();
+            while (commit.hasRemaining()) {
+                target.write(commit);
+            }
+            long offset = target.position() - from;
+            for (long position = from, size = channel.size(); position < size; ) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            target.force(false);
+            uncommitted.forEach(visit -> visit[1] += offset);
+        }
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel.close();
+        FileChannel reopened = openChannel(path);
+        reopened.position(reopened.size());
+        return reopened;
+    }
+
+    /**
+     * Replaces the channel once no force is running on it, every appended visit being on disk afterwards.
+     */
+    private void replaceChannel(ChannelOperation operation) throws IOException {
+        forceLock.lock();
+        try {
+            while (forcing) {
+                forceDone.awaitUninterruptibly();
+            }
+            channel = operation.apply();
+            lastForced = lastAppended;
+            forceDone.signalAll();
+        } finally {
+            forceLock.unlock();
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private List<PendingVisit> replay() throws IOException {
+        List<PendingVisit> visits = new ArrayList<>();
+        List<Long> positions = new ArrayList<>();
+        CountingInputStream counting = new CountingInputStream(
+            new BufferedInputStream(Channels.newInputStream(channel.position(0)), 64 * 1024));
+        DataInputStream input = new DataInputStream(counting);
+        long validUpTo = 0;
+        long position = 0;
+        try {
+            while (true) {
+                int type = input.read();
+                if (type == VISIT) {
+                    visits.add(readVisit(input));
+                    positions.add(position);
+                } else if (type == COMMIT) {
+                    lastCommitted = Math.max(lastCommitted, input.readLong());
+                } else {
+                    break;
+                }
+                position = counting.count;
+                validUpTo = position;
+            }
+        } catch (EOFException e) {
+            // Torn write of the last record: it was never acknowledged
+        }
+        for (int i = 0; i < visits.size(); i++) {
+            if (visits.get(i).sequence() > lastCommitted) {
+                uncommitted.addLast(new long[]{visits.get(i).sequence(), positions.get(i)});
+            }
+        }
+        visits.removeIf(visit -> visit.sequence() <= lastCommitted);
+        lastAppended = visits.isEmpty() ? lastCommitted : visits.get(visits.size() - 1).sequence();
+        channel.truncate(validUpTo);
+        channel.position(validUpTo);
+        return List.copyOf(visits);
+    }
+
+    private static PendingVisit readVisit(DataInputStream input) throws IOException {
+        long sequence = input.readLong();
+        byte[] ticket = new byte[input.readInt()];
+        input.readFully(ticket);
+        int petId = input.readInt();
+        long date = input.readLong();
+        int descriptionLength = input.readInt();
+        String description = null;
+        if (descriptionLength >= 0) {
+            byte[] descriptionBytes = new byte[descriptionLength];
+            input.readFully(descriptionBytes);
+            description = new String(descriptionBytes, StandardCharsets.UTF_8);
+        }
+        return new PendingVisit(sequence, new String(ticket, StandardCharsets.UTF_8), petId,
+            date == NO_DATE ? null : new Date(date), description);
+    }
+
+    private static FileChannel openChannel(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    record PendingVisit(long sequence, String ticket, int petId, Date date, String description) {
+    }
+
+    @FunctionalInterface
+    private interface ChannelOperation {
+
+        FileChannel apply() throws IOException;
+    }
+
+    /**
+     * Counts the bytes read from the file, to find the end of the last complete record.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read >= 0) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
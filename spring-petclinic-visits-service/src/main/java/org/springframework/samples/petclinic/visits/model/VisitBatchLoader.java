@@ -0,0 +1,164 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Loads the visits of many pets at once without sending unbounded <code>IN (...)</code> lists to the database.
+ * <p>
+ * Pet ids are split into chunks of at most <code>visits.query.max-chunk-size</code> ids, and every chunk is padded
+ * (by repeating its last id) up to the next power of two, so that only a handful of distinct statements ever reach
+ * the statement cache. Chunks may be queried concurrently on a small bounded pool. Results are grouped by pet id,
+ * in the order the pet ids were requested.
+ */
+@Component
+public class VisitBatchLoader implements DisposableBean {
+
+    private final VisitRepository visitRepository;
+
+    private final int minBucketSize;
+
+    private final int maxChunkSize;
+
+    private final ThreadPoolExecutor executor;
+
+    public VisitBatchLoader(VisitRepository visitRepository, VisitsProperties properties) {
+        VisitsProperties.Query query = properties.query();
+        this.visitRepository = visitRepository;
+        this.maxChunkSize = Math.max(1, query.maxChunkSize());
+        this.minBucketSize = Math.min(Math.max(1, query.minBucketSize()), this.maxChunkSize);
+        this.executor = query.parallelism() > 1 ? newExecutor(query.parallelism()) : null;
+    }
+
+    public List<Visit> findByPetIds(Collection<Integer> petIds) {
+        return load(petIds, visitRepository::findByPetIdIn, Visit::getPetId);
+    }
+
+    public List<VisitSummary> findSummariesByPetIds(Collection<Integer> petIds) {
+        return load(petIds, visitRepository::findSummariesByPetIdIn, VisitSummary::petId);
+    }
+
+    private <T> List<T> load(Collection<Integer> petIds, Function<List<Integer>, List<T>> query, ToIntFunction<T> petIdOf) {
+        List<Integer> distinctPetIds = petIds.stream().distinct().toList();
+        if (distinctPetIds.isEmpty()) {
+            return List.of();
+        }
+        List<List<Integer>> chunks = chunk(distinctPetIds.stream().sorted().toList());
+        List<T> rows = (executor == null || chunks.size() == 1)
+            ? loadSequentially(chunks, query)
+            : loadConcurrently(chunks, query);
+        return mergeByPetId(distinctPetIds, rows, petIdOf);
+    }
+
+    List<List<Integer>> chunk(List<Integer> sortedPetIds) {
+        List<List<Integer>> chunks = new ArrayList<>();
+        for (int from = 0; from < sortedPetIds.size(); from += maxChunkSize) {
+            int to = Math.min(from + maxChunkSize, sortedPetIds.size());
+            chunks.add(pad(sortedPetIds.subList(from, to)));
+        }
+        return chunks;
+    }
+
+    int bucketSize(int size) {
+        int bucket = Math.max(minBucketSize, Integer.highestOneBit(Math.max(1, size - 1)) << 1);
+        return Math.min(Math.max(bucket, size), maxChunkSize);
+    }
+
+    private List<Integer> pad(List<Integer> petIds) {
+        int bucket = bucketSize(petIds.size());
+        List<Integer> padded = new ArrayList<>(bucket);
+        padded.addAll(petIds);
+        Integer last = petIds.get(petIds.size() - 1);
+        while (padded.size() < bucket) {
+            padded.add(last);
+        }
+        return padded;
+    }
+
+    private static <T> List<T> loadSequentially(List<List<Integer>> chunks, Function<List<Integer>, List<T>> query) {
+        List<T> rows = new ArrayList<>();
+        for (List<Integer> chunk : chunks) {
+            rows.addAll(query.apply(chunk));
+        }
+        return rows;
+    }
+
+    private <T> List<T> loadConcurrently(List<List<Integer>> chunks, Function<List<Integer>, List<T>> query) {
+        List<CompletableFuture<List<T>>> futures = chunks.stream()
+            .map(chunk -> CompletableFuture.supplyAsync(() -> query.apply(chunk), executor))
+            .toList();
+        List<T> rows = new ArrayList<>();
+        try {
+            for (CompletableFuture<List<T>> future : futures) {
+                rows.addAll(future.join());
+            }
+        } catch (CompletionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        return rows;
+    }
+
+    private static <T> List<T> mergeByPetId(List<Integer> petIds, List<T> rows, ToIntFunction<T> petIdOf) {
+        Map<Integer, List<T>> rowsByPetId = new LinkedHashMap<>();
+        petIds.forEach(petId -> rowsByPetId.put(petId, new ArrayList<>()));
+        for (T row : rows) {
+            List<T> petRows = rowsByPetId.get(petIdOf.applyAsInt(row));
+            if (petRows != null) {
+                petRows.add(row);
+            }
+        }
+        List<T> merged = new ArrayList<>(rows.size());
+        rowsByPetId.values().forEach(merged::addAll);
+        return merged;
+    }
+
+    private static ThreadPoolExecutor newExecutor(int parallelism) {
+        // A full queue makes the calling request thread run the chunk itself, which throttles callers naturally
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(parallelism * 4), new CustomizableThreadFactory("visit-query-"),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Override
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -15,10 +15,18 @@
  */
 package org.springframework.samples.petclinic.visits.model;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 /**
  * Repository class for <code>Visit</code> domain objects All method names are compliant with Spring Data naming conventions so this interface can easily be extended for Spring
@@ -35,4 +43,59 @@ public interface VisitRepository extends JpaRepository<Visit, Integer> {
     List<Visit> findByPetId(int petId);
 
     List<Visit> findByPetIdIn(Collection<Integer> petIds);
+
+    @Query("SELECT new org.springframework.samples.petclinic.visits.model.VisitSummary(v.id, v.petId, v.date, "
+        + "SUBSTRING(v.description, 1, " + VisitSummary.FETCHED_LENGTH + ")) FROM Visit v WHERE v.petId IN :petIds")
+    List<VisitSummary> findSummariesByPetIdIn(@Param("petIds") Collection<Integer> petIds);
+
+    /**
+     * Newest-first page of a pet's visits, read in two steps: the keys of the page are found by a scan of the
+     * <code>(pet_id, visit_date)</code> index alone, then only the visits of the page are read by primary key.
+     * <p>
+     * With a <code>beforeDate</code>, the page holds the visits dated within <code>[from, to]</code> strictly older than
+     * the <code>(beforeDate, beforeId)</code> cursor. Visits without a date come after all the dated ones, by
+     * decreasing id: they are only returned when <code>undated</code>, the page going on with them when the dated
+     * visits are exhausted, or starting with them below <code>beforeId</code> when <code>beforeDate</code> is null.
+     */
+    default List<Visit> findPageByPetId(int petId, Date from, Date to, Date beforeDate, int beforeId,
+                                        boolean undated, Limit limit) {
+        List<VisitKey> keys = new ArrayList<>();
+        if (beforeDate != null) {
+            keys.addAll(findPageKeysByPetId(petId, from, to, beforeDate, beforeId, limit));
+        }
+        if (undated && keys.size() < limit.max()) {
+            keys.addAll(findUndatedPageKeysByPetId(petId, beforeDate == null ? beforeId : Integer.MAX_VALUE,
+                Limit.of(limit.max() - keys.size())));
+        }
+        if (keys.isEmpty()) {
+            return List.of();
+        }
+        Map<Integer, Visit> visits = new HashMap<>();
+        findAllById(keys.stream().map(VisitKey::id).toList()).forEach(visit -> visits.put(visit.getId(), visit));
+        // A visit deleted between both steps is skipped
+        return keys.stream().map(key -> visits.get(key.id())).filter(Objects::nonNull).toList();
+    }
+
+    @Query("""
+        SELECT new org.springframework.samples.petclinic.visits.model.VisitKey(v.id, v.date) FROM Visit v
+        WHERE v.petId = :petId
+          AND v.date >= :from AND v.date <= :to
+          AND (v.date < :beforeDate OR (v.date = :beforeDate AND v.id < :beforeId))
+        ORDER BY v.date DESC, v.id DESC
+        """)
+    List<VisitKey> findPageKeysByPetId(@Param("petId") int petId,
+                                       @Param("from") Date from,
+                                       @Param("to") Date to,
+                                       @Param("beforeDate") Date beforeDate,
+                                       @Param("beforeId") int beforeId,
+                                       Limit limit);
+
+    @Query("""
+        SELECT new org.springframework.samples.petclinic.visits.model.VisitKey(v.id, v.date) FROM Visit v
+        WHERE v.petId = :petId AND v.date IS NULL AND v.id < :beforeId
+        ORDER BY v.id DESC
+        """)
+    List<VisitKey> findUndatedPageKeysByPetId(@Param("petId") int petId,
+                                              @Param("beforeId") int beforeId,
+                                              Limit limit);
 }
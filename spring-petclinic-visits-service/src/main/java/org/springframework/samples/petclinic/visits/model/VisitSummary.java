@@ -0,0 +1,51 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+import java.util.Date;
+
+/**
+ * Lightweight read model of a {@link Visit} carrying only a snippet of its description.
+ * <p>
+ * The repository fetches one character more than {@link #SNIPPET_LENGTH} so that the snippet can be flagged as
+ * {@link #truncated()} without reading the whole description.
+ */
+public record VisitSummary(
+    Integer id,
+    int petId,
+    @JsonFormat(pattern = "yyyy-MM-dd")
+    Date date,
+    String description,
+    boolean truncated
+) {
+
+    public static final int SNIPPET_LENGTH = 120;
+
+    static final int FETCHED_LENGTH = SNIPPET_LENGTH + 1;
+
+    public VisitSummary(Integer id, int petId, Date date, String description) {
+        this(id, petId, date, snippet(description), description != null && description.length() > SNIPPET_LENGTH);
+    }
+
+    private static String snippet(String description) {
+        if (description == null || description.length() <= SNIPPET_LENGTH) {
+            return description;
+        }
+        return description.substring(0, SNIPPET_LENGTH);
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.stats;
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.samples.petclinic.visits.archive.VisitArchive;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+import org.springframework.samples.petclinic.visits.model.Visit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Recomputes the {@link VisitRollups} counters from the raw visits.
+ * <p>
+ * Every chunk (a range of days or a range of pet ids) is aggregated from the <code>visits</code> table and the
+ * {@link VisitArchive}, then replaced in its own transaction, so the counters of a chunk are never observed half
+ * rebuilt.
+ */
+@Component
+public class VisitRollupRebuilder implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(VisitRollupRebuilder.class);
+
+    private static final int BATCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final VisitsProperties.Stats properties;
+
+    private final VisitArchive visitArchive;
+
+    private final ExecutorService executor;
+
+    public VisitRollupRebuilder(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                                VisitArchive visitArchive, VisitsProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.visitArchive = visitArchive;
+        this.properties = properties.stats();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, this.properties.rebuildParallelism()),
+            new CustomizableThreadFactory("visit-rollup-"));
+    }
+
+    /**
+     * Recomputes the counters of the most recent days and of the pets visited during those days, correcting any drift
+     * of the incremental counters. Runs every <code>visits.stats.reconcile-interval</code> (one hour by default).
+     */
+    @Scheduled(fixedDelayString = "${visits.stats.reconcile-interval:PT1H}",
+        initialDelayString = "${visits.stats.reconcile-interval:PT1H}")
+    public void reconcile() {
+        LocalDate from = LocalDate.now().minusDays(properties.reconcileDays());
+        transactionTemplate.executeWithoutResult(status -> {
+            rebuildDays(from, LocalDate.now());
+            Set<Integer> petIds = new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT DISTINCT pet_id FROM visits WHERE visit_date >= ?", Integer.class, Date.valueOf(from)));
+            if (petIds.isEmpty()) {
+                return;
+            }
+            Map<Integer, PetTotals> totals = new TreeMap<>();
+            jdbcTemplate.query("SELECT pet_id, COUNT(*), MAX(visit_date) FROM visits "
+                    + "WHERE pet_id IN (SELECT DISTINCT pet_id FROM visits WHERE visit_date >= ?) GROUP BY pet_id",
+                (RowCallbackHandler) rs -> totals.merge(rs.getInt(1), PetTotals.of(rs), PetTotals::plus),
+                Date.valueOf(from));
+            visitArchive.forEachVisitOf(petIds::contains,
+                visit -> totals.merge(visit.getPetId(), PetTotals.of(visit), PetTotals::plus));
+            jdbcTemplate.batchUpdate("DELETE FROM visit_pet_rollups WHERE pet_id = ?", petIds, BATCH_SIZE,
+                (ps, petId) -> ps.setInt(1, petId));
+            insertPets(totals);
+        });
+        log.debug("Visit rollups reconciled since {}", from);
+    }
+
+    /**
+     * Regenerates all counters from the raw visits, archived ones included, in chunks processed in parallel.
+     *
+     * @return the number of chunks that were rebuilt
+     */
+    public int rebuild() {
+        List<Runnable> chunks = new ArrayList<>();
+
+        Date[] dateRange = jdbcTemplate.queryForObject("SELECT MIN(visit_date), MAX(visit_date) FROM visits",
+            (rs, rowNum) -> new Date[]{rs.getDate(1), rs.getDate(2)});
+        LocalDate first = min(dateRange[0] == null ? null : dateRange[0].toLocalDate(),
+            visitArchive.firstDay().orElse(null));
+        LocalDate last = max(dateRange[1] == null ? null : dateRange[1].toLocalDate(),
+            visitArchive.lastDay().orElse(null));
+        if (first != null) {
+            int chunkDays = Math.max(1, properties.rebuildChunkDays());
+            for (LocalDate from = first; !from.isAfter(last); from = from.plusDays(chunkDays)) {
+                LocalDate chunkFrom = from;
+                LocalDate chunkTo = from.plusDays(chunkDays - 1L);
+                chunks.add(() -> transactionTemplate.executeWithoutResult(status -> rebuildDays(chunkFrom, chunkTo)));
+            }
+        }
+
+        Integer[] petRange = jdbcTemplate.queryForObject("SELECT MIN(pet_id), MAX(pet_id) FROM visits",
+            (rs, rowNum) -> new Integer[]{rs.getObject(1, Integer.class), rs.getObject(2, Integer.class)});
+        Integer firstPet = min(petRange[0], visitArchive.minPetId().orElse(null));
+        Integer lastPet = max(petRange[1], visitArchive.maxPetId().orElse(null));
+        if (firstPet != null) {
+            int chunkPets = Math.max(1, properties.rebuildChunkPets());
+            for (long from = firstPet; from <= lastPet; from += chunkPets) {
+                int chunkFrom = (int) from;
+                int chunkTo = (int) Math.min(from + chunkPets - 1, Integer.MAX_VALUE);
+                chunks.add(() -> transactionTemplate.executeWithoutResult(status -> rebuildPets(chunkFrom, chunkTo)));
+            }
+        }
+
+        CompletableFuture.allOf(chunks.stream()
+                .map(chunk -> CompletableFuture.runAsync(chunk, executor))
+                .toArray(CompletableFuture[]::new))
+            .join();
+        log.info("Visit rollups rebuilt in {} chunks", chunks.size());
+        return chunks.size();
+    }
+
+    private void rebuildDays(LocalDate from, LocalDate to) {
+        Map<LocalDate, Long> counts = new TreeMap<>();
+        jdbcTemplate.query("SELECT visit_date, COUNT(*) FROM visits "
+                + "WHERE visit_date >= ? AND visit_date <= ? GROUP BY visit_date",
+            (RowCallbackHandler) rs -> counts.merge(rs.getDate(1).toLocalDate(), rs.getLong(2), Long::sum),
+            Date.valueOf(from), Date.valueOf(to));
+        visitArchive.forEachVisitBetween(from, to,
+            visit -> counts.merge(new Date(visit.getDate().getTime()).toLocalDate(), 1L, Long::sum));
+
+        jdbcTemplate.update("DELETE FROM visit_daily_rollups WHERE visit_date >= ? AND visit_date <= ?",
+            Date.valueOf(from), Date.valueOf(to));
+        jdbcTemplate.batchUpdate("INSERT INTO visit_daily_rollups (visit_date, visit_count) VALUES (?, ?)",
+            counts.entrySet(), BATCH_SIZE, (ps, day) -> {
+                ps.setDate(1, Date.valueOf(day.getKey()));
+                ps.setLong(2, day.getValue());
+            });
+    }
+
+    private void rebuildPets(int from, int to) {
+        Map<Integer, PetTotals> totals = new TreeMap<>();
+        jdbcTemplate.query("SELECT pet_id, COUNT(*), MAX(visit_date) FROM visits "
+                + "WHERE pet_id >= ? AND pet_id <= ? GROUP BY pet_id",
+            (RowCallbackHandler) rs -> totals.merge(rs.getInt(1), PetTotals.of(rs), PetTotals::plus),
+            from, to);
+        visitArchive.forEachVisitOf(petId -> petId >= from && petId <= to,
+            visit -> totals.merge(visit.getPetId(), PetTotals.of(visit), PetTotals::plus));
+
+        jdbcTemplate.update("DELETE FROM visit_pet_rollups WHERE pet_id >= ? AND pet_id <= ?", from, to);
+        insertPets(totals);
+    }
+
+    private void insertPets(Map<Integer, PetTotals> totals) {
+        jdbcTemplate.batchUpdate("INSERT INTO visit_pet_rollups (pet_id, visit_count, last_visit_date) VALUES (?, ?, ?)",
+            totals.entrySet(), BATCH_SIZE, (ps, pet) -> {
+                LocalDate lastVisitDate = pet.getValue().lastVisitDate();
+                ps.setInt(1, pet.getKey());
+                ps.setLong(2, pet.getValue().count());
+                ps.setDate(3, lastVisitDate == null ? null : Date.valueOf(lastVisitDate));
+            });
+    }
+
+    private static <T extends Comparable<? super T>> T min(T first, T second) {
+        return first == null ? second : second == null || first.compareTo(second) <= 0 ? first : second;
+    }
+
+    private static <T extends Comparable<? super T>> T max(T first, T second) {
+        return first == null ? second : second == null || first.compareTo(second) >= 0 ? first : second;
+    }
+
+    private record PetTotals(long count, LocalDate lastVisitDate) {
+
+        static PetTotals of(ResultSet rs) throws SQLException {
+            return new PetTotals(rs.getLong(2), rs.getDate(3) == null ? null : rs.getDate(3).toLocalDate());
+        }
+
+        static PetTotals of(Visit visit) {
+            return new PetTotals(1, new Date(visit.getDate().getTime()).toLocalDate());
+        }
+
+        PetTotals plus(PetTotals other) {
+            return new PetTotals(count + other.count, max(lastVisitDate, other.lastVisitDate));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.stats;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Incrementally maintained visit counters, per day and per pet, backing the <code>/visits/stats</code> endpoints.
+ * <p>
+ * Counters are bumped right after visits are inserted. Since the increments are not part of the visit insertion,
+ * {@link VisitRollupRebuilder} periodically recomputes them from the raw visits.
+ */
+@Component
+public class VisitRollups {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public VisitRollups(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void recordVisit(java.util.Date date, int petId) {
+        recordVisits(List.of(new RecordedVisit(date, petId)));
+    }
+
+    /**
+     * Adds the given visits to the counters, issuing a single update per distinct day and per distinct pet.
+     */
+    public void recordVisits(Collection<RecordedVisit> visits) {
+        Map<LocalDate, Long> perDay = visits.stream()
+            .filter(visit -> visit.date() != null)
+            .collect(Collectors.groupingBy(RecordedVisit::day, TreeMap::new, Collectors.counting()));
+        perDay.forEach(this::incrementDay);
+
+        Map<Integer, List<RecordedVisit>> perPet = visits.stream()
+            .collect(Collectors.groupingBy(RecordedVisit::petId, TreeMap::new, Collectors.toList()));
+        perPet.forEach((petId, petVisits) -> incrementPet(petId, petVisits.size(), petVisits.stream()
+            .map(RecordedVisit::day)
+            .filter(Objects::nonNull)
+            .max(LocalDate::compareTo)
+            .orElse(null)));
+    }
+
+    public List<DailyVisits> findDaily(LocalDate from, LocalDate to) {
+        return jdbcTemplate.query(
+            "SELECT visit_date, visit_count FROM visit_daily_rollups WHERE visit_date >= ? AND visit_date <= ? ORDER BY visit_date",
+            (rs, rowNum) -> new DailyVisits(rs.getDate(1).toLocalDate(), rs.getLong(2)),
+            Date.valueOf(from), Date.valueOf(to));
+    }
+
+    public Optional<PetVisits> findByPetId(int petId) {
+        return jdbcTemplate.query(
+            "SELECT pet_id, visit_count, last_visit_date FROM visit_pet_rollups WHERE pet_id = ?",
+            (rs, rowNum) -> new PetVisits(rs.getInt(1), rs.getLong(2),
+                rs.getDate(3) == null ? null : rs.getDate(3).toLocalDate()),
+            petId).stream().findFirst();
+    }
+
+    private void incrementDay(LocalDate day, long delta) {
+        upsert(() -> jdbcTemplate.update(
+                "UPDATE visit_daily_rollups SET visit_count = visit_count + ? WHERE visit_date = ?",
+                delta, Date.valueOf(day)),
+            () -> jdbcTemplate.update(
+                "INSERT INTO visit_daily_rollups (visit_date, visit_count) VALUES (?, ?)",
+                Date.valueOf(day), delta));
+    }
+
+    private void incrementPet(int petId, long delta, LocalDate lastDay) {
+        upsert(() -> lastDay == null
+                ? jdbcTemplate.update(
+                    "UPDATE visit_pet_rollups SET visit_count = visit_count + ? WHERE pet_id = ?",
+                    delta, petId)
+                : jdbcTemplate.update(
+                    "UPDATE visit_pet_rollups SET visit_count = visit_count + ?, last_visit_date = CASE "
+                        + "WHEN last_visit_date IS NULL OR last_visit_date < ? THEN ? ELSE last_visit_date END "
+                        + "WHERE pet_id = ?",
+                    delta, Date.valueOf(lastDay), Date.valueOf(lastDay), petId),
+            () -> jdbcTemplate.update(
+                "INSERT INTO visit_pet_rollups (pet_id, visit_count, last_visit_date) VALUES (?, ?, ?)",
+                petId, delta, lastDay == null ? null : Date.valueOf(lastDay)));
+    }
+
+    /**
+     * Portable upsert: update the existing counter, else insert it, else (lost the insert race) update it again.
+     */
+    private static void upsert(IntSupplier update, IntSupplier insert) {
+        if (update.getAsInt() > 0) {
+            return;
+        }
+        try {
+            insert.getAsInt();
+        } catch (DuplicateKeyException e) {
+            update.getAsInt();
+        }
+    }
+
+    public record RecordedVisit(java.util.Date date, int petId) {
+
+        LocalDate day() {
+            return date == null ? null : new Date(date.getTime()).toLocalDate();
+        }
+    }
+
+    public record DailyVisits(LocalDate date, long count) {
+    }
+
+    public record PetVisits(int petId, long count, LocalDate lastVisitDate) {
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.web;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.samples.petclinic.visits.model.Visit;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Keyset position in a pet's newest-first visit history, exchanged with clients as an opaque
+ * <code>{epochMillis}_{visitId}</code> token. Visits without a date come after all the dated ones, by decreasing id,
+ * their positions being <code>_{visitId}</code> tokens with a null {@link #date()}.
+ * <p>
+ * Dates are days at midnight in the default time zone, as the JDBC drivers read the <code>DATE</code> columns.
+ */
+record VisitCursor(Date date, int id) {
+
+    // Kept within the DATE range supported by both HSQLDB and MySQL
+    static final Date MIN_DATE = toDate(LocalDate.of(1000, 1, 1));
+
+    static final Date MAX_DATE = toDate(LocalDate.of(9999, 12, 31));
+
+    static final VisitCursor START = new VisitCursor(MAX_DATE, Integer.MAX_VALUE);
+
+    static VisitCursor after(Visit visit) {
+        return new VisitCursor(visit.getDate(), visit.getId());
+    }
+
+    static VisitCursor parse(String token) {
+        if (token == null || token.isBlank()) {
+            return START;
+        }
+        int separator = token.indexOf('_');
+        try {
+            Date date = separator == 0 ? null : new Date(Long.parseLong(token.substring(0, separator)));
+            return new VisitCursor(date, Integer.parseInt(token.substring(separator + 1)));
+        } catch (RuntimeException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid visits cursor " + token);
+        }
+    }
+
+    /**
+     * Whether the visit comes after this position in the newest-first order.
+     */
+    boolean precedes(Visit visit) {
+        if (visit.getDate() == null) {
+            return date != null || visit.getId() < id;
+        }
+        if (date == null) {
+            return false;
+        }
+        long time = visit.getDate().getTime();
+        return time < date.getTime() || (time == date.getTime() && visit.getId() < id);
+    }
+
+    String token() {
+        return (date == null ? "" : date.getTime()) + "_" + id;
+    }
+
+    static Date toDate(LocalDate date) {
+        return Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+}
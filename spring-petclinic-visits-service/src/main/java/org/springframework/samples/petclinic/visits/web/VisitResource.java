@@ -15,23 +15,46 @@
  */
 package org.springframework.samples.petclinic.visits.web;
 
+import java.net.URI;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Min;
 
 import io.micrometer.core.annotation.Timed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.Limit;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.samples.petclinic.visits.archive.VisitArchive;
+import org.springframework.samples.petclinic.visits.ingest.VisitIngestionQueue;
 import org.springframework.samples.petclinic.visits.model.Visit;
+import org.springframework.samples.petclinic.visits.model.VisitBatchLoader;
 import org.springframework.samples.petclinic.visits.model.VisitRepository;
+import org.springframework.samples.petclinic.visits.model.VisitSummary;
+import org.springframework.samples.petclinic.visits.stats.VisitRollups;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
 /**
  * @author Juergen Hoeller
@@ -47,36 +70,243 @@ class VisitResource {
 
     private static final Logger log = LoggerFactory.getLogger(VisitResource.class);
 
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private static final String PREFERENCE_APPLIED_HEADER = "Preference-Applied";
+
+    private static final String RESPOND_ASYNC = "respond-async";
+
+    private static final int MAX_PAGE_SIZE = 500;
+
+    private static final Comparator<Visit> NEWEST_FIRST = Comparator
+        .comparing(Visit::getDate, Comparator.nullsLast(Comparator.reverseOrder()))
+        .thenComparing(Visit::getId, Comparator.reverseOrder());
+
     private final VisitRepository visitRepository;
 
-    VisitResource(VisitRepository visitRepository) {
+    private final VisitBatchLoader visitBatchLoader;
+
+    private final ObjectProvider<VisitIngestionQueue> visitIngestionQueue;
+
+    private final VisitRollups visitRollups;
+
+    private final VisitArchive visitArchive;
+
+    VisitResource(VisitRepository visitRepository, VisitBatchLoader visitBatchLoader,
+                  ObjectProvider<VisitIngestionQueue> visitIngestionQueue, VisitRollups visitRollups,
+                  VisitArchive visitArchive) {
         this.visitRepository = visitRepository;
+        this.visitBatchLoader = visitBatchLoader;
+        this.visitIngestionQueue = visitIngestionQueue;
+        this.visitRollups = visitRollups;
+        this.visitArchive = visitArchive;
     }
 
+    /**
+     * Creates the visit synchronously, answering <code>201 Created</code>. With a <code>Prefer: respond-async</code>
+     * header and asynchronous ingestion enabled, answers <code>202 Accepted</code> once the visit is journaled instead,
+     * the <code>Location</code> header pointing to its {@link #readIngestion(String) ingestion status}, or
+     * <code>503</code> when the ingestion queue is full.
+     */
     @PostMapping("owners/*/pets/{petId}/visits")
-    @ResponseStatus(HttpStatus.CREATED)
-    public Visit create(
+    public ResponseEntity<?> create(
         @Valid @RequestBody Visit visit,
-        @PathVariable("petId") @Min(1) int petId) {
+        @PathVariable("petId") @Min(1) int petId,
+        @RequestHeader(name = "Prefer", required = false) List<String> prefer) {
 
         visit.setPetId(petId);
+        VisitIngestionQueue queue = visitIngestionQueue.getIfAvailable();
+        if (queue != null && prefersRespondAsync(prefer)) {
+            return queue.offer(visit)
+                .<ResponseEntity<?>>map(ticket -> ResponseEntity.accepted()
+                    .location(URI.create("/visits/ingestion/" + ticket))
+                    .header(PREFERENCE_APPLIED_HEADER, RESPOND_ASYNC)
+                    .body(new AcceptedVisit(ticket)))
+                .orElseGet(() -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .build());
+        }
         log.info("Saving visit {}", visit);
-        return visitRepository.save(visit);
+        Visit saved = visitRepository.save(visit);
+        try {
+            visitRollups.recordVisit(saved.getDate(), petId);
+        } catch (RuntimeException e) {
+            // The visit is saved; the counters are corrected by the next reconciliation
+            log.warn("Could not update visit rollups for visit {}", saved.getId(), e);
+        }
+        return ResponseEntity.status(HttpStatus.CREATED).body(saved);
+    }
+
+    /**
+     * Status of a visit accepted asynchronously by this instance.
+     */
+    @GetMapping("visits/ingestion/{ticket}")
+    public AcceptedVisit readIngestion(@PathVariable("ticket") String ticket) {
+        return visitIngestionQueue.stream()
+            .flatMap(queue -> queue.status(ticket).stream())
+            .findFirst()
+            .map(status -> new AcceptedVisit(ticket, status))
+            .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Ticket " + ticket + " not found"));
     }
 
+    /**
+     * Whether one of the <code>Prefer</code> headers (RFC 7240) holds the <code>respond-async</code> preference, among
+     * others such as <code>wait=10</code> and with or without parameters.
+     */
+    static boolean prefersRespondAsync(List<String> prefer) {
+        if (prefer == null) {
+            return false;
+        }
+        return prefer.stream()
+            .flatMap(header -> Arrays.stream(header.split(",")))
+            .map(preference -> preference.split("[=;]", 2)[0].trim())
+            .anyMatch(RESPOND_ASYNC::equalsIgnoreCase);
+    }
+
+    /**
+     * Without any parameter, returns the whole visit history of the pet. As soon as a date range, a limit or a cursor
+     * is given, returns the matching visits newest first; when the page is full, the <code>X-Next-Cursor</code>
+     * header carries the cursor of the next page. Archived visits are merged with the ones still in the database,
+     * the archive being skipped when the requested visits are all newer than the {@link VisitArchive#cutoff()}.
+     */
     @GetMapping("owners/*/pets/{petId}/visits")
-    public List<Visit> read(@PathVariable("petId") @Min(1) int petId) {
-        return visitRepository.findByPetId(petId);
+    public ResponseEntity<List<Visit>> read(
+        @PathVariable("petId") @Min(1) int petId,
+        @RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+        @RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+        @RequestParam(name = "limit", required = false) Integer limit,
+        @RequestParam(name = "cursor", required = false) String cursor) {
+
+        if (from == null && to == null && limit == null && cursor == null) {
+            List<Visit> visits = visitRepository.findByPetId(petId);
+            return ResponseEntity.ok(merge(visitArchive.findByPetId(petId), visits));
+        }
+        int pageSize = limit == null ? MAX_PAGE_SIZE : Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        VisitCursor before = VisitCursor.parse(cursor);
+        // Visits without a date are outside of any date range
+        boolean undated = from == null && to == null;
+        Date lowest = from == null ? VisitCursor.MIN_DATE : VisitCursor.toDate(from);
+        Date highest = to == null ? VisitCursor.MAX_DATE : VisitCursor.toDate(to);
+        List<Visit> visits = visitRepository.findPageByPetId(petId, lowest, highest,
+            before.date(), before.id(), undated, Limit.of(pageSize));
+        if (mayReadArchive(from, before, visits, pageSize)) {
+            List<Visit> archived = visitArchive.findPageByPetId(petId, from, to, before::precedes, pageSize);
+            if (!archived.isEmpty()) {
+                visits = merge(archived, visits).stream().sorted(NEWEST_FIRST).limit(pageSize).toList();
+            }
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (visits.size() == pageSize) {
+            response.header(NEXT_CURSOR_HEADER, VisitCursor.after(visits.get(visits.size() - 1)).token());
+        }
+        return response.body(visits);
+    }
+
+    /**
+     * Archived visits are all dated before the archive cutoff, and come after any newer visit of the page: the archive
+     * is only read when the page may reach them.
+     */
+    private boolean mayReadArchive(LocalDate from, VisitCursor before, List<Visit> page, int pageSize) {
+        Date cutoff = VisitCursor.toDate(visitArchive.cutoff());
+        if (from != null && !VisitCursor.toDate(from).before(cutoff)) {
+            return false;
+        }
+        if (before.date() == null) {
+            // Past the dated visits already
+            return false;
+        }
+        if (!before.date().after(cutoff)) {
+            return true;
+        }
+        if (page.size() < pageSize) {
+            return true;
+        }
+        Date oldest = page.get(page.size() - 1).getDate();
+        return oldest == null || oldest.before(cutoff);
     }
 
+    @GetMapping("visits/{visitId}")
+    public Visit readOne(@PathVariable("visitId") @Min(1) int visitId) {
+        return visitRepository.findById(visitId)
+            .or(() -> visitArchive.findById(visitId))
+            .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Visit " + visitId + " not found"));
+    }
+
+    /**
+     * With <code>summary=true</code>, visits are returned as {@link VisitSummary summaries} whose description is cut
+     * server-side; the full visit can then be fetched through {@link #readOne(int)}.
+     */
     @GetMapping("pets/visits")
-    public Visits read(@RequestParam("petId") List<Integer> petIds) {
-        final List<Visit> byPetIdIn = visitRepository.findByPetIdIn(petIds);
-        return new Visits(byPetIdIn);
+    public Visits read(@RequestParam("petId") List<Integer> petIds,
+                       @RequestParam(name = "summary", defaultValue = "false") boolean summary) {
+        // Database first: a visit archived in between is then read twice rather than missed
+        if (summary) {
+            List<VisitSummary> summaries = visitBatchLoader.findSummariesByPetIds(petIds);
+            return new Visits(mergeByPet(petIds, visitArchive.findByPetIds(petIds), summaries,
+                VisitSummary::petId, VisitSummary::id, VisitSummary::date,
+                visit -> new VisitSummary(visit.getId(), visit.getPetId(), visit.getDate(), visit.getDescription())));
+        }
+        final List<Visit> byPetIdIn = visitBatchLoader.findByPetIds(petIds);
+        return new Visits(mergeByPet(petIds, visitArchive.findByPetIds(petIds), byPetIdIn, Visit::getPetId,
+            Visit::getId, Visit::getDate, Function.identity()));
+    }
+
+    /**
+     * Archived visits, oldest first, then the database ones, oldest first too: archiving moves whole months older than
+     * any visit left in the database. A visit archived between the two reads is found in both and only returned once.
+     */
+    private static List<Visit> merge(List<Visit> archived, List<Visit> visits) {
+        if (archived.isEmpty()) {
+            return visits;
+        }
+        Set<Integer> ids = new HashSet<>();
+        visits.forEach(visit -> ids.add(visit.getId()));
+        List<Visit> merged = new ArrayList<>(archived.size() + visits.size());
+        archived.stream().filter(visit -> !ids.contains(visit.getId())).forEach(merged::add);
+        visits.stream().sorted(oldestFirst(Visit::getDate, Visit::getId)).forEach(merged::add);
+        return merged;
+    }
+
+    /**
+     * Regroups database and archived visits by pet, in the order of the requested pet ids. The visits of a pet with
+     * archived visits are ordered as by {@link #merge(List, List)}.
+     */
+    private static <T> List<T> mergeByPet(List<Integer> petIds, Map<Integer, List<Visit>> archived, List<T> visits,
+                                          ToIntFunction<T> petIdOf, Function<T, Integer> idOf,
+                                          Function<T, Date> dateOf, Function<Visit, T> fromArchived) {
+        if (archived.isEmpty()) {
+            return visits;
+        }
+        Set<Integer> ids = new HashSet<>();
+        visits.forEach(visit -> ids.add(idOf.apply(visit)));
+        Map<Integer, List<T>> byPet = new LinkedHashMap<>();
+        petIds.forEach(petId -> byPet.computeIfAbsent(petId, id -> new ArrayList<>()));
+        archived.forEach((petId, petVisits) -> petVisits.stream()
+            .filter(visit -> !ids.contains(visit.getId()))
+            .map(fromArchived)
+            .forEach(byPet.computeIfAbsent(petId, id -> new ArrayList<>())::add));
+        visits.stream()
+            .sorted(oldestFirst(dateOf, idOf))
+            .forEach(visit -> byPet.computeIfAbsent(petIdOf.applyAsInt(visit), id -> new ArrayList<>()).add(visit));
+        return byPet.values().stream().flatMap(List::stream).toList();
+    }
+
+    private static <T> Comparator<T> oldestFirst(Function<T, Date> dateOf, Function<T, Integer> idOf) {
+        return Comparator.comparing(dateOf, Comparator.nullsLast(Comparator.<Date>naturalOrder())).thenComparing(idOf);
     }
 
     record Visits(
-        List<Visit> items
+        List<?> items
+    ) {
+    }
+
+    record AcceptedVisit(
+        String id,
+        VisitIngestionQueue.Status status
     ) {
+        AcceptedVisit(String id) {
+            this(id, VisitIngestionQueue.Status.PENDING);
+        }
     }
 }
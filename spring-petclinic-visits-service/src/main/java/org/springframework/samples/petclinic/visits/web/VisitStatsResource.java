@@ -0,0 +1,91 @@
+/*
+ * Copyright 2002-2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.samples.petclinic.visits.web;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import io.micrometer.core.annotation.Timed;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+import org.springframework.samples.petclinic.visits.stats.VisitRollupRebuilder;
+import org.springframework.samples.petclinic.visits.stats.VisitRollups;
+import org.springframework.samples.petclinic.visits.stats.VisitRollups.DailyVisits;
+import org.springframework.samples.petclinic.visits.stats.VisitRollups.PetVisits;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Visit statistics answered from the rollup counters rather than from the raw visits.
+ * <p>
+ * A daily range reads one counter row per day with visits, through the primary key of the daily rollups; the range is
+ * limited to <code>visits.stats.max-range-days</code> days, so that a request never reads more than that many rows.
+ */
+@RestController
+@Timed("petclinic.visit.stats")
+class VisitStatsResource {
+
+    private final VisitRollups visitRollups;
+
+    private final VisitRollupRebuilder visitRollupRebuilder;
+
+    private final int maxRangeDays;
+
+    VisitStatsResource(VisitRollups visitRollups, VisitRollupRebuilder visitRollupRebuilder,
+                       VisitsProperties properties) {
+        this.visitRollups = visitRollups;
+        this.visitRollupRebuilder = visitRollupRebuilder;
+        this.maxRangeDays = properties.stats().maxRangeDays();
+    }
+
+    @GetMapping("visits/stats/daily")
+    public DailyStats daily(
+        @RequestParam("from") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+        @RequestParam("to") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+
+        if (from.isAfter(to)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "'from' must not be after 'to'");
+        }
+        if (ChronoUnit.DAYS.between(from, to) >= maxRangeDays) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "The range must not exceed " + maxRangeDays + " days");
+        }
+        List<DailyVisits> days = visitRollups.findDaily(from, to);
+        return new DailyStats(from, to, days.stream().mapToLong(DailyVisits::count).sum(), days);
+    }
+
+    @GetMapping("visits/stats/pets/{petId}")
+    public PetVisits pet(@PathVariable("petId") int petId) {
+        return visitRollups.findByPetId(petId).orElseGet(() -> new PetVisits(petId, 0, null));
+    }
+
+    @PostMapping("visits/stats/rebuild")
+    public RebuildResult rebuild() {
+        return new RebuildResult(visitRollupRebuilder.rebuild());
+    }
+
+    record DailyStats(LocalDate from, LocalDate to, long total, List<DailyVisits> days) {
+    }
+
+    record RebuildResult(int chunks) {
+    }
+}
@@ -2,3 +2,6 @@ INSERT INTO visits VALUES (1, 7, '2013-01-01', 'rabies shot');
 INSERT INTO visits VALUES (2, 8, '2013-01-02', 'rabies shot');
 INSERT INTO visits VALUES (3, 8, '2013-01-03', 'neutered');
 INSERT INTO visits VALUES (4, 7, '2013-01-04', 'spayed');
+
+INSERT INTO visit_daily_rollups SELECT visit_date, COUNT(*) FROM visits WHERE visit_date IS NOT NULL GROUP BY visit_date;
+INSERT INTO visit_pet_rollups SELECT pet_id, COUNT(*), MAX(visit_date) FROM visits GROUP BY pet_id;
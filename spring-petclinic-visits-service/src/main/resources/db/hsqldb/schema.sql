@@ -7,4 +7,39 @@ CREATE TABLE visits (
   description VARCHAR(8192)
 );
 
-CREATE INDEX visits_pet_id ON visits (pet_id);
+CREATE INDEX visits_pet_id_visit_date ON visits (pet_id, visit_date);
+CREATE INDEX visits_visit_date ON visits (visit_date);
+
+DROP TABLE visit_daily_rollups IF EXISTS;
+
+CREATE TABLE visit_daily_rollups (
+  visit_date  DATE PRIMARY KEY,
+  visit_count INTEGER NOT NULL
+);
+
+DROP TABLE visit_pet_rollups IF EXISTS;
+
+CREATE TABLE visit_pet_rollups (
+  pet_id          INTEGER PRIMARY KEY,
+  visit_count     INTEGER NOT NULL,
+  last_visit_date DATE
+);
+
+DROP TABLE visits_dead_letter IF EXISTS;
+
+CREATE TABLE visits_dead_letter (
+  ticket      VARCHAR(36) PRIMARY KEY,
+  pet_id      INTEGER NOT NULL,
+  visit_date  DATE,
+  description LONGVARCHAR,
+  error       VARCHAR(1024),
+  failed_at   TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL
+);
+
+DROP TABLE visit_archive_segments IF EXISTS;
+
+CREATE TABLE visit_archive_segments (
+  archive_month CHAR(7) PRIMARY KEY,
+  revision      INTEGER NOT NULL,
+  segment       LONGVARBINARY NOT NULL
+);
@@ -2,3 +2,6 @@ INSERT IGNORE INTO visits VALUES (1, 7, '2010-03-04', 'rabies shot');
 INSERT IGNORE INTO visits VALUES (2, 8, '2011-03-04', 'rabies shot');
 INSERT IGNORE INTO visits VALUES (3, 8, '2009-06-04', 'neutered');
 INSERT IGNORE INTO visits VALUES (4, 7, '2008-09-04', 'spayed');
+
+INSERT IGNORE INTO visit_daily_rollups SELECT visit_date, COUNT(*) FROM visits WHERE visit_date IS NOT NULL GROUP BY visit_date;
+INSERT IGNORE INTO visit_pet_rollups SELECT pet_id, COUNT(*), MAX(visit_date) FROM visits GROUP BY pet_id;
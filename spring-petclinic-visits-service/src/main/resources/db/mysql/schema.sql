@@ -7,5 +7,33 @@ CREATE TABLE IF NOT EXISTS visits (
   pet_id INT(4) UNSIGNED NOT NULL,
   visit_date DATE,
   description VARCHAR(8192),
+  INDEX visits_pet_id_visit_date (pet_id, visit_date),
+  INDEX visits_visit_date (visit_date),
   FOREIGN KEY (pet_id) REFERENCES pets(id)
 ) engine=InnoDB;
+
+CREATE TABLE IF NOT EXISTS visit_daily_rollups (
+  visit_date DATE NOT NULL PRIMARY KEY,
+  visit_count INT(4) UNSIGNED NOT NULL
+) engine=InnoDB;
+
+CREATE TABLE IF NOT EXISTS visit_pet_rollups (
+  pet_id INT(4) UNSIGNED NOT NULL PRIMARY KEY,
+  visit_count INT(4) UNSIGNED NOT NULL,
+  last_visit_date DATE
+) engine=InnoDB;
+
+CREATE TABLE IF NOT EXISTS visits_dead_letter (
+  ticket VARCHAR(36) NOT NULL PRIMARY KEY,
+  pet_id INT(4) UNSIGNED NOT NULL,
+  visit_date DATE,
+  description MEDIUMTEXT,
+  error VARCHAR(1024),
+  failed_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+) engine=InnoDB;
+
+CREATE TABLE IF NOT EXISTS visit_archive_segments (
+  archive_month CHAR(7) NOT NULL PRIMARY KEY,
+  revision INT(4) UNSIGNED NOT NULL,
+  segment LONGBLOB NOT NULL
+) engine=InnoDB;
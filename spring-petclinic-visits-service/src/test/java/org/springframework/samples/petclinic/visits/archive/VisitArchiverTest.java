@@ -0,0 +1,125 @@
+package org.springframework.samples.petclinic.visits.archive;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.YearMonth;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+import org.springframework.samples.petclinic.visits.model.Visit;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class VisitArchiverTest {
+
+    private static final LocalDate OLD = LocalDate.now().minusYears(3).withDayOfMonth(10);
+
+    private final EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+        .setType(EmbeddedDatabaseType.HSQL)
+        .generateUniqueName(true)
+        .addScript("db/hsqldb/schema.sql")
+        .build();
+
+    private final JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+
+    private final VisitsProperties properties = new VisitsProperties(null, null, null,
+        new VisitsProperties.Archive(true, Period.ofYears(2)));
+
+    private final VisitArchive visitArchive = new VisitArchive(jdbcTemplate, properties);
+
+    private final VisitArchiver visitArchiver = new VisitArchiver(visitArchive, jdbcTemplate,
+        new TransactionTemplate(new DataSourceTransactionManager(database)), properties);
+
+    @AfterEach
+    void shutdown() {
+        database.shutdown();
+    }
+
+    @Test
+    void shouldMoveOldMonthsToTheSharedArchive() {
+        int first = insertVisit(7, OLD, "rabies shot");
+        int second = insertVisit(7, OLD.plusMonths(1), "neutered");
+        int recent = insertVisit(7, LocalDate.now(), "spayed");
+        insertVisit(8, null, "undated");
+
+        assertThat(visitArchiver.archive()).isEqualTo(2);
+
+        assertThat(jdbcTemplate.queryForList("SELECT id FROM visits ORDER BY id", Integer.class))
+            .containsExactly(recent, recent + 1);
+        assertThat(visitArchive.findByPetId(7)).extracting(Visit::getId).containsExactly(first, second);
+        assertThat(visitArchive.findById(second)).hasValueSatisfying(visit ->
+            assertThat(visit.getDescription()).isEqualTo("neutered"));
+        assertThat(visitArchive.findById(recent)).isEmpty();
+        assertThat(visitArchive.cutoff()).isAfter(OLD.plusMonths(1));
+
+        // Another instance reads the same archive
+        VisitArchive otherInstance = new VisitArchive(jdbcTemplate, properties);
+        assertThat(otherInstance.findPageByPetId(7, null, null, visit -> true, 1))
+            .extracting(Visit::getId).containsExactly(second);
+        assertThat(otherInstance.findPageByPetId(7, OLD.minusDays(1), OLD.plusDays(1), visit -> true, 10))
+            .extracting(Visit::getId).containsExactly(first);
+    }
+
+    @Test
+    void shouldMergeLateVisitsIntoAnArchivedMonth() {
+        int first = insertVisit(7, OLD, "rabies shot");
+        visitArchiver.archive();
+        assertThat(visitArchive.findByPetId(7)).extracting(Visit::getId).containsExactly(first);
+
+        int late = insertVisit(7, OLD.plusDays(1), "neutered");
+        assertThat(visitArchiver.archive()).isEqualTo(1);
+
+        assertThat(visitArchive.findByPetId(7)).extracting(Visit::getId).containsExactly(first, late);
+        assertThat(jdbcTemplate.queryForObject("SELECT revision FROM visit_archive_segments", Integer.class))
+            .isEqualTo(2);
+    }
+
+    @Test
+    void shouldRefuseToOverwriteAMonthArchivedConcurrently() {
+        YearMonth month = YearMonth.from(OLD);
+        VisitArchive.StoredMonth loaded = visitArchive.load(month);
+        List<Visit> visits = List.of(Visit.VisitBuilder.aVisit().id(1).petId(7).date(Date.valueOf(OLD)).build());
+        visitArchive.store(month, loaded.revision(), visits);
+
+        assertThatThrownBy(() -> visitArchive.store(month, loaded.revision(), visits))
+            .isInstanceOf(OptimisticLockingFailureException.class);
+    }
+
+    @Test
+    void shouldKeepTheVisitsOfAMonthArchivedConcurrently() {
+        int id = insertVisit(7, OLD, "rabies shot");
+        VisitArchive racing = new VisitArchive(jdbcTemplate, properties) {
+            @Override
+            void store(YearMonth month, int revision, Collection<Visit> visits) {
+                // Another instance stores the month first
+                super.store(month, revision, List.of());
+                super.store(month, revision, visits);
+            }
+        };
+        VisitArchiver racingArchiver = new VisitArchiver(racing, jdbcTemplate,
+            new TransactionTemplate(new DataSourceTransactionManager(database)), properties);
+
+        assertThat(racingArchiver.archive()).isZero();
+
+        assertThat(jdbcTemplate.queryForList("SELECT id FROM visits", Integer.class)).containsExactly(id);
+        assertThat(visitArchive.findById(id)).isEmpty();
+    }
+
+    private int insertVisit(int petId, LocalDate date, String description) {
+        jdbcTemplate.update("INSERT INTO visits (pet_id, visit_date, description) VALUES (?, ?, ?)",
+            petId, date == null ? null : Date.valueOf(date), description);
+        return jdbcTemplate.queryForObject("SELECT MAX(id) FROM visits", Integer.class);
+    }
+}
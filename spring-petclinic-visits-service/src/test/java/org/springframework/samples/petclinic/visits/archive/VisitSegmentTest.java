@@ -0,0 +1,63 @@
+package org.springframework.samples.petclinic.visits.archive;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.samples.petclinic.visits.model.Visit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class VisitSegmentTest {
+
+    private static final YearMonth MONTH = YearMonth.of(2013, 1);
+
+    @Test
+    void shouldReadBackVisitsByPetAndById() {
+        VisitSegment segment = VisitSegment.of(VisitSegment.encode(MONTH, List.of(
+            visit(4, 8, 3, "neutered"),
+            visit(1, 7, 1, "rabies shot"),
+            visit(2, 8, 2, null),
+            visit(3, 7, 31, "spayed"))));
+
+        assertThat(segment.month()).isEqualTo(MONTH);
+        assertThat(segment.size()).isEqualTo(4);
+        assertThat(segment.findByPetId(7)).extracting(Visit::getId, Visit::getDate, Visit::getDescription)
+            .containsExactly(tuple(1, day(1), "rabies shot"), tuple(3, day(31), "spayed"));
+        assertThat(segment.findByPetId(8)).extracting(Visit::getId, Visit::getDescription)
+            .containsExactly(tuple(2, null), tuple(4, "neutered"));
+        assertThat(segment.findByPetId(9)).isEmpty();
+        assertThat(segment.mayContainId(5)).isFalse();
+        assertThat(segment.findById(2)).hasValueSatisfying(visit -> assertThat(visit.getPetId()).isEqualTo(8));
+        assertThat(segment.findById(3)).hasValueSatisfying(visit -> assertThat(visit.getPetId()).isEqualTo(7));
+        assertThat(segment.findById(5)).isEmpty();
+    }
+
+    @Test
+    void shouldStoreRepetitiveHistoryCompactly() {
+        List<Visit> visits = new ArrayList<>();
+        for (int id = 1; id <= 10_000; id++) {
+            visits.add(visit(id, id % 500, 1 + id % 28, "Annual checkup, vaccines up to date"));
+        }
+
+        byte[] encoded = VisitSegment.encode(MONTH, visits);
+
+        assertThat(encoded.length).isLessThan(10_000 * 8);
+        assertThat(VisitSegment.of(encoded).findAll()).hasSize(10_000);
+        assertThat(VisitSegment.of(encoded).findById(5_000)).hasValueSatisfying(visit ->
+            assertThat(visit.getPetId()).isEqualTo(0));
+    }
+
+    private static Visit visit(int id, int petId, int dayOfMonth, String description) {
+        return Visit.VisitBuilder.aVisit().id(id).petId(petId).date(day(dayOfMonth)).description(description).build();
+    }
+
+    private static Date day(int dayOfMonth) {
+        return Date.from(LocalDate.of(2013, 1, dayOfMonth).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+}
@@ -0,0 +1,136 @@
+package org.springframework.samples.petclinic.visits.ingest;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Date;
+import java.util.Map;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+import org.springframework.samples.petclinic.visits.model.Visit;
+import org.springframework.samples.petclinic.visits.stats.VisitRollups;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+class VisitIngestionQueueTest {
+
+    @TempDir
+    Path directory;
+
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+
+    private EmbeddedDatabase database;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private VisitIngestionQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+            .setType(EmbeddedDatabaseType.HSQL)
+            .generateUniqueName(true)
+            .addScript("db/hsqldb/schema.sql")
+            .build();
+        jdbcTemplate = new JdbcTemplate(database);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (queue != null && queue.isRunning()) {
+            queue.stop();
+        }
+        database.shutdown();
+    }
+
+    @Test
+    void shouldCommitAcceptedVisits() {
+        queue = newQueue(10);
+        queue.start();
+
+        String ticket = queue.offer(visit(7, "rabies shot")).orElseThrow();
+
+        await().atMost(Duration.ofSeconds(10))
+            .until(() -> queue.status(ticket).orElseThrow() == VisitIngestionQueue.Status.COMMITTED);
+        assertThat(jdbcTemplate.queryForObject("SELECT description FROM visits WHERE pet_id = 7", String.class))
+            .isEqualTo("rabies shot");
+        assertThat(jdbcTemplate.queryForObject("SELECT visit_count FROM visit_pet_rollups WHERE pet_id = 7",
+            Integer.class)).isEqualTo(1);
+    }
+
+    @Test
+    void shouldMoveFailingVisitsToDeadLetterWithoutBlockingTheOthers() {
+        queue = newQueue(10);
+        // Accepted before starting, so that they are committed as a single batch
+        String before = queue.offer(visit(7, "rabies shot")).orElseThrow();
+        String poison = queue.offer(visit(8, "x".repeat(8193))).orElseThrow();
+        String after = queue.offer(visit(9, "neutered")).orElseThrow();
+        queue.start();
+
+        await().atMost(Duration.ofSeconds(10))
+            .until(() -> queue.status(after).orElseThrow() != VisitIngestionQueue.Status.PENDING);
+        assertThat(queue.status(before)).contains(VisitIngestionQueue.Status.COMMITTED);
+        assertThat(queue.status(poison)).contains(VisitIngestionQueue.Status.FAILED);
+        assertThat(queue.status(after)).contains(VisitIngestionQueue.Status.COMMITTED);
+        assertThat(jdbcTemplate.queryForList("SELECT pet_id FROM visits ORDER BY pet_id", Integer.class))
+            .containsExactly(7, 9);
+        Map<String, Object> deadLetter = jdbcTemplate.queryForMap("SELECT * FROM visits_dead_letter");
+        assertThat(deadLetter).containsEntry("TICKET", poison).containsEntry("PET_ID", 8);
+        assertThat(registry.get("petclinic.visit.ingestion.failed").counter().count()).isEqualTo(1);
+
+        // Nothing is replayed on restart
+        queue.stop();
+        queue = newQueue(10);
+        assertThat(queue.status(poison)).contains(VisitIngestionQueue.Status.FAILED);
+        assertThat(registry.get("petclinic.visit.ingestion.queue").gauge().value()).isZero();
+    }
+
+    @Test
+    void shouldRefuseVisitsBeyondCapacityAndReplayThemAfterRestart() {
+        queue = newQueue(1);
+
+        String ticket = queue.offer(visit(7, "rabies shot")).orElseThrow();
+        assertThat(queue.offer(visit(8, "neutered"))).isEmpty();
+        assertThat(registry.get("petclinic.visit.ingestion.rejected").counter().count()).isEqualTo(1);
+
+        // Never started, so never committed
+        queue.stop();
+        queue = newQueue(1);
+        assertThat(queue.status(ticket)).contains(VisitIngestionQueue.Status.PENDING);
+        queue.start();
+        await().atMost(Duration.ofSeconds(10))
+            .until(() -> queue.status(ticket).orElseThrow() == VisitIngestionQueue.Status.COMMITTED);
+    }
+
+    private VisitIngestionQueue newQueue(int capacity) {
+        registry.clear();
+        VisitsProperties properties = new VisitsProperties(null,
+            new VisitsProperties.Ingestion(true, capacity, 500, directory.resolve("visits.journal"),
+                DataSize.ofMegabytes(1)),
+            null, null);
+        return new VisitIngestionQueue(properties, jdbcTemplate,
+            new TransactionTemplate(new DataSourceTransactionManager(database)), new VisitRollups(jdbcTemplate),
+            registry);
+    }
+
+    private static Visit visit(int petId, String description) {
+        return Visit.VisitBuilder.aVisit()
+            .petId(petId)
+            .date(new Date(1357084800000L))
+            .description(description)
+            .build();
+    }
+}
@@ -0,0 +1,117 @@
+package org.springframework.samples.petclinic.visits.ingest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VisitJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldRecoverVisitsAppendedAfterLastCommit() throws IOException {
+        Path path = directory.resolve("visits.journal");
+        try (VisitJournal journal = VisitJournal.open(path, Long.MAX_VALUE)) {
+            journal.append("a", 7, new Date(0), "rabies shot");
+            VisitJournal.PendingVisit second = journal.append("b", 8, null, "neutered");
+            journal.append("c", 8, new Date(1000), null);
+            journal.markCommitted(second.sequence());
+        }
+
+        try (VisitJournal journal = VisitJournal.open(path, Long.MAX_VALUE)) {
+            assertThat(journal.recovered()).singleElement().satisfies(visit -> {
+                assertThat(visit.ticket()).isEqualTo("c");
+                assertThat(visit.petId()).isEqualTo(8);
+                assertThat(visit.date()).isEqualTo(new Date(1000));
+                assertThat(visit.description()).isNull();
+            });
+            assertThat(journal.append("d", 9, null, "spayed").sequence()).isEqualTo(4);
+        }
+    }
+
+    @Test
+    void shouldTruncateOnceEverythingIsCommitted() throws IOException {
+        Path path = directory.resolve("visits.journal");
+        try (VisitJournal journal = VisitJournal.open(path, Long.MAX_VALUE)) {
+            VisitJournal.PendingVisit visit = journal.append("a", 7, new Date(0), "rabies shot");
+            journal.markCommitted(visit.sequence());
+        }
+
+        assertThat(Files.size(path)).isZero();
+    }
+
+    @Test
+    void shouldIgnoreTornLastRecord() throws IOException {
+        Path path = directory.resolve("visits.journal");
+        try (VisitJournal journal = VisitJournal.open(path, Long.MAX_VALUE)) {
+            journal.append("a", 7, new Date(0), "rabies shot");
+        }
+        Files.write(path, new byte[]{1, 0, 0}, StandardOpenOption.APPEND);
+
+        try (VisitJournal journal = VisitJournal.open(path, Long.MAX_VALUE)) {
+            assertThat(journal.recovered()).extracting(VisitJournal.PendingVisit::ticket).containsExactly("a");
+        }
+    }
+
+    @Test
+    void shouldCompactWhileVisitsStayUncommitted() throws IOException {
+        Path path = directory.resolve("visits.journal");
+        try (VisitJournal journal = VisitJournal.open(path, 1024)) {
+            // Always one visit behind, so the journal is never empty
+            VisitJournal.PendingVisit previous = journal.append("0", 7, new Date(0), "rabies shot");
+            for (int i = 1; i <= 100; i++) {
+                VisitJournal.PendingVisit visit = journal.append(String.valueOf(i), 7, new Date(i), "x".repeat(50));
+                journal.markCommitted(previous.sequence());
+                previous = visit;
+                assertThat(Files.size(path)).isLessThan(1024 + 200);
+            }
+            journal.append("101", 8, null, null);
+        }
+
+        try (VisitJournal journal = VisitJournal.open(path, 1024)) {
+            assertThat(journal.recovered()).extracting(VisitJournal.PendingVisit::ticket).containsExactly("100", "101");
+            assertThat(journal.append("102", 9, null, "spayed").sequence()).isEqualTo(103);
+        }
+    }
+
+    @Test
+    void shouldForceVisitsAppendedConcurrently() throws Exception {
+        Path path = directory.resolve("visits.journal");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (VisitJournal journal = VisitJournal.open(path, Long.MAX_VALUE)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String ticket = String.valueOf(i);
+                futures.add(executor.submit(() -> {
+                    VisitJournal.PendingVisit visit = journal.append(ticket, 7, null, null);
+                    journal.force(visit.sequence());
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        try (VisitJournal journal = VisitJournal.open(path, Long.MAX_VALUE)) {
+            assertThat(journal.recovered()).extracting(VisitJournal.PendingVisit::sequence)
+                .hasSize(200)
+                .isSorted();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.springframework.samples.petclinic.visits.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+class VisitBatchLoaderTest {
+
+    private final VisitRepository visitRepository = mock(VisitRepository.class);
+
+    @Test
+    void shouldPadInListsToPowerOfTwoBuckets() {
+        VisitBatchLoader loader = loader(1);
+
+        assertThat(loader.bucketSize(1)).isEqualTo(8);
+        assertThat(loader.bucketSize(8)).isEqualTo(8);
+        assertThat(loader.bucketSize(9)).isEqualTo(16);
+        assertThat(loader.bucketSize(100)).isEqualTo(128);
+        assertThat(loader.bucketSize(512)).isEqualTo(512);
+    }
+
+    @Test
+    void shouldMergeVisitsByRequestedPetIdOrder() {
+        given(visitRepository.findByPetIdIn(anyCollection())).willAnswer(invocation -> {
+            Collection<Integer> petIds = invocation.getArgument(0);
+            return new TreeSet<>(petIds).stream().map(VisitBatchLoaderTest::visit).toList();
+        });
+
+        List<Visit> visits = loader(1).findByPetIds(List.of(3, 1, 2, 1));
+
+        assertThat(visits).extracting(Visit::getPetId).containsExactly(3, 1, 2);
+    }
+
+    @Test
+    void shouldUseBoundedSetOfStatementShapesFromOneToFiveThousandPets() {
+        Set<Integer> inListSizes = new TreeSet<>();
+        List<Integer> queriedPetIds = new ArrayList<>();
+        given(visitRepository.findByPetIdIn(anyCollection())).willAnswer(invocation -> {
+            Collection<Integer> petIds = invocation.getArgument(0);
+            synchronized (inListSizes) {
+                inListSizes.add(petIds.size());
+                queriedPetIds.addAll(new TreeSet<>(petIds));
+            }
+            return new TreeSet<>(petIds).stream().map(VisitBatchLoaderTest::visit).toList();
+        });
+        VisitBatchLoader loader = loader(4);
+
+        for (int count : new int[]{1, 7, 50, 500, 1000, 5000}) {
+            queriedPetIds.clear();
+            List<Integer> petIds = IntStream.rangeClosed(1, count).boxed().toList();
+
+            List<Visit> visits = loader.findByPetIds(petIds);
+
+            assertThat(visits).extracting(Visit::getPetId).containsExactlyElementsOf(petIds);
+            assertThat(queriedPetIds).hasSize(count);
+        }
+        assertThat(inListSizes).containsOnly(8, 64, 512);
+        loader.destroy();
+    }
+
+    private VisitBatchLoader loader(int parallelism) {
+        return new VisitBatchLoader(visitRepository,
+            new VisitsProperties(new VisitsProperties.Query(8, 512, parallelism), null, null, null));
+    }
+
+    private static Visit visit(int petId) {
+        return Visit.VisitBuilder.aVisit().id(petId).petId(petId).build();
+    }
+}
@@ -0,0 +1,54 @@
+package org.springframework.samples.petclinic.visits.model;
+
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Limit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.willReturn;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class VisitRepositoryTest {
+
+    private static final Date DATE = new Date(1357084800000L);
+
+    private final VisitRepository visitRepository = mock(VisitRepository.class, CALLS_REAL_METHODS);
+
+    @Test
+    void shouldReadTheVisitsOfTheKeyPageInKeyOrderThenTheUndatedOnes() {
+        willReturn(List.of(new VisitKey(4, DATE), new VisitKey(2, DATE))).given(visitRepository)
+            .findPageKeysByPetId(eq(7), any(), any(), eq(DATE), eq(9), eq(Limit.of(3)));
+        willReturn(List.of(new VisitKey(8, null))).given(visitRepository)
+            .findUndatedPageKeysByPetId(7, Integer.MAX_VALUE, Limit.of(1));
+        willReturn(List.of(visit(8, null), visit(2, DATE), visit(4, DATE))).given(visitRepository)
+            .findAllById(List.of(4, 2, 8));
+
+        List<Visit> page = visitRepository.findPageByPetId(7, DATE, DATE, DATE, 9, true, Limit.of(3));
+
+        assertThat(page).extracting(Visit::getId).containsExactly(4, 2, 8);
+    }
+
+    @Test
+    void shouldOnlyReadUndatedVisitsAfterAnUndatedCursor() {
+        willReturn(List.of(new VisitKey(3, null))).given(visitRepository)
+            .findUndatedPageKeysByPetId(7, 5, Limit.of(2));
+        willReturn(List.of(visit(3, null))).given(visitRepository).findAllById(List.of(3));
+
+        List<Visit> page = visitRepository.findPageByPetId(7, DATE, DATE, null, 5, true, Limit.of(2));
+
+        assertThat(page).extracting(Visit::getId).containsExactly(3);
+        verify(visitRepository, never()).findPageKeysByPetId(anyInt(), any(), any(), any(), anyInt(), any());
+    }
+
+    private static Visit visit(int id, Date date) {
+        return Visit.VisitBuilder.aVisit().id(id).petId(7).date(date).build();
+    }
+}
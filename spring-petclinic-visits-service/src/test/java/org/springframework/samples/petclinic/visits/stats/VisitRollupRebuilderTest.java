@@ -0,0 +1,119 @@
+package org.springframework.samples.petclinic.visits.stats;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.samples.petclinic.visits.archive.VisitArchive;
+import org.springframework.samples.petclinic.visits.config.VisitsProperties;
+import org.springframework.samples.petclinic.visits.model.Visit;
+import org.springframework.samples.petclinic.visits.stats.VisitRollups.DailyVisits;
+import org.springframework.samples.petclinic.visits.stats.VisitRollups.PetVisits;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Mockito.mock;
+
+class VisitRollupRebuilderTest {
+
+    private final EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+        .setType(EmbeddedDatabaseType.HSQL)
+        .generateUniqueName(true)
+        .addScript("db/hsqldb/schema.sql")
+        .build();
+
+    private final JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+
+    private final VisitArchive visitArchive = mock(VisitArchive.class);
+
+    private final VisitRollups visitRollups = new VisitRollups(jdbcTemplate);
+
+    private final VisitRollupRebuilder rebuilder = new VisitRollupRebuilder(jdbcTemplate,
+        new TransactionTemplate(new DataSourceTransactionManager(database)), visitArchive,
+        new VisitsProperties(null, null, new VisitsProperties.Stats(7, 2, 1, 2, 366), null));
+
+    @AfterEach
+    void shutdown() {
+        rebuilder.destroy();
+        database.shutdown();
+    }
+
+    @Test
+    void shouldRepairDriftOfRecentCounters() {
+        LocalDate today = LocalDate.now();
+        LocalDate old = today.minusDays(30);
+        insertVisit(7, today);
+        insertVisit(7, today.minusDays(1));
+        insertVisit(8, old);
+        // Drifted: a lost increment, a counter of a deleted visit, and an old counter out of the reconciled days
+        visitRollups.recordVisit(Date.valueOf(today), 7);
+        visitRollups.recordVisit(Date.valueOf(today.minusDays(2)), 9);
+        jdbcTemplate.update("INSERT INTO visit_daily_rollups VALUES (?, 5)", Date.valueOf(old));
+
+        rebuilder.reconcile();
+
+        assertThat(visitRollups.findDaily(today.minusDays(7), today)).containsExactly(
+            new DailyVisits(today.minusDays(1), 1),
+            new DailyVisits(today, 1));
+        assertThat(visitRollups.findByPetId(7)).contains(new PetVisits(7, 2, today));
+        assertThat(visitRollups.findDaily(old, old)).containsExactly(new DailyVisits(old, 5));
+    }
+
+    @Test
+    void shouldRebuildAllCountersFromDatabaseAndArchivedVisits() {
+        insertVisit(7, LocalDate.parse("2013-01-01"));
+        insertVisit(8, LocalDate.parse("2013-01-04"));
+        insertVisit(8, LocalDate.parse("2013-01-04"));
+        jdbcTemplate.update("INSERT INTO visit_daily_rollups VALUES (?, 42)", Date.valueOf("2013-01-02"));
+        jdbcTemplate.update("INSERT INTO visit_pet_rollups VALUES (8, 42, NULL)");
+        Visit archived = Visit.VisitBuilder.aVisit().id(1).petId(7).date(Date.valueOf("2012-12-31")).build();
+        given(visitArchive.firstDay()).willReturn(Optional.of(LocalDate.parse("2012-12-01")));
+        given(visitArchive.lastDay()).willReturn(Optional.of(LocalDate.parse("2012-12-31")));
+        given(visitArchive.minPetId()).willReturn(Optional.of(7));
+        given(visitArchive.maxPetId()).willReturn(Optional.of(7));
+        willAnswer(invocation -> {
+            LocalDate from = invocation.getArgument(0);
+            LocalDate to = invocation.getArgument(1);
+            LocalDate day = LocalDate.parse("2012-12-31");
+            if (!day.isBefore(from) && !day.isAfter(to)) {
+                invocation.<Consumer<Visit>>getArgument(2).accept(archived);
+            }
+            return null;
+        }).given(visitArchive).forEachVisitBetween(any(), any(), any());
+        willAnswer(invocation -> {
+            if (invocation.<IntPredicate>getArgument(0).test(7)) {
+                invocation.<Consumer<Visit>>getArgument(1).accept(archived);
+            }
+            return null;
+        }).given(visitArchive).forEachVisitOf(any(), any());
+
+        // 18 chunks of 2 days from 2012-12-01 to 2013-01-04, 2 chunks of 1 pet
+        assertThat(rebuilder.rebuild()).isEqualTo(20);
+
+        assertThat(visitRollups.findDaily(LocalDate.parse("2012-01-01"), LocalDate.parse("2013-12-31")))
+            .containsExactlyElementsOf(List.of(
+                new DailyVisits(LocalDate.parse("2012-12-31"), 1),
+                new DailyVisits(LocalDate.parse("2013-01-01"), 1),
+                new DailyVisits(LocalDate.parse("2013-01-04"), 2)));
+        assertThat(visitRollups.findByPetId(7)).contains(new PetVisits(7, 2, LocalDate.parse("2013-01-01")));
+        assertThat(visitRollups.findByPetId(8)).contains(new PetVisits(8, 2, LocalDate.parse("2013-01-04")));
+    }
+
+    private void insertVisit(int petId, LocalDate date) {
+        jdbcTemplate.update("INSERT INTO visits (pet_id, visit_date, description) VALUES (?, ?, 'check-up')",
+            petId, Date.valueOf(date));
+    }
+}
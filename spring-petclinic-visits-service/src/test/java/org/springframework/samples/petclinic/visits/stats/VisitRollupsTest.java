@@ -0,0 +1,64 @@
+package org.springframework.samples.petclinic.visits.stats;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.samples.petclinic.visits.stats.VisitRollups.DailyVisits;
+import org.springframework.samples.petclinic.visits.stats.VisitRollups.PetVisits;
+import org.springframework.samples.petclinic.visits.stats.VisitRollups.RecordedVisit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VisitRollupsTest {
+
+    private final EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+        .setType(EmbeddedDatabaseType.HSQL)
+        .generateUniqueName(true)
+        .addScript("db/hsqldb/schema.sql")
+        .build();
+
+    private final VisitRollups visitRollups = new VisitRollups(new JdbcTemplate(database));
+
+    @AfterEach
+    void shutdown() {
+        database.shutdown();
+    }
+
+    @Test
+    void shouldCountVisitsPerDayAndPerPet() {
+        visitRollups.recordVisits(List.of(
+            visit("2013-01-01", 7),
+            visit("2013-01-01", 8),
+            visit("2013-01-03", 7)));
+        visitRollups.recordVisit(date("2013-01-03"), 8);
+        visitRollups.recordVisit(date("2012-12-31"), 7);
+        visitRollups.recordVisit(null, 9);
+
+        assertThat(visitRollups.findDaily(LocalDate.parse("2013-01-01"), LocalDate.parse("2013-01-31")))
+            .containsExactly(
+                new DailyVisits(LocalDate.parse("2013-01-01"), 2),
+                new DailyVisits(LocalDate.parse("2013-01-03"), 2));
+        assertThat(visitRollups.findByPetId(7))
+            .contains(new PetVisits(7, 3, LocalDate.parse("2013-01-03")));
+        assertThat(visitRollups.findByPetId(8))
+            .contains(new PetVisits(8, 2, LocalDate.parse("2013-01-03")));
+        // Undated visits are counted for their pet only
+        assertThat(visitRollups.findByPetId(9)).contains(new PetVisits(9, 1, null));
+        assertThat(visitRollups.findByPetId(10)).isEmpty();
+    }
+
+    private static RecordedVisit visit(String day, int petId) {
+        return new RecordedVisit(date(day), petId);
+    }
+
+    private static Date date(String day) {
+        return Date.valueOf(day);
+    }
+}
@@ -0,0 +1,47 @@
+package org.springframework.samples.petclinic.visits.web;
+
+import java.time.LocalDate;
+import java.util.Date;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.samples.petclinic.visits.model.Visit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class VisitCursorTest {
+
+    private static final Date JANUARY_1ST = VisitCursor.toDate(LocalDate.of(2013, 1, 1));
+
+    @Test
+    void shouldOrderUndatedVisitsAfterTheDatedOnes() {
+        VisitCursor dated = VisitCursor.after(visit(5, JANUARY_1ST));
+        VisitCursor undated = VisitCursor.after(visit(5, null));
+
+        assertThat(dated.precedes(visit(4, JANUARY_1ST))).isTrue();
+        assertThat(dated.precedes(visit(6, JANUARY_1ST))).isFalse();
+        assertThat(dated.precedes(visit(9, null))).isTrue();
+        assertThat(undated.precedes(visit(1, JANUARY_1ST))).isFalse();
+        assertThat(undated.precedes(visit(4, null))).isTrue();
+        assertThat(undated.precedes(visit(6, null))).isFalse();
+    }
+
+    @Test
+    void shouldRoundTripDatedAndUndatedTokens() {
+        VisitCursor undated = VisitCursor.after(visit(5, null));
+
+        assertThat(undated.token()).isEqualTo("_5");
+        assertThat(VisitCursor.parse(undated.token())).isEqualTo(undated);
+        VisitCursor dated = VisitCursor.after(visit(5, JANUARY_1ST));
+        assertThat(VisitCursor.parse(dated.token())).isEqualTo(dated);
+    }
+
+    @Test
+    void shouldUseTheSameZoneForTheBoundsAndTheRequestedDays() {
+        assertThat(VisitCursor.toDate(LocalDate.of(1000, 1, 1))).isEqualTo(VisitCursor.MIN_DATE);
+        assertThat(JANUARY_1ST).isEqualTo(java.sql.Date.valueOf(LocalDate.of(2013, 1, 1)));
+    }
+
+    private static Visit visit(int id, Date date) {
+        return Visit.VisitBuilder.aVisit().id(id).petId(7).date(date).build();
+    }
+}
@@ -1,22 +1,48 @@
 package org.springframework.samples.petclinic.visits.web;
 
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Limit;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.samples.petclinic.visits.archive.VisitArchive;
+import org.springframework.samples.petclinic.visits.ingest.VisitIngestionQueue;
 import org.springframework.samples.petclinic.visits.model.Visit;
+import org.springframework.samples.petclinic.visits.model.VisitBatchLoader;
 import org.springframework.samples.petclinic.visits.model.VisitRepository;
+import org.springframework.samples.petclinic.visits.model.VisitSummary;
+import org.springframework.samples.petclinic.visits.stats.VisitRollups;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
 
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(VisitResource.class)
+@Import(VisitBatchLoader.class)
 @ActiveProfiles("test")
 class VisitResourceTest {
 
@@ -26,9 +52,23 @@ class VisitResourceTest {
     @MockitoBean
     VisitRepository visitRepository;
 
+    @MockitoBean
+    VisitRollups visitRollups;
+
+    @MockitoBean
+    VisitArchive visitArchive;
+
+    @MockitoBean
+    VisitIngestionQueue visitIngestionQueue;
+
+    @BeforeEach
+    void archiveCutoff() {
+        given(visitArchive.cutoff()).willReturn(LocalDate.of(2015, 1, 1));
+    }
+
     @Test
     void shouldFetchVisits() throws Exception {
-        given(visitRepository.findByPetIdIn(asList(111, 222)))
+        given(visitRepository.findByPetIdIn(asList(111, 222, 222, 222, 222, 222, 222, 222)))
             .willReturn(
                 asList(
                     Visit.VisitBuilder.aVisit()
@@ -55,4 +95,192 @@ class VisitResourceTest {
             .andExpect(jsonPath("$.items[1].petId").value(222))
             .andExpect(jsonPath("$.items[2].petId").value(222));
     }
+
+    @Test
+    void shouldFetchVisitSummaries() throws Exception {
+        given(visitRepository.findSummariesByPetIdIn(asList(111, 111, 111, 111, 111, 111, 111, 111)))
+            .willReturn(
+                asList(
+                    new VisitSummary(1, 111, null, "x".repeat(VisitSummary.SNIPPET_LENGTH + 1)),
+                    new VisitSummary(2, 111, null, "rabies shot")
+                )
+            );
+
+        mvc.perform(get("/pets/visits?petId=111&summary=true"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.items[0].id").value(1))
+            .andExpect(jsonPath("$.items[0].description").value("x".repeat(VisitSummary.SNIPPET_LENGTH)))
+            .andExpect(jsonPath("$.items[0].truncated").value(true))
+            .andExpect(jsonPath("$.items[1].description").value("rabies shot"))
+            .andExpect(jsonPath("$.items[1].truncated").value(false));
+    }
+
+    @Test
+    void shouldFetchPageOfPetVisitsWithNextCursor() throws Exception {
+        Date date = new Date(1357084800000L);
+        given(visitRepository.findPageByPetId(eq(7), any(Date.class), any(Date.class), any(Date.class),
+            eq(Integer.MAX_VALUE), eq(false), eq(Limit.of(2))))
+            .willReturn(
+                asList(
+                    Visit.VisitBuilder.aVisit()
+                        .id(4)
+                        .petId(7)
+                        .date(date)
+                        .build(),
+                    Visit.VisitBuilder.aVisit()
+                        .id(1)
+                        .petId(7)
+                        .date(date)
+                        .build()
+                )
+            );
+
+        mvc.perform(get("/owners/1/pets/7/visits?from=2013-01-01&limit=2"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[0].id").value(4))
+            .andExpect(jsonPath("$[1].id").value(1))
+            .andExpect(header().string(VisitResource.NEXT_CURSOR_HEADER, "1357084800000_1"));
+    }
+
+    @Test
+    void shouldRejectMalformedCursor() throws Exception {
+        mvc.perform(get("/owners/1/pets/7/visits?cursor=oops"))
+            .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void shouldCreateVisitSynchronouslyWithoutPreference() throws Exception {
+        given(visitRepository.save(any(Visit.class))).willAnswer(invocation -> {
+            Visit visit = invocation.getArgument(0);
+            visit.setId(12);
+            return visit;
+        });
+
+        mvc.perform(post("/owners/1/pets/7/visits")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"date\":\"2013-01-01\",\"description\":\"rabies shot\"}"))
+            .andExpect(status().isCreated())
+            .andExpect(jsonPath("$.id").value(12))
+            .andExpect(jsonPath("$.petId").value(7));
+        verify(visitIngestionQueue, never()).offer(any());
+    }
+
+    @Test
+    void shouldAcceptVisitAsynchronouslyAmongOtherPreferences() throws Exception {
+        given(visitIngestionQueue.offer(any(Visit.class))).willReturn(Optional.of("ticket-1"));
+
+        mvc.perform(post("/owners/1/pets/7/visits")
+                .header("Prefer", "Respond-Async, wait=10")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"date\":\"2013-01-01\",\"description\":\"rabies shot\"}"))
+            .andExpect(status().isAccepted())
+            .andExpect(header().string(HttpHeaders.LOCATION, "/visits/ingestion/ticket-1"))
+            .andExpect(header().string("Preference-Applied", "respond-async"))
+            .andExpect(jsonPath("$.id").value("ticket-1"))
+            .andExpect(jsonPath("$.status").value("PENDING"));
+        verify(visitRepository, never()).save(any());
+    }
+
+    @Test
+    void shouldRefuseAsynchronousVisitWhenQueueIsFull() throws Exception {
+        given(visitIngestionQueue.offer(any(Visit.class))).willReturn(Optional.empty());
+
+        mvc.perform(post("/owners/1/pets/7/visits")
+                .header("Prefer", "wait=10; foo=bar")
+                .header("Prefer", "respond-async")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"description\":\"rabies shot\"}"))
+            .andExpect(status().isServiceUnavailable())
+            .andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+    }
+
+    @Test
+    void shouldFetchIngestionStatus() throws Exception {
+        given(visitIngestionQueue.status("ticket-1")).willReturn(Optional.of(VisitIngestionQueue.Status.FAILED));
+
+        mvc.perform(get("/visits/ingestion/ticket-1"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.id").value("ticket-1"))
+            .andExpect(jsonPath("$.status").value("FAILED"));
+        mvc.perform(get("/visits/ingestion/unknown"))
+            .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void shouldParsePreferTokens() {
+        assertThat(VisitResource.prefersRespondAsync(null)).isFalse();
+        assertThat(VisitResource.prefersRespondAsync(List.of("wait=10"))).isFalse();
+        assertThat(VisitResource.prefersRespondAsync(List.of("respond-asynchronously"))).isFalse();
+        assertThat(VisitResource.prefersRespondAsync(List.of("return=minimal, respond-async; x=1"))).isTrue();
+        assertThat(VisitResource.prefersRespondAsync(List.of(" respond-async=\"\""))).isTrue();
+    }
+
+    @Test
+    void shouldListArchivedVisitsBeforeDatabaseOnesOldestFirst() throws Exception {
+        given(visitRepository.findByPetId(7)).willReturn(asList(
+            visit(12, 7, LocalDate.of(2020, 3, 1)),
+            visit(9, 7, LocalDate.of(2020, 1, 1)),
+            visit(13, 7, null)));
+        given(visitArchive.findByPetId(7)).willReturn(asList(
+            visit(1, 7, LocalDate.of(2012, 1, 1)),
+            visit(5, 7, LocalDate.of(2012, 6, 1)),
+            // Archived while the database was read
+            visit(9, 7, LocalDate.of(2020, 1, 1))));
+
+        mvc.perform(get("/owners/1/pets/7/visits"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[*].id").value(contains(1, 5, 9, 12, 13)));
+    }
+
+    @Test
+    void shouldRegroupArchivedAndDatabaseVisitsByPet() throws Exception {
+        given(visitRepository.findByPetIdIn(asList(7, 8, 8, 8, 8, 8, 8, 8))).willReturn(asList(
+            visit(12, 7, LocalDate.of(2020, 3, 1)),
+            visit(10, 8, LocalDate.of(2020, 2, 1)),
+            visit(9, 7, LocalDate.of(2020, 1, 1))));
+        given(visitArchive.findByPetIds(List.of(7, 8)))
+            .willReturn(Map.of(7, List.of(visit(1, 7, LocalDate.of(2012, 1, 1)))));
+
+        mvc.perform(get("/pets/visits?petId=7,8"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.items[*].id").value(contains(1, 9, 12, 10)));
+    }
+
+    @Test
+    void shouldSkipArchiveWhenPageIsNewerThanCutoff() throws Exception {
+        given(visitRepository.findPageByPetId(eq(7), any(Date.class), any(Date.class), any(Date.class),
+            eq(Integer.MAX_VALUE), eq(false), eq(Limit.of(2))))
+            .willReturn(asList(visit(12, 7, LocalDate.of(2020, 3, 1)), visit(9, 7, LocalDate.of(2020, 1, 1))));
+
+        mvc.perform(get("/owners/1/pets/7/visits?from=2010-01-01&limit=2"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[*].id").value(contains(12, 9)));
+        mvc.perform(get("/owners/1/pets/7/visits?from=2016-01-01"))
+            .andExpect(status().isOk());
+        verify(visitArchive, never()).findPageByPetId(anyInt(), any(), any(), any(), anyInt());
+    }
+
+    @Test
+    void shouldCompletePageWithArchivedVisits() throws Exception {
+        given(visitRepository.findPageByPetId(eq(7), any(Date.class), any(Date.class), any(Date.class),
+            eq(Integer.MAX_VALUE), eq(true), eq(Limit.of(3))))
+            .willReturn(asList(visit(12, 7, LocalDate.of(2020, 3, 1))));
+        given(visitArchive.findPageByPetId(eq(7), isNull(), isNull(), any(), eq(3))).willReturn(asList(
+            visit(5, 7, LocalDate.of(2012, 6, 1)),
+            visit(1, 7, LocalDate.of(2012, 1, 1))));
+
+        mvc.perform(get("/owners/1/pets/7/visits?limit=3"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$[*].id").value(contains(12, 5, 1)))
+            .andExpect(header().string(VisitResource.NEXT_CURSOR_HEADER,
+                VisitCursor.toDate(LocalDate.of(2012, 1, 1)).getTime() + "_1"));
+    }
+
+    private static Visit visit(int id, int petId, LocalDate date) {
+        return Visit.VisitBuilder.aVisit()
+            .id(id)
+            .petId(petId)
+            .date(date == null ? null : VisitCursor.toDate(date))
+            .build();
+    }
 }
@@ -0,0 +1,85 @@
+package org.springframework.samples.petclinic.visits.web;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
+import org.springframework.samples.petclinic.visits.stats.VisitRollupRebuilder;
+import org.springframework.samples.petclinic.visits.stats.VisitRollups;
+import org.springframework.samples.petclinic.visits.stats.VisitRollups.DailyVisits;
+import org.springframework.samples.petclinic.visits.stats.VisitRollups.PetVisits;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@WebMvcTest(VisitStatsResource.class)
+@ActiveProfiles("test")
+class VisitStatsResourceTest {
+
+    @Autowired
+    MockMvc mvc;
+
+    @MockitoBean
+    VisitRollups visitRollups;
+
+    @MockitoBean
+    VisitRollupRebuilder visitRollupRebuilder;
+
+    @Test
+    void shouldSumDailyCounters() throws Exception {
+        given(visitRollups.findDaily(LocalDate.parse("2013-01-01"), LocalDate.parse("2013-01-31")))
+            .willReturn(List.of(
+                new DailyVisits(LocalDate.parse("2013-01-01"), 2),
+                new DailyVisits(LocalDate.parse("2013-01-04"), 3)));
+
+        mvc.perform(get("/visits/stats/daily?from=2013-01-01&to=2013-01-31"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.total").value(5))
+            .andExpect(jsonPath("$.days[1].date").value("2013-01-04"))
+            .andExpect(jsonPath("$.days[1].count").value(3));
+    }
+
+    @Test
+    void shouldRejectReversedOrTooLongRanges() throws Exception {
+        mvc.perform(get("/visits/stats/daily?from=2013-01-02&to=2013-01-01"))
+            .andExpect(status().isBadRequest());
+        mvc.perform(get("/visits/stats/daily?from=2012-01-01&to=2013-01-01"))
+            .andExpect(status().isBadRequest());
+        verify(visitRollups, never()).findDaily(any(), any());
+    }
+
+    @Test
+    void shouldReturnZeroForPetsWithoutVisits() throws Exception {
+        given(visitRollups.findByPetId(7)).willReturn(Optional.of(new PetVisits(7, 4, LocalDate.parse("2013-01-04"))));
+
+        mvc.perform(get("/visits/stats/pets/7"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.count").value(4))
+            .andExpect(jsonPath("$.lastVisitDate").value("2013-01-04"));
+        mvc.perform(get("/visits/stats/pets/8"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.petId").value(8))
+            .andExpect(jsonPath("$.count").value(0));
+    }
+
+    @Test
+    void shouldRebuildCounters() throws Exception {
+        given(visitRollupRebuilder.rebuild()).willReturn(12);
+
+        mvc.perform(post("/visits/stats/rebuild"))
+            .andExpect(status().isOk())
+            .andExpect(jsonPath("$.chunks").value(12));
+    }
+}